@@ -52,7 +52,9 @@ import de.tudarmstadt.ukp.clarin.webanno.agreement.results.coding.CodingAgreemen
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.Configuration;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.ConfigurationSet;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.DiffResult;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.LinkCompareBehavior;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.api.DiffAdapter;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.api.Position;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.relation.RelationDiffAdapter;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.relation.RelationPosition;
@@ -62,7 +64,21 @@ public class AgreementUtils
     public static CodingAgreementResult makeCodingStudy(CasDiff aDiff, String aType,
             String aFeature, boolean aExcludeIncomplete, Map<String, List<CAS>> aCasMap)
     {
-        return makeCodingStudy(aDiff, aCasMap.keySet(), aType, aFeature, aExcludeIncomplete, true,
+        return makeCodingStudy(aDiff.toResult(), aDiff.getTypeAdapters(), aCasMap.keySet(), aType,
+                aFeature, aExcludeIncomplete, true, aCasMap);
+    }
+
+    /**
+     * Builds the coding study for the given users from a diff which may include further users.
+     * The study is the same as if the diff had been calculated only over the CASes of the given
+     * users. This allows deriving all pairwise studies from a single diff.
+     */
+    public static CodingAgreementResult makeCodingStudy(CasDiff aDiff, Collection<String> aUsers,
+            String aType, String aFeature, boolean aExcludeIncomplete,
+            Map<String, List<CAS>> aCasMap)
+    {
+        return makeCodingStudy(aDiff.toResult().getResultForCasGroups(aUsers),
+                aDiff.getTypeAdapters(), aUsers, aType, aFeature, aExcludeIncomplete, true,
                 aCasMap);
     }
 
@@ -81,8 +97,9 @@ public class AgreementUtils
         return null;
     }
 
-    private static CodingAgreementResult makeCodingStudy(CasDiff aDiff, Collection<String> aUsers,
-            String aType, String aFeature, boolean aExcludeIncomplete, boolean aNullLabelsAsEmpty,
+    private static CodingAgreementResult makeCodingStudy(DiffResult aDiff,
+            Map<String, DiffAdapter> aAdapters, Collection<String> aUsers, String aType,
+            String aFeature, boolean aExcludeIncomplete, boolean aNullLabelsAsEmpty,
             Map<String, List<CAS>> aCasMap)
     {
         List<String> users = new ArrayList<>(aUsers);
@@ -105,7 +122,7 @@ public class AgreementUtils
             // All positions are irrelevant
             aDiff.getPositions().forEach(p -> irrelevantSets.add(aDiff.getConfigurationSet(p)));
 
-            return new CodingAgreementResult(aType, aFeature, aDiff.toResult(), study, users,
+            return new CodingAgreementResult(aType, aFeature, aDiff, study, users,
                     completeSets, irrelevantSets, setsWithDifferences, incompleteSetsByPosition,
                     incompleteSetsByLabel, pluralitySets, aExcludeIncomplete);
         }
@@ -117,7 +134,7 @@ public class AgreementUtils
             // All positions are irrelevant
             aDiff.getPositions().forEach(p -> irrelevantSets.add(aDiff.getConfigurationSet(p)));
 
-            return new CodingAgreementResult(aType, aFeature, aDiff.toResult(), study, users,
+            return new CodingAgreementResult(aType, aFeature, aDiff, study, users,
                     completeSets, irrelevantSets, setsWithDifferences, incompleteSetsByPosition,
                     incompleteSetsByLabel, pluralitySets, aExcludeIncomplete);
         }
@@ -200,7 +217,7 @@ public class AgreementUtils
                     RelationPosition pos = (RelationPosition) cfg.getPosition();
                     FeatureStructure arc = cfg.getFs(user, pos.getCasId(), aCasMap);
 
-                    RelationDiffAdapter adapter = (RelationDiffAdapter) aDiff.getTypeAdapters()
+                    RelationDiffAdapter adapter = (RelationDiffAdapter) aAdapters
                             .get(pos.getType());
 
                     // Check if the source of the relation is stacked
@@ -260,7 +277,7 @@ public class AgreementUtils
             study.addItemAsArray(values);
         }
 
-        return new CodingAgreementResult(aType, aFeature, aDiff.toResult(), study, users,
+        return new CodingAgreementResult(aType, aFeature, aDiff, study, users,
                 completeSets, irrelevantSets, setsWithDifferences, incompleteSetsByPosition,
                 incompleteSetsByLabel, pluralitySets, aExcludeIncomplete);
     }
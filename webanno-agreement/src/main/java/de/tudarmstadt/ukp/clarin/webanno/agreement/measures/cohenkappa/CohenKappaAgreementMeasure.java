@@ -18,10 +18,11 @@
 package de.tudarmstadt.ukp.clarin.webanno.agreement.measures.cohenkappa;
 
 import static de.tudarmstadt.ukp.clarin.webanno.agreement.AgreementUtils.makeCodingStudy;
-import static de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.doDiff;
+import static de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.doDiffParallel;
 import static de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.getDiffAdapters;
 import static java.util.Arrays.asList;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
@@ -50,17 +51,22 @@ public class CohenKappaAgreementMeasure
     }
 
     @Override
-    public CodingAgreementResult calculatePairAgreement(Map<String, List<CAS>> aCasMap)
+    protected CasDiff calculateDiff(Map<String, List<CAS>> aCasMap)
     {
-        AnnotationFeature feature = getFeature();
-        DefaultAgreementTraits traits = getTraits();
+        List<DiffAdapter> adapters = getDiffAdapters(annotationService,
+                asList(getFeature().getLayer()));
 
-        List<DiffAdapter> adapters = getDiffAdapters(annotationService, asList(feature.getLayer()));
+        return doDiffParallel(adapters, getTraits().getLinkCompareBehavior(), aCasMap);
+    }
 
-        CasDiff diff = doDiff(adapters, traits.getLinkCompareBehavior(), aCasMap);
+    @Override
+    protected CodingAgreementResult calculatePairAgreement(CasDiff aDiff,
+            Collection<String> aUsers, Map<String, List<CAS>> aCasMap)
+    {
+        AnnotationFeature feature = getFeature();
 
-        CodingAgreementResult agreementResult = makeCodingStudy(diff, feature.getLayer().getName(),
-                feature.getName(), true, aCasMap);
+        CodingAgreementResult agreementResult = makeCodingStudy(aDiff, aUsers,
+                feature.getLayer().getName(), feature.getName(), true, aCasMap);
 
         IAgreementMeasure agreement = new CohenKappaAgreement(agreementResult.getStudy());
 
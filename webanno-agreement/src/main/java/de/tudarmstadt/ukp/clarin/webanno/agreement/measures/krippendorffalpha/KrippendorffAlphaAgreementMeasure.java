@@ -18,11 +18,12 @@
 package de.tudarmstadt.ukp.clarin.webanno.agreement.measures.krippendorffalpha;
 
 import static de.tudarmstadt.ukp.clarin.webanno.agreement.AgreementUtils.makeCodingStudy;
-import static de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.doDiff;
+import static de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.doDiffParallel;
 import static de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.getDiffAdapters;
 import static java.lang.Double.NaN;
 import static java.util.Arrays.asList;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
@@ -52,17 +53,24 @@ public class KrippendorffAlphaAgreementMeasure
     }
 
     @Override
-    public CodingAgreementResult calculatePairAgreement(Map<String, List<CAS>> aCasMap)
+    protected CasDiff calculateDiff(Map<String, List<CAS>> aCasMap)
     {
-        AnnotationFeature feature = getFeature();
-        KrippendorffAlphaAgreementTraits traits = getTraits();
+        List<DiffAdapter> adapters = getDiffAdapters(annotationService,
+                asList(getFeature().getLayer()));
 
-        List<DiffAdapter> adapters = getDiffAdapters(annotationService, asList(feature.getLayer()));
+        return doDiffParallel(adapters, getTraits().getLinkCompareBehavior(), aCasMap);
+    }
 
-        CasDiff diff = doDiff(adapters, traits.getLinkCompareBehavior(), aCasMap);
+    @Override
+    protected CodingAgreementResult calculatePairAgreement(CasDiff aDiff,
+            Collection<String> aUsers, Map<String, List<CAS>> aCasMap)
+    {
+        AnnotationFeature feature = getFeature();
+        KrippendorffAlphaAgreementTraits traits = getTraits();
 
-        CodingAgreementResult agreementResult = makeCodingStudy(diff, feature.getLayer().getName(),
-                feature.getName(), traits.isExcludeIncomplete(), aCasMap);
+        CodingAgreementResult agreementResult = makeCodingStudy(aDiff, aUsers,
+                feature.getLayer().getName(), feature.getName(), traits.isExcludeIncomplete(),
+                aCasMap);
 
         IAgreementMeasure agreement = new KrippendorffAlphaAgreement(agreementResult.getStudy(),
                 new NominalDistanceFunction());
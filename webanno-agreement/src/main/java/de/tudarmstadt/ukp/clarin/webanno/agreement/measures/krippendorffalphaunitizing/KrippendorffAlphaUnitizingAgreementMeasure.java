@@ -60,16 +60,21 @@ public class KrippendorffAlphaUnitizingAgreementMeasure
     {
         PairwiseAnnotationResult<UnitizingAgreementResult> result = new PairwiseAnnotationResult<>(
                 getFeature(), getTraits());
-        List<Entry<String, List<CAS>>> entryList = new ArrayList<>(aCasMap.entrySet());
-        for (int m = 0; m < entryList.size(); m++) {
-            for (int n = 0; n < entryList.size(); n++) {
+
+        // The units are extracted from the CASes of each user only once and then shared by all
+        // pairs the user is part of
+        Map<String, RaterUnits> unitsByUser = extractUnits(aCasMap);
+
+        List<String> users = new ArrayList<>(aCasMap.keySet());
+        for (int m = 0; m < users.size(); m++) {
+            for (int n = 0; n < users.size(); n++) {
                 // Triangle matrix mirrored
                 if (n < m) {
-                    Map<String, List<CAS>> pairwiseCasMap = new LinkedHashMap<>();
-                    pairwiseCasMap.put(entryList.get(m).getKey(), entryList.get(m).getValue());
-                    pairwiseCasMap.put(entryList.get(n).getKey(), entryList.get(n).getValue());
-                    UnitizingAgreementResult res = calculatePairAgreement(pairwiseCasMap);
-                    result.add(entryList.get(m).getKey(), entryList.get(n).getKey(), res);
+                    Map<String, RaterUnits> pairwiseUnits = new LinkedHashMap<>();
+                    pairwiseUnits.put(users.get(m), unitsByUser.get(users.get(m)));
+                    pairwiseUnits.put(users.get(n), unitsByUser.get(users.get(n)));
+                    UnitizingAgreementResult res = calculateAgreement(pairwiseUnits);
+                    result.add(users.get(m), users.get(n), res);
                 }
             }
         }
@@ -77,58 +82,81 @@ public class KrippendorffAlphaUnitizingAgreementMeasure
     }
 
     public UnitizingAgreementResult calculatePairAgreement(Map<String, List<CAS>> aCasMap)
+    {
+        return calculateAgreement(extractUnits(aCasMap));
+    }
+
+    private Map<String, RaterUnits> extractUnits(Map<String, List<CAS>> aCasMap)
     {
         String typeName = getFeature().getLayer().getName();
 
-        // Calculate a character offset continuum over all CASses. We assume here that the documents
-        // all have the same size - since the users cannot change the document sizes, this should be
-        // an universally true assumption.
-        List<CAS> firstUserCasses = aCasMap.values().stream().findFirst().get();
-        int docCount = firstUserCasses.size();
-        int[] docSizes = new int[docCount];
-        Arrays.fill(docSizes, 0);
+        Map<String, RaterUnits> unitsByUser = new LinkedHashMap<>();
         for (Entry<String, List<CAS>> set : aCasMap.entrySet()) {
+            RaterUnits units = new RaterUnits(set.getValue().size());
             int i = 0;
             for (CAS cas : set.getValue()) {
+                // If a user has never worked on a source document, its CAS is null here - we
+                // skip it.
                 if (cas != null) {
-                    assert docSizes[i] == 0 || docSizes[i] == cas.getDocumentText().length();
+                    units.docSizes[i] = cas.getDocumentText().length();
 
-                    docSizes[i] = cas.getDocumentText().length();
+                    Type t = cas.getTypeSystem().getType(typeName);
+                    Feature f = t.getFeatureByBaseName(getFeature().getName());
+                    int docIndex = i;
+                    cas.select(t).map(fs -> (AnnotationFS) fs).forEach(fs -> {
+                        units.add(docIndex, fs.getBegin(), fs.getEnd() - fs.getBegin(),
+                                FSUtil.getFeature(fs, f, Object.class));
+                    });
                 }
                 i++;
             }
+            unitsByUser.put(set.getKey(), units);
+        }
+        return unitsByUser;
+    }
+
+    private UnitizingAgreementResult calculateAgreement(Map<String, RaterUnits> aUnits)
+    {
+        String typeName = getFeature().getLayer().getName();
+
+        // Calculate a character offset continuum over all CASses. We assume here that the documents
+        // all have the same size - since the users cannot change the document sizes, this should be
+        // an universally true assumption.
+        int docCount = aUnits.values().stream().findFirst().get().docSizes.length;
+        int[] docSizes = new int[docCount];
+        Arrays.fill(docSizes, 0);
+        for (RaterUnits units : aUnits.values()) {
+            for (int i = 0; i < units.docSizes.length; i++) {
+                if (units.docSizes[i] != 0) {
+                    assert docSizes[i] == 0 || docSizes[i] == units.docSizes[i];
+
+                    docSizes[i] = units.docSizes[i];
+                }
+            }
         }
         int continuumSize = Arrays.stream(docSizes).sum();
 
+        int[] docOffsets = new int[docCount];
+        for (int i = 1; i < docCount; i++) {
+            docOffsets[i] = docOffsets[i - 1] + docSizes[i - 1];
+        }
+
         // Create a unitizing study for that continuum.
         UnitizingAnnotationStudy study = new UnitizingAnnotationStudy(continuumSize);
 
-        // For each annotator, extract the feature values from all the annotator's CASses and add
-        // them to the unitizing study based on character offsets.
-        for (Entry<String, List<CAS>> set : aCasMap.entrySet()) {
+        // For each annotator, add the feature values from all the annotator's CASses to the
+        // unitizing study based on character offsets.
+        for (Entry<String, RaterUnits> set : aUnits.entrySet()) {
             int raterIdx = study.addRater(set.getKey());
-            int docOffset = 0;
-            int i = 0;
-            for (CAS cas : set.getValue()) {
-                // If a user has never worked on a source document, its CAS is null here - we
-                // skip it.
-                if (cas != null) {
-                    Type t = cas.getTypeSystem().getType(typeName);
-                    Feature f = t.getFeatureByBaseName(getFeature().getName());
-                    int currentDocOffset = docOffset;
-                    cas.select(t).map(fs -> (AnnotationFS) fs).forEach(fs -> {
-                        study.addUnit(currentDocOffset + fs.getBegin(), fs.getEnd() - fs.getBegin(),
-                                raterIdx, FSUtil.getFeature(fs, f, Object.class));
-                    });
-                }
-
-                docOffset += docSizes[i];
-                i++;
+            RaterUnits units = set.getValue();
+            for (int u = 0; u < units.labels.size(); u++) {
+                study.addUnit(docOffsets[units.docIndexes.get(u)] + units.begins.get(u),
+                        units.lengths.get(u), raterIdx, units.labels.get(u));
             }
         }
 
         UnitizingAgreementResult result = new UnitizingAgreementResult(typeName,
-                getFeature().getName(), study, new ArrayList<>(aCasMap.keySet()),
+                getFeature().getName(), study, new ArrayList<>(aUnits.keySet()),
                 getTraits().isExcludeIncomplete());
 
         IAgreementMeasure agreement = new KrippendorffAlphaUnitizingAgreement(study);
@@ -142,4 +170,30 @@ public class KrippendorffAlphaUnitizingAgreementMeasure
 
         return result;
     }
+
+    /**
+     * The units annotated by a single user across all documents. The offsets are relative to the
+     * respective document.
+     */
+    private static class RaterUnits
+    {
+        private final int[] docSizes;
+        private final List<Integer> docIndexes = new ArrayList<>();
+        private final List<Integer> begins = new ArrayList<>();
+        private final List<Integer> lengths = new ArrayList<>();
+        private final List<Object> labels = new ArrayList<>();
+
+        public RaterUnits(int aDocCount)
+        {
+            docSizes = new int[aDocCount];
+        }
+
+        public void add(int aDocIndex, int aBegin, int aLength, Object aLabel)
+        {
+            docIndexes.add(aDocIndex);
+            begins.add(aBegin);
+            lengths.add(aLength);
+            labels.add(aLabel);
+        }
+    }
 }
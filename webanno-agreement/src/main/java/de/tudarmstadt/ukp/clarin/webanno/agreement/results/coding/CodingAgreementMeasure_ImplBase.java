@@ -17,17 +17,19 @@
  */
 package de.tudarmstadt.ukp.clarin.webanno.agreement.results.coding;
 
+import static java.util.Arrays.asList;
+
 import java.util.ArrayList;
-import java.util.LinkedHashMap;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 
 import org.apache.uima.cas.CAS;
 
 import de.tudarmstadt.ukp.clarin.webanno.agreement.PairwiseAnnotationResult;
 import de.tudarmstadt.ukp.clarin.webanno.agreement.measures.AgreementMeasure_ImplBase;
 import de.tudarmstadt.ukp.clarin.webanno.agreement.measures.DefaultAgreementTraits;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
 
 public abstract class CodingAgreementMeasure_ImplBase<T extends DefaultAgreementTraits>
@@ -44,21 +46,39 @@ public abstract class CodingAgreementMeasure_ImplBase<T extends DefaultAgreement
     {
         PairwiseAnnotationResult<CodingAgreementResult> result = new PairwiseAnnotationResult<>(
                 getFeature(), getTraits());
-        List<Entry<String, List<CAS>>> entryList = new ArrayList<>(aCasMap.entrySet());
-        for (int m = 0; m < entryList.size(); m++) {
-            for (int n = 0; n < entryList.size(); n++) {
+
+        // The pairwise studies are all derived from a single diff over the CASes of all users
+        CasDiff diff = calculateDiff(aCasMap);
+
+        List<String> users = new ArrayList<>(aCasMap.keySet());
+        for (int m = 0; m < users.size(); m++) {
+            for (int n = 0; n < users.size(); n++) {
                 // Triangle matrix mirrored
                 if (n < m) {
-                    Map<String, List<CAS>> pairwiseCasMap = new LinkedHashMap<>();
-                    pairwiseCasMap.put(entryList.get(m).getKey(), entryList.get(m).getValue());
-                    pairwiseCasMap.put(entryList.get(n).getKey(), entryList.get(n).getValue());
-                    CodingAgreementResult res = calculatePairAgreement(pairwiseCasMap);
-                    result.add(entryList.get(m).getKey(), entryList.get(n).getKey(), res);
+                    CodingAgreementResult res = calculatePairAgreement(diff,
+                            asList(users.get(m), users.get(n)), aCasMap);
+                    result.add(users.get(m), users.get(n), res);
                 }
             }
         }
         return result;
     }
 
-    public abstract CodingAgreementResult calculatePairAgreement(Map<String, List<CAS>> aCasMap);
+    public CodingAgreementResult calculatePairAgreement(Map<String, List<CAS>> aCasMap)
+    {
+        return calculatePairAgreement(calculateDiff(aCasMap), aCasMap.keySet(), aCasMap);
+    }
+
+    /**
+     * @return the differences between the CASes of all the given users with respect to the layer
+     *         of the feature.
+     */
+    protected abstract CasDiff calculateDiff(Map<String, List<CAS>> aCasMap);
+
+    /**
+     * Calculates the agreement between the given users. The diff may include further users which
+     * are ignored.
+     */
+    protected abstract CodingAgreementResult calculatePairAgreement(CasDiff aDiff,
+            Collection<String> aUsers, Map<String, List<CAS>> aCasMap);
 }
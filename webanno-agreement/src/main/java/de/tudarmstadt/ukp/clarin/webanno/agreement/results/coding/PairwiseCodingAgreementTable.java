@@ -19,7 +19,7 @@ package de.tudarmstadt.ukp.clarin.webanno.agreement.results.coding;
 
 import static de.tudarmstadt.ukp.clarin.webanno.agreement.AgreementReportExportFormat.CSV;
 import static de.tudarmstadt.ukp.clarin.webanno.agreement.AgreementUtils.makeCodingStudy;
-import static de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.doDiff;
+import static de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.doDiffParallel;
 import static de.tudarmstadt.ukp.clarin.webanno.support.lambda.LambdaBehavior.enabledWhen;
 import static de.tudarmstadt.ukp.clarin.webanno.support.lambda.LambdaBehavior.visibleWhen;
 import static java.util.Arrays.asList;
@@ -409,7 +409,7 @@ public class PairwiseCodingAgreementTable
                 List<DiffAdapter> adapters = CasDiff.getDiffAdapters(annotationService,
                         asList(feature.getLayer()));
 
-                CasDiff diff = doDiff(adapters, traits.getLinkCompareBehavior(), casMap);
+                CasDiff diff = doDiffParallel(adapters, traits.getLinkCompareBehavior(), casMap);
 
                 // AgreementResult agreementResult = AgreementUtils.makeStudy(diff,
                 // feature.getLayer().getName(), feature.getName(),
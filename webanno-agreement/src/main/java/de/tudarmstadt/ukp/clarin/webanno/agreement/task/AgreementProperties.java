@@ -0,0 +1,76 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.agreement.task;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Component
+@ConfigurationProperties("agreement")
+public class AgreementProperties
+{
+    private int threads = 2;
+    private final ResultCacheOptions resultCache = new ResultCacheOptions();
+
+    /**
+     * @return number of agreement calculations which run in parallel.
+     */
+    public int getThreads()
+    {
+        return threads;
+    }
+
+    public void setThreads(int aThreads)
+    {
+        threads = aThreads;
+    }
+
+    public ResultCacheOptions getResultCache()
+    {
+        return resultCache;
+    }
+
+    public static class ResultCacheOptions
+    {
+        private boolean enabled = true;
+        private long maxSize = 20;
+
+        public boolean isEnabled()
+        {
+            return enabled;
+        }
+
+        public void setEnabled(boolean aEnabled)
+        {
+            enabled = aEnabled;
+        }
+
+        /**
+         * @return maximum number of agreement results which are kept in memory.
+         */
+        public long getMaxSize()
+        {
+            return maxSize;
+        }
+
+        public void setMaxSize(long aMaxSize)
+        {
+            maxSize = aMaxSize;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.agreement.task;
+
+import java.io.Serializable;
+
+import de.tudarmstadt.ukp.clarin.webanno.agreement.measures.DefaultAgreementTraits;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+
+public class AgreementRequest
+    implements Serializable
+{
+    private static final long serialVersionUID = -3795325620418410497L;
+
+    private final AnnotationFeature feature;
+    private final String measure;
+    private final DefaultAgreementTraits traits;
+
+    /**
+     * @param aFeature
+     *            the feature for which the agreement is calculated.
+     * @param aMeasure
+     *            the ID of the agreement measure support.
+     * @param aTraits
+     *            the traits of the measure.
+     */
+    public AgreementRequest(AnnotationFeature aFeature, String aMeasure,
+            DefaultAgreementTraits aTraits)
+    {
+        feature = aFeature;
+        measure = aMeasure;
+        traits = aTraits;
+    }
+
+    public Project getProject()
+    {
+        return feature.getProject();
+    }
+
+    public AnnotationFeature getFeature()
+    {
+        return feature;
+    }
+
+    public String getMeasure()
+    {
+        return measure;
+    }
+
+    public DefaultAgreementTraits getTraits()
+    {
+        return traits;
+    }
+}
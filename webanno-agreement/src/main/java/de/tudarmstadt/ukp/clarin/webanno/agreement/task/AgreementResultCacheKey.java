@@ -0,0 +1,91 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.agreement.task;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Objects;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Identifies an agreement result. Next to the feature, the measure and its traits, the key
+ * contains the timestamps of all CASes which are included in the calculation. If a CAS is changed,
+ * added or excluded (e.g. because its document is no longer marked as finished), the key changes.
+ */
+final class AgreementResultCacheKey
+{
+    private final long projectId;
+    private final long featureId;
+    private final String measure;
+    private final byte[] traits;
+    private final SortedMap<String, Long> casTimestamps;
+
+    /**
+     * @param aTraits
+     *            the serialized traits of the measure.
+     * @param aCasTimestamps
+     *            the timestamps of the included CASes by user and document.
+     */
+    AgreementResultCacheKey(long aProjectId, long aFeatureId, String aMeasure, byte[] aTraits,
+            SortedMap<String, Long> aCasTimestamps)
+    {
+        projectId = aProjectId;
+        featureId = aFeatureId;
+        measure = aMeasure;
+        traits = aTraits;
+        casTimestamps = Collections.unmodifiableSortedMap(new TreeMap<>(aCasTimestamps));
+    }
+
+    public long getProjectId()
+    {
+        return projectId;
+    }
+
+    public long getFeatureId()
+    {
+        return featureId;
+    }
+
+    @Override
+    public boolean equals(final Object other)
+    {
+        if (!(other instanceof AgreementResultCacheKey)) {
+            return false;
+        }
+        AgreementResultCacheKey castOther = (AgreementResultCacheKey) other;
+        return projectId == castOther.projectId && featureId == castOther.featureId
+                && Objects.equals(measure, castOther.measure)
+                && Arrays.equals(traits, castOther.traits)
+                && casTimestamps.equals(castOther.casTimestamps);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Objects.hash(projectId, featureId, measure, Arrays.hashCode(traits),
+                casTimestamps);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "[" + projectId + "/" + featureId + "/" + measure + "@" + casTimestamps.size()
+                + " CASes]";
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.agreement.task;
+
+import java.util.List;
+import java.util.Map;
+
+import org.apache.uima.cas.CAS;
+
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+
+/**
+ * Calculates agreement in the background. Results are cached and re-used as long as the
+ * annotations from which they were calculated do not change.
+ */
+public interface AgreementService
+{
+    String SERVICE_NAME = "agreementService";
+
+    AgreementTaskHandle startAgreementTask(AgreementRequest aRequest, String aUsername);
+
+    AgreementRequest getAgreementRequest(AgreementTaskHandle aHandle);
+
+    AgreementTaskMonitor getTaskMonitor(AgreementTaskHandle aHandle);
+
+    boolean cancelTask(AgreementTaskHandle aHandle);
+
+    /**
+     * Loads the annotations of all annotators in the given project. If a user has not worked on a
+     * document yet, the initial CAS of the document is used. The lists for all users have the
+     * same size and contain a {@code null} value for every document which is not included.
+     * 
+     * @param aProject
+     *            the project.
+     * @param aLimitToFinishedDocuments
+     *            whether only documents which the user has marked as finished are included.
+     * @return the CASes by user.
+     */
+    Map<String, List<CAS>> loadCasMap(Project aProject, boolean aLimitToFinishedDocuments);
+}
@@ -0,0 +1,391 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.agreement.task;
+
+import static de.tudarmstadt.ukp.clarin.webanno.agreement.task.AgreementTaskState.NOT_STARTED;
+import static de.tudarmstadt.ukp.clarin.webanno.agreement.task.AgreementTaskState.RUNNING;
+import static de.tudarmstadt.ukp.clarin.webanno.api.CasUpgradeMode.AUTO_CAS_UPGRADE;
+import static de.tudarmstadt.ukp.clarin.webanno.api.casstorage.CasAccessMode.SHARED_READ_ONLY_ACCESS;
+import static de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState.FINISHED;
+import static de.tudarmstadt.ukp.clarin.webanno.model.PermissionLevel.ANNOTATOR;
+import static java.util.Arrays.asList;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Optional;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.commons.lang3.SerializationUtils;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.apache.commons.lang3.tuple.Pair;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.FeatureStructure;
+import org.apache.uima.fit.util.FSUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.AutowireCapableBeanFactory;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.util.ConcurrentReferenceHashMap;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
+import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
+import de.tudarmstadt.ukp.clarin.webanno.api.ProjectService;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil;
+import de.tudarmstadt.ukp.clarin.webanno.api.casstorage.LoadedCas;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.LayerConfigurationChangedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+import de.tudarmstadt.ukp.clarin.webanno.security.model.User;
+import de.tudarmstadt.ukp.clarin.webanno.support.logging.LogMessage;
+
+@Component(AgreementService.SERVICE_NAME)
+public class AgreementServiceImpl
+    implements AgreementService, DisposableBean
+{
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final Map<AgreementTaskHandle, TaskInfo> tasks = new ConcurrentReferenceHashMap<>();
+    private final ApplicationContext applicationContext;
+    private final DocumentService documentService;
+    private final ProjectService projectService;
+    private final CasStorageService casStorageService;
+    private final AgreementProperties properties;
+    private final Cache<AgreementResultCacheKey, Serializable> resultCache;
+    private final ExecutorService taskExecutorService;
+    private final ScheduledExecutorService cleaningScheduler;
+
+    @Autowired
+    public AgreementServiceImpl(ApplicationContext aApplicationContext,
+            DocumentService aDocumentService, ProjectService aProjectService,
+            CasStorageService aCasStorageService, AgreementProperties aProperties)
+    {
+        applicationContext = aApplicationContext;
+        documentService = aDocumentService;
+        projectService = aProjectService;
+        casStorageService = aCasStorageService;
+        properties = aProperties;
+
+        resultCache = Caffeine.newBuilder() //
+                .maximumSize(properties.getResultCache().getMaxSize()) //
+                .build();
+
+        taskExecutorService = Executors.newFixedThreadPool(Math.max(1, properties.getThreads()));
+
+        cleaningScheduler = Executors.newScheduledThreadPool(1);
+        cleaningScheduler.scheduleAtFixedRate(this::cleanUp, 15, 15, TimeUnit.MINUTES);
+    }
+
+    @Override
+    public void destroy() throws Exception
+    {
+        taskExecutorService.shutdownNow();
+        cleaningScheduler.shutdownNow();
+    }
+
+    @Override
+    public AgreementTaskHandle startAgreementTask(AgreementRequest aRequest, String aUsername)
+    {
+        AgreementTaskHandle handle = new AgreementTaskHandle();
+        AgreementTaskMonitor monitor = new AgreementTaskMonitor();
+        AgreementTask task = new AgreementTask(handle, monitor, aRequest, aUsername, this);
+
+        // This autowires the task fields manually.
+        AutowireCapableBeanFactory factory = applicationContext.getAutowireCapableBeanFactory();
+        factory.autowireBean(task);
+        factory.initializeBean(task, "transientTask");
+
+        tasks.put(handle, new TaskInfo(taskExecutorService.submit(task), task));
+
+        return handle;
+    }
+
+    @Override
+    public AgreementRequest getAgreementRequest(AgreementTaskHandle aHandle)
+    {
+        TaskInfo task = tasks.get(aHandle);
+
+        if (task == null) {
+            return null;
+        }
+
+        return task.task.getRequest();
+    }
+
+    @Override
+    public AgreementTaskMonitor getTaskMonitor(AgreementTaskHandle aHandle)
+    {
+        TaskInfo task = tasks.get(aHandle);
+
+        if (task == null) {
+            return null;
+        }
+
+        return task.task.getMonitor();
+    }
+
+    @Override
+    public boolean cancelTask(AgreementTaskHandle aHandle)
+    {
+        TaskInfo task = tasks.get(aHandle);
+
+        if (task == null) {
+            return false;
+        }
+
+        task.future.cancel(true);
+        task.task.getMonitor().cancelIfNotStarted();
+
+        return true;
+    }
+
+    @Override
+    public Map<String, List<CAS>> loadCasMap(Project aProject, boolean aLimitToFinishedDocuments)
+    {
+        return loadCasMap(listCasRequests(aProject, aLimitToFinishedDocuments), null);
+    }
+
+    /**
+     * Collects the CASes to load for each user. A skip marker ({@code null}) is recorded for
+     * documents which should not be included - this is necessary because we expect the CAS lists
+     * for all users to have the same size.
+     */
+    Map<String, List<Pair<SourceDocument, String>>> listCasRequests(Project aProject,
+            boolean aLimitToFinishedDocuments)
+    {
+        List<User> users = projectService.listProjectUsersWithPermissions(aProject, ANNOTATOR);
+
+        List<SourceDocument> sourceDocuments = documentService.listSourceDocuments(aProject);
+
+        Map<String, List<Pair<SourceDocument, String>>> requestsByUser = new LinkedHashMap<>();
+        for (User user : users) {
+            List<Pair<SourceDocument, String>> userRequests = new ArrayList<>();
+
+            // Bulk-fetch all source documents for which there is already an annotation document for
+            // the user which is faster then checking for their existence individually
+            List<SourceDocument> docsForUser = documentService
+                    .listAnnotationDocuments(aProject, user).stream()
+                    .map(AnnotationDocument::getDocument).distinct().collect(Collectors.toList());
+
+            for (SourceDocument document : sourceDocuments) {
+                if (docsForUser.contains(document) && aLimitToFinishedDocuments) {
+                    AnnotationDocument annotationDocument = documentService
+                            .getAnnotationDocument(document, user);
+
+                    if (!annotationDocument.getState().equals(FINISHED)) {
+                        userRequests.add(null);
+                        continue;
+                    }
+                }
+
+                userRequests.add(Pair.of(document, user.getUsername()));
+            }
+
+            requestsByUser.put(user.getUsername(), userRequests);
+        }
+
+        return requestsByUser;
+    }
+
+    /**
+     * Reads the users' annotation documents or the initial source documents - depending on what is
+     * available. The CASes are loaded in parallel, but delivered in request order.
+     * 
+     * @param aMonitor
+     *            a monitor to report the progress and errors to. If a monitor is given, loading is
+     *            aborted with a {@link CancellationException} when the thread is interrupted.
+     */
+    Map<String, List<CAS>> loadCasMap(
+            Map<String, List<Pair<SourceDocument, String>>> aRequestsByUser,
+            AgreementTaskMonitor aMonitor)
+    {
+        List<Pair<SourceDocument, String>> requests = aRequestsByUser.values().stream()
+                .flatMap(List::stream).filter(r -> r != null).collect(Collectors.toList());
+
+        Map<Pair<SourceDocument, String>, CAS> casByRequest = new HashMap<>();
+        try (Stream<LoadedCas> loadedCases = documentService.readAnnotationCases(requests,
+                AUTO_CAS_UPGRADE, SHARED_READ_ONLY_ACCESS)) {
+            Iterator<LoadedCas> i = loadedCases.iterator();
+            while (i.hasNext()) {
+                if (aMonitor != null && Thread.currentThread().isInterrupted()) {
+                    throw new CancellationException();
+                }
+
+                LoadedCas loadedCas = i.next();
+                CAS cas = null;
+
+                try {
+                    cas = loadedCas.getCas();
+                }
+                catch (Exception e) {
+                    log.error("Unable to load data", e);
+                    if (aMonitor != null) {
+                        aMonitor.addMessage(LogMessage.error(this, "Unable to load data: %s",
+                                ExceptionUtils.getRootCauseMessage(e)));
+                    }
+                }
+
+                if (cas != null) {
+                    // Set the CAS name in the DocumentMetaData so that we can pick it
+                    // up in the Diff position for the purpose of debugging / transparency.
+                    SourceDocument document = loadedCas.getDocument();
+                    FeatureStructure dmd = WebAnnoCasUtil.getDocumentMetadata(cas);
+                    FSUtil.setFeature(dmd, "documentId", document.getName());
+                    FSUtil.setFeature(dmd, "collectionId", document.getProject().getName());
+                }
+
+                casByRequest.put(Pair.of(loadedCas.getDocument(), loadedCas.getUser()), cas);
+
+                if (aMonitor != null) {
+                    // Loading takes most of the time, the calculation itself is reported as the
+                    // last step
+                    aMonitor.setProgress((casByRequest.size() * 90) / requests.size());
+                }
+            }
+        }
+
+        Map<String, List<CAS>> casMap = new LinkedHashMap<>();
+        aRequestsByUser.forEach((user, userRequests) -> {
+            // The next line can enter null values into the list if a user didn't work on this
+            // source document yet.
+            List<CAS> cases = new ArrayList<>();
+            for (Pair<SourceDocument, String> request : userRequests) {
+                cases.add(request != null ? casByRequest.get(request) : null);
+            }
+            casMap.put(user, cases);
+        });
+
+        return casMap;
+    }
+
+    /**
+     * Creates the cache key for the given request. The key is built from the timestamps of the
+     * CASes without loading them.
+     */
+    AgreementResultCacheKey createCacheKey(AgreementRequest aRequest,
+            Map<String, List<Pair<SourceDocument, String>>> aRequestsByUser)
+        throws IOException
+    {
+        SortedMap<String, Long> timestamps = new TreeMap<>();
+        for (Entry<String, List<Pair<SourceDocument, String>>> e : aRequestsByUser.entrySet()) {
+            int i = 0;
+            for (Pair<SourceDocument, String> request : e.getValue()) {
+                // Excluded documents are recorded as well, so the lists in the cached result
+                // match the ones which would be loaded now
+                if (request != null) {
+                    timestamps.put(e.getKey() + "@" + i + ":" + request.getKey().getId(),
+                            casStorageService.getCasTimestamp(request.getKey(), e.getKey())
+                                    .orElse(-1l));
+                }
+                else {
+                    timestamps.put(e.getKey() + "@" + i, -1l);
+                }
+                i++;
+            }
+        }
+
+        return new AgreementResultCacheKey(aRequest.getProject().getId(),
+                aRequest.getFeature().getId(), aRequest.getMeasure(),
+                SerializationUtils.serialize(aRequest.getTraits()), timestamps);
+    }
+
+    Optional<Serializable> getCachedResult(AgreementResultCacheKey aKey)
+    {
+        if (!properties.getResultCache().isEnabled()) {
+            return Optional.empty();
+        }
+
+        return Optional.ofNullable(resultCache.getIfPresent(aKey));
+    }
+
+    void putCachedResult(AgreementResultCacheKey aKey, Serializable aResult)
+    {
+        if (!properties.getResultCache().isEnabled()) {
+            return;
+        }
+
+        resultCache.put(aKey, aResult);
+    }
+
+    /**
+     * The cache key does not cover the layer and feature configuration which is used to compare
+     * the annotations, so the cached results of the project are dropped when it changes.
+     */
+    @EventListener
+    public void onLayerConfigurationChanged(LayerConfigurationChangedEvent aEvent)
+    {
+        long projectId = aEvent.getProject().getId();
+        resultCache.asMap().keySet().removeIf(key -> key.getProjectId() == projectId);
+    }
+
+    private void cleanUp()
+    {
+        for (Entry<AgreementTaskHandle, TaskInfo> e : tasks.entrySet()) {
+            AgreementTaskMonitor monitor = e.getValue().task.getMonitor();
+
+            // Do not clean up running tasks or tasks that have not started yet
+            if (asList(NOT_STARTED, RUNNING).contains(monitor.getState())) {
+                continue;
+            }
+
+            // Remove task info from the tasks map one hour after completion/failure/etc.
+            long age = System.currentTimeMillis() - monitor.getEndTime();
+            if (age > Duration.ofHours(1).toMillis()) {
+                log.info("Cleaning up stale agreement task for project [{}]:",
+                        e.getValue().task.getRequest().getProject().getName());
+                tasks.remove(e.getKey());
+            }
+        }
+    }
+
+    private static class TaskInfo
+    {
+        private final Future<?> future;
+        private final AgreementTask task;
+
+        public TaskInfo(Future<?> aFuture, AgreementTask aTask)
+        {
+            future = aFuture;
+            task = aTask;
+        }
+    }
+}
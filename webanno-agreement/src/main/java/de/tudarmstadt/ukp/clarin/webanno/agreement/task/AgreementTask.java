@@ -0,0 +1,164 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.agreement.task;
+
+import static de.tudarmstadt.ukp.clarin.webanno.agreement.task.AgreementTaskState.CANCELLED;
+import static de.tudarmstadt.ukp.clarin.webanno.agreement.task.AgreementTaskState.COMPLETED;
+import static de.tudarmstadt.ukp.clarin.webanno.agreement.task.AgreementTaskState.FAILED;
+import static de.tudarmstadt.ukp.clarin.webanno.support.logging.Logging.KEY_PROJECT_ID;
+import static de.tudarmstadt.ukp.clarin.webanno.support.logging.Logging.KEY_REPOSITORY_PATH;
+import static de.tudarmstadt.ukp.clarin.webanno.support.logging.Logging.KEY_USERNAME;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.apache.commons.lang3.tuple.Pair;
+import org.apache.uima.cas.CAS;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import de.tudarmstadt.ukp.clarin.webanno.agreement.measures.AgreementMeasure;
+import de.tudarmstadt.ukp.clarin.webanno.agreement.measures.AgreementMeasureSupport;
+import de.tudarmstadt.ukp.clarin.webanno.agreement.measures.AgreementMeasureSupportRegistry;
+import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasStorageSession;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+import de.tudarmstadt.ukp.clarin.webanno.support.logging.LogMessage;
+
+/**
+ * Calculates the agreement for a single feature. If the result for the current state of the
+ * annotations is still in the cache, the CASes are not loaded at all.
+ */
+public class AgreementTask
+    implements Runnable
+{
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    // The task needs to hold on to the handle because it is used in a weak map in
+    // AgreementService to allow access to tasks.
+    private final AgreementTaskHandle handle;
+    private final String username;
+    private final AgreementTaskMonitor monitor;
+    private final AgreementRequest request;
+    private final AgreementServiceImpl agreementService;
+
+    private @Autowired DocumentService documentService;
+    private @Autowired AgreementMeasureSupportRegistry agreementRegistry;
+
+    public AgreementTask(AgreementTaskHandle aHandle, AgreementTaskMonitor aMonitor,
+            AgreementRequest aRequest, String aUsername, AgreementServiceImpl aAgreementService)
+    {
+        handle = aHandle;
+        request = aRequest;
+        username = aUsername;
+        monitor = aMonitor;
+        agreementService = aAgreementService;
+
+        monitor.setCreateTime(System.currentTimeMillis());
+    }
+
+    @Override
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    public void run()
+    {
+        try {
+            // We are in a new thread. Set up thread-specific MDC
+            MDC.put(KEY_USERNAME, username);
+            MDC.put(KEY_PROJECT_ID, String.valueOf(request.getProject().getId()));
+            MDC.put(KEY_REPOSITORY_PATH, documentService.getDir().toString());
+
+            // The task may have been cancelled while it was queued
+            if (!monitor.start()) {
+                return;
+            }
+
+            Map<String, List<Pair<SourceDocument, String>>> requests = agreementService
+                    .listCasRequests(request.getProject(),
+                            request.getTraits().isLimitToFinishedDocuments());
+
+            AgreementResultCacheKey key = agreementService.createCacheKey(request, requests);
+            Optional<Serializable> cachedResult = agreementService.getCachedResult(key);
+            if (cachedResult.isPresent()) {
+                monitor.setResult(cachedResult.get());
+                monitor.setCached(true);
+                monitor.setStateAndProgress(COMPLETED, 100);
+                return;
+            }
+
+            try (CasStorageSession session = CasStorageSession.open()) {
+                Map<String, List<CAS>> casMap = agreementService.loadCasMap(requests, monitor);
+
+                if (casMap.values().stream().allMatch(list -> list == null || list.isEmpty())) {
+                    monitor.addMessage(
+                            LogMessage.error(this, "No documents with annotations were found."));
+                    monitor.setStateAndProgress(FAILED, 100);
+                    return;
+                }
+
+                AgreementMeasureSupport ams = agreementRegistry
+                        .getAgreementMeasureSupport(request.getMeasure());
+                AgreementMeasure measure = ams.createMeasure(request.getFeature(),
+                        request.getTraits());
+
+                Serializable result = measure.getAgreement(casMap);
+
+                // The measures cannot be interrupted, but we can at least drop the result
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new CancellationException();
+                }
+
+                agreementService.putCachedResult(key, result);
+                monitor.setResult(result);
+            }
+
+            monitor.setStateAndProgress(COMPLETED, 100);
+        }
+        catch (CancellationException e) {
+            monitor.setStateAndProgress(CANCELLED, 100);
+        }
+        catch (Throwable e) {
+            // This marks the progression as complete and causes ProgressBar#onFinished
+            // to be called where we display the messages
+            monitor.setStateAndProgress(FAILED, 100);
+            monitor.addMessage(LogMessage.error(this, "Unexpected error during agreement "
+                    + "calculation: %s", ExceptionUtils.getRootCauseMessage(e)));
+            log.error("Unexpected error during agreement calculation", e);
+        }
+    }
+
+    public AgreementRequest getRequest()
+    {
+        return request;
+    }
+
+    public AgreementTaskMonitor getMonitor()
+    {
+        return monitor;
+    }
+
+    public AgreementTaskHandle getHandle()
+    {
+        return handle;
+    }
+}
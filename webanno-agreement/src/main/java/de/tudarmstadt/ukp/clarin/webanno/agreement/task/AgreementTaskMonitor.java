@@ -0,0 +1,167 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.agreement.task;
+
+import static de.tudarmstadt.ukp.clarin.webanno.agreement.task.AgreementTaskState.CANCELLED;
+import static de.tudarmstadt.ukp.clarin.webanno.agreement.task.AgreementTaskState.COMPLETED;
+import static de.tudarmstadt.ukp.clarin.webanno.agreement.task.AgreementTaskState.FAILED;
+import static de.tudarmstadt.ukp.clarin.webanno.agreement.task.AgreementTaskState.NOT_STARTED;
+import static de.tudarmstadt.ukp.clarin.webanno.agreement.task.AgreementTaskState.RUNNING;
+import static java.util.Arrays.asList;
+
+import java.io.Serializable;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import de.tudarmstadt.ukp.clarin.webanno.support.logging.LogMessage;
+
+public class AgreementTaskMonitor
+{
+    private final Queue<LogMessage> messages = new ConcurrentLinkedQueue<>();
+
+    private long createTime;
+    private long startTime = -1;
+    private long endTime = -1;
+    private int progress = 0;
+    private Serializable result;
+    private boolean cached = false;
+    private AgreementTaskState state = NOT_STARTED;
+
+    public synchronized AgreementTaskState getState()
+    {
+        return state;
+    }
+
+    public synchronized void setState(AgreementTaskState aState)
+    {
+        if (state == NOT_STARTED && aState != NOT_STARTED) {
+            startTime = System.currentTimeMillis();
+        }
+
+        state = aState;
+
+        if (asList(COMPLETED, CANCELLED, FAILED).contains(aState)) {
+            endTime = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Marks the task as running unless it has been cancelled before it was started.
+     * 
+     * @return whether the task may run.
+     */
+    public synchronized boolean start()
+    {
+        if (state != NOT_STARTED) {
+            return false;
+        }
+
+        setState(RUNNING);
+        return true;
+    }
+
+    /**
+     * Marks the task as cancelled if it has not been started yet. A task which is cancelled while
+     * it is still queued is never run and thus cannot report the cancellation itself.
+     * 
+     * @return whether the task was cancelled.
+     */
+    public synchronized boolean cancelIfNotStarted()
+    {
+        if (state != NOT_STARTED) {
+            return false;
+        }
+
+        setStateAndProgress(CANCELLED, 100);
+        return true;
+    }
+
+    public synchronized long getCreateTime()
+    {
+        return createTime;
+    }
+
+    public synchronized void setCreateTime(long aCreateTime)
+    {
+        createTime = aCreateTime;
+    }
+
+    public synchronized long getStartTime()
+    {
+        return startTime;
+    }
+
+    public synchronized long getEndTime()
+    {
+        return endTime;
+    }
+
+    public synchronized int getProgress()
+    {
+        return progress;
+    }
+
+    public synchronized void setStateAndProgress(AgreementTaskState aState, int aProgress)
+    {
+        setState(aState);
+        setProgress(aProgress);
+    }
+
+    public synchronized void setProgress(int aProgress)
+    {
+        progress = aProgress;
+    }
+
+    /**
+     * @return the result or {@code null} if the task has not completed (successfully).
+     */
+    public synchronized Serializable getResult()
+    {
+        return result;
+    }
+
+    public synchronized void setResult(Serializable aResult)
+    {
+        result = aResult;
+    }
+
+    /**
+     * @return whether the result was taken from the cache instead of being calculated.
+     */
+    public synchronized boolean isCached()
+    {
+        return cached;
+    }
+
+    public synchronized void setCached(boolean aCached)
+    {
+        cached = aCached;
+    }
+
+    public void addMessage(LogMessage aMessage)
+    {
+        if (!messages.contains(aMessage)) {
+            messages.add(aMessage);
+        }
+    }
+
+    public Queue<LogMessage> getMessages()
+    {
+        return messages;
+    }
+}
@@ -31,10 +31,12 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.TreeSet;
 
 import org.apache.uima.cas.CAS;
 import org.apache.uima.collection.CollectionReader;
 import org.apache.uima.fit.factory.JCasFactory;
+import org.dkpro.statistics.agreement.coding.CohenKappaAgreement;
 import org.dkpro.core.testing.DkproTestContext;
 import org.junit.Before;
 import org.junit.Rule;
@@ -277,6 +279,51 @@ public class TwoPairedKappaTest
         System.out.printf("New agreement 1/3: %s%n", agreement13.toString());
     }
 
+    @Test
+    public void testThreeUserPairwiseFromSingleDiff() throws Exception
+    {
+        Map<User, CAS> userCases = new LinkedHashMap<>();
+        userCases.put(user1, kappatestCas);
+        userCases.put(user2, kappaspandiff);
+        userCases.put(user3, kappaspanarcdiff);
+
+        Map<String, List<CAS>> casMap = convert(userCases);
+        CasDiff diff = doDiff(asList(POS_DIFF_ADAPTER, DEPENDENCY_DIFF_ADAPTER),
+                LINK_TARGET_AS_LABEL, casMap);
+
+        for (List<String> pair : asList(asList("user1", "user2"), asList("user2", "user3"),
+                asList("user1", "user3"))) {
+            Map<String, List<CAS>> pairCasMap = new LinkedHashMap<>(casMap);
+            pairCasMap.keySet().retainAll(pair);
+            CasDiff pairDiff = doDiff(asList(POS_DIFF_ADAPTER, DEPENDENCY_DIFF_ADAPTER),
+                    LINK_TARGET_AS_LABEL, pairCasMap);
+
+            for (String[] feature : new String[][] { { POS.class.getName(), "PosValue" },
+                    { Dependency.class.getName(), "DependencyType" } }) {
+                CodingAgreementResult expected = getCohenKappaAgreement(pairDiff, feature[0],
+                        feature[1], pairCasMap);
+
+                CodingAgreementResult actual = AgreementUtils.makeCodingStudy(diff, pair,
+                        feature[0], feature[1], true, casMap);
+                actual.setAgreement(
+                        new CohenKappaAgreement(actual.getStudy()).calculateAgreement());
+
+                assertEquals(expected.getAgreement(), actual.getAgreement(), 0.000001);
+                assertEquals(expected.getStudy().getItemCount(),
+                        actual.getStudy().getItemCount());
+                assertEquals(expected.getTotalSetCount(), actual.getTotalSetCount());
+                assertEquals(expected.getRelevantSetCount(), actual.getRelevantSetCount());
+                assertEquals(expected.getDiffSetCount(), actual.getDiffSetCount());
+                // Positions are only comparable, so we compare them using sorted sets
+                DiffResult expectedDiff = pairDiff.toResult();
+                assertEquals(new TreeSet<>(expectedDiff.getDifferingConfigurationSets().keySet()),
+                        new TreeSet<>(actual.getDiff().getDifferingConfigurationSets().keySet()));
+                assertEquals(new TreeSet<>(expectedDiff.getIncompleteConfigurationSets().keySet()),
+                        new TreeSet<>(actual.getDiff().getIncompleteConfigurationSets().keySet()));
+            }
+        }
+    }
+
     @Rule
     public DkproTestContext testContext = new DkproTestContext();
 }
@@ -0,0 +1,196 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.agreement.task;
+
+import static de.tudarmstadt.ukp.clarin.webanno.agreement.task.AgreementTaskState.CANCELLED;
+import static de.tudarmstadt.ukp.clarin.webanno.agreement.task.AgreementTaskState.NOT_STARTED;
+import static de.tudarmstadt.ukp.clarin.webanno.agreement.task.AgreementTaskState.RUNNING;
+import static java.util.Arrays.asList;
+import static org.apache.commons.lang3.reflect.FieldUtils.writeField;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.factory.config.AutowireCapableBeanFactory;
+import org.springframework.context.ApplicationContext;
+
+import de.tudarmstadt.ukp.clarin.webanno.agreement.measures.DefaultAgreementTraits;
+import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
+import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
+import de.tudarmstadt.ukp.clarin.webanno.api.ProjectService;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.LayerConfigurationChangedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+public class AgreementServiceImplTest
+{
+    private ApplicationContext applicationContext;
+    private DocumentService documentService;
+    private ProjectService projectService;
+    private CasStorageService casStorageService;
+    private AgreementProperties properties;
+    private AgreementServiceImpl sut;
+
+    private Project project;
+    private AnnotationFeature feature;
+    private SourceDocument document;
+    private Map<String, List<Pair<SourceDocument, String>>> requestsByUser;
+
+    @Before
+    public void setup() throws Exception
+    {
+        documentService = mock(DocumentService.class);
+        when(documentService.getDir()).thenReturn(new File("repository"));
+        AutowireCapableBeanFactory beanFactory = mock(AutowireCapableBeanFactory.class);
+        doAnswer(invocation -> {
+            AgreementTask task = invocation.getArgument(0);
+            writeField(task, "documentService", documentService, true);
+            return null;
+        }).when(beanFactory).autowireBean(any(AgreementTask.class));
+        applicationContext = mock(ApplicationContext.class);
+        when(applicationContext.getAutowireCapableBeanFactory()).thenReturn(beanFactory);
+        projectService = mock(ProjectService.class);
+        casStorageService = mock(CasStorageService.class);
+        when(casStorageService.getCasTimestamp(any(), eq("user1"))).thenReturn(Optional.of(1l));
+        when(casStorageService.getCasTimestamp(any(), eq("user2"))).thenReturn(Optional.of(2l));
+        properties = new AgreementProperties();
+        properties.setThreads(1);
+
+        sut = new AgreementServiceImpl(applicationContext, documentService, projectService,
+                casStorageService, properties);
+
+        project = new Project();
+        project.setId(1l);
+        project.setName("project");
+        feature = new AnnotationFeature();
+        feature.setId(2l);
+        feature.setProject(project);
+        document = new SourceDocument();
+        document.setId(3l);
+        document.setProject(project);
+
+        requestsByUser = new LinkedHashMap<>();
+        requestsByUser.put("user1", asList(Pair.of(document, "user1")));
+        requestsByUser.put("user2", asList(Pair.of(document, "user2")));
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        sut.destroy();
+    }
+
+    @Test
+    public void thatIdenticalRequestHitsCache() throws Exception
+    {
+        sut.putCachedResult(sut.createCacheKey(newRequest(false), requestsByUser), "result");
+
+        assertEquals(Optional.of("result"),
+                sut.getCachedResult(sut.createCacheKey(newRequest(false), requestsByUser)));
+    }
+
+    @Test
+    public void thatChangedCasTimestampMissesCache() throws Exception
+    {
+        sut.putCachedResult(sut.createCacheKey(newRequest(false), requestsByUser), "result");
+
+        when(casStorageService.getCasTimestamp(any(), eq("user2"))).thenReturn(Optional.of(3l));
+
+        assertFalse(sut.getCachedResult(sut.createCacheKey(newRequest(false), requestsByUser))
+                .isPresent());
+    }
+
+    @Test
+    public void thatChangedTraitsMissCache() throws Exception
+    {
+        sut.putCachedResult(sut.createCacheKey(newRequest(false), requestsByUser), "result");
+
+        assertFalse(sut.getCachedResult(sut.createCacheKey(newRequest(true), requestsByUser))
+                .isPresent());
+    }
+
+    @Test
+    public void thatChangedLayerConfigurationMissesCache() throws Exception
+    {
+        sut.putCachedResult(sut.createCacheKey(newRequest(false), requestsByUser), "result");
+
+        sut.onLayerConfigurationChanged(new LayerConfigurationChangedEvent(this, project));
+
+        assertFalse(sut.getCachedResult(sut.createCacheKey(newRequest(false), requestsByUser))
+                .isPresent());
+    }
+
+    @Test(timeout = 60000)
+    public void thatQueuedTaskCanBeCancelled() throws Exception
+    {
+        // Keep the only worker thread busy with the first task
+        CountDownLatch firstTaskRunning = new CountDownLatch(1);
+        CountDownLatch releaseFirstTask = new CountDownLatch(1);
+        when(projectService.listProjectUsersWithPermissions(any(), any())).then(invocation -> {
+            firstTaskRunning.countDown();
+            releaseFirstTask.await();
+            return asList();
+        });
+
+        AgreementTaskHandle first = sut.startAgreementTask(newRequest(false), "user");
+        firstTaskRunning.await();
+        AgreementTaskHandle queued = sut.startAgreementTask(newRequest(false), "user");
+
+        assertEquals(RUNNING, sut.getTaskMonitor(first).getState());
+        assertEquals(NOT_STARTED, sut.getTaskMonitor(queued).getState());
+
+        assertTrue(sut.cancelTask(queued));
+
+        // The queued task never runs, so the cancellation must be recorded right away
+        AgreementTaskMonitor monitor = sut.getTaskMonitor(queued);
+        assertEquals(CANCELLED, monitor.getState());
+        assertEquals(100, monitor.getProgress());
+        assertTrue(monitor.getEndTime() >= 0);
+
+        releaseFirstTask.countDown();
+        while (asList(NOT_STARTED, RUNNING).contains(sut.getTaskMonitor(first).getState())) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(CANCELLED, sut.getTaskMonitor(queued).getState());
+    }
+
+    private AgreementRequest newRequest(boolean aLimitToFinishedDocuments)
+    {
+        DefaultAgreementTraits traits = new DefaultAgreementTraits();
+        traits.setLimitToFinishedDocuments(aLimitToFinishedDocuments);
+        return new AgreementRequest(feature, "measure", traits);
+    }
+}
@@ -24,6 +24,7 @@ import java.util.Optional;
 import org.apache.uima.UIMAException;
 import org.apache.uima.cas.CAS;
 import org.apache.uima.cas.FeatureStructure;
+import org.apache.uima.cas.TypeSystem;
 import org.apache.uima.cas.text.AnnotationFS;
 import org.apache.uima.resource.ResourceInitializationException;
 import org.apache.uima.resource.metadata.TypeSystemDescription;
@@ -489,6 +490,15 @@ public interface AnnotationSchemaService
     TypeSystemDescription getFullProjectTypeSystem(Project aProject, boolean aIncludeInternalTypes)
         throws ResourceInitializationException;
 
+    /**
+     * Returns the committed type system for the given type system description. If the description
+     * has been obtained from {@link #getFullProjectTypeSystem} or {@link #getTypeSystemForExport},
+     * the same type system instance is returned for as long as the layer configuration of the
+     * project does not change. Otherwise, a new type system is compiled from the description.
+     */
+    TypeSystem getTypeSystem(TypeSystemDescription aTypeSystemDescription)
+        throws ResourceInitializationException;
+
     /**
      * Upgrade the CAS to the current project type system. This also compacts the CAS and removes
      * any unreachable feature structures. This should be called at key points such as when the user
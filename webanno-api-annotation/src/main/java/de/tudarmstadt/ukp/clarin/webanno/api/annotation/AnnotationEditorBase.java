@@ -40,6 +40,7 @@ import org.slf4j.LoggerFactory;
 import de.tudarmstadt.ukp.clarin.webanno.api.CasProvider;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.action.AnnotationActionHandler;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.AnnotatorState;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.PreRenderCache;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.PreRenderer;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.event.RenderAnnotationsEvent;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.model.VAnnotationMarker;
@@ -59,6 +60,7 @@ public abstract class AnnotationEditorBase
     private static final long serialVersionUID = 8637373389151630602L;
 
     private @SpringBean PreRenderer preRenderer;
+    private @SpringBean PreRenderCache preRenderCache;
     private @SpringBean AnnotationEditorExtensionRegistry extensionRegistry;
 
     private final AnnotationActionHandler actionHandler;
@@ -142,7 +144,17 @@ public abstract class AnnotationEditorBase
     protected VDocument render(CAS aCas, int aWindowBeginOffset, int aWindowEndOffset)
     {
         VDocument vdoc = new VDocument();
-        preRenderer.render(vdoc, aWindowBeginOffset, aWindowEndOffset, aCas, getLayersToRender());
+        AnnotatorState state = getModelObject();
+        // Only in the annotation mode, all changes to the CAS are announced by events, so only
+        // there previous renderings can safely be re-used
+        if (Mode.ANNOTATION.equals(state.getMode())) {
+            preRenderCache.render(vdoc, state.getDocument(), state.getUser().getUsername(),
+                    aWindowBeginOffset, aWindowEndOffset, aCas, getLayersToRender());
+        }
+        else {
+            preRenderer.render(vdoc, aWindowBeginOffset, aWindowEndOffset, aCas,
+                    getLayersToRender());
+        }
 
         // Fire render event into backend
         extensionRegistry.fireRender(aCas, getModelObject(), vdoc, aWindowBeginOffset,
@@ -165,8 +177,6 @@ public abstract class AnnotationEditorBase
                         getModelObject(), vdoc));
 
         if (isHighlightEnabled()) {
-            AnnotatorState state = getModelObject();
-
             // Disabling for 3.3.0 by default per #406
             // FIXME: should be enabled by default and made optional per #606
             // if (state.getFocusUnitIndex() > 0) {
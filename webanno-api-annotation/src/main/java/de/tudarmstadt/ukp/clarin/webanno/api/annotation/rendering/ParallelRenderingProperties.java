@@ -0,0 +1,68 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Component
+@ConfigurationProperties("annotation.parallel-rendering")
+public class ParallelRenderingProperties
+{
+    private boolean enabled = false;
+    private int threads = 0;
+    private int minLayers = 10;
+
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    public void setEnabled(boolean aEnabled)
+    {
+        enabled = aEnabled;
+    }
+
+    /**
+     * @return number of threads used to render layers in parallel. If this is {@code 0}, the
+     *         number of available processors is used.
+     */
+    public int getThreads()
+    {
+        return threads;
+    }
+
+    public void setThreads(int aThreads)
+    {
+        threads = aThreads;
+    }
+
+    /**
+     * @return minimum number of layers to render for which parallel rendering is used. Fewer
+     *         layers are rendered sequentially on the calling thread.
+     */
+    public int getMinLayers()
+    {
+        return minLayers;
+    }
+
+    public void setMinLayers(int aMinLayers)
+    {
+        minLayers = aMinLayers;
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering;
+
+import java.util.List;
+
+import org.apache.uima.cas.CAS;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.model.VDocument;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+/**
+ * Keeps the output of the {@link PreRenderer} for recently displayed windows of a document, so
+ * that returning to a window the user has just seen does not require rendering all layers again.
+ * <p>
+ * A cached rendering is only used if it was created from the very same CAS and if no event
+ * indicating a change to the annotations of the user in the document has been received since.
+ * Thus, the cache must only be used for CASes which are modified exclusively through the type
+ * adapters and written through the document service.
+ */
+public interface PreRenderCache
+{
+    /**
+     * Renders the given layers of the given window into the response, re-using a previous
+     * rendering if possible.
+     * 
+     * @param aDocument
+     *            the document the CAS belongs to.
+     * @param aUser
+     *            the user the CAS belongs to.
+     */
+    void render(VDocument aResponse, SourceDocument aDocument, String aUser, int aWindowBegin,
+            int aWindowEnd, CAS aCas, List<AnnotationLayer> aLayers);
+}
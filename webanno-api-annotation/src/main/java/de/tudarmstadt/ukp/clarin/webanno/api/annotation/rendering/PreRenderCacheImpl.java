@@ -0,0 +1,309 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.stream.Collectors.toList;
+
+import java.lang.ref.WeakReference;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.uima.cas.CAS;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.event.AnnotationEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.event.DocumentOpenedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.model.VDocument;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.AfterCasWrittenEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.AfterDocumentResetEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.BeforeDocumentRemovedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.BeforeProjectRemovedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.LayerConfigurationChangedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+/**
+ * Every CAS, identified by document and user, has a modification counter which is renewed
+ * whenever an event indicates that the annotations in the CAS have changed. The counter is part of
+ * the cache key, so renderings of an older state of the CAS are never used again and are
+ * eventually evicted. The counter is read before rendering, so a change which happens while
+ * rendering is in progress also causes the result to be stored under an outdated key.
+ * <p>
+ * The counter values are taken from a single sequence, so a counter which is dropped when the last
+ * rendering of its CAS is evicted never comes back with a value used before.
+ * <p>
+ * The cached renderings are never handed out. Callers receive copies which they may change, e.g.
+ * when the editor extensions add hover features or markers.
+ */
+@Component
+public class PreRenderCacheImpl
+    implements PreRenderCache
+{
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final PreRenderer preRenderer;
+    private final PreRenderCacheProperties properties;
+    private final Cache<RenderKey, CachedRendering> cache;
+    private final ConcurrentMap<CasId, Long> modificationCounters = new ConcurrentHashMap<>();
+    private final AtomicLong modificationSequence = new AtomicLong();
+
+    // Incremented when the layer configuration changes - this affects all renderings
+    private final AtomicLong epoch = new AtomicLong();
+
+    @Autowired
+    public PreRenderCacheImpl(PreRenderer aPreRenderer, PreRenderCacheProperties aProperties)
+    {
+        preRenderer = aPreRenderer;
+        properties = aProperties;
+        cache = Caffeine.newBuilder() //
+                .maximumSize(properties.getMaxSize()) //
+                .expireAfterAccess(properties.getIdleTimeout(), SECONDS) //
+                .removalListener(this::onRemoval) //
+                .build();
+    }
+
+    @Override
+    public void render(VDocument aResponse, SourceDocument aDocument, String aUser,
+            int aWindowBegin, int aWindowEnd, CAS aCas, List<AnnotationLayer> aLayers)
+    {
+        if (!properties.isEnabled() || aLayers.isEmpty()) {
+            preRenderer.render(aResponse, aWindowBegin, aWindowEnd, aCas, aLayers);
+            return;
+        }
+
+        CasId casId = new CasId(aDocument.getProject().getId(), aDocument.getId(), aUser);
+        RenderKey key = new RenderKey(casId, epoch.get(),
+                modificationCounters.computeIfAbsent(casId,
+                        id -> modificationSequence.incrementAndGet()),
+                aWindowBegin, aWindowEnd,
+                aLayers.stream().map(AnnotationLayer::getId).collect(toList()));
+
+        CachedRendering cached = cache.getIfPresent(key);
+        if (cached != null && cached.cas.get() == aCas) {
+            log.trace("Render cache hit for {}", key);
+            aResponse.addAll(cached.document.copy());
+            return;
+        }
+
+        log.trace("Render cache miss for {}", key);
+        VDocument vdoc = new VDocument();
+        preRenderer.render(vdoc, aWindowBegin, aWindowEnd, aCas, aLayers);
+        cache.put(key, new CachedRendering(aCas, vdoc));
+        aResponse.addAll(vdoc.copy());
+    }
+
+    @EventListener
+    public void onAnnotationEvent(AnnotationEvent aEvent)
+    {
+        if (aEvent.getDocument() != null) {
+            invalidate(aEvent.getDocument(), aEvent.getUser());
+        }
+        // Bulk events may not be bound to a particular document
+        else {
+            invalidateAll();
+        }
+    }
+
+    @EventListener
+    public void onAfterCasWritten(AfterCasWrittenEvent aEvent)
+    {
+        invalidate(aEvent.getDocument().getDocument(), aEvent.getDocument().getUser());
+    }
+
+    @EventListener
+    public void onAfterDocumentReset(AfterDocumentResetEvent aEvent)
+    {
+        invalidate(aEvent.getDocument().getDocument(), aEvent.getDocument().getUser());
+    }
+
+    @EventListener
+    public void onDocumentOpened(DocumentOpenedEvent aEvent)
+    {
+        invalidate(aEvent.getDocument(), aEvent.getAnnotator());
+    }
+
+    @EventListener
+    public void onBeforeDocumentRemoved(BeforeDocumentRemovedEvent aEvent)
+    {
+        long documentId = aEvent.getDocument().getId();
+        modificationCounters.keySet().removeIf(id -> id.documentId == documentId);
+        cache.asMap().keySet().removeIf(key -> key.casId.documentId == documentId);
+    }
+
+    @EventListener
+    public void onLayerConfigurationChanged(LayerConfigurationChangedEvent aEvent)
+    {
+        invalidateAll();
+    }
+
+    @EventListener
+    public void onBeforeProjectRemoved(BeforeProjectRemovedEvent aEvent)
+    {
+        invalidateAll();
+    }
+
+    private void invalidate(SourceDocument aDocument, String aUser)
+    {
+        CasId casId = new CasId(aDocument.getProject().getId(), aDocument.getId(), aUser);
+        // CASes which have not been rendered yet get a fresh counter when they are rendered
+        modificationCounters.computeIfPresent(casId,
+                (id, counter) -> modificationSequence.incrementAndGet());
+        cache.asMap().keySet().removeIf(key -> key.casId.equals(casId));
+    }
+
+    /**
+     * Drops the modification counter of a CAS once its last rendering is gone, unless the counter
+     * has been renewed in the meantime.
+     */
+    private void onRemoval(RenderKey aKey, CachedRendering aValue, RemovalCause aCause)
+    {
+        if (aKey == null) {
+            return;
+        }
+
+        boolean inUse = cache.asMap().keySet().stream()
+                .anyMatch(key -> key.casId.equals(aKey.casId)
+                        && key.modificationCounter == aKey.modificationCounter);
+        if (!inUse) {
+            modificationCounters.remove(aKey.casId, aKey.modificationCounter);
+        }
+    }
+
+    private void invalidateAll()
+    {
+        epoch.incrementAndGet();
+        modificationCounters.clear();
+        cache.invalidateAll();
+    }
+
+    private static final class CasId
+    {
+        private final long projectId;
+        private final long documentId;
+        private final String user;
+
+        public CasId(long aProjectId, long aDocumentId, String aUser)
+        {
+            projectId = aProjectId;
+            documentId = aDocumentId;
+            user = aUser;
+        }
+
+        @Override
+        public boolean equals(Object aOther)
+        {
+            if (this == aOther) {
+                return true;
+            }
+            if (!(aOther instanceof CasId)) {
+                return false;
+            }
+            CasId other = (CasId) aOther;
+            return projectId == other.projectId && documentId == other.documentId
+                    && Objects.equals(user, other.user);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(projectId, documentId, user);
+        }
+
+        @Override
+        public String toString()
+        {
+            return "[" + user + "]@(" + documentId + ")";
+        }
+    }
+
+    private static final class RenderKey
+    {
+        private final CasId casId;
+        private final long epoch;
+        private final long modificationCounter;
+        private final int windowBegin;
+        private final int windowEnd;
+        private final List<Long> layerIds;
+
+        public RenderKey(CasId aCasId, long aEpoch, long aModificationCounter, int aWindowBegin,
+                int aWindowEnd, List<Long> aLayerIds)
+        {
+            casId = aCasId;
+            epoch = aEpoch;
+            modificationCounter = aModificationCounter;
+            windowBegin = aWindowBegin;
+            windowEnd = aWindowEnd;
+            layerIds = aLayerIds;
+        }
+
+        @Override
+        public boolean equals(Object aOther)
+        {
+            if (this == aOther) {
+                return true;
+            }
+            if (!(aOther instanceof RenderKey)) {
+                return false;
+            }
+            RenderKey other = (RenderKey) aOther;
+            return epoch == other.epoch && modificationCounter == other.modificationCounter
+                    && windowBegin == other.windowBegin && windowEnd == other.windowEnd
+                    && casId.equals(other.casId) && layerIds.equals(other.layerIds);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(casId, epoch, modificationCounter, windowBegin, windowEnd,
+                    layerIds);
+        }
+
+        @Override
+        public String toString()
+        {
+            return casId + " #" + epoch + "." + modificationCounter + " [" + windowBegin + "-"
+                    + windowEnd + "] " + layerIds;
+        }
+    }
+
+    private static final class CachedRendering
+    {
+        // The CAS is only referenced weakly - a cached rendering must not keep a CAS in memory
+        // which has already been dropped by the CAS storage
+        private final WeakReference<CAS> cas;
+        private final VDocument document;
+
+        public CachedRendering(CAS aCas, VDocument aDocument)
+        {
+            cas = new WeakReference<>(aCas);
+            document = aDocument;
+        }
+    }
+}
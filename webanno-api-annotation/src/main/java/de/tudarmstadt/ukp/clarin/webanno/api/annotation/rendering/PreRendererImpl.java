@@ -17,14 +17,31 @@
  */
 package de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering;
 
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.getRealCas;
 import static java.util.concurrent.TimeUnit.MINUTES;
 import static java.util.stream.Collectors.toList;
 
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.lang3.Validate;
 import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.TypeSystem;
+import org.apache.wicket.Page;
+import org.apache.wicket.core.request.handler.IPageRequestHandler;
+import org.apache.wicket.request.cycle.PageRequestHandlerTracker;
+import org.apache.wicket.request.cycle.RequestCycle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Component;
@@ -42,25 +59,63 @@ import de.tudarmstadt.ukp.clarin.webanno.model.Project;
 
 @Component
 public class PreRendererImpl
-    implements PreRenderer
+    implements PreRenderer, DisposableBean
 {
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
     private final AnnotationSchemaService annotationService;
     private final LayerSupportRegistry layerSupportRegistry;
+    private final ParallelRenderingProperties parallelRenderingProperties;
 
     private LoadingCache<Project, List<AnnotationFeature>> supportedFeaturesCache;
     private LoadingCache<Project, List<AnnotationFeature>> allFeaturesCache;
 
-    @Autowired
+    // Only created if parallel rendering is enabled
+    private final ExecutorService renderExecutor;
+
     public PreRendererImpl(LayerSupportRegistry aLayerSupportRegistry,
             AnnotationSchemaService aAnnotationService)
+    {
+        this(aLayerSupportRegistry, aAnnotationService, new ParallelRenderingProperties());
+    }
+
+    @Autowired
+    public PreRendererImpl(LayerSupportRegistry aLayerSupportRegistry,
+            AnnotationSchemaService aAnnotationService,
+            ParallelRenderingProperties aParallelRenderingProperties)
     {
         layerSupportRegistry = aLayerSupportRegistry;
         annotationService = aAnnotationService;
+        parallelRenderingProperties = aParallelRenderingProperties;
 
         supportedFeaturesCache = Caffeine.newBuilder().expireAfterAccess(5, MINUTES)
                 .maximumSize(10 * 1024).build(annotationService::listSupportedFeatures);
         allFeaturesCache = Caffeine.newBuilder().expireAfterAccess(5, MINUTES)
                 .maximumSize(10 * 1024).build(annotationService::listAnnotationFeature);
+
+        if (parallelRenderingProperties.isEnabled()) {
+            int threads = parallelRenderingProperties.getThreads() > 0
+                    ? parallelRenderingProperties.getThreads()
+                    : Runtime.getRuntime().availableProcessors();
+            AtomicInteger threadCount = new AtomicInteger();
+            renderExecutor = Executors.newFixedThreadPool(threads, runnable -> {
+                Thread thread = new Thread(runnable,
+                        "pre-renderer-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        else {
+            renderExecutor = null;
+        }
+    }
+
+    @Override
+    public void destroy()
+    {
+        if (renderExecutor != null) {
+            renderExecutor.shutdownNow();
+        }
     }
 
     @Override
@@ -82,7 +137,8 @@ public class PreRendererImpl
         List<AnnotationFeature> supportedFeatures = supportedFeaturesCache.get(project);
         List<AnnotationFeature> allFeatures = allFeaturesCache.get(project);
 
-        // Render (custom) layers
+        // Set up the renderers on the calling thread - this may access the DB
+        List<LayerRendering> renderings = new ArrayList<>();
         for (AnnotationLayer layer : aLayers) {
             List<AnnotationFeature> layerSupportedFeatures = supportedFeatures.stream() //
                     .filter(feature -> feature.getLayer().equals(layer)) //
@@ -95,7 +151,112 @@ public class PreRendererImpl
             // the same because otherwise the IDs of armed slots would be inconsistent
             Renderer renderer = layerSupportRegistry.getLayerSupport(layer) //
                     .createRenderer(layer, () -> layerAllFeatures);
-            renderer.render(aCas, layerSupportedFeatures, aResponse, windowBegin, windowEnd);
+            renderings.add(new LayerRendering(renderer, layerSupportedFeatures));
+        }
+
+        int warningCount = aResponse.getWarnings().size();
+
+        if (renderExecutor == null
+                || renderings.size() < parallelRenderingProperties.getMinLayers()) {
+            // Render (custom) layers
+            for (LayerRendering rendering : renderings) {
+                rendering.renderer.render(aCas, rendering.features, aResponse, windowBegin,
+                        windowEnd);
+            }
+        }
+        else {
+            renderParallel(aResponse, windowBegin, windowEnd, aCas, renderings);
+        }
+
+        List<String> warnings = aResponse.getWarnings();
+        reportWarnings(warnings.subList(warningCount, warnings.size()));
+    }
+
+    /**
+     * Shows the warnings produced by the renderers on the current page. This must happen on the
+     * calling thread because the request cycle is bound to it.
+     */
+    private void reportWarnings(List<String> aWarnings)
+    {
+        if (aWarnings.isEmpty()) {
+            return;
+        }
+
+        RequestCycle requestCycle = RequestCycle.get();
+        IPageRequestHandler handler = requestCycle != null
+                ? PageRequestHandlerTracker.getLastHandler(requestCycle)
+                : null;
+        if (handler == null) {
+            aWarnings.forEach(log::warn);
+            return;
+        }
+
+        Page page = (Page) handler.getPage();
+        aWarnings.forEach(page::warn);
+    }
+
+    /**
+     * Renders each layer into a separate {@link VDocument} on the render executor and merges the
+     * results in the order of the layers, so the result is the same as when rendering
+     * sequentially. The renderers only read from the CAS and the calling thread waits until all
+     * layers have been rendered, so nobody modifies the CAS while the workers access it.
+     */
+    private void renderParallel(VDocument aResponse, int aWindowBegin, int aWindowEnd, CAS aCas,
+            List<LayerRendering> aRenderings)
+    {
+        // The CAS may be bound to the calling thread. The workers use the unwrapped CAS while the
+        // calling thread keeps ownership.
+        CAS cas = getRealCas(aCas);
+        prepareIndexes(cas);
+
+        List<Future<VDocument>> results = new ArrayList<>();
+        for (LayerRendering rendering : aRenderings) {
+            results.add(renderExecutor.submit(() -> {
+                VDocument vdoc = new VDocument();
+                rendering.renderer.render(cas, rendering.features, vdoc, aWindowBegin,
+                        aWindowEnd);
+                return vdoc;
+            }));
+        }
+
+        try {
+            for (Future<VDocument> result : results) {
+                aResponse.addAll(result.get());
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while rendering layers", e);
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+        finally {
+            // If one layer fails, there is no point in rendering the remaining layers
+            results.forEach(result -> result.cancel(true));
+        }
+    }
+
+    /**
+     * UIMA sets up some of the internal structures of the indexes lazily on first access. Access
+     * the indexes once on the calling thread, so the workers do not race to set them up.
+     */
+    private void prepareIndexes(CAS aCas)
+    {
+        TypeSystem ts = aCas.getTypeSystem();
+        Type annotationType = aCas.getAnnotationType();
+        Iterator<Type> types = ts.getTypeIterator();
+        while (types.hasNext()) {
+            Type type = types.next();
+            if (ts.subsumes(annotationType, type)) {
+                aCas.getAnnotationIndex(type).iterator();
+            }
+            else if (!ts.subsumes(type, annotationType)) {
+                aCas.getIndexRepository().getAllIndexedFS(type);
+            }
         }
     }
 
@@ -105,4 +266,16 @@ public class PreRendererImpl
         supportedFeaturesCache.asMap().keySet()
                 .removeIf(key -> Objects.equals(key.getId(), aEvent.getProject().getId()));
     }
+
+    private static class LayerRendering
+    {
+        private final Renderer renderer;
+        private final List<AnnotationFeature> features;
+
+        public LayerRendering(Renderer aRenderer, List<AnnotationFeature> aFeatures)
+        {
+            renderer = aRenderer;
+            features = aFeatures;
+        }
+    }
 }
@@ -38,10 +38,6 @@ import org.apache.uima.cas.Feature;
 import org.apache.uima.cas.FeatureStructure;
 import org.apache.uima.cas.Type;
 import org.apache.uima.cas.text.AnnotationFS;
-import org.apache.wicket.Page;
-import org.apache.wicket.core.request.handler.IPageRequestHandler;
-import org.apache.wicket.request.cycle.PageRequestHandlerTracker;
-import org.apache.wicket.request.cycle.RequestCycle;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.core.annotation.AnnotationAwareOrderComparator;
@@ -146,11 +142,9 @@ public class RelationRenderer
                 message.append("\nDependent: " + dependentFs);
                 message.append("\nGovernor: " + governorFs);
 
-                RequestCycle requestCycle = RequestCycle.get();
-                IPageRequestHandler handler = PageRequestHandlerTracker
-                        .getLastHandler(requestCycle);
-                Page page = (Page) handler.getPage();
-                page.warn(message.toString());
+                // The layer may be rendered on a worker thread which has no request cycle, so the
+                // warning is reported to the user by the pre-renderer
+                aResponse.addWarning(message.toString());
 
                 continue;
             }
@@ -66,6 +66,19 @@ public class VArc
         target = aTarget;
     }
 
+    private VArc(VArc aOther)
+    {
+        super(aOther);
+        source = aOther.source;
+        target = aOther.target;
+    }
+
+    @Override
+    public VArc copy()
+    {
+        return new VArc(this);
+    }
+
     public VID getSource()
     {
         return source;
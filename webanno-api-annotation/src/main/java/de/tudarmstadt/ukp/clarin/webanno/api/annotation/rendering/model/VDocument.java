@@ -39,6 +39,7 @@ public class VDocument
     private final ListValuedMap<Long, VSpan> spansByLayer = new ArrayListValuedHashMap<>();
     private final Map<Long, AnnotationLayer> annotationLayers = new LinkedHashMap<>();
     private final List<VMarker> markers = new ArrayList<>();
+    private final List<String> warnings = new ArrayList<>();
 
     public void add(VArc aArc)
     {
@@ -72,6 +73,45 @@ public class VDocument
         markers.add(aMarker);
     }
 
+    /**
+     * Records a problem encountered while rendering which should be reported to the user.
+     */
+    public void addWarning(String aMessage)
+    {
+        warnings.add(aMessage);
+    }
+
+    /**
+     * Adds all spans, arcs, comments, markers and warnings of the given document to this document.
+     * The objects themselves are not copied.
+     */
+    public void addAll(VDocument aDocument)
+    {
+        // Retain the order of the layers in the other document
+        aDocument.annotationLayers.forEach(annotationLayers::putIfAbsent);
+        aDocument.spans.values().forEach(this::add);
+        aDocument.arcs.values().forEach(this::add);
+        comments.putAll(aDocument.comments);
+        markers.addAll(aDocument.markers);
+        warnings.addAll(aDocument.warnings);
+    }
+
+    /**
+     * @return a copy of this document. The spans and arcs are copied so they can be changed without
+     *         affecting this document. Comments, markers and warnings are immutable and shared.
+     */
+    public VDocument copy()
+    {
+        VDocument copy = new VDocument();
+        copy.annotationLayers.putAll(annotationLayers);
+        spans.values().forEach(span -> copy.add(span.copy()));
+        arcs.values().forEach(arc -> copy.add(arc.copy()));
+        copy.comments.putAll(comments);
+        copy.markers.addAll(markers);
+        copy.warnings.addAll(warnings);
+        return copy;
+    }
+
     public VSpan getSpan(VID aVid)
     {
         return spans.get(aVid);
@@ -92,6 +132,11 @@ public class VDocument
         return markers;
     }
 
+    public List<String> getWarnings()
+    {
+        return Collections.unmodifiableList(warnings);
+    }
+
     @SuppressWarnings({ "unchecked", "rawtypes" })
     public Collection<VSpan> spans(long aLayerId)
     {
@@ -55,6 +55,27 @@ public abstract class VObject
         equivalenceSet = aEquivalenceSet;
     }
 
+    /**
+     * Copies the given object. The maps and lists are copied, the values in them are immutable.
+     */
+    protected VObject(VObject aOther)
+    {
+        layer = aOther.layer;
+        vid = aOther.vid;
+        type = aOther.type;
+        features = new HashMap<>(aOther.features);
+        hoverFeatures = new HashMap<>(aOther.hoverFeatures);
+        lazyDetails = new ArrayList<>(aOther.lazyDetails);
+        equivalenceSet = aOther.equivalenceSet;
+        colorHint = aOther.colorHint;
+        label = aOther.label;
+    }
+
+    /**
+     * @return a copy of this object which can be changed without affecting this object.
+     */
+    public abstract VObject copy();
+
     public VID getVid()
     {
         return vid;
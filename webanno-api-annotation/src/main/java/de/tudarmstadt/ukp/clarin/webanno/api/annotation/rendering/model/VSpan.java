@@ -85,6 +85,18 @@ public class VSpan
         ranges = aOffsets != null ? aOffsets : new ArrayList<>();
     }
 
+    private VSpan(VSpan aOther)
+    {
+        super(aOther);
+        ranges = new ArrayList<>(aOther.ranges);
+    }
+
+    @Override
+    public VSpan copy()
+    {
+        return new VSpan(this);
+    }
+
     public List<VRange> getOffsets()
     {
         return ranges;
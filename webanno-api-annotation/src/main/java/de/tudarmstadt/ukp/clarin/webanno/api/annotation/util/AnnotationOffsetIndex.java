@@ -0,0 +1,226 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.annotation.util;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.getRealCas;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.impl.CASImpl;
+import org.apache.uima.cas.impl.LowLevelIndex;
+import org.apache.uima.cas.impl.LowLevelIterator;
+import org.apache.uima.cas.text.AnnotationFS;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+/**
+ * Sorted begin/end offsets of all annotations of a type in a CAS which allow locating annotations
+ * by offset using a binary search instead of walking the annotation index from the start of the
+ * document.
+ * <p>
+ * The indexes are built lazily per CAS view and type. An index is rebuilt when the UIMA index of
+ * the type has been updated in any way since the index was built - this includes adding and
+ * removing annotations as well as changing their offsets in place (UIMA automatically removes
+ * and re-adds annotations when their offsets change) and resetting the CAS.
+ * <p>
+ * Since the indexes refer to the annotations and thus to the CAS, the cache holds them weakly as
+ * well. Otherwise, the cache would keep the CAS alive. The indexes are only kept while they are in
+ * use and until the next garbage collection. They never prolong the life of a CAS, but may have to
+ * be rebuilt more often.
+ */
+class AnnotationOffsetIndex
+{
+    private static final Cache<CAS, IndexHolder> INDEXES = Caffeine.newBuilder() //
+            .weakKeys() //
+            .weakValues() //
+            .build();
+
+    private final Type type;
+    private final int casResets;
+    // An iterator over the UIMA index which has not been moved since the index was built. It
+    // reports whether the UIMA index has been updated since it was created.
+    private final LowLevelIterator<AnnotationFS> updateMonitor;
+    private final AnnotationFS[] annotations;
+    private final int[] begins;
+    private final int[] ends;
+    // Largest end offset of all annotations up to the respective position. Since the annotations
+    // are sorted by begin offset, this allows locating the first annotation which reaches beyond a
+    // given offset even if the annotations overlap.
+    private final int[] maxEnds;
+
+    private AnnotationOffsetIndex(CASImpl aCas, Type aType)
+    {
+        type = aType;
+        casResets = aCas.getCasResets();
+
+        LowLevelIndex<AnnotationFS> index = (LowLevelIndex<AnnotationFS>) aCas
+                .getAnnotationIndex(aType);
+        updateMonitor = index.iterator();
+        annotations = new AnnotationFS[index.size()];
+        begins = new int[annotations.length];
+        ends = new int[annotations.length];
+        maxEnds = new int[annotations.length];
+
+        int i = 0;
+        int maxEnd = Integer.MIN_VALUE;
+        for (AnnotationFS ann : index) {
+            annotations[i] = ann;
+            begins[i] = ann.getBegin();
+            ends[i] = ann.getEnd();
+            maxEnd = Math.max(maxEnd, ann.getEnd());
+            maxEnds[i] = maxEnd;
+            i++;
+        }
+    }
+
+    /**
+     * @return the offset index for the given type in the given CAS (view).
+     */
+    static AnnotationOffsetIndex get(CAS aCas, Type aType)
+    {
+        CASImpl casImpl = (CASImpl) getRealCas(aCas);
+        IndexHolder holder = INDEXES.get(casImpl, key -> new IndexHolder());
+        return holder.get(casImpl, aType);
+    }
+
+    int size()
+    {
+        return annotations.length;
+    }
+
+    /**
+     * @return the first annotation starting at the given offset.
+     */
+    AnnotationFS selectAt(int aBegin)
+    {
+        int i = firstBeginAtOrAfter(aBegin);
+        return i < annotations.length && begins[i] == aBegin ? annotations[i] : null;
+    }
+
+    /**
+     * @return the first annotation for which {@code begin <= aOffset < end}.
+     */
+    AnnotationFS selectCovering(int aOffset)
+    {
+        int i = firstMaxEndAfter(aOffset);
+        return i < annotations.length && begins[i] <= aOffset ? annotations[i] : null;
+    }
+
+    /**
+     * @return the first annotation for which {@code begin <= aBegin < end <= aEnd}.
+     */
+    AnnotationFS selectCoveringEndingWithin(int aBegin, int aEnd)
+    {
+        for (int i = firstMaxEndAfter(aBegin); i < annotations.length
+                && begins[i] <= aBegin; i++) {
+            if (ends[i] > aBegin && ends[i] <= aEnd) {
+                return annotations[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the position of the first annotation for which {@code begin <= aOffset <= end} or
+     *         {@code -1} if there is no such annotation.
+     */
+    int indexOfCoveringInclusive(int aOffset)
+    {
+        int i = lowerBound(maxEnds, aOffset);
+        return i < annotations.length && begins[i] <= aOffset ? i : -1;
+    }
+
+    /**
+     * @return all annotations for which {@code begin < aEnd} and {@code end > aBegin} in index
+     *         order.
+     */
+    List<AnnotationFS> selectOverlapping(int aBegin, int aEnd)
+    {
+        List<AnnotationFS> result = new ArrayList<>();
+        for (int i = firstMaxEndAfter(aBegin); i < annotations.length && begins[i] < aEnd; i++) {
+            if (ends[i] > aBegin) {
+                result.add(annotations[i]);
+            }
+        }
+        return result;
+    }
+
+    private boolean isValid(CASImpl aCas)
+    {
+        return casResets == aCas.getCasResets() && !updateMonitor.isIndexesHaveBeenUpdated();
+    }
+
+    private int firstBeginAtOrAfter(int aOffset)
+    {
+        return lowerBound(begins, aOffset);
+    }
+
+    private int firstMaxEndAfter(int aOffset)
+    {
+        return aOffset == Integer.MAX_VALUE ? maxEnds.length : lowerBound(maxEnds, aOffset + 1);
+    }
+
+    /**
+     * @return position of the first value in the sorted array which is not smaller than the given
+     *         value or the length of the array if there is no such value.
+     */
+    private static int lowerBound(int[] aSorted, int aValue)
+    {
+        int low = 0;
+        int high = aSorted.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (aSorted[mid] < aValue) {
+                low = mid + 1;
+            }
+            else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static class IndexHolder
+    {
+        // Usually, there are only indexes for sentences and tokens
+        private volatile List<AnnotationOffsetIndex> indexes = new ArrayList<>();
+
+        AnnotationOffsetIndex get(CASImpl aCas, Type aType)
+        {
+            List<AnnotationOffsetIndex> current = indexes;
+            for (AnnotationOffsetIndex index : current) {
+                if (index.type.equals(aType) && index.isValid(aCas)) {
+                    return index;
+                }
+            }
+
+            // If multiple threads read the same CAS, they may build the index concurrently. The
+            // indexes are immutable, so the last one simply wins.
+            AnnotationOffsetIndex index = new AnnotationOffsetIndex(aCas, aType);
+            List<AnnotationOffsetIndex> updated = new ArrayList<>(current);
+            updated.removeIf(other -> other.type.equals(aType));
+            updated.add(index);
+            indexes = updated;
+            return index;
+        }
+    }
+}
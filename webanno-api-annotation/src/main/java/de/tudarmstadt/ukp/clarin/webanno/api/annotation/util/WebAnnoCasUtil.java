@@ -42,6 +42,7 @@ import org.apache.uima.cas.CAS;
 import org.apache.uima.cas.Feature;
 import org.apache.uima.cas.FeatureStructure;
 import org.apache.uima.cas.Type;
+import org.apache.uima.cas.TypeSystem;
 import org.apache.uima.cas.impl.CASImpl;
 import org.apache.uima.cas.text.AnnotationFS;
 import org.apache.uima.fit.util.CasUtil;
@@ -68,21 +69,43 @@ public class WebAnnoCasUtil
     private static final boolean ENFORCE_CAS_THREAD_LOCK = System
             .getProperty(PROP_ENFORCE_CAS_THREAD_LOCK, "true").equals("true");
 
+    // Type system containing only the UIMA built-in types. Empty CASes are usually filled from a
+    // serialized CAS which replaces the type system anyway, so there is no need to compile a new
+    // one every time.
+    private static volatile TypeSystem builtInTypeSystem;
+
     public static CAS createCas(TypeSystemDescription aTSD) throws ResourceInitializationException
     {
-        CAS cas = CasCreationUtils.createCas(aTSD, null, null);
+        return makeThreadLocked(CasCreationUtils.createCas(aTSD, null, null));
+    }
+
+    /**
+     * Creates a new CAS using the given committed type system. This avoids compiling a new type
+     * system for every CAS.
+     */
+    public static CAS createCas(TypeSystem aTypeSystem) throws ResourceInitializationException
+    {
+        return makeThreadLocked(CasCreationUtils.createCas(aTypeSystem, null, null, null));
+    }
 
-        if (ENFORCE_CAS_THREAD_LOCK) {
-            cas = (CAS) Proxy.newProxyInstance(cas.getClass().getClassLoader(),
-                    new Class[] { CAS.class }, new ThreadLockingInvocationHandler(cas));
+    public static CAS createCas() throws ResourceInitializationException
+    {
+        if (builtInTypeSystem == null) {
+            builtInTypeSystem = CasCreationUtils
+                    .createCas((TypeSystemDescription) null, null, null).getTypeSystem();
         }
 
-        return cas;
+        return createCas(builtInTypeSystem);
     }
 
-    public static CAS createCas() throws ResourceInitializationException
+    private static CAS makeThreadLocked(CAS aCas)
     {
-        return createCas(null);
+        if (!ENFORCE_CAS_THREAD_LOCK) {
+            return aCas;
+        }
+
+        return (CAS) Proxy.newProxyInstance(aCas.getClass().getClassLoader(),
+                new Class[] { CAS.class }, new ThreadLockingInvocationHandler(aCas));
     }
 
     public static CAS getRealCas(CAS aCas)
@@ -313,8 +336,7 @@ public class WebAnnoCasUtil
      */
     public static AnnotationFS selectSentenceAt(CAS aCas, int aBegin)
     {
-        return CasUtil.select(aCas, getType(aCas, Sentence.class)).stream()
-                .filter(s -> s.getBegin() == aBegin).findFirst().orElse(null);
+        return sentenceIndex(aCas).selectAt(aBegin);
     }
 
     public static AnnotationFS createToken(CAS aCas, int aBegin, int aEnd)
@@ -352,6 +374,11 @@ public class WebAnnoCasUtil
      */
     public static List<AnnotationFS> selectOverlapping(CAS aCas, Type aType, int aBegin, int aEnd)
     {
+        // Sentences and tokens are looked up often, so we maintain offset indexes for them
+        if (aType.getName().equals(Sentence.class.getName())
+                || aType.getName().equals(Token.class.getName())) {
+            return AnnotationOffsetIndex.get(aCas, aType).selectOverlapping(aBegin, aEnd);
+        }
 
         List<AnnotationFS> annotations = new ArrayList<>();
         for (AnnotationFS t : select(aCas, aType)) {
@@ -399,15 +426,7 @@ public class WebAnnoCasUtil
      */
     public static AnnotationFS getCurrentSentence(CAS aCas, int aBegin, int aEnd)
     {
-        AnnotationFS currentSentence = null;
-        for (AnnotationFS sentence : selectSentences(aCas)) {
-            if (sentence.getBegin() <= aBegin && sentence.getEnd() > aBegin
-                    && sentence.getEnd() <= aEnd) {
-                currentSentence = sentence;
-                break;
-            }
-        }
-        return currentSentence;
+        return sentenceIndex(aCas).selectCoveringEndingWithin(aBegin, aEnd);
     }
 
     /**
@@ -421,14 +440,7 @@ public class WebAnnoCasUtil
      */
     public static AnnotationFS selectSentenceCovering(CAS aCas, int aBegin)
     {
-        AnnotationFS currentSentence = null;
-        for (AnnotationFS sentence : select(aCas, getType(aCas, Sentence.class))) {
-            if (sentence.getBegin() <= aBegin && sentence.getEnd() > aBegin) {
-                currentSentence = sentence;
-                break;
-            }
-        }
-        return currentSentence;
+        return sentenceIndex(aCas).selectCovering(aBegin);
     }
 
     public static AnnotationFS getNextToken(CAS aCas, int aBegin, int aEnd)
@@ -463,22 +475,19 @@ public class WebAnnoCasUtil
      */
     public static int getSentenceNumber(CAS aCas, int aBeginOffset)
     {
-        int sentenceNumber = 0;
-
-        Type sentenceType = getType(aCas, Sentence.class);
-        Collection<AnnotationFS> sentences = select(aCas, sentenceType);
-        if (sentences.isEmpty()) {
+        AnnotationOffsetIndex sentences = sentenceIndex(aCas);
+        if (sentences.size() == 0) {
             throw new IndexOutOfBoundsException("No sentences");
         }
 
-        for (AnnotationFS sentence : select(aCas, sentenceType)) {
-            if (sentence.getBegin() <= aBeginOffset && aBeginOffset <= sentence.getEnd()) {
-                sentenceNumber++;
-                break;
-            }
-            sentenceNumber++;
-        }
-        return sentenceNumber;
+        // If no sentence contains the offset, the number of sentences is returned
+        int index = sentences.indexOfCoveringInclusive(aBeginOffset);
+        return index >= 0 ? index + 1 : sentences.size();
+    }
+
+    private static AnnotationOffsetIndex sentenceIndex(CAS aCas)
+    {
+        return AnnotationOffsetIndex.get(aCas, getType(aCas, Sentence.class));
     }
 
     public static Collection<AnnotationFS> selectSentences(CAS aCas)
@@ -0,0 +1,162 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyMap;
+import static java.util.stream.Collectors.toList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.List;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.fit.factory.CasFactory;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.event.SpanCreatedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.VID;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.model.VDocument;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.model.VRange;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.model.VSpan;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+public class PreRenderCacheImplTest
+{
+    private PreRenderer preRenderer;
+    private PreRenderCacheImpl sut;
+    private SourceDocument document;
+    private List<AnnotationLayer> layers;
+    private CAS cas;
+
+    @Before
+    public void setup() throws Exception
+    {
+        Project project = new Project();
+        project.setId(1l);
+
+        document = new SourceDocument();
+        document.setId(2l);
+        document.setProject(project);
+
+        AnnotationLayer layer = new AnnotationLayer();
+        layer.setId(3l);
+        layer.setProject(project);
+        layers = asList(layer);
+
+        preRenderer = mock(PreRenderer.class);
+        doAnswer(invocation -> {
+            VDocument vdoc = invocation.getArgument(0);
+            int begin = invocation.getArgument(1);
+            vdoc.add(new VSpan(layer, new VID(begin), "type", new VRange(begin, begin + 1),
+                    emptyMap(), emptyMap()));
+            return null;
+        }).when(preRenderer).render(any(), anyInt(), anyInt(), any(), anyList());
+
+        sut = new PreRenderCacheImpl(preRenderer, new PreRenderCacheProperties());
+
+        cas = CasFactory.createCas();
+    }
+
+    @Test
+    public void thatRenderingIsReused()
+    {
+        VDocument first = render(0, 10, cas);
+        VDocument second = render(0, 10, cas);
+
+        verify(preRenderer, times(1)).render(any(), anyInt(), anyInt(), any(), anyList());
+        assertThat(second.spans()).extracting(VSpan::getVid)
+                .containsExactlyElementsOf(first.spans().stream().map(VSpan::getVid)
+                        .collect(toList()));
+    }
+
+    @Test
+    public void thatChangesToRenderingDoNotAffectCache()
+    {
+        VDocument first = render(0, 10, cas);
+        VSpan span = first.spans().iterator().next();
+        span.addHoverFeature("feature", "value");
+        span.setColorHint("red");
+
+        VDocument second = render(0, 10, cas);
+
+        verify(preRenderer, times(1)).render(any(), anyInt(), anyInt(), any(), anyList());
+        VSpan cachedSpan = second.spans().iterator().next();
+        assertThat(cachedSpan).isNotSameAs(span);
+        assertThat(cachedSpan.getHoverFeatures()).isEmpty();
+        assertThat(cachedSpan.getColorHint()).isNull();
+    }
+
+    @Test
+    public void thatOtherWindowIsRendered()
+    {
+        render(0, 10, cas);
+        VDocument second = render(10, 20, cas);
+
+        verify(preRenderer, times(2)).render(any(), anyInt(), anyInt(), any(), anyList());
+        assertThat(second.spans()).extracting(span -> span.getVid().getId())
+                .containsExactly(10);
+    }
+
+    @Test
+    public void thatAnnotationEventInvalidatesRendering()
+    {
+        render(0, 10, cas);
+        sut.onAnnotationEvent(
+                new SpanCreatedEvent(this, document, "user", layers.get(0), null));
+        render(0, 10, cas);
+
+        verify(preRenderer, times(2)).render(any(), anyInt(), anyInt(), any(), anyList());
+    }
+
+    @Test
+    public void thatAnnotationEventOfOtherUserDoesNotInvalidateRendering()
+    {
+        render(0, 10, cas);
+        sut.onAnnotationEvent(
+                new SpanCreatedEvent(this, document, "other", layers.get(0), null));
+        render(0, 10, cas);
+
+        verify(preRenderer, times(1)).render(any(), anyInt(), anyInt(), any(), anyList());
+    }
+
+    @Test
+    public void thatRenderingOfOtherCasIsNotReused() throws Exception
+    {
+        render(0, 10, cas);
+        render(0, 10, CasFactory.createCas());
+
+        verify(preRenderer, times(2)).render(any(), anyInt(), anyInt(), any(), anyList());
+    }
+
+    private VDocument render(int aBegin, int aEnd, CAS aCas)
+    {
+        VDocument vdoc = new VDocument();
+        sut.render(vdoc, document, "user", aBegin, aEnd, aCas, layers);
+        return vdoc;
+    }
+}
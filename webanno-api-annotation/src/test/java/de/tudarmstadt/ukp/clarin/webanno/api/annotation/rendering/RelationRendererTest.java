@@ -32,6 +32,9 @@ import static de.tudarmstadt.ukp.clarin.webanno.model.OverlapMode.STACKING_ONLY;
 import static java.util.Arrays.asList;
 import static org.apache.uima.fit.util.JCasUtil.select;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -43,6 +46,7 @@ import org.apache.uima.jcas.JCas;
 import org.junit.Before;
 import org.junit.Test;
 
+import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.adapter.RelationAdapter;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.adapter.RelationAttachmentBehavior;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.adapter.RelationCrossSentenceBehavior;
@@ -50,6 +54,7 @@ import de.tudarmstadt.ukp.clarin.webanno.api.annotation.adapter.RelationLayerBeh
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.adapter.RelationOverlapBehavior;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.feature.FeatureSupportRegistry;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.feature.FeatureSupportRegistryImpl;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.layer.LayerSupport;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.layer.LayerSupportRegistry;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.layer.LayerSupportRegistryImpl;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.VID;
@@ -247,4 +252,55 @@ public class RelationRendererTest
                             new VComment(dep3, ERROR, "Overlap is not permitted."));
         }
     }
+
+    @Test
+    public void thatLooseEndsAreReportedWhenRenderingInParallel() throws Exception
+    {
+        TokenBuilder<Token, Sentence> builder = new TokenBuilder<>(Token.class, Sentence.class);
+        builder.buildTokens(jcas, "This is a test .");
+
+        // The dependent token has no POS to attach the relation to
+        List<Token> tokens = new ArrayList<>(select(jcas, Token.class));
+        Token governor = tokens.get(0);
+        POS pos = new POS(jcas, governor.getBegin(), governor.getEnd());
+        governor.setPos(pos);
+        pos.addToIndexes();
+        Dependency dep = new Dependency(jcas, tokens.get(1).getBegin(), tokens.get(1).getEnd());
+        dep.setGovernor(governor);
+        dep.setDependent(tokens.get(1));
+        dep.addToIndexes();
+
+        RelationAdapter adapter = new RelationAdapter(layerSupportRegistry, featureSupportRegistry,
+                null, depLayer, FEAT_REL_TARGET, FEAT_REL_SOURCE,
+                () -> asList(dependencyLayerGovernor, dependencyLayerDependent), behaviors);
+        RelationRenderer renderer = new RelationRenderer(adapter, layerSupportRegistry,
+                featureSupportRegistry, behaviors);
+
+        LayerSupport layerSupport = mock(LayerSupport.class);
+        when(layerSupport.createRenderer(any(), any())).thenReturn(renderer);
+        LayerSupportRegistry registry = mock(LayerSupportRegistry.class);
+        when(registry.getLayerSupport(any(AnnotationLayer.class))).thenReturn(layerSupport);
+        AnnotationSchemaService schemaService = mock(AnnotationSchemaService.class);
+        when(schemaService.listSupportedFeatures(any(Project.class))).thenReturn(asList());
+        when(schemaService.listAnnotationFeature(any(Project.class))).thenReturn(asList());
+
+        ParallelRenderingProperties properties = new ParallelRenderingProperties();
+        properties.setEnabled(true);
+        properties.setThreads(2);
+        properties.setMinLayers(1);
+        PreRendererImpl sut = new PreRendererImpl(registry, schemaService, properties);
+
+        VDocument vdoc = new VDocument();
+        try {
+            sut.render(vdoc, 0, jcas.getDocumentText().length(), jcas.getCas(),
+                    asList(depLayer));
+        }
+        finally {
+            sut.destroy();
+        }
+
+        assertThat(vdoc.arcs()).isEmpty();
+        assertThat(vdoc.getWarnings()).hasSize(1);
+        assertThat(vdoc.getWarnings().get(0)).contains("has loose ends");
+    }
 }
@@ -18,17 +18,32 @@
 package de.tudarmstadt.ukp.clarin.webanno.api.annotation.util;
 
 import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.createCas;
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.createSentence;
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.getCurrentSentence;
 import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.getRealCas;
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.getSentenceNumber;
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.selectOverlapping;
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.selectSentenceAt;
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.selectSentenceCovering;
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.selectSentences;
 import static org.apache.uima.cas.CAS.TYPE_NAME_DOCUMENT_ANNOTATION;
 import static org.apache.uima.fit.factory.TypeSystemDescriptionFactory.createTypeSystemDescription;
+import static org.apache.uima.fit.util.CasUtil.getType;
 import static org.assertj.core.api.Assertions.assertThat;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
 import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.text.AnnotationFS;
 import org.apache.uima.jcas.tcas.DocumentAnnotation;
 import org.apache.uima.resource.metadata.TypeSystemDescription;
 import org.junit.Test;
 
 import de.tudarmstadt.ukp.dkpro.core.api.metadata.type.DocumentMetaData;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
 
 public class WebAnnoCasUtilTest
 {
@@ -60,4 +75,139 @@ public class WebAnnoCasUtilTest
         assertThat(cas.select(DocumentAnnotation.class).asList()).as("Language survived upgrade")
                 .extracting(DocumentAnnotation::getLanguage).containsExactly("en");
     }
+
+    @Test
+    public void thatSentenceLookupsMatchLinearScan() throws Exception
+    {
+        CAS cas = getRealCas(createCas(createTypeSystemDescription()));
+        cas.setDocumentText("This is one. This is two.  And three. Four and five overlap.");
+        // Sentences with gaps, touching sentences and overlapping sentences
+        createSentences(cas, 0, 12, 13, 25, 27, 38, 39, 50, 44, 61, 50, 61);
+
+        for (int begin = -1; begin <= cas.getDocumentText().length() + 1; begin++) {
+            int b = begin;
+            assertThat(selectSentenceAt(cas, begin)).as("selectSentenceAt(%d)", begin)
+                    .isSameAs(first(cas, s -> s.getBegin() == b));
+            assertThat(selectSentenceCovering(cas, begin)).as("selectSentenceCovering(%d)", begin)
+                    .isSameAs(first(cas, s -> s.getBegin() <= b && b < s.getEnd()));
+            assertThat(getSentenceNumber(cas, begin)).as("getSentenceNumber(%d)", begin)
+                    .isEqualTo(sentenceNumberByLinearScan(cas, begin));
+
+            for (int end = begin; end <= cas.getDocumentText().length() + 1; end++) {
+                int e = end;
+                assertThat(getCurrentSentence(cas, begin, end))
+                        .as("getCurrentSentence(%d, %d)", begin, end)
+                        .isSameAs(first(cas, s -> s.getBegin() <= b && s.getEnd() > b
+                                && s.getEnd() <= e));
+
+                List<AnnotationFS> overlapping = new ArrayList<>();
+                for (AnnotationFS s : selectSentences(cas)) {
+                    if (s.getBegin() < end && s.getEnd() > begin) {
+                        overlapping.add(s);
+                    }
+                }
+                assertThat(selectOverlapping(cas, getType(cas, Sentence.class), begin, end))
+                        .as("selectOverlapping(%d, %d)", begin, end)
+                        .containsExactlyElementsOf(overlapping);
+            }
+        }
+    }
+
+    @Test
+    public void thatSentenceLookupsSeeChangedSentences() throws Exception
+    {
+        CAS cas = getRealCas(createCas(createTypeSystemDescription()));
+        cas.setDocumentText("This is one. This is two.");
+        createSentences(cas, 0, 12);
+
+        assertThat(selectSentenceCovering(cas, 15)).isNull();
+        assertThat(getSentenceNumber(cas, 15)).isEqualTo(1);
+
+        AnnotationFS second = createSentence(cas, 13, 25);
+        cas.addFsToIndexes(second);
+
+        assertThat(selectSentenceCovering(cas, 15)).isSameAs(second);
+        assertThat(getSentenceNumber(cas, 15)).isEqualTo(2);
+
+        cas.removeFsFromIndexes(second);
+
+        assertThat(selectSentenceCovering(cas, 15)).isNull();
+
+        cas.reset();
+        cas.setDocumentText("Another text.");
+        createSentences(cas, 0, 13);
+
+        assertThat(selectSentenceAt(cas, 0).getCoveredText()).isEqualTo("Another text.");
+    }
+
+    @Test
+    public void thatSentenceLookupsSeeSentencesChangedInPlace() throws Exception
+    {
+        CAS cas = getRealCas(createCas(createTypeSystemDescription()));
+        cas.setDocumentText("This is one. This is two.");
+        createSentences(cas, 0, 12, 13, 25);
+        Type sentenceType = getType(cas, Sentence.class);
+
+        assertThat(selectOverlapping(cas, sentenceType, 8, 10)).hasSize(1);
+        assertThat(getSentenceNumber(cas, 20)).isEqualTo(2);
+
+        // Change the offsets of indexed sentences in place like the TSV readers do
+        Sentence first = (Sentence) selectSentenceAt(cas, 0);
+        Sentence second = (Sentence) selectSentenceAt(cas, 13);
+        first.setEnd(5);
+        second.setBegin(0);
+
+        assertThat(selectSentenceAt(cas, 0)).isSameAs(second);
+        assertThat(selectSentenceAt(cas, 13)).isNull();
+        assertThat(selectSentenceCovering(cas, 20)).isSameAs(second);
+        assertThat(selectOverlapping(cas, sentenceType, 8, 10)).containsExactly(second);
+
+        // Move the sentence back by removing it, changing it and adding it again
+        cas.removeFsFromIndexes(second);
+        second.setBegin(13);
+        cas.addFsToIndexes(second);
+
+        assertThat(selectSentenceAt(cas, 0)).isSameAs(first);
+        assertThat(selectSentenceAt(cas, 13)).isSameAs(second);
+        assertThat(getSentenceNumber(cas, 20)).isEqualTo(2);
+        assertThat(selectOverlapping(cas, sentenceType, 8, 10)).isEmpty();
+    }
+
+    @Test
+    public void thatSentenceLookupsSeeFirstSentence() throws Exception
+    {
+        CAS cas = getRealCas(createCas(createTypeSystemDescription()));
+        cas.setDocumentText("This is one.");
+
+        assertThat(selectSentenceAt(cas, 0)).isNull();
+
+        createSentences(cas, 0, 12);
+
+        assertThat(selectSentenceAt(cas, 0).getCoveredText()).isEqualTo("This is one.");
+        assertThat(getSentenceNumber(cas, 5)).isEqualTo(1);
+    }
+
+    private static void createSentences(CAS aCas, int... aOffsets)
+    {
+        for (int i = 0; i < aOffsets.length; i += 2) {
+            aCas.addFsToIndexes(createSentence(aCas, aOffsets[i], aOffsets[i + 1]));
+        }
+    }
+
+    private static AnnotationFS first(CAS aCas, Predicate<AnnotationFS> aFilter)
+    {
+        return selectSentences(aCas).stream().filter(aFilter).findFirst().orElse(null);
+    }
+
+    private static int sentenceNumberByLinearScan(CAS aCas, int aOffset)
+    {
+        int sentenceNumber = 0;
+        for (AnnotationFS sentence : selectSentences(aCas)) {
+            sentenceNumber++;
+            if (sentence.getBegin() <= aOffset && aOffset <= sentence.getEnd()) {
+                break;
+            }
+        }
+        return sentenceNumber;
+    }
 }
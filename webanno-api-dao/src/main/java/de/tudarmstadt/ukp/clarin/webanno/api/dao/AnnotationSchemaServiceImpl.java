@@ -26,6 +26,9 @@ import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUt
 import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.isNativeUimaType;
 import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.isSame;
 import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.selectByAddr;
+import static de.tudarmstadt.ukp.clarin.webanno.api.dao.CasMetadataUtils.getTypeSystemFingerprint;
+import static de.tudarmstadt.ukp.clarin.webanno.api.dao.CasMetadataUtils.setTypeSystemFingerprint;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Arrays.asList;
 import static java.util.Objects.isNull;
 import static java.util.concurrent.TimeUnit.MINUTES;
@@ -40,11 +43,17 @@ import static org.hibernate.annotations.QueryHints.CACHEABLE;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.persistence.EntityManager;
 import javax.persistence.NoResultException;
@@ -59,7 +68,6 @@ import org.apache.uima.cas.TypeSystem;
 import org.apache.uima.cas.impl.CASCompleteSerializer;
 import org.apache.uima.cas.impl.CASImpl;
 import org.apache.uima.cas.text.AnnotationFS;
-import org.apache.uima.fit.factory.CasFactory;
 import org.apache.uima.fit.util.CasUtil;
 import org.apache.uima.resource.ResourceInitializationException;
 import org.apache.uima.resource.metadata.FeatureDescription;
@@ -75,7 +83,9 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.event.TransactionalEventListener;
 
+import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
 import com.github.benmanes.caffeine.cache.LoadingCache;
 
@@ -93,6 +103,7 @@ import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.LinkWithRoleModel;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.TypeSystemAnalysis;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.TypeSystemAnalysis.RelationDetails;
 import de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasStorageSession;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.LayerConfigurationChangedEvent;
 import de.tudarmstadt.ukp.clarin.webanno.api.event.TagCreatedEvent;
 import de.tudarmstadt.ukp.clarin.webanno.api.event.TagDeletedEvent;
 import de.tudarmstadt.ukp.clarin.webanno.api.event.TagUpdatedEvent;
@@ -126,6 +137,8 @@ public class AnnotationSchemaServiceImpl
     private final LayerSupportRegistry layerSupportRegistry;
     private final FeatureSupportRegistry featureSupportRegistry;
     private final LoadingCache<TagSet, List<ImmutableTag>> immutableTagsCache;
+    private final Cache<Long, ProjectTypeSystem> projectTypeSystemCache;
+    private final Map<Long, AtomicLong> projectTypeSystemVersions;
     private final TypeSystemDescription builtInTypes;
 
     @Autowired
@@ -140,6 +153,10 @@ public class AnnotationSchemaServiceImpl
         immutableTagsCache = Caffeine.newBuilder().expireAfterAccess(5, MINUTES)
                 .maximumSize(10 * 1024).build(this::loadImmutableTags);
 
+        projectTypeSystemCache = Caffeine.newBuilder().expireAfterAccess(30, MINUTES)
+                .maximumSize(1024).build();
+        projectTypeSystemVersions = new ConcurrentHashMap<>();
+
         try {
             builtInTypes = createTypeSystemDescription();
         }
@@ -261,6 +278,8 @@ public class AnnotationSchemaServiceImpl
             entityManager.merge(aLayer);
         }
 
+        invalidateProjectTypeSystem(aLayer.getProject());
+
         try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
                 String.valueOf(aLayer.getProject().getId()))) {
             Project project = aLayer.getProject();
@@ -280,6 +299,8 @@ public class AnnotationSchemaServiceImpl
             entityManager.merge(aFeature);
         }
 
+        invalidateProjectTypeSystem(aFeature.getProject());
+
         try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
                 String.valueOf(aFeature.getProject().getId()))) {
             Project project = aFeature.getProject();
@@ -827,6 +848,8 @@ public class AnnotationSchemaServiceImpl
         entityManager.remove(
                 entityManager.contains(aFeature) ? aFeature : entityManager.merge(aFeature));
 
+        invalidateProjectTypeSystem(aFeature.getProject());
+
         try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
                 String.valueOf(aFeature.getProject().getId()))) {
             Project project = aFeature.getProject();
@@ -857,6 +880,8 @@ public class AnnotationSchemaServiceImpl
 
         entityManager.remove(layer);
 
+        invalidateProjectTypeSystem(aLayer.getProject());
+
         try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
                 String.valueOf(aLayer.getProject().getId()))) {
             Project project = aLayer.getProject();
@@ -1048,6 +1073,15 @@ public class AnnotationSchemaServiceImpl
     public TypeSystemDescription getFullProjectTypeSystem(Project aProject,
             boolean aIncludeInternalTypes)
         throws ResourceInitializationException
+    {
+        ProjectTypeSystem projectTypeSystem = getProjectTypeSystem(aProject);
+        return aIncludeInternalTypes ? projectTypeSystem.getTypeSystemDescription()
+                : projectTypeSystem.getExportTypeSystemDescription();
+    }
+
+    private TypeSystemDescription createFullProjectTypeSystem(Project aProject,
+            boolean aIncludeInternalTypes)
+        throws ResourceInitializationException
     {
         List<TypeSystemDescription> typeSystems = new ArrayList<>();
 
@@ -1067,6 +1101,83 @@ public class AnnotationSchemaServiceImpl
         return mergeTypeSystems(typeSystems);
     }
 
+    /**
+     * Get the cached type system of the given project. If the layer configuration of the project
+     * has changed since the type system has been cached, the type system is rebuilt.
+     */
+    private ProjectTypeSystem getProjectTypeSystem(Project aProject)
+        throws ResourceInitializationException
+    {
+        // Unsaved projects cannot be cached because they have no ID yet
+        if (aProject == null || aProject.getId() == null) {
+            return new ProjectTypeSystem(-1, createFullProjectTypeSystem(aProject, true),
+                    createFullProjectTypeSystem(aProject, false));
+        }
+
+        long version = projectTypeSystemVersions
+                .computeIfAbsent(aProject.getId(), id -> new AtomicLong()).get();
+
+        ProjectTypeSystem projectTypeSystem = projectTypeSystemCache
+                .getIfPresent(aProject.getId());
+        if (projectTypeSystem != null && projectTypeSystem.getVersion() == version) {
+            return projectTypeSystem;
+        }
+
+        projectTypeSystem = new ProjectTypeSystem(version,
+                createFullProjectTypeSystem(aProject, true),
+                createFullProjectTypeSystem(aProject, false));
+        projectTypeSystemCache.put(aProject.getId(), projectTypeSystem);
+
+        log.debug("Built type system version {} for project [{}]({}) with fingerprint [{}]",
+                version, aProject.getName(), aProject.getId(), projectTypeSystem.getFingerprint());
+
+        return projectTypeSystem;
+    }
+
+    private void invalidateProjectTypeSystem(Project aProject)
+    {
+        if (aProject == null || aProject.getId() == null) {
+            return;
+        }
+
+        projectTypeSystemVersions.computeIfAbsent(aProject.getId(), id -> new AtomicLong())
+                .incrementAndGet();
+        projectTypeSystemCache.invalidate(aProject.getId());
+    }
+
+    @Override
+    public TypeSystem getTypeSystem(TypeSystemDescription aTypeSystemDescription)
+        throws ResourceInitializationException
+    {
+        // Project type systems are handed out as shared instances, so we can look them up by
+        // identity
+        for (ProjectTypeSystem projectTypeSystem : projectTypeSystemCache.asMap().values()) {
+            if (projectTypeSystem.getTypeSystemDescription() == aTypeSystemDescription) {
+                return projectTypeSystem.getTypeSystem();
+            }
+
+            if (projectTypeSystem.getExportTypeSystemDescription() == aTypeSystemDescription) {
+                return projectTypeSystem.getExportTypeSystem();
+            }
+        }
+
+        return compile(aTypeSystemDescription);
+    }
+
+    private static TypeSystem compile(TypeSystemDescription aTypeSystemDescription)
+        throws ResourceInitializationException
+    {
+        return CasCreationUtils.createCas(aTypeSystemDescription, null, null).getTypeSystem();
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onLayerConfigurationChanged(LayerConfigurationChangedEvent aEvent)
+    {
+        // The layers have already been invalidated while they were saved, but there might have
+        // been a concurrent access to the type system before the changes had been committed.
+        invalidateProjectTypeSystem(aEvent.getProject());
+    }
+
     @Override
     public void upgradeCas(CAS aCas, AnnotationDocument aAnnotationDocument)
         throws UIMAException, IOException
@@ -1121,8 +1232,9 @@ public class AnnotationSchemaServiceImpl
     @Override
     public void upgradeCas(CAS aCas, Project aProject) throws UIMAException, IOException
     {
-        TypeSystemDescription ts = getFullProjectTypeSystem(aProject);
-        upgradeCas(aCas, ts);
+        ProjectTypeSystem projectTypeSystem = getProjectTypeSystem(aProject);
+        upgradeCas(aCas, projectTypeSystem.getTypeSystemDescription());
+        setTypeSystemFingerprint(aCas, projectTypeSystem.getFingerprint());
     }
 
     @Override
@@ -1143,7 +1255,8 @@ public class AnnotationSchemaServiceImpl
     public boolean upgradeCasIfRequired(Iterable<CAS> aCasIter, Project aProject)
         throws UIMAException, IOException
     {
-        TypeSystemDescription ts = getFullProjectTypeSystem(aProject);
+        ProjectTypeSystem projectTypeSystem = getProjectTypeSystem(aProject);
+        TypeSystemDescription ts = projectTypeSystem.getTypeSystemDescription();
 
         // Check if the current CAS already contains the required type system
         boolean upgradePerformed = false;
@@ -1156,10 +1269,21 @@ public class AnnotationSchemaServiceImpl
             // eventually figure out that no upgrade is required.
             CasStorageSession.get().assertWritingPermitted(cas);
 
+            // If the CAS uses the committed project type system or if it has already been
+            // checked against or upgraded to the current project type system, we do not need to
+            // check it again
+            String fingerprint = projectTypeSystem.getFingerprint();
+            if (projectTypeSystem.isTypeSystem(cas.getTypeSystem())
+                    || getTypeSystemFingerprint(cas).map(fingerprint::equals).orElse(false)) {
+                continue nextCas;
+            }
+
             if (isUpgradeRequired(cas, ts)) {
                 upgradeCas(cas, ts);
                 upgradePerformed = true;
             }
+
+            setTypeSystemFingerprint(cas, fingerprint);
         }
 
         return upgradePerformed;
@@ -1203,6 +1327,25 @@ public class AnnotationSchemaServiceImpl
     {
         CasStorageSession.get().assertWritingPermitted(aTargetCas);
 
+        TypeSystem targetTypeSystem = getTypeSystem(aTargetTypeSystem);
+
+        // If the target type system only adds types and features, copy the feature structures
+        // directly into the re-initialized target CAS. Otherwise, fall back to serializing the
+        // source CAS and leniently loading it into the target CAS which drops any data that is
+        // not covered by the target type system.
+        if (CasUpgradeUtils.isUpgradeByCopyPossible(aSourceCas, targetTypeSystem)) {
+            log.debug("Upgrading CAS by copying feature structures");
+            // UIMA-6162 Workaround: synchronize CAS during de/serialization
+            synchronized (((CASImpl) getRealCas(aSourceCas)).getBaseCAS()) {
+                synchronized (((CASImpl) getRealCas(aTargetCas)).getBaseCAS()) {
+                    CasUpgradeUtils.upgradeCas(aSourceCas, aTargetCas, targetTypeSystem);
+                }
+            }
+            return;
+        }
+
+        log.debug("Upgrading CAS by serialization");
+
         // Save source CAS type system (do this early since we might do an in-place upgrade)
         TypeSystem sourceTypeSystem = aSourceCas.getTypeSystem();
 
@@ -1218,7 +1361,7 @@ public class AnnotationSchemaServiceImpl
         CAS realTargetCas = getRealCas(aTargetCas);
         // UIMA-6162 Workaround: synchronize CAS during de/serialization
         synchronized (((CASImpl) realTargetCas).getBaseCAS()) {
-            CAS tempCas = CasFactory.createCas(aTargetTypeSystem);
+            CAS tempCas = CasCreationUtils.createCas(targetTypeSystem, null, null, null);
             CASCompleteSerializer serializer = serializeCASComplete((CASImpl) tempCas);
             deserializeCASComplete(serializer, (CASImpl) realTargetCas);
 
@@ -1494,4 +1637,102 @@ public class AnnotationSchemaServiceImpl
         }
         return result;
     }
+
+    /**
+     * The merged type system of a project at a particular version of its layer configuration.
+     * Instances are shared between all users of the project and must not be modified.
+     */
+    private static class ProjectTypeSystem
+    {
+        private final long version;
+        private final TypeSystemDescription typeSystemDescription;
+        private final TypeSystemDescription exportTypeSystemDescription;
+        private final String fingerprint;
+        private TypeSystem typeSystem;
+        private TypeSystem exportTypeSystem;
+
+        public ProjectTypeSystem(long aVersion, TypeSystemDescription aTypeSystemDescription,
+                TypeSystemDescription aExportTypeSystemDescription)
+        {
+            version = aVersion;
+            typeSystemDescription = aTypeSystemDescription;
+            exportTypeSystemDescription = aExportTypeSystemDescription;
+            fingerprint = fingerprint(aTypeSystemDescription);
+        }
+
+        public long getVersion()
+        {
+            return version;
+        }
+
+        public TypeSystemDescription getTypeSystemDescription()
+        {
+            return typeSystemDescription;
+        }
+
+        public TypeSystemDescription getExportTypeSystemDescription()
+        {
+            return exportTypeSystemDescription;
+        }
+
+        public String getFingerprint()
+        {
+            return fingerprint;
+        }
+
+        /**
+         * @return the committed type system. It is created on first access because not every
+         *         user of the project type system needs it.
+         */
+        public synchronized TypeSystem getTypeSystem() throws ResourceInitializationException
+        {
+            if (typeSystem == null) {
+                typeSystem = compile(typeSystemDescription);
+            }
+            return typeSystem;
+        }
+
+        public synchronized TypeSystem getExportTypeSystem() throws ResourceInitializationException
+        {
+            if (exportTypeSystem == null) {
+                exportTypeSystem = compile(exportTypeSystemDescription);
+            }
+            return exportTypeSystem;
+        }
+
+        public synchronized boolean isTypeSystem(TypeSystem aTypeSystem)
+        {
+            return typeSystem != null && typeSystem == aTypeSystem;
+        }
+
+        /**
+         * Calculates a fingerprint over all the types and features which are checked when
+         * deciding whether a CAS needs to be upgraded. The fingerprint does not depend on the
+         * order in which types and features are declared, so it remains stable across restarts.
+         */
+        private static String fingerprint(TypeSystemDescription aTypeSystemDescription)
+        {
+            List<String> declarations = new ArrayList<>();
+            for (TypeDescription tdesc : aTypeSystemDescription.getTypes()) {
+                declarations.add(tdesc.getName() + "<" + tdesc.getSupertypeName());
+                for (FeatureDescription fdesc : tdesc.getFeatures()) {
+                    declarations.add(tdesc.getName() + ":" + fdesc.getName() + "="
+                            + fdesc.getRangeTypeName() + "[" + fdesc.getElementType() + "]");
+                }
+            }
+            Collections.sort(declarations);
+
+            try {
+                MessageDigest digest = MessageDigest.getInstance("SHA-256");
+                for (String declaration : declarations) {
+                    digest.update(declaration.getBytes(UTF_8));
+                    digest.update((byte) '\n');
+                }
+                return String.format("%064x", new BigInteger(1, digest.digest()));
+            }
+            catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
 }
@@ -24,6 +24,7 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
 
 import org.apache.uima.cas.CAS;
@@ -33,6 +34,7 @@ import org.apache.uima.cas.Type;
 import org.apache.uima.cas.text.AnnotationFS;
 import org.apache.uima.fit.util.CasUtil;
 import org.apache.uima.fit.util.FSUtil;
+import org.apache.uima.jcas.cas.TOP;
 import org.apache.uima.resource.metadata.TypeSystemDescription;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -172,6 +174,47 @@ public class CasMetadataUtils
         aCas.addFsToIndexes(cmd);
     }
 
+    /**
+     * @return the fingerprint of the project type system which the CAS was last checked against
+     *         or upgraded to, if any.
+     */
+    public static Optional<String> getTypeSystemFingerprint(CAS aCas)
+    {
+        Type casMetadataType = aCas.getTypeSystem().getType(CASMetadata.class.getName());
+        if (casMetadataType == null) {
+            return Optional.empty();
+        }
+
+        Feature feature = casMetadataType.getFeatureByBaseName("typeSystemFingerprint");
+        if (feature == null) {
+            return Optional.empty();
+        }
+
+        return aCas.<TOP> select(casMetadataType)
+                .map(cmd -> cmd.getStringValue(feature)).filter(Objects::nonNull).findFirst();
+    }
+
+    /**
+     * Records the fingerprint of the project type system which the CAS has been checked against
+     * or upgraded to. If the CAS does not (yet) contain a {@link CASMetadata} annotation which
+     * supports the fingerprint, nothing is recorded.
+     */
+    public static void setTypeSystemFingerprint(CAS aCas, String aFingerprint)
+    {
+        Type casMetadataType = aCas.getTypeSystem().getType(CASMetadata.class.getName());
+        if (casMetadataType == null) {
+            return;
+        }
+
+        Feature feature = casMetadataType.getFeatureByBaseName("typeSystemFingerprint");
+        if (feature == null) {
+            return;
+        }
+
+        aCas.<TOP> select(casMetadataType).findFirst()
+                .ifPresent(cmd -> cmd.setStringValue(feature, aFingerprint));
+    }
+
     public static Optional<String> getSourceDocumentName(CAS aCas)
     {
         try {
@@ -21,30 +21,50 @@ import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUt
 import static org.apache.uima.cas.impl.Serialization.deserializeCASComplete;
 import static org.apache.uima.cas.impl.Serialization.serializeCASComplete;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Optional;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.uima.cas.CAS;
 import org.apache.uima.cas.SerialFormat;
 import org.apache.uima.cas.impl.CASCompleteSerializer;
 import org.apache.uima.cas.impl.CASImpl;
+import org.apache.uima.resource.ResourceInitializationException;
 import org.apache.uima.util.CasIOUtils;
 import org.apache.uima.util.TypeSystemUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasStorageFormat;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.TypeSystemSnapshotStore;
 import de.tudarmstadt.ukp.dkpro.core.api.metadata.type.DocumentMetaData;
 
 public final class CasPersistenceUtils
 {
     private final static Logger LOG = LoggerFactory.getLogger(CasPersistenceUtils.class);
 
+    /**
+     * Marker at the start of files in the {@link CasStorageFormat#COMPACT compact} format. Files in
+     * the {@link CasStorageFormat#SERIALIZED serialized} format start with the Java serialization
+     * stream magic ({@code 0xACED}) and can thus never be mistaken for compact files.
+     */
+    private static final byte[] COMPACT_FORMAT_MAGIC = { 'W', 'A', 'C', 'S' };
+    private static final int COMPACT_FORMAT_VERSION = 1;
+
     private CasPersistenceUtils()
     {
         // No instances
@@ -83,6 +103,85 @@ public final class CasPersistenceUtils
         }
     }
 
+    /**
+     * Writes the given CAS in the {@link CasStorageFormat#SERIALIZED serialized} format to the given
+     * stream. Other than {@link #writeSerializedCas(CAS, File)}, this does not perform any
+     * safeguard checks and is meant to be used when exporting CASes which have already been
+     * validated when they were stored. The stream is not closed.
+     */
+    public static void writeSerializedCas(CAS aCas, OutputStream aStream) throws IOException
+    {
+        CAS realCas = getRealCas(aCas);
+        // UIMA-6162 Workaround: synchronize CAS during de/serialization
+        synchronized (((CASImpl) realCas).getBaseCAS()) {
+            ObjectOutputStream os = new ObjectOutputStream(aStream);
+            os.writeObject(serializeCASComplete((CASImpl) realCas));
+            os.flush();
+        }
+    }
+
+    /**
+     * Writes the given CAS in the {@link CasStorageFormat#COMPACT compact} format. The type system
+     * of the CAS is stored in the given snapshot store and only a reference to it is included in
+     * the file.
+     */
+    public static void writeCompactCas(CAS aCas, File aFile, TypeSystemSnapshotStore aStore,
+            File aTypeSystemFolder)
+        throws IOException
+    {
+        FileUtils.forceMkdir(aFile.getParentFile());
+
+        CAS realCas = getRealCas(aCas);
+        // UIMA-6162 Workaround: synchronize CAS during de/serialization
+        synchronized (((CASImpl) realCas).getBaseCAS()) {
+            String fingerprint = aStore.store(realCas, aTypeSystemFolder);
+
+            try (DataOutputStream os = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(aFile)))) {
+                os.write(COMPACT_FORMAT_MAGIC);
+                os.writeInt(COMPACT_FORMAT_VERSION);
+                os.writeUTF(fingerprint);
+                CasIOUtils.save(realCas, os, SerialFormat.COMPRESSED_FILTERED);
+            }
+        }
+    }
+
+    /**
+     * Detects the storage format of the given file by looking at the format marker.
+     */
+    public static CasStorageFormat detectFormat(File aFile) throws IOException
+    {
+        try (InputStream is = new FileInputStream(aFile)) {
+            return isCompactFormat(is) ? CasStorageFormat.COMPACT : CasStorageFormat.SERIALIZED;
+        }
+    }
+
+    /**
+     * @return the fingerprint of the type system snapshot used by the given file if the file is
+     *         in the {@link CasStorageFormat#COMPACT compact} format.
+     */
+    public static Optional<String> readTypeSystemFingerprint(File aFile) throws IOException
+    {
+        try (DataInputStream is = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(aFile)))) {
+            if (!isCompactFormat(is) || is.readInt() != COMPACT_FORMAT_VERSION) {
+                return Optional.empty();
+            }
+
+            return Optional.of(is.readUTF());
+        }
+        catch (EOFException e) {
+            return Optional.empty();
+        }
+    }
+
+    private static boolean isCompactFormat(InputStream aStream) throws IOException
+    {
+        byte[] header = new byte[COMPACT_FORMAT_MAGIC.length];
+        int read = aStream.readNBytes(header, 0, header.length);
+        return read == header.length && Arrays.equals(header, COMPACT_FORMAT_MAGIC);
+    }
+
     private static void preserveForDebugging(File aFile, CAS aCas,
             CASCompleteSerializer aSerializer)
     {
@@ -114,27 +213,85 @@ public final class CasPersistenceUtils
     }
 
     public static void readSerializedCas(CAS aCas, File aFile) throws IOException
+    {
+        try (InputStream is = new FileInputStream(aFile)) {
+            readSerializedCas(aCas, is);
+        }
+    }
+
+    private static void readSerializedCas(CAS aCas, InputStream aStream) throws IOException
     {
         CAS realCas = getRealCas(aCas);
         // UIMA-6162 Workaround: synchronize CAS during de/serialization
         synchronized (((CASImpl) realCas).getBaseCAS()) {
-            try (ObjectInputStream is = new ObjectInputStream(new FileInputStream(aFile))) {
+            try (ObjectInputStream is = new ObjectInputStream(aStream)) {
                 CASCompleteSerializer serializer = (CASCompleteSerializer) is.readObject();
                 deserializeCASComplete(serializer, (CASImpl) realCas);
 
-                // Workaround for UIMA adding back deleted DocumentAnnotations
-                // https://issues.apache.org/jira/browse/UIMA-6199
-                // If there is a DocumentMetaData annotation, then we can drop any of the default
-                // UIMA DocumentAnnotation instances (excluding the DocumentMetaData of course)
-                if (!aCas.select(DocumentMetaData.class.getName()).isEmpty()) {
-                    aCas.select(CAS.TYPE_NAME_DOCUMENT_ANNOTATION).filter(
-                            fs -> !DocumentMetaData.class.getName().equals(fs.getType().getName()))
-                            .forEach(aCas::removeFsFromIndexes);
-                }
+                removeDuplicateDocumentAnnotations(aCas);
             }
             catch (ClassNotFoundException e) {
                 throw new IOException(e);
             }
         }
     }
+
+    /**
+     * Reads a CAS from the given file which may be either in the
+     * {@link CasStorageFormat#SERIALIZED serialized} or in the {@link CasStorageFormat#COMPACT
+     * compact} format. CASes read from files in the compact format share the type system of their
+     * snapshot.
+     */
+    public static CAS readCas(File aFile, TypeSystemSnapshotStore aStore, File aTypeSystemFolder)
+        throws IOException
+    {
+        try (DataInputStream is = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(aFile)))) {
+            // Detect the format from the header and then continue reading from the same stream
+            is.mark(COMPACT_FORMAT_MAGIC.length);
+            if (!isCompactFormat(is)) {
+                is.reset();
+                CAS cas = WebAnnoCasUtil.createCas();
+                readSerializedCas(cas, is);
+                return cas;
+            }
+
+            int version = is.readInt();
+            if (version != COMPACT_FORMAT_VERSION) {
+                throw new IOException("Unsupported compact format version [" + version
+                        + "] in file [" + aFile + "]");
+            }
+
+            // Create the CAS with the shared type system of the snapshot and then load the
+            // annotation data into the CAS
+            String fingerprint = is.readUTF();
+            CAS cas = WebAnnoCasUtil
+                    .createCas(aStore.loadTypeSystem(aTypeSystemFolder, fingerprint));
+            CAS realCas = getRealCas(cas);
+            // UIMA-6162 Workaround: synchronize CAS during de/serialization
+            synchronized (((CASImpl) realCas).getBaseCAS()) {
+                CasIOUtils.load(is, realCas);
+            }
+
+            removeDuplicateDocumentAnnotations(cas);
+
+            return cas;
+        }
+        catch (ResourceInitializationException e) {
+            throw new IOException("Unable to create empty CAS", e);
+        }
+    }
+
+    private static void removeDuplicateDocumentAnnotations(CAS aCas)
+    {
+        // Workaround for UIMA adding back deleted DocumentAnnotations
+        // https://issues.apache.org/jira/browse/UIMA-6199
+        // If there is a DocumentMetaData annotation, then we can drop any of the default
+        // UIMA DocumentAnnotation instances (excluding the DocumentMetaData of course)
+        if (!aCas.select(DocumentMetaData.class.getName()).isEmpty()) {
+            aCas.select(CAS.TYPE_NAME_DOCUMENT_ANNOTATION).filter(
+                    fs -> !DocumentMetaData.class.getName().equals(fs.getType().getName()))
+                    .forEach(aCas::removeFsFromIndexes);
+        }
+    }
 }
@@ -0,0 +1,284 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasStorageFormat;
+
+@Component
+@ConfigurationProperties("cas-storage")
+public class CasStorageProperties
+{
+    private CasStorageFormat format = CasStorageFormat.SERIALIZED;
+    private final WriteBehindOptions writeBehind = new WriteBehindOptions();
+    private final JournalOptions journal = new JournalOptions();
+    private final SharedCacheOptions sharedCache = new SharedCacheOptions();
+    private final ExclusivePoolOptions exclusivePool = new ExclusivePoolOptions();
+    private final BulkLoadOptions bulkLoad = new BulkLoadOptions();
+    private final PrefetchOptions prefetch = new PrefetchOptions();
+
+    public CasStorageFormat getFormat()
+    {
+        return format;
+    }
+
+    public void setFormat(CasStorageFormat aFormat)
+    {
+        format = aFormat;
+    }
+
+    public WriteBehindOptions getWriteBehind()
+    {
+        return writeBehind;
+    }
+
+    public JournalOptions getJournal()
+    {
+        return journal;
+    }
+
+    public SharedCacheOptions getSharedCache()
+    {
+        return sharedCache;
+    }
+
+    public ExclusivePoolOptions getExclusivePool()
+    {
+        return exclusivePool;
+    }
+
+    public BulkLoadOptions getBulkLoad()
+    {
+        return bulkLoad;
+    }
+
+    public PrefetchOptions getPrefetch()
+    {
+        return prefetch;
+    }
+
+    public static class WriteBehindOptions
+    {
+        private boolean enabled = false;
+        private long quietPeriod = 5;
+        private long maxDelay = 60;
+
+        public boolean isEnabled()
+        {
+            return enabled;
+        }
+
+        public void setEnabled(boolean aEnabled)
+        {
+            enabled = aEnabled;
+        }
+
+        public long getQuietPeriod()
+        {
+            return quietPeriod;
+        }
+
+        public void setQuietPeriod(long aQuietPeriod)
+        {
+            quietPeriod = aQuietPeriod;
+        }
+
+        public long getMaxDelay()
+        {
+            return maxDelay;
+        }
+
+        public void setMaxDelay(long aMaxDelay)
+        {
+            maxDelay = aMaxDelay;
+        }
+    }
+
+    public static class JournalOptions
+    {
+        private boolean enabled = false;
+        private int maxEntries = 100;
+        private long maxSize = 1024 * 1024;
+
+        public boolean isEnabled()
+        {
+            return enabled;
+        }
+
+        public void setEnabled(boolean aEnabled)
+        {
+            enabled = aEnabled;
+        }
+
+        public int getMaxEntries()
+        {
+            return maxEntries;
+        }
+
+        public void setMaxEntries(int aMaxEntries)
+        {
+            maxEntries = aMaxEntries;
+        }
+
+        public long getMaxSize()
+        {
+            return maxSize;
+        }
+
+        public void setMaxSize(long aMaxSize)
+        {
+            maxSize = aMaxSize;
+        }
+    }
+
+    public static class SharedCacheOptions
+    {
+        private long maxSize = 0;
+        private long idleTimeout = 300;
+        private boolean softValues = false;
+
+        /**
+         * @return maximum estimated size of all cached CASes in MB. If this is {@code 0}, a quarter
+         *         of the maximum heap size is used.
+         */
+        public long getMaxSize()
+        {
+            return maxSize;
+        }
+
+        public void setMaxSize(long aMaxSize)
+        {
+            maxSize = aMaxSize;
+        }
+
+        public long getIdleTimeout()
+        {
+            return idleTimeout;
+        }
+
+        public void setIdleTimeout(long aIdleTimeout)
+        {
+            idleTimeout = aIdleTimeout;
+        }
+
+        public boolean isSoftValues()
+        {
+            return softValues;
+        }
+
+        public void setSoftValues(boolean aSoftValues)
+        {
+            softValues = aSoftValues;
+        }
+    }
+
+    public static class ExclusivePoolOptions
+    {
+        private long maxIdleSize = 0;
+
+        /**
+         * @return maximum estimated size of all idle CASes in the pool in MB. If this is {@code 0},
+         *         idle CASes are only evicted after a period of inactivity.
+         */
+        public long getMaxIdleSize()
+        {
+            return maxIdleSize;
+        }
+
+        public void setMaxIdleSize(long aMaxIdleSize)
+        {
+            maxIdleSize = aMaxIdleSize;
+        }
+    }
+
+    public static class BulkLoadOptions
+    {
+        private int threads = 0;
+
+        /**
+         * @return number of threads used to load CASes in bulk operations. If this is {@code 0},
+         *         the number of available processors is used.
+         */
+        public int getThreads()
+        {
+            return threads;
+        }
+
+        public void setThreads(int aThreads)
+        {
+            threads = aThreads;
+        }
+    }
+
+    public static class PrefetchOptions
+    {
+        private boolean enabled = false;
+        private int documents = 1;
+        private int threads = 2;
+        private long maxSize = 256;
+
+        public boolean isEnabled()
+        {
+            return enabled;
+        }
+
+        public void setEnabled(boolean aEnabled)
+        {
+            enabled = aEnabled;
+        }
+
+        /**
+         * @return number of documents following and preceding the current document which are
+         *         prefetched.
+         */
+        public int getDocuments()
+        {
+            return documents;
+        }
+
+        public void setDocuments(int aDocuments)
+        {
+            documents = aDocuments;
+        }
+
+        public int getThreads()
+        {
+            return threads;
+        }
+
+        public void setThreads(int aThreads)
+        {
+            threads = aThreads;
+        }
+
+        /**
+         * @return maximum estimated size of all idle CASes in MB up to which CASes are prefetched.
+         */
+        public long getMaxSize()
+        {
+            return maxSize;
+        }
+
+        public void setMaxSize(long aMaxSize)
+        {
+            maxSize = aMaxSize;
+        }
+    }
+}
@@ -18,6 +18,7 @@
 package de.tudarmstadt.ukp.clarin.webanno.api.dao;
 
 import static de.tudarmstadt.ukp.clarin.webanno.api.CasUpgradeMode.AUTO_CAS_UPGRADE;
+import static de.tudarmstadt.ukp.clarin.webanno.api.CasUpgradeMode.FORCE_CAS_UPGRADE;
 import static de.tudarmstadt.ukp.clarin.webanno.api.CasUpgradeMode.NO_CAS_UPGRADE;
 import static de.tudarmstadt.ukp.clarin.webanno.api.ProjectService.ANNOTATION_FOLDER;
 import static de.tudarmstadt.ukp.clarin.webanno.api.ProjectService.DOCUMENT_FOLDER;
@@ -34,60 +35,98 @@ import static de.tudarmstadt.ukp.clarin.webanno.api.dao.CasStorageServiceImpl.Re
 import static java.lang.System.currentTimeMillis;
 import static java.nio.file.Files.move;
 import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
-import static java.util.Collections.newSetFromMap;
-import static java.util.Collections.synchronizedSet;
+import static java.util.Collections.synchronizedMap;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.apache.commons.lang3.ArrayUtils.contains;
 
 import java.io.File;
 import java.io.FileFilter;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Stream;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.comparator.LastModifiedFileComparator;
 import org.apache.commons.lang3.Validate;
-import org.apache.commons.pool2.impl.GenericKeyedObjectPool;
-import org.apache.commons.pool2.impl.GenericKeyedObjectPoolConfig;
+import org.apache.commons.lang3.tuple.Pair;
 import org.apache.uima.UIMAException;
 import org.apache.uima.cas.AbstractCas;
 import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.FeatureStructure;
 import org.apache.uima.cas.impl.CASImpl;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
 import org.springframework.dao.DataRetrievalFailureException;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.session.SessionDestroyedEvent;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.transaction.event.TransactionalEventListener;
-import org.springframework.util.ConcurrentReferenceHashMap;
 
 import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Policy.Eviction;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
 import de.tudarmstadt.ukp.clarin.webanno.api.CasProvider;
 import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
 import de.tudarmstadt.ukp.clarin.webanno.api.CasUpgradeMode;
 import de.tudarmstadt.ukp.clarin.webanno.api.RepositoryProperties;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.event.AnnotationEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.event.ChainEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.event.FeatureValueUpdatedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.event.RelationEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.event.SpanEvent;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil;
 import de.tudarmstadt.ukp.clarin.webanno.api.casstorage.CasAccessMode;
 import de.tudarmstadt.ukp.clarin.webanno.api.casstorage.CasSessionException;
 import de.tudarmstadt.ukp.clarin.webanno.api.casstorage.CasStorageServiceAction;
 import de.tudarmstadt.ukp.clarin.webanno.api.casstorage.CasStorageServiceLoader;
+import de.tudarmstadt.ukp.clarin.webanno.api.casstorage.LoadedCas;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.CasStorageProperties.BulkLoadOptions;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.CasStorageProperties.JournalOptions;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.CasStorageProperties.PrefetchOptions;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.CasStorageProperties.SharedCacheOptions;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.CasStorageProperties.WriteBehindOptions;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.BulkCasLoader;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasChangeTracker;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasChangeTracker.Changes;
 import de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasHolder;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasJournal;
 import de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasKey;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasLockManager;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasStorageFormat;
 import de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasStorageSession;
-import de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.PooledCasHolderFactory;
 import de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.SessionManagedCas;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.TypeSystemSnapshotStore;
 import de.tudarmstadt.ukp.clarin.webanno.api.event.LayerConfigurationChangedEvent;
 import de.tudarmstadt.ukp.clarin.webanno.diag.CasDoctor;
 import de.tudarmstadt.ukp.clarin.webanno.diag.CasDoctorException;
@@ -96,25 +135,41 @@ import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
 import de.tudarmstadt.ukp.clarin.webanno.support.logging.Logging;
 import de.tudarmstadt.ukp.clarin.webanno.support.wicket.WicketUtil;
 
+@ManagedResource
 @Component(CasStorageService.SERVICE_NAME)
 public class CasStorageServiceImpl
-    implements CasStorageService
+    implements CasStorageService, DisposableBean
 {
     private final Logger log = LoggerFactory.getLogger(getClass());
 
     private final long EVICT_IDLE_CASES_AFTER_MINUTES = 5;
-    private final long SHARED_CAS_CACHE_SIZE = 10_000;
+    private final long BYTES_PER_MB = 1024 * 1024;
+    private final long SHARED_CAS_CACHE_DEFAULT_HEAP_FRACTION = 4;
     private final long CAS_BORROW_WAIT_TIMEOUT_MINUTES = 3;
+    private final long WRITE_BEHIND_CHECK_INTERVAL_SECONDS = 1;
+    private final long WRITE_BEHIND_BORROW_WAIT_TIMEOUT_MILLIS = 100;
+    private final long PREFETCH_MAX_QUEUE_SECONDS = 30;
+    private final long SNAPSHOT_CLEANUP_INTERVAL_MINUTES = 10;
+
+    public static final String TYPE_SYSTEM_SNAPSHOT_FOLDER = "typesystem";
 
     private final CasDoctor casDoctor;
     private final AnnotationSchemaService schemaService;
     private final RepositoryProperties repositoryProperties;
     private final BackupProperties backupProperties;
+    private final CasStorageProperties casStorageProperties;
+    private final TypeSystemSnapshotStore typeSystemSnapshotStore;
 
-    private final GenericKeyedObjectPool<CasKey, CasHolder> exclusiveAccessPool;
-    private final Set<CasHolder> exclusiveAccessHolders = synchronizedSet(
-            newSetFromMap(new WeakHashMap<>()));
+    private final CasLockManager exclusiveAccessLocks;
     private final Cache<CasKey, CasHolder> sharedAccessCache;
+    private final ScheduledExecutorService writeBehindScheduler;
+    private final ExecutorService bulkLoadExecutor;
+    private final int bulkLoadThreads;
+    private final ExecutorService prefetchExecutor;
+    private final Map<String, List<Future<?>>> prefetchTasks = new ConcurrentHashMap<>();
+    private final Map<CAS, CasChangeTracker> changeTrackers = synchronizedMap(new WeakHashMap<>());
+    private final ScheduledExecutorService snapshotCleanupScheduler;
+    private final Set<Long> snapshotCleanupProjects = ConcurrentHashMap.newKeySet();
 
     public static enum RepairAndUpgradeFlags
     {
@@ -134,41 +189,43 @@ public class CasStorageServiceImpl
     public CasStorageServiceImpl(@Autowired(required = false) CasDoctor aCasDoctor,
             @Autowired(required = false) AnnotationSchemaService aSchemaService,
             @Autowired RepositoryProperties aRepositoryProperties,
-            @Autowired BackupProperties aBackupProperties)
+            @Autowired BackupProperties aBackupProperties,
+            @Autowired CasStorageProperties aCasStorageProperties)
     {
         casDoctor = aCasDoctor;
         schemaService = aSchemaService;
         repositoryProperties = aRepositoryProperties;
         backupProperties = aBackupProperties;
-
-        GenericKeyedObjectPoolConfig<CasHolder> config = new GenericKeyedObjectPoolConfig<>();
-        // Since we want the pool to control exclusive access to a particular CAS, we only ever
-        // must have one instance per key (the key uniquely identifies the CAS)
-        config.setMaxTotalPerKey(1);
-        // Setting this to 0 because we do not want any CAS to stick around in memory indefinitely
-        config.setMinIdlePerKey(0);
-        // Run an evictor thread every 5 minutes
-        config.setTimeBetweenEvictionRunsMillis(MINUTES.toMillis(EVICT_IDLE_CASES_AFTER_MINUTES));
-        // Allow the evictor to drop idle CASes from the pool after 5 minutes (i.e. on each run)
-        config.setMinEvictableIdleTimeMillis(MINUTES.toMillis(EVICT_IDLE_CASES_AFTER_MINUTES));
-        // Allow the evictor to drop all idle CASes on every eviction run
-        config.setNumTestsPerEvictionRun(-1);
-        // Allow viewing the pool in JMX
-        config.setJmxEnabled(true);
-        config.setJmxNameBase(getClass().getPackage().getName() + ":type="
-                + getClass().getSimpleName() + ",name=");
-        config.setJmxNamePrefix("exclusiveCasAccessPool");
-        // Check if the CAS is still valid or needs to be replaced when it is borrowed and when it
-        // is returned
-        config.setTestOnReturn(true);
-        config.setTestOnBorrow(true);
-        config.setMaxWaitMillis(MINUTES.toMillis(CAS_BORROW_WAIT_TIMEOUT_MINUTES));
-        // We do not have to set maxTotal because the default is already to have no limit (-1)
-        exclusiveAccessPool = new GenericKeyedObjectPool<>(new PooledCasHolderFactory(), config);
-
-        sharedAccessCache = Caffeine.newBuilder()
-                .expireAfterAccess(EVICT_IDLE_CASES_AFTER_MINUTES, MINUTES)
-                .maximumSize(SHARED_CAS_CACHE_SIZE).recordStats().build();
+        casStorageProperties = aCasStorageProperties;
+        typeSystemSnapshotStore = new TypeSystemSnapshotStore();
+
+        // Idle CASes are dropped from memory after a while unless they have changes which have
+        // not yet been written to the storage. Optionally, the memory used by idle CASes is
+        // bounded as well, dropping the CASes which have been idle the longest first.
+        exclusiveAccessLocks = new CasLockManager(
+                MINUTES.toMillis(EVICT_IDLE_CASES_AFTER_MINUTES),
+                casStorageProperties.getExclusivePool().getMaxIdleSize() * BYTES_PER_MB);
+
+        // The shared cache is bounded by the estimated memory used by the cached CASes. The weight
+        // of a CAS is measured in KB.
+        SharedCacheOptions sharedCache = casStorageProperties.getSharedCache();
+        long sharedCacheMaxSize = sharedCache.getMaxSize() > 0
+                ? sharedCache.getMaxSize() * BYTES_PER_MB
+                : Runtime.getRuntime().maxMemory() / SHARED_CAS_CACHE_DEFAULT_HEAP_FRACTION;
+        Caffeine<CasKey, CasHolder> sharedAccessCacheBuilder = Caffeine.newBuilder()
+                .expireAfterAccess(sharedCache.getIdleTimeout(), SECONDS)
+                .maximumWeight(sharedCacheMaxSize / 1024)
+                .weigher((CasKey key, CasHolder holder) -> (int) Math.min(Integer.MAX_VALUE,
+                        Math.max(1, holder.getEstimatedSize() / 1024)))
+                .recordStats();
+        // Allow the garbage collector to drop cached CASes when memory runs low
+        if (sharedCache.isSoftValues()) {
+            sharedAccessCacheBuilder.softValues();
+        }
+        sharedAccessCache = sharedAccessCacheBuilder.build();
+        log.info("Shared CAS cache - max-size: {}MB  idle-timeout: {}sec  soft-values: {}",
+                sharedCacheMaxSize / BYTES_PER_MB, sharedCache.getIdleTimeout(),
+                sharedCache.isSoftValues());
 
         if (casDoctor == null) {
             log.info("CAS doctor not available - unable to check/repair CASes");
@@ -182,6 +239,86 @@ public class CasStorageServiceImpl
         else {
             log.info("CAS backups disabled");
         }
+
+        log.info("CAS storage format: {}", casStorageProperties.getFormat());
+
+        WriteBehindOptions writeBehind = casStorageProperties.getWriteBehind();
+        if (writeBehind.isEnabled()) {
+            log.info("CAS write-behind enabled - quiet-period: {}sec  max-delay: {}sec",
+                    writeBehind.getQuietPeriod(), writeBehind.getMaxDelay());
+            writeBehindScheduler = Executors.newSingleThreadScheduledExecutor();
+            writeBehindScheduler.scheduleWithFixedDelay(() -> flushPendingWrites(false),
+                    WRITE_BEHIND_CHECK_INTERVAL_SECONDS, WRITE_BEHIND_CHECK_INTERVAL_SECONDS,
+                    SECONDS);
+        }
+        else {
+            writeBehindScheduler = null;
+        }
+
+        JournalOptions journal = casStorageProperties.getJournal();
+        if (journal.isEnabled()) {
+            log.info("CAS journal enabled - max-entries: {}  max-size: {} bytes",
+                    journal.getMaxEntries(), journal.getMaxSize());
+        }
+
+        BulkLoadOptions bulkLoad = casStorageProperties.getBulkLoad();
+        bulkLoadThreads = bulkLoad.getThreads() > 0 ? bulkLoad.getThreads()
+                : Runtime.getRuntime().availableProcessors();
+        AtomicInteger bulkLoadThreadCount = new AtomicInteger();
+        bulkLoadExecutor = Executors.newFixedThreadPool(bulkLoadThreads, runnable -> {
+            Thread thread = new Thread(runnable,
+                    "cas-bulk-load-" + bulkLoadThreadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        log.info("CAS bulk loading - threads: {}", bulkLoadThreads);
+
+        PrefetchOptions prefetch = casStorageProperties.getPrefetch();
+        if (prefetch.isEnabled()) {
+            log.info("CAS prefetching enabled - documents: {}  threads: {}  max-size: {}MB",
+                    prefetch.getDocuments(), prefetch.getThreads(), prefetch.getMaxSize());
+            AtomicInteger prefetchThreadCount = new AtomicInteger();
+            prefetchExecutor = Executors.newFixedThreadPool(prefetch.getThreads(), runnable -> {
+                Thread thread = new Thread(runnable,
+                        "cas-prefetch-" + prefetchThreadCount.incrementAndGet());
+                thread.setDaemon(true);
+                // Prefetching must not slow down requests which are actually waiting for a CAS
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            });
+        }
+        else {
+            prefetchExecutor = null;
+        }
+
+        // Type system snapshots which are no longer referenced by any CAS file of a project are
+        // removed in the background
+        snapshotCleanupScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cas-snapshot-cleanup");
+            thread.setDaemon(true);
+            return thread;
+        });
+        snapshotCleanupScheduler.scheduleWithFixedDelay(this::deleteUnusedTypeSystemSnapshots,
+                SNAPSHOT_CLEANUP_INTERVAL_MINUTES, SNAPSHOT_CLEANUP_INTERVAL_MINUTES, MINUTES);
+    }
+
+    @Override
+    public void destroy() throws Exception
+    {
+        if (writeBehindScheduler != null) {
+            writeBehindScheduler.shutdown();
+            writeBehindScheduler.awaitTermination(CAS_BORROW_WAIT_TIMEOUT_MINUTES, MINUTES);
+
+            // Make sure that no changes are lost on shutdown
+            flushPendingWrites(true);
+        }
+
+        bulkLoadExecutor.shutdownNow();
+        snapshotCleanupScheduler.shutdownNow();
+        if (prefetchExecutor != null) {
+            prefetchExecutor.shutdownNow();
+        }
+        exclusiveAccessLocks.close();
     }
 
     @Override
@@ -218,10 +355,19 @@ public class CasStorageServiceImpl
                         + mCas.get().getSourceDocumentId() + "]");
             }
 
-            realWriteCas(aDocument, aUserName, aCas);
+            Optional<CasHolder> pooledHolder = writeBehindScheduler != null
+                    ? findPooledHolder(new CasKey(aDocument, aUserName), aCas)
+                    : Optional.empty();
+            if (pooledHolder.isPresent()) {
+                deferWriteCas(pooledHolder.get(), aDocument, aUserName, aCas);
+            }
+            else {
+                realWriteCas(aDocument, aUserName, aCas);
+            }
         }
         else {
             try (WithExclusiveAccess access = new WithExclusiveAccess(aDocument, aUserName)) {
+                access.flushPendingWrite();
                 realWriteCas(aDocument, aUserName, aCas);
 
                 // If the CAS which was written does not match the CAS in the session for the given
@@ -254,13 +400,172 @@ public class CasStorageServiceImpl
     /*
      * For testing
      */
-    void writeSerializedCas(CAS aCas, File aFile) throws IOException
+    void writeSerializedCas(SourceDocument aDocument, CAS aCas, File aFile) throws IOException
+    {
+        if (CasStorageFormat.COMPACT.equals(casStorageProperties.getFormat())) {
+            CasPersistenceUtils.writeCompactCas(aCas, aFile, typeSystemSnapshotStore,
+                    getTypeSystemSnapshotFolder(aDocument.getProject().getId()));
+        }
+        else {
+            CasPersistenceUtils.writeSerializedCas(aCas, aFile);
+        }
+    }
+
+    /**
+     * Records that the given CAS has changed instead of writing it immediately. The changes are
+     * written by {@link #flushPendingWrites} once the CAS has not been changed for the configured
+     * quiet period or once the configured maximum delay has passed, whatever comes first. They are
+     * also written before anybody accesses the CAS in the storage directly.
+     */
+    private void deferWriteCas(CasHolder aHolder, SourceDocument aDocument, String aUserName,
+            CAS aCas)
+        throws IOException
+    {
+        File currentVersion = getCasFile(aDocument, aUserName);
+
+        // If there is nothing in the storage yet, we write immediately
+        if (!currentVersion.exists()) {
+            realWriteCas(aDocument, aUserName, aCas);
+            return;
+        }
+
+        // Check if there was a concurrent change to the file on disk now so that we can report it
+        // to the caller instead of failing only later when the changes are actually written
+        if (!aHolder.isWritePending()) {
+            failOnConcurrentModification(aCas, currentVersion, aDocument, aUserName);
+        }
+
+        // Make sure that the timestamp reported for the pending changes is always newer than the
+        // one of the file in the storage
+        long timestamp = Math.max(currentTimeMillis(),
+                Math.max(currentVersion.lastModified(), aHolder.getPendingWriteTimestamp()) + 1);
+        aHolder.markWritePending(aDocument, timestamp);
+
+        log.trace("Deferred writing CAS [{}] for [{}]@[{}]({})", aHolder.getCasHashCode(),
+                aUserName, aDocument.getName(), aDocument.getId());
+    }
+
+    /**
+     * Writes the pending changes of the CAS in the given holder to the storage. The caller must
+     * have exclusive access to the CAS.
+     */
+    private void flushPendingWrite(CasHolder aHolder) throws IOException
+    {
+        SourceDocument document = aHolder.getPendingWriteDocument();
+        if (document == null) {
+            return;
+        }
+
+        realWriteCas(document, aHolder.getKey().getUserId(), aHolder.getCas(),
+                aHolder.getPendingWriteTimestamp());
+        aHolder.clearWritePending();
+    }
+
+    /**
+     * Writes the pending changes of CASes which are due. CASes which are currently in use are
+     * skipped and retried on the next run - unless writing is forced.
+     * 
+     * @param aForce
+     *            write all pending changes, waiting for CASes currently in use if necessary.
+     */
+    private void flushPendingWrites(boolean aForce)
+    {
+        long now = currentTimeMillis();
+        WriteBehindOptions writeBehind = casStorageProperties.getWriteBehind();
+        long quietPeriod = SECONDS.toMillis(writeBehind.getQuietPeriod());
+        long maxDelay = SECONDS.toMillis(writeBehind.getMaxDelay());
+
+        List<CasKey> dueKeys = new ArrayList<>();
+        exclusiveAccessLocks.forEachHolder(h -> {
+            if (h.isWritePending() && (aForce || h.isFlushRequested()
+                    || now - h.getPendingWriteTimestamp() >= quietPeriod
+                    || now - h.getPendingWriteSince() >= maxDelay)) {
+                dueKeys.add(h.getKey());
+            }
+        });
+
+        for (CasKey key : dueKeys) {
+            CasHolder holder;
+            try {
+                Optional<CasHolder> borrowedHolder = exclusiveAccessLocks.tryBorrow(key,
+                        aForce ? MINUTES.toMillis(CAS_BORROW_WAIT_TIMEOUT_MINUTES)
+                                : WRITE_BEHIND_BORROW_WAIT_TIMEOUT_MILLIS,
+                        MILLISECONDS);
+                if (!borrowedHolder.isPresent()) {
+                    log.trace("CAS for [{}]@[{}]({}) is in use - retrying later",
+                            key.getUserId(), key.getDocumentName(), key.getDocumentId());
+                    continue;
+                }
+                holder = borrowedHolder.get();
+            }
+            catch (Exception e) {
+                log.error("Unable to borrow CAS for [{}]@[{}]({}) to write pending changes",
+                        key.getUserId(), key.getDocumentName(), key.getDocumentId(), e);
+                continue;
+            }
+
+            try (CasStorageSession session = CasStorageSession.openNested(true)) {
+                if (holder.isWritePending()) {
+                    transferCasOwnershipToCurrentThread(holder.getCas());
+                    session.add(key.getDocumentId(), key.getUserId(), EXCLUSIVE_WRITE_ACCESS,
+                            holder);
+                    try {
+                        flushPendingWrite(holder);
+                    }
+                    finally {
+                        session.remove(key.getDocumentId(), key.getUserId());
+                    }
+                }
+            }
+            catch (Exception e) {
+                log.error("Unable to write pending changes of CAS for [{}]@[{}]({})",
+                        key.getUserId(), key.getDocumentName(), key.getDocumentId(), e);
+            }
+            finally {
+                exclusiveAccessLocks.release(key, holder);
+            }
+        }
+    }
+
+    /**
+     * When a user starts working on a document, the pending changes of any other documents of that
+     * user are written right away - the user most likely switched documents.
+     */
+    private void requestFlushOfOtherPendingWrites(CasKey aKey)
+    {
+        AtomicBoolean flushRequested = new AtomicBoolean(false);
+        exclusiveAccessLocks.forEachHolder(h -> {
+            if (h.isWritePending() && Objects.equals(h.getKey().getUserId(), aKey.getUserId())
+                    && !Objects.equals(h.getKey(), aKey)) {
+                h.requestFlush();
+                flushRequested.set(true);
+            }
+        });
+
+        if (flushRequested.get()) {
+            writeBehindScheduler.execute(() -> flushPendingWrites(false));
+        }
+    }
+
+    private Optional<CasHolder> findPooledHolder(CasKey aKey, CAS aCas)
     {
-        CasPersistenceUtils.writeSerializedCas(aCas, aFile);
+        return exclusiveAccessLocks.getHolder(aKey)
+                .filter(h -> h.isCasSet() && (aCas == null || h.getCas() == aCas));
     }
 
     private void realWriteCas(SourceDocument aDocument, String aUserName, CAS aCas)
         throws IOException
+    {
+        realWriteCas(aDocument, aUserName, aCas, null);
+    }
+
+    /**
+     * @param aTimestamp
+     *            (optional) if set, the timestamp of the written file is set to this value.
+     */
+    private void realWriteCas(SourceDocument aDocument, String aUserName, CAS aCas,
+            Long aTimestamp)
+        throws IOException
     {
         long t0 = currentTimeMillis();
 
@@ -273,23 +578,41 @@ public class CasStorageServiceImpl
         File annotationFolder = getAnnotationFolder(aDocument);
         File currentVersion = new File(annotationFolder, aUserName + ".ser");
         File oldVersion = new File(annotationFolder, aUserName + ".ser.old");
+        File currentJournal = CasJournal.getJournalFile(currentVersion);
+        File oldJournal = CasJournal.getJournalFile(oldVersion);
 
         // Check if there was a concurrent change to the file on disk
         if (currentVersion.exists()) {
             failOnConcurrentModification(aCas, currentVersion, aDocument, aUserName);
         }
 
+        setDocumentId(aCas, aUserName);
+
+        // If possible, only record the changes in the journal instead of writing the whole CAS
+        if (currentVersion.exists()
+                && writeJournalEntry(aDocument, aUserName, aCas, currentVersion, aTimestamp)) {
+            CasMetadataUtils.addOrUpdateCasMetadata(aCas, currentVersion, aDocument, aUserName);
+            WicketUtil.serverTiming("realWriteCas", currentTimeMillis() - t0);
+            return;
+        }
+
         // Save current version
+        Optional<String> oldFingerprint = Optional.empty();
         try {
             // Make a backup of the current version of the file before overwriting
             if (currentVersion.exists()) {
+                oldFingerprint = CasPersistenceUtils.readTypeSystemFingerprint(currentVersion);
                 move(currentVersion.toPath(), oldVersion.toPath());
+                // The journal belongs to the old version - it must not be replayed on top of the
+                // new version if the application terminates before it is deleted
+                if (currentJournal.exists()) {
+                    move(currentJournal.toPath(), oldJournal.toPath(), REPLACE_EXISTING);
+                }
             }
 
             // Now write the new version to "<username>.ser" or CURATION_USER.ser
             long start = currentTimeMillis();
-            setDocumentId(aCas, aUserName);
-            writeSerializedCas(aCas, currentVersion);
+            writeSerializedCas(aDocument, aCas, currentVersion);
             long duration = currentTimeMillis() - start;
 
             try (MDC.MDCCloseable closable = MDC.putCloseable(Logging.KEY_PROJECT_ID,
@@ -317,6 +640,9 @@ public class CasStorageServiceImpl
                     aDocument.getProject().getName(), aDocument.getProject().getId(), oldVersion);
             try {
                 move(oldVersion.toPath(), currentVersion.toPath(), REPLACE_EXISTING);
+                if (oldJournal.exists()) {
+                    move(oldJournal.toPath(), currentJournal.toPath(), REPLACE_EXISTING);
+                }
             }
             catch (Exception ex) {
                 log.error("Unable to restore previous annotations: [{}]", oldVersion, ex);
@@ -336,10 +662,31 @@ public class CasStorageServiceImpl
                     currentVersion.length() - oldVersion.length());
         }
 
-        // If the saving was successful, we delete the old version
+        // If the saving was successful, we delete the old version - the journal has been folded
+        // into the new version
         if (oldVersion.exists()) {
             FileUtils.forceDelete(oldVersion);
         }
+        Files.deleteIfExists(oldJournal.toPath());
+
+        // If the file no longer uses the type system snapshot it used before, the snapshot may
+        // no longer be needed at all
+        if (oldFingerprint.isPresent() && !oldFingerprint
+                .equals(CasPersistenceUtils.readTypeSystemFingerprint(currentVersion))) {
+            snapshotCleanupProjects.add(aDocument.getProject().getId());
+        }
+
+        if (casStorageProperties.getJournal().isEnabled()) {
+            changeTrackers.compute(getTrackedCas(aCas),
+                (cas, previous) -> CasChangeTracker.track(new CasKey(aDocument, aUserName), cas,
+                        currentVersion.length(), 0, previous));
+        }
+
+        // If the changes were written behind, the file must carry the timestamp that was reported
+        // for the changes while they were pending
+        if (aTimestamp != null && !currentVersion.setLastModified(aTimestamp)) {
+            log.warn("Unable to set timestamp of [{}]", currentVersion);
+        }
 
         // Update the timestamp in the CAS in case we attempt to save it a second time. This
         // happens for example in an annotation replacement operation (change layer of existing
@@ -352,20 +699,82 @@ public class CasStorageServiceImpl
         WicketUtil.serverTiming("realWriteCas", currentTimeMillis() - t0);
     }
 
-    private void manageHistory(File aCurrentVersion, SourceDocument aDocument, String aUserName)
+    /**
+     * Records the changes made to the CAS since it was last loaded or written in the journal.
+     * 
+     * @return {@code false} if the changes could not be recorded in the journal and the complete
+     *         CAS needs to be written instead. This is the case if the CAS is not being tracked,
+     *         if the journal needs to be compacted or if a new backup needs to be made.
+     */
+    private boolean writeJournalEntry(SourceDocument aDocument, String aUserName, CAS aCas,
+            File aCurrentVersion, Long aTimestamp)
         throws IOException
     {
-        if (backupProperties.getInterval() <= 0) {
-            return;
+        JournalOptions journal = casStorageProperties.getJournal();
+        if (!journal.isEnabled()) {
+            return false;
         }
 
-        File annotationFolder = getAnnotationFolder(aDocument);
+        CasChangeTracker tracker = changeTrackers.get(getTrackedCas(aCas));
+        if (tracker == null || !tracker.isTracking(new CasKey(aDocument, aUserName), aCas)) {
+            return false;
+        }
 
-        // Determine the reference point in time based on the current version
-        long now = aCurrentVersion.lastModified();
+        File journalFile = CasJournal.getJournalFile(aCurrentVersion);
+        if (tracker.getJournalEntries() >= journal.getMaxEntries()
+                || journalFile.length() >= journal.getMaxSize()) {
+            log.debug("Compacting journal of user [{}] on document [{}]({}) in project [{}]({})",
+                    aUserName, aDocument.getName(), aDocument.getId(),
+                    aDocument.getProject().getName(), aDocument.getProject().getId());
+            return false;
+        }
+
+        // Backups are always copies of the complete CAS
+        if (isHistoryDue(aDocument, aUserName)) {
+            return false;
+        }
+
+        Changes changes = tracker.recordChanges(aCas);
+        if (changes == null) {
+            return false;
+        }
+
+        CasJournal.append(journalFile, changes.getData());
+        changes.commit();
+
+        // The CAS file carries the timestamp of the last change in order to detect concurrent
+        // modifications although its content has not changed
+        long timestamp = aTimestamp != null ? aTimestamp
+                : Math.max(currentTimeMillis(), aCurrentVersion.lastModified() + 1);
+        if (!aCurrentVersion.setLastModified(timestamp)) {
+            log.warn("Unable to set timestamp of [{}]", aCurrentVersion);
+        }
+
+        log.debug("Recorded changes of user [{}] on document [{}]({}) in project [{}]({}) in "
+                + "journal ({} bytes)", aUserName, aDocument.getName(), aDocument.getId(),
+                aDocument.getProject().getName(), aDocument.getProject().getId(),
+                changes.getData().length);
+
+        return true;
+    }
+
+    private boolean isHistoryDue(SourceDocument aDocument, String aUserName) throws IOException
+    {
+        if (backupProperties.getInterval() <= 0) {
+            return false;
+        }
 
-        // Get all history files for the current user
-        File[] history = annotationFolder.listFiles(new FileFilter()
+        File[] history = listHistory(getAnnotationFolder(aDocument), aUserName);
+        return history.length == 0 || history[history.length - 1].lastModified()
+                + (backupProperties.getInterval() * 1000) < currentTimeMillis();
+    }
+
+    /**
+     * @return the history files of the given user sorted by age (oldest one first).
+     */
+    private File[] listHistory(File aAnnotationFolder, String aUserName)
+    {
+        File[] history = aAnnotationFolder.listFiles(new FileFilter()
         {
             private final Matcher matcher = Pattern
                     .compile(Pattern.quote(aUserName) + "\\.ser\\.[0-9]+\\.bak").matcher("");
@@ -378,9 +787,26 @@ public class CasStorageServiceImpl
             }
         });
 
-        // Sort the files (oldest one first)
         Arrays.sort(history, LastModifiedFileComparator.LASTMODIFIED_COMPARATOR);
 
+        return history;
+    }
+
+    private void manageHistory(File aCurrentVersion, SourceDocument aDocument, String aUserName)
+        throws IOException
+    {
+        if (backupProperties.getInterval() <= 0) {
+            return;
+        }
+
+        File annotationFolder = getAnnotationFolder(aDocument);
+
+        // Determine the reference point in time based on the current version
+        long now = aCurrentVersion.lastModified();
+
+        // Get all history files for the current user (oldest one first)
+        File[] history = listHistory(annotationFolder, aUserName);
+
         // Check if we need to make a new history file
         boolean historyFileCreated = false;
         File historyFile = new File(annotationFolder, aUserName + ".ser." + now + ".bak");
@@ -507,6 +933,10 @@ public class CasStorageServiceImpl
                 key = new CasKey(aDocument, aUsername);
                 holder = borrowCas(key);
 
+                if (writeBehindScheduler != null) {
+                    requestFlushOfOtherPendingWrites(key);
+                }
+
                 // If the CAS has not been loaded into the exclusive access pool, then we need to
                 // load it
                 if (!holder.isCasSet()) {
@@ -525,7 +955,7 @@ public class CasStorageServiceImpl
                         mLoaderCas.setReleaseOnClose(false);
 
                         cas = readOrCreateUnmanagedCas(aDocument, aUsername, aSupplier,
-                                aUpgradeMode);
+                                aUpgradeMode, true);
                     }
 
                     holder.setCas(cas);
@@ -548,8 +978,11 @@ public class CasStorageServiceImpl
 
                     transferCasOwnershipToCurrentThread(holder.getCas());
 
-                    repairAndUpgradeCasIfRequired(aDocument, aUsername, holder.getCas(),
-                            aUpgradeMode, ISOLATED_SESSION);
+                    // A prefetched CAS has just been repaired and upgraded in the background
+                    if (!holder.clearPrefetched()) {
+                        repairAndUpgradeCasIfRequired(aDocument, aUsername, holder.getCas(),
+                                aUpgradeMode, ISOLATED_SESSION);
+                    }
                 }
 
                 casHolder = holder;
@@ -562,8 +995,7 @@ public class CasStorageServiceImpl
                             session.hashCode(), holder.getCasHashCode(), aUsername,
                             aDocument.getName(), aDocument.getId());
                     try {
-                        exclusiveAccessPool.returnObject(key, holder);
-                        logExclusiveAccessHolders();
+                        exclusiveAccessLocks.release(key, holder);
                     }
                     catch (Exception e1) {
                         log.error("Unable to return CAS to exclusive access pool", e1);
@@ -582,12 +1014,14 @@ public class CasStorageServiceImpl
             // Ensure that the CAS is not being re-written and temporarily unavailable while we
             // check for its existence
             try (WithExclusiveAccess access = new WithExclusiveAccess(aDocument, aUsername)) {
+                access.flushPendingWrite();
+
                 // Since we promise to only read the CAS, we don't have to worry about it being
                 // locked to a particular thread...
                 casHolder = sharedAccessCache.get(new CasKey(aDocument, aUsername),
                         (key) -> CasHolder.of(key,
                                 () -> getRealCas(readOrCreateUnmanagedCas(aDocument, aUsername,
-                                        aSupplier, aUpgradeMode))));
+                                        aSupplier, aUpgradeMode, false))));
             }
         }
         // else if the special bypass mode is requested, then we fetch directly from disk
@@ -595,9 +1029,10 @@ public class CasStorageServiceImpl
             // Ensure that the CAS is not being re-written and temporarily unavailable while we
             // check for its existence
             try (WithExclusiveAccess access = new WithExclusiveAccess(aDocument, aUsername)) {
+                access.flushPendingWrite();
                 casHolder = CasHolder.of(new CasKey(aDocument, aUsername),
                         () -> readOrCreateUnmanagedCas(aDocument, aUsername, aSupplier,
-                                aUpgradeMode));
+                                aUpgradeMode, true));
             }
         }
         // else if the special bypass mode is requested, then we fetch directly from disk
@@ -605,8 +1040,9 @@ public class CasStorageServiceImpl
             // Ensure that the CAS is not being re-written and temporarily unavailable while we
             // check for its existence
             try (WithExclusiveAccess access = new WithExclusiveAccess(aDocument, aUsername)) {
+                access.flushPendingWrite();
                 casHolder = CasHolder.of(new CasKey(aDocument, aUsername),
-                        () -> readUnmanagedCas(aDocument, aUsername));
+                        () -> readUnmanagedCas(aDocument, aUsername, true));
             }
         }
         else {
@@ -631,23 +1067,172 @@ public class CasStorageServiceImpl
         return cas;
     }
 
-    private CasHolder borrowCas(CasKey aKey)
+    @Override
+    public Stream<LoadedCas> readCases(List<Pair<SourceDocument, String>> aDocumentsAndUsers,
+            CasUpgradeMode aUpgradeMode, CasStorageServiceLoader aFallbackLoader,
+            CasAccessMode aAccessMode)
+        throws CasSessionException
+    {
+        Validate.notNull(aDocumentsAndUsers, "Documents and users must be specified");
+
+        // Load twice as many CASes ahead as we have threads such that the threads can keep
+        // loading while the consumer processes the CASes which have already been loaded
+        BulkCasLoader loader = new BulkCasLoader(bulkLoadExecutor, bulkLoadThreads * 2,
+                aDocumentsAndUsers, aAccessMode,
+                (doc, user) -> readOrCreateCas(doc, user, aUpgradeMode,
+                        aFallbackLoader != null ? () -> loadWithFallback(aFallbackLoader, doc, user)
+                                : null,
+                        aAccessMode));
+
+        return loader.stream();
+    }
+
+    @Override
+    public void prefetchCases(SourceDocument aDocument, List<SourceDocument> aDocuments,
+            String aUser)
     {
+        if (prefetchExecutor == null) {
+            return;
+        }
+
+        cancelPrefetch(aUser);
+
+        int index = aDocuments.indexOf(aDocument);
+        if (index < 0) {
+            return;
+        }
+
+        // The documents next to the current document are the most likely to be opened next.
+        // Users tend to move forward through their documents, so the next document goes first.
+        List<SourceDocument> documents = new ArrayList<>();
+        for (int i = 1; i <= casStorageProperties.getPrefetch().getDocuments(); i++) {
+            if (index + i < aDocuments.size()) {
+                documents.add(aDocuments.get(index + i));
+            }
+            if (index - i >= 0) {
+                documents.add(aDocuments.get(index - i));
+            }
+        }
+
+        long deadline = currentTimeMillis() + SECONDS.toMillis(PREFETCH_MAX_QUEUE_SECONDS);
+        List<Future<?>> tasks = new ArrayList<>();
+        for (SourceDocument document : documents) {
+            tasks.add(prefetchExecutor.submit(() -> {
+                // If the prefetch has been waiting in the queue for too long, the user has most
+                // likely moved on already
+                if (currentTimeMillis() > deadline) {
+                    return;
+                }
+
+                prefetchCas(document, aUser);
+            }));
+        }
+        prefetchTasks.put(aUser, tasks);
+    }
+
+    /**
+     * Cancels any prefetching for the given user which has not yet started.
+     */
+    public void cancelPrefetch(String aUser)
+    {
+        List<Future<?>> tasks = prefetchTasks.remove(aUser);
+        if (tasks != null) {
+            // Do not interrupt CASes which are currently being loaded - the effort is not lost
+            // because the CAS is kept in memory
+            tasks.forEach(task -> task.cancel(false));
+        }
+    }
+
+    @EventListener
+    public void onSessionDestroyed(SessionDestroyedEvent aEvent)
+    {
+        aEvent.getSecurityContexts().stream() //
+                .map(SecurityContext::getAuthentication) //
+                .filter(Objects::nonNull) //
+                .forEach(authentication -> cancelPrefetch(authentication.getName()));
+    }
+
+    /**
+     * Loads the CAS into the exclusive access pool without keeping it borrowed. The CAS is repaired
+     * and upgraded just like it would be when opening the document for annotation.
+     */
+    private void prefetchCas(SourceDocument aDocument, String aUsername)
+    {
+        long maxSize = casStorageProperties.getPrefetch().getMaxSize() * BYTES_PER_MB;
+        if (exclusiveAccessLocks.getIdleSize() >= maxSize) {
+            log.trace("Not prefetching CAS for [{}]@[{}]({}) - idle CASes exceed the budget",
+                    aUsername, aDocument.getName(), aDocument.getId());
+            return;
+        }
+
+        // If somebody is using the CAS, it is already in memory - no need to wait for it
+        CasKey key = new CasKey(aDocument, aUsername);
+        Optional<CasHolder> borrowedHolder = exclusiveAccessLocks.tryBorrow(key, 0, MILLISECONDS);
+        if (!borrowedHolder.isPresent()) {
+            return;
+        }
+
+        CasHolder holder = borrowedHolder.get();
         try {
-            CasHolder holder = exclusiveAccessPool.borrowObject(aKey);
-            // Add the holder to the set of known holder. Because this set it using weak
-            // references, and because we use the set only to inform holders when they become
-            // invalid we do never have to explicitly remove the holder from the set
-            exclusiveAccessHolders.add(holder);
-            log.trace("Added to exclusiveAccessHolders: {}", holder);
-            logExclusiveAccessHolders();
-            return holder;
+            if (holder.isCasSet()) {
+                return;
+            }
+
+            // Prefetching must not create CASes for documents the user has never opened
+            if (!getCasFile(aDocument, aUsername).exists()) {
+                return;
+            }
+
+            long start = currentTimeMillis();
+
+            CAS cas;
+            try (CasStorageSession loaderSession = CasStorageSession.openNested(true)) {
+                SessionManagedCas mLoaderCas = loaderSession.add(aDocument.getId(), aUsername,
+                        EXCLUSIVE_WRITE_ACCESS, holder);
+                // The holder is returned to the pool below
+                mLoaderCas.setReleaseOnClose(false);
+
+                cas = readOrCreateUnmanagedCas(aDocument, aUsername, null, FORCE_CAS_UPGRADE,
+                        true);
+            }
+
+            holder.setCas(cas);
+            holder.markPrefetched();
+            ((CASImpl) getRealCas(cas)).setOwner(_cas -> returnBorrowedCas(_cas, key, holder));
+
+            log.debug("Prefetched CAS [{}] for [{}]@[{}]({}) in {}ms", holder.getCasHashCode(),
+                    aUsername, aDocument.getName(), aDocument.getId(),
+                    currentTimeMillis() - start);
         }
         catch (Exception e) {
-            throw new CasSessionException("Unable to borrow CAS", e);
+            log.debug("Unable to prefetch CAS for [{}]@[{}]({})", aUsername, aDocument.getName(),
+                    aDocument.getId(), e);
+        }
+        finally {
+            exclusiveAccessLocks.release(key, holder);
         }
     }
 
+    private static CAS loadWithFallback(CasStorageServiceLoader aLoader, SourceDocument aDocument,
+            String aUser)
+        throws IOException
+    {
+        try {
+            return aLoader.load(aDocument, aUser);
+        }
+        catch (IOException e) {
+            throw e;
+        }
+        catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+
+    private CasHolder borrowCas(CasKey aKey)
+    {
+        return exclusiveAccessLocks.borrow(aKey, CAS_BORROW_WAIT_TIMEOUT_MINUTES, MINUTES);
+    }
+
     /**
      * Returns a borrowed CAS to the exclusive access pool. This method is not called directly when
      * a CAS needs to be returned. Rather, it is registered as a "CAS owner" in CAS instances such
@@ -658,8 +1243,7 @@ public class CasStorageServiceImpl
         try {
             log.trace("Returning borrowed CAS [{}] for [{}]@[{}]({})", cas.hashCode(),
                     aKey.getUserId(), aKey.getDocumentName(), aKey.getDocumentId());
-            exclusiveAccessPool.returnObject(aKey, aHolder);
-            logExclusiveAccessHolders();
+            exclusiveAccessLocks.release(aKey, aHolder);
         }
         catch (Exception e) {
             log.error("Unable to return CAS [{}] for [{}]@[{}]({}) to exclusive access pool",
@@ -668,6 +1252,63 @@ public class CasStorageServiceImpl
         }
     }
 
+    @ManagedAttribute
+    public long getSharedCacheHitCount()
+    {
+        return sharedAccessCache.stats().hitCount();
+    }
+
+    @ManagedAttribute
+    public long getSharedCacheMissCount()
+    {
+        return sharedAccessCache.stats().missCount();
+    }
+
+    @ManagedAttribute
+    public long getSharedCacheEvictionCount()
+    {
+        return sharedAccessCache.stats().evictionCount();
+    }
+
+    @ManagedAttribute
+    public long getSharedCacheEntryCount()
+    {
+        sharedAccessCache.cleanUp();
+        return sharedAccessCache.estimatedSize();
+    }
+
+    /**
+     * @return estimated memory used by the CASes in the shared cache in MB.
+     */
+    @ManagedAttribute
+    public long getSharedCacheSize()
+    {
+        sharedAccessCache.cleanUp();
+        return sharedAccessCache.policy().eviction().map(Eviction::weightedSize)
+                .map(size -> size.orElse(0) / 1024).orElse(0l);
+    }
+
+    /**
+     * @return estimated memory used by the idle CASes in the exclusive access pool in MB.
+     */
+    @ManagedAttribute
+    public long getExclusivePoolIdleSize()
+    {
+        return exclusiveAccessLocks.getIdleSize() / BYTES_PER_MB;
+    }
+
+    @ManagedAttribute
+    public long getExclusivePoolEntryCount()
+    {
+        return exclusiveAccessLocks.getEntryCount();
+    }
+
+    @ManagedAttribute
+    public long getExclusivePoolBorrowedCount()
+    {
+        return exclusiveAccessLocks.getBorrowedCount();
+    }
+
     private void repairAndUpgradeCasIfRequired(SourceDocument aDocument, String aUsername, CAS aCas,
             CasUpgradeMode aUpgradeMode, RepairAndUpgradeFlags... aFlags)
         throws IOException
@@ -677,6 +1318,15 @@ public class CasStorageServiceImpl
             session.add(aDocument.getId(), aUsername, EXCLUSIVE_WRITE_ACCESS, aCas);
 
             try {
+                // Repairs are not announced by annotation events and hence cannot be recorded in
+                // the journal - the CAS needs to be written completely the next time
+                if (casDoctor != null && casDoctor.isRepairsActive()) {
+                    CasChangeTracker tracker = changeTrackers.get(getTrackedCas(aCas));
+                    if (tracker != null) {
+                        tracker.invalidate();
+                    }
+                }
+
                 analyzeAndRepair(aDocument, aUsername, aCas);
 
                 if (schemaService != null) {
@@ -707,12 +1357,15 @@ public class CasStorageServiceImpl
      *            a supplier to be used if the CAS does not yet exist in the storage.
      * @param aUpgradeMode
      *            whether to upgrade the CAS.
+     * @param aTrackChanges
+     *            whether the CAS may be written back such that its changes need to be tracked
+     *            for the journal.
      * @return the CAS.
      * @throws IOException
      *             if the CAS could not be obtained.
      */
     private CAS readOrCreateUnmanagedCas(SourceDocument aDocument, String aUsername,
-            CasProvider aSupplier, CasUpgradeMode aUpgradeMode)
+            CasProvider aSupplier, CasUpgradeMode aUpgradeMode, boolean aTrackChanges)
         throws IOException
     {
         long start = currentTimeMillis();
@@ -727,7 +1380,7 @@ public class CasStorageServiceImpl
                     aDocument.getName(), aDocument.getId(), aUsername,
                     aDocument.getProject().getName(), aDocument.getProject().getId());
 
-            cas = readUnmanagedCas(aDocument, aUsername);
+            cas = readUnmanagedCas(aDocument, aUsername, aTrackChanges);
             repairAndUpgradeCasIfRequired(aDocument, aUsername, cas, aUpgradeMode,
                     ISOLATED_SESSION);
             source = "disk";
@@ -755,7 +1408,8 @@ public class CasStorageServiceImpl
         return cas;
     }
 
-    private CAS readUnmanagedCas(SourceDocument aDocument, String aUser) throws IOException
+    private CAS readUnmanagedCas(SourceDocument aDocument, String aUser, boolean aTrackChanges)
+        throws IOException
     {
         File casFile = getCasFile(aDocument.getProject().getId(), aDocument.getId(), aUser);
         File oldCasFile = new File(casFile.getPath() + ".old");
@@ -766,20 +1420,13 @@ public class CasStorageServiceImpl
                     "Existance of temporary annotation file [%s] indicates that a previous "
                             + "annotation storage process did not successfully complete. Contact "
                             + "your server administator and request renaming the '.ser.old' file "
-                            + "to '.ser' manually on the command line. Advise the administrator to "
+                            + "to '.ser' (and any '.ser.old.journal' file to '.ser.journal') "
+                            + "manually on the command line. Advise the administrator to "
                             + "check for sufficient disk space and that the application has the "
                             + "necessary permissions to save files in its data folder.",
                     oldCasFile);
         }
 
-        CAS cas;
-        try {
-            cas = WebAnnoCasUtil.createCas();
-        }
-        catch (UIMAException e) {
-            throw new IOException("Unable to create empty CAS", e);
-        }
-
         if (!casFile.exists()) {
             throw new FileNotFoundException("Annotation document of user [" + aUser
                     + "] for source document [" + aDocument.getName() + "] (" + aDocument.getId()
@@ -787,10 +1434,29 @@ public class CasStorageServiceImpl
                     + aDocument.getProject().getId() + "). " + msgOldExists);
         }
 
+        CAS cas;
         try {
-            CasPersistenceUtils.readSerializedCas(cas, casFile);
+            // Files may be in any of the supported storage formats. Files in a format other than
+            // the configured one are migrated lazily the next time they are written.
+            cas = CasPersistenceUtils.readCas(casFile, typeSystemSnapshotStore,
+                    getTypeSystemSnapshotFolder(aDocument.getProject().getId()));
+
+            // Apply the changes which have been recorded in the journal since the CAS file was
+            // written. The journal is replayed even if journaling has been disabled meanwhile.
+            int journalEntries = 0;
+            File journalFile = CasJournal.getJournalFile(casFile);
+            if (journalFile.exists()) {
+                journalEntries = CasJournal.replay(cas, journalFile, casFile.length());
+            }
+
             // Add/update the CAS metadata
             CasMetadataUtils.addOrUpdateCasMetadata(cas, casFile, aDocument, aUser);
+
+            if (aTrackChanges && casStorageProperties.getJournal().isEnabled()) {
+                changeTrackers.put(getTrackedCas(cas), CasChangeTracker.track(
+                        new CasKey(aDocument, aUser), cas, casFile.length(), journalEntries,
+                        null));
+            }
         }
         catch (Exception e) {
             throw new IOException("Annotation document of user [" + aUser
@@ -808,8 +1474,9 @@ public class CasStorageServiceImpl
         throws IOException, CasSessionException
     {
         try (WithExclusiveAccess access = new WithExclusiveAccess(aDocument, aUsername)) {
-            boolean fileWasDeleted = new File(getAnnotationFolder(aDocument), aUsername + ".ser")
-                    .delete();
+            File casFile = new File(getAnnotationFolder(aDocument), aUsername + ".ser");
+            boolean fileWasDeleted = casFile.delete();
+            Files.deleteIfExists(CasJournal.getJournalFile(casFile).toPath());
 
             // Drop the CAS from the shared CAS it doesn't ghost around. Also set the deleted flag
             // in the holder in case anybody might still be holding on to the holder and needs to
@@ -824,11 +1491,10 @@ public class CasStorageServiceImpl
             // Drop the CAS from the exclusive access pool. This is done my marking it as deleted
             // and then releasing it (returning it to the pool). Upon return, the deleted flag
             // causes the CAS to be invalidated and dropped from the pool.
-            exclusiveAccessHolders.forEach(h -> {
-                // Must use the forEach here because stream() is not synchronized!
-                if (Objects.equals(h.getKey(), key)) {
-                    h.setDeleted(true);
-                }
+            exclusiveAccessLocks.getHolder(key).ifPresent(h -> {
+                // Pending changes to a deleted CAS must not be written anymore
+                h.clearWritePending();
+                h.setDeleted(true);
             });
             access.release();
 
@@ -957,11 +1623,42 @@ public class CasStorageServiceImpl
         Validate.notBlank(aUser, "User must be specified");
 
         forceActionOnCas(aDocument, aUser, //
-                (doc, user) -> readUnmanagedCas(doc, user),
+                (doc, user) -> readUnmanagedCas(doc, user, false),
                 (cas) -> schemaService.upgradeCas(cas, aDocument, aUser), //
                 true);
     }
 
+    @Override
+    public void upgradeCases(List<Pair<SourceDocument, String>> aDocumentsAndUsers)
+        throws IOException
+    {
+        Validate.notNull(aDocumentsAndUsers, "Documents and users must be specified");
+
+        List<Exception> failures = new ArrayList<>();
+        BulkCasLoader loader = new BulkCasLoader(bulkLoadExecutor, bulkLoadThreads,
+                aDocumentsAndUsers, UNMANAGED_ACCESS, (doc, user) -> {
+                    upgradeCas(doc, user);
+                    return null;
+                });
+        try (Stream<LoadedCas> results = loader.stream()) {
+            results.forEach(result -> result.getException()
+                    // If there is no CAS file, we do not have to upgrade it. Ignoring.
+                    .filter(e -> !(e instanceof FileNotFoundException))
+                    .ifPresent(e -> {
+                        log.error("Unable to upgrade CAS for [{}]@[{}]({})", result.getUser(),
+                                result.getDocument().getName(), result.getDocument().getId(), e);
+                        failures.add(e);
+                    }));
+        }
+
+        if (!failures.isEmpty()) {
+            IOException exception = new IOException(
+                    "Unable to upgrade [" + failures.size() + "] CASes", failures.get(0));
+            failures.stream().skip(1).forEach(exception::addSuppressed);
+            throw exception;
+        }
+    }
+
     @Override
     public void forceActionOnCas(SourceDocument aDocument, String aUser,
             CasStorageServiceLoader aLoader, CasStorageServiceAction aAction, boolean aSave)
@@ -973,6 +1670,7 @@ public class CasStorageServiceImpl
             try (WithExclusiveAccess access = new WithExclusiveAccess(aDocument, aUser)) {
                 session.add(aDocument.getId(), aUser, EXCLUSIVE_WRITE_ACCESS, access.getHolder());
 
+                access.flushPendingWrite();
                 CAS cas = aLoader.load(aDocument, aUser);
                 access.setCas(cas);
 
@@ -994,6 +1692,41 @@ public class CasStorageServiceImpl
         }
     }
 
+    @Override
+    public void exportCas(SourceDocument aDocument, String aUser, OutputStream aStream)
+        throws IOException
+    {
+        Validate.notNull(aDocument, "Source document must be specified");
+        Validate.notBlank(aUser, "User must be specified");
+
+        // Ensure that the CAS is not being re-written and temporarily unavailable while we export
+        // it
+        try (WithExclusiveAccess access = new WithExclusiveAccess(aDocument, aUser)) {
+            access.flushPendingWrite();
+
+            File casFile = getCasFile(aDocument, aUser);
+
+            // Files in the serialized format are self-contained and can be exported as they are.
+            // Files in the compact format depend on the type system snapshots in the repository,
+            // so we convert them to the serialized format. The same applies to files which have
+            // a journal because the changes recorded in the journal need to be applied first.
+            if (CasStorageFormat.SERIALIZED.equals(CasPersistenceUtils.detectFormat(casFile))
+                    && !CasJournal.getJournalFile(casFile).exists()) {
+                Files.copy(casFile.toPath(), aStream);
+            }
+            else {
+                CAS cas = readUnmanagedCas(aDocument, aUser, false);
+                CasPersistenceUtils.writeSerializedCas(cas, aStream);
+            }
+        }
+        catch (IOException e) {
+            throw e;
+        }
+        catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+
     @Override
     public boolean existsCas(SourceDocument aDocument, String aUser) throws IOException
     {
@@ -1107,6 +1840,37 @@ public class CasStorageServiceImpl
             return holder;
         }
 
+        /**
+         * @return the holder of the CAS if it has changes which have not yet been written to the
+         *         storage.
+         */
+        public Optional<CasHolder> getPendingWriteHolder()
+        {
+            if (holder != null) {
+                return holder.isWritePending() ? Optional.of(holder) : Optional.empty();
+            }
+
+            if (writeBehindScheduler == null) {
+                return Optional.empty();
+            }
+
+            // If we did not borrow the CAS ourselves, the current session already has exclusive
+            // access to it
+            return findPooledHolder(key, null).filter(CasHolder::isWritePending);
+        }
+
+        /**
+         * Writes any pending changes to the CAS to the storage. This must be called before
+         * accessing the CAS in the storage directly.
+         */
+        public void flushPendingWrite() throws IOException
+        {
+            Optional<CasHolder> pendingWriteHolder = getPendingWriteHolder();
+            if (pendingWriteHolder.isPresent()) {
+                CasStorageServiceImpl.this.flushPendingWrite(pendingWriteHolder.get());
+            }
+        }
+
         /**
          * Releases the CAS prior to closing the exclusive access context. This is used if the CAS
          * must be released irrespective of whether it was borrowed by {@link WithExclusiveAccess}
@@ -1120,9 +1884,8 @@ public class CasStorageServiceImpl
         public void release()
         {
             if (holder != null) {
-                exclusiveAccessPool.returnObject(key, holder);
+                exclusiveAccessLocks.release(key, holder);
                 holder = null;
-                logExclusiveAccessHolders();
             }
             else {
                 getCas().release();
@@ -1135,8 +1898,7 @@ public class CasStorageServiceImpl
             if (holder != null) {
                 log.trace("Returning briefly borrowed CAS [{}]@[{}]({})", username, documentName,
                         documentId);
-                exclusiveAccessPool.returnObject(key, holder);
-                logExclusiveAccessHolders();
+                exclusiveAccessLocks.release(key, holder);
             }
         }
     }
@@ -1150,6 +1912,13 @@ public class CasStorageServiceImpl
         // Ensure that the CAS is not being re-written and temporarily unavailable while we check
         // for its existence
         try (WithExclusiveAccess access = new WithExclusiveAccess(aDocument, aUser)) {
+            // If there are pending changes, report the timestamp of these changes. The file will
+            // carry the same timestamp once the changes have been written.
+            Optional<CasHolder> pendingWriteHolder = access.getPendingWriteHolder();
+            if (pendingWriteHolder.isPresent()) {
+                return Optional.of(pendingWriteHolder.get().getPendingWriteTimestamp());
+            }
+
             File casFile = getCasFile(aDocument, aUser);
             if (!casFile.exists()) {
                 return Optional.empty();
@@ -1193,42 +1962,142 @@ public class CasStorageServiceImpl
     }
 
     /**
-     * When using the Spring {@link ConcurrentReferenceHashMap} for the
-     * {@link #exclusiveAccessHolders}, we had some trouble that CASHolders disappeared from the set
-     * even though they had not yet been garbage collected (i.e. still referenced from the
-     * {@link #exclusiveAccessPool}. To fix this, we switch to a simple synchronized
-     * {@link WeakHashMap} turned into a set. We keep the debug/logging code around for a little
-     * more to facilitate debugging this again if need be.
+     * Get the folder where the type system snapshots for CASes stored in the
+     * {@link CasStorageFormat#COMPACT compact} format are kept.
+     */
+    private File getTypeSystemSnapshotFolder(long aProjectId)
+    {
+        return new File(repositoryProperties.getPath(), "/" + PROJECT_FOLDER + "/" + aProjectId
+                + "/" + TYPE_SYSTEM_SNAPSHOT_FOLDER);
+    }
+
+    private void deleteUnusedTypeSystemSnapshots()
+    {
+        for (Long projectId : snapshotCleanupProjects) {
+            snapshotCleanupProjects.remove(projectId);
+            try {
+                deleteUnusedTypeSystemSnapshots(projectId);
+            }
+            catch (Exception e) {
+                log.error("Unable to delete unused type system snapshots of project [{}]",
+                        projectId, e);
+            }
+        }
+    }
+
+    private void deleteUnusedTypeSystemSnapshots(long aProjectId) throws IOException
+    {
+        File snapshotFolder = getTypeSystemSnapshotFolder(aProjectId);
+        if (!snapshotFolder.isDirectory()) {
+            return;
+        }
+
+        // Collect the snapshots used by the CAS files of all users as well as by their backups.
+        // If any of the files cannot be read, we do not delete anything.
+        Set<String> usedFingerprints = new HashSet<>();
+        File documentsFolder = new File(repositoryProperties.getPath(),
+                "/" + PROJECT_FOLDER + "/" + aProjectId + "/" + DOCUMENT_FOLDER);
+        File[] documentFolders = documentsFolder.listFiles(File::isDirectory);
+        if (documentFolders != null) {
+            for (File documentFolder : documentFolders) {
+                File[] casFiles = new File(documentFolder, ANNOTATION_FOLDER)
+                        .listFiles(File::isFile);
+                if (casFiles == null) {
+                    continue;
+                }
+
+                for (File casFile : casFiles) {
+                    try {
+                        CasPersistenceUtils.readTypeSystemFingerprint(casFile)
+                                .ifPresent(usedFingerprints::add);
+                    }
+                    catch (FileNotFoundException e) {
+                        // The file was replaced while we were looking at it - try again later
+                        snapshotCleanupProjects.add(aProjectId);
+                        return;
+                    }
+                }
+            }
+        }
+
+        // Snapshots that are still being used for writing are kept and we try again later
+        if (typeSystemSnapshotStore.deleteUnused(snapshotFolder, usedFingerprints) > 0) {
+            snapshotCleanupProjects.add(aProjectId);
+        }
+    }
+
+    /**
+     * Records the changes announced by the type adapters for the journal of the affected CAS.
      */
-    private void logExclusiveAccessHolders()
+    @EventListener
+    public void onAnnotationEvent(AnnotationEvent aEvent)
     {
-        if (log.isTraceEnabled()) {
-            if (exclusiveAccessHolders.isEmpty()) {
-                log.trace("exclusiveAccessHolders: empty!");
+        if (!casStorageProperties.getJournal().isEnabled()) {
+            return;
+        }
+
+        FeatureStructure fs = null;
+        if (aEvent instanceof SpanEvent) {
+            fs = ((SpanEvent) aEvent).getAnnotation();
+        }
+        else if (aEvent instanceof RelationEvent) {
+            fs = ((RelationEvent) aEvent).getAnnotation();
+        }
+        else if (aEvent instanceof ChainEvent) {
+            fs = ((ChainEvent) aEvent).getAnnotation();
+        }
+        else if (aEvent instanceof FeatureValueUpdatedEvent) {
+            fs = ((FeatureValueUpdatedEvent) aEvent).getFS();
+        }
+
+        if (fs != null) {
+            CasChangeTracker tracker = changeTrackers.get(getTrackedCas(fs.getCAS()));
+            if (tracker != null) {
+                tracker.record(aEvent);
             }
-            else {
-                log.trace("exclusiveAccessHolders: {}", exclusiveAccessHolders);
+            return;
+        }
+
+        // Events which do not refer to a particular annotation, e.g. bulk operations, may have
+        // changed any of the CASes of the user in the document or project
+        synchronized (changeTrackers) {
+            for (CasChangeTracker tracker : changeTrackers.values()) {
+                CasKey key = tracker.getKey();
+                if (Objects.equals(key.getUserId(), aEvent.getUser())
+                        && (aEvent.getDocument() != null
+                                ? Objects.equals(key.getDocumentId(),
+                                        aEvent.getDocument().getId())
+                                : Objects.equals(key.getProjectId(),
+                                        aEvent.getProject().getId()))) {
+                    tracker.invalidate();
+                }
             }
         }
     }
 
+    /**
+     * The CAS under which the tracker of a CAS is registered. Annotations refer to the view they
+     * are in, hence the trackers are registered under the base CAS shared by all views.
+     */
+    private static CAS getTrackedCas(CAS aCas)
+    {
+        return ((CASImpl) getRealCas(aCas)).getBaseCAS();
+    }
+
     @TransactionalEventListener(fallbackExecution = true)
     @Transactional
     public void beforeLayerConfigurationChanged(LayerConfigurationChangedEvent aEvent)
     {
         // Tell the known CAS holders for the given project that their type system is outdated
         // so they can be refreshed when next returned or borrowed
-        logExclusiveAccessHolders();
-
-        exclusiveAccessHolders.forEach(h -> {
-            // Must use the forEach here because stream() is not synchronized!
+        exclusiveAccessLocks.forEachHolder(h -> {
             if (Objects.equals(h.getKey().getProjectId(), aEvent.getProject().getId())) {
                 h.setTypeSystemOutdated(true);
+                // Write pending changes soon so the CAS can be refreshed
+                h.requestFlush();
             }
         });
 
-        logExclusiveAccessHolders();
-
         // Drop all cached CASes from the updated project from the cache so the CASes get loaded
         // with an updated type system on next access
         sharedAccessCache.asMap().keySet()
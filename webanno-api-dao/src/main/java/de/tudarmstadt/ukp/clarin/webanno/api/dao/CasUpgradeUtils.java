@@ -0,0 +1,280 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.getRealCas;
+import static java.util.Comparator.comparingInt;
+import static java.util.stream.Collectors.toList;
+import static org.apache.uima.cas.impl.Serialization.deserializeCASComplete;
+import static org.apache.uima.cas.impl.Serialization.serializeCASComplete;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.CommonArrayFS;
+import org.apache.uima.cas.Feature;
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.TypeSystem;
+import org.apache.uima.cas.impl.CASImpl;
+import org.apache.uima.cas.impl.TypeImpl;
+import org.apache.uima.jcas.cas.AnnotationBase;
+import org.apache.uima.jcas.cas.FSArray;
+import org.apache.uima.jcas.cas.Sofa;
+import org.apache.uima.jcas.cas.TOP;
+import org.apache.uima.resource.ResourceInitializationException;
+import org.apache.uima.util.CasCreationUtils;
+
+/**
+ * Upgrades a CAS to a type system which only adds types or features to the type system of the CAS
+ * (e.g. after a layer or a feature has been added to a project). Instead of serializing the CAS
+ * and leniently loading it back after re-initializing it with the new type system, the feature
+ * structures are copied directly from the original feature structure objects into the
+ * re-initialized CAS.
+ */
+public class CasUpgradeUtils
+{
+    /**
+     * Checks whether the given CAS can be upgraded to the given type system using
+     * {@link #upgradeCas}. This is the case if every type and feature of the type system of the
+     * CAS is also present in the target type system with the same super type or range and if the
+     * CAS only uses string or URI subjects of analysis.
+     */
+    public static boolean isUpgradeByCopyPossible(CAS aCas, TypeSystem aTargetTypeSystem)
+    {
+        if (!isExtendedBy(aCas.getTypeSystem(), aTargetTypeSystem)) {
+            return false;
+        }
+
+        Iterator<CAS> i = getRealCas(aCas).getViewIterator();
+        while (i.hasNext()) {
+            if (((Sofa) i.next().getSofa()).getSofaArray() != null) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @return whether every type and feature of the source type system is also present in the
+     *         target type system with the same super type or range.
+     */
+    public static boolean isExtendedBy(TypeSystem aSource, TypeSystem aTarget)
+    {
+        if (aSource == aTarget) {
+            return true;
+        }
+
+        Iterator<Type> i = aSource.getTypeIterator();
+        while (i.hasNext()) {
+            Type sourceType = i.next();
+            Type targetType = aTarget.getType(sourceType.getName());
+            if (targetType == null) {
+                return false;
+            }
+
+            Type sourceParent = aSource.getParent(sourceType);
+            Type targetParent = aTarget.getParent(targetType);
+            if (!Objects.equals(sourceParent != null ? sourceParent.getName() : null,
+                    targetParent != null ? targetParent.getName() : null)) {
+                return false;
+            }
+
+            for (Feature sourceFeature : sourceType.getFeatures()) {
+                Feature targetFeature = targetType
+                        .getFeatureByBaseName(sourceFeature.getShortName());
+                if (targetFeature == null || !sourceFeature.getRange().getName()
+                        .equals(targetFeature.getRange().getName())) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Re-initializes the target CAS with the given type system and copies the contents of the
+     * source CAS into it. The source and target CAS may be the same. The caller must ensure that
+     * {@link #isUpgradeByCopyPossible} holds and that both CASes are locked.
+     */
+    public static void upgradeCas(CAS aSourceCas, CAS aTargetCas, TypeSystem aTargetTypeSystem)
+        throws ResourceInitializationException
+    {
+        CASImpl source = ((CASImpl) getRealCas(aSourceCas)).getBaseCAS();
+        CASImpl target = ((CASImpl) getRealCas(aTargetCas)).getBaseCAS();
+
+        // Remember the original feature structures before the target is re-initialized. If the
+        // source and target are the same CAS, these objects still hold their values after the
+        // CAS has been reset and we can copy them from there.
+        List<TOP> fss = source.walkReachablePlusFSsSorted(fs -> {
+        }, null, null, null);
+        List<Sofa> sofas = new ArrayList<>();
+        Map<Sofa, List<TOP>> indexedFSs = new IdentityHashMap<>();
+        Iterator<CAS> i = source.getViewIterator();
+        while (i.hasNext()) {
+            CAS view = i.next();
+            List<TOP> indexed = new ArrayList<>(view.getIndexRepository().getIndexedFSs());
+            indexed.removeIf(fs -> fs instanceof Sofa);
+            indexed.sort(comparingInt(TOP::_id));
+            Sofa sofa = (Sofa) view.getSofa();
+            sofas.add(sofa);
+            indexedFSs.put(sofa, indexed);
+        }
+
+        // Re-initialize the target with the new type system
+        CAS emptyCas = CasCreationUtils.createCas(aTargetTypeSystem, null, null, null);
+        deserializeCASComplete(serializeCASComplete((CASImpl) emptyCas), target);
+
+        // Re-create the views
+        Map<TOP, TOP> copies = new IdentityHashMap<>();
+        Map<String, CAS> views = new HashMap<>();
+        sofas.sort(comparingInt(Sofa::getSofaNum));
+        for (Sofa sofa : sofas) {
+            CAS view = CAS.NAME_DEFAULT_SOFA.equals(sofa.getSofaID())
+                    ? target.getView(CAS.NAME_DEFAULT_SOFA)
+                    : target.createView(sofa.getSofaID());
+            if (sofa.getLocalStringData() != null) {
+                view.setSofaDataString(sofa.getLocalStringData(), sofa.getSofaMime());
+            }
+            else if (sofa.getSofaURI() != null) {
+                view.setSofaDataURI(sofa.getSofaURI(), sofa.getSofaMime());
+            }
+            // Setting the text creates a fresh document annotation which we do not want since the
+            // original document annotation is copied along with the other feature structures
+            view.getIndexRepository().getIndexedFSs().stream()
+                    .filter(fs -> !(fs instanceof Sofa))
+                    .collect(toList())
+                    .forEach(view::removeFsFromIndexes);
+            views.put(sofa.getSofaID(), view);
+            if (view.getSofa() != null) {
+                copies.put(sofa, (TOP) view.getSofa());
+            }
+        }
+
+        // Create the copies in the original order so that they receive IDs in the same order
+        Map<Type, Type> types = new IdentityHashMap<>();
+        for (TOP fs : fss) {
+            if (fs instanceof Sofa) {
+                continue;
+            }
+
+            TypeImpl type = (TypeImpl) types.computeIfAbsent(fs.getType(),
+                t -> aTargetTypeSystem.getType(t.getName()));
+            TOP copy;
+            if (fs instanceof CommonArrayFS) {
+                copy = target.createArray(type, ((CommonArrayFS<?>) fs).size());
+            }
+            else if (fs instanceof AnnotationBase) {
+                copy = views.get(((AnnotationBase) fs).getSofa().getSofaID()).createFS(type);
+            }
+            else {
+                copy = target.createFS(type);
+            }
+            copies.put(fs, copy);
+        }
+
+        // Copy the feature values
+        Map<Type, Feature[]> features = new IdentityHashMap<>();
+        for (TOP fs : fss) {
+            if (fs instanceof Sofa) {
+                continue;
+            }
+
+            TOP copy = copies.get(fs);
+            if (fs instanceof FSArray) {
+                FSArray<?> array = (FSArray<?>) fs;
+                @SuppressWarnings("unchecked")
+                FSArray<TOP> arrayCopy = (FSArray<TOP>) copy;
+                for (int n = 0; n < array.size(); n++) {
+                    arrayCopy.set(n, copies.get(array.get(n)));
+                }
+            }
+            else if (fs instanceof CommonArrayFS) {
+                ((CommonArrayFS) copy).copyValuesFrom((CommonArrayFS) fs);
+            }
+            else {
+                for (Feature feature : features.computeIfAbsent(fs.getType(),
+                    t -> t.getFeatures().toArray(new Feature[0]))) {
+                    if (CAS.FEATURE_BASE_NAME_SOFA.equals(feature.getShortName())
+                            && fs instanceof AnnotationBase) {
+                        // Set when the copy was created in its view
+                        continue;
+                    }
+
+                    copyValue(fs, feature, copy,
+                            copy.getType().getFeatureByBaseName(feature.getShortName()), copies);
+                }
+            }
+        }
+
+        // Add the copies to the indexes of their views
+        for (Sofa sofa : sofas) {
+            CAS view = views.get(sofa.getSofaID());
+            for (TOP fs : indexedFSs.get(sofa)) {
+                view.addFsToIndexes(copies.get(fs));
+            }
+        }
+    }
+
+    private static void copyValue(TOP aSource, Feature aSourceFeature, TOP aTarget,
+            Feature aTargetFeature, Map<TOP, TOP> aCopies)
+    {
+        Type range = aSourceFeature.getRange();
+        if (!range.isPrimitive()) {
+            TOP value = aSource.getFeatureValue(aSourceFeature);
+            if (value != null) {
+                aTarget.setFeatureValue(aTargetFeature, aCopies.get(value));
+            }
+            return;
+        }
+
+        switch (range.getName()) {
+        case CAS.TYPE_NAME_BOOLEAN:
+            aTarget.setBooleanValue(aTargetFeature, aSource.getBooleanValue(aSourceFeature));
+            break;
+        case CAS.TYPE_NAME_BYTE:
+            aTarget.setByteValue(aTargetFeature, aSource.getByteValue(aSourceFeature));
+            break;
+        case CAS.TYPE_NAME_SHORT:
+            aTarget.setShortValue(aTargetFeature, aSource.getShortValue(aSourceFeature));
+            break;
+        case CAS.TYPE_NAME_INTEGER:
+            aTarget.setIntValue(aTargetFeature, aSource.getIntValue(aSourceFeature));
+            break;
+        case CAS.TYPE_NAME_LONG:
+            aTarget.setLongValue(aTargetFeature, aSource.getLongValue(aSourceFeature));
+            break;
+        case CAS.TYPE_NAME_FLOAT:
+            aTarget.setFloatValue(aTargetFeature, aSource.getFloatValue(aSourceFeature));
+            break;
+        case CAS.TYPE_NAME_DOUBLE:
+            aTarget.setDoubleValue(aTargetFeature, aSource.getDoubleValue(aSourceFeature));
+            break;
+        default:
+            aTarget.setStringValue(aTargetFeature, aSource.getStringValue(aSourceFeature));
+            break;
+        }
+    }
+}
@@ -33,7 +33,6 @@ import static java.util.Objects.isNull;
 import static org.apache.commons.io.IOUtils.copyLarge;
 
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -48,6 +47,7 @@ import java.util.Map.Entry;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.TreeMap;
+import java.util.stream.Stream;
 
 import javax.persistence.EntityManager;
 import javax.persistence.NoResultException;
@@ -55,6 +55,7 @@ import javax.persistence.PersistenceContext;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.Validate;
+import org.apache.commons.lang3.tuple.Pair;
 import org.apache.uima.UIMAException;
 import org.apache.uima.cas.CAS;
 import org.apache.uima.resource.metadata.TypeSystemDescription;
@@ -77,6 +78,7 @@ import de.tudarmstadt.ukp.clarin.webanno.api.ProjectService;
 import de.tudarmstadt.ukp.clarin.webanno.api.RepositoryProperties;
 import de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst;
 import de.tudarmstadt.ukp.clarin.webanno.api.casstorage.CasAccessMode;
+import de.tudarmstadt.ukp.clarin.webanno.api.casstorage.LoadedCas;
 import de.tudarmstadt.ukp.clarin.webanno.api.event.AfterCasWrittenEvent;
 import de.tudarmstadt.ukp.clarin.webanno.api.event.AfterDocumentCreatedEvent;
 import de.tudarmstadt.ukp.clarin.webanno.api.event.AfterDocumentResetEvent;
@@ -284,6 +286,13 @@ public class DocumentServiceImpl
         return casStorageService.getCasFile(aDocument, aUser);
     }
 
+    @Override
+    public void exportCas(SourceDocument aDocument, String aUser, OutputStream aStream)
+        throws IOException
+    {
+        casStorageService.exportCas(aDocument, aUser, aStream);
+    }
+
     @Override
     @Transactional(noRollbackFor = NoResultException.class)
     public AnnotationDocument createOrGetAnnotationDocument(SourceDocument aDocument, User aUser)
@@ -687,6 +696,28 @@ public class DocumentServiceImpl
         return cas;
     }
 
+    // NO TRANSACTION REQUIRED - This does not do any should not do a database access, so we do not
+    // need to be in a transaction here. Avoiding the transaction speeds up the call.
+    @Override
+    public Stream<LoadedCas> readAnnotationCases(
+            List<Pair<SourceDocument, String>> aDocumentsAndUsers, CasUpgradeMode aUpgradeMode,
+            CasAccessMode aMode)
+    {
+        return casStorageService.readCases(aDocumentsAndUsers, aUpgradeMode,
+                // Convert the source file into an annotation CAS
+                (doc, user) -> createOrReadInitialCas(doc, NO_CAS_UPGRADE, UNMANAGED_ACCESS, null),
+                aMode);
+    }
+
+    // NO TRANSACTION REQUIRED - This does not do any should not do a database access, so we do not
+    // need to be in a transaction here. Avoiding the transaction speeds up the call.
+    @Override
+    public void prefetchAnnotationCases(SourceDocument aDocument, List<SourceDocument> aDocuments,
+            User aUser)
+    {
+        casStorageService.prefetchCases(aDocument, aDocuments, aUser.getUsername());
+    }
+
     // NO TRANSACTION REQUIRED - This does not do any should not do a database access, so we do not
     // need to be in a transaction here. Avoiding the transaction speeds up the call.
     @Override
@@ -1096,23 +1127,17 @@ public class DocumentServiceImpl
         // re-opens the document because the force upgrade invalidates the VIDs used in the
         // annotation editor. How exactly (if at all) the user gets information of this is
         // currently undefined.
+        List<Pair<SourceDocument, String>> documentsAndUsers = new ArrayList<>();
         for (SourceDocument doc : listSourceDocuments(aProject)) {
             for (AnnotationDocument ann : listAllAnnotationDocuments(doc)) {
-                try {
-                    casStorageService.upgradeCas(doc, ann.getUser());
-                }
-                catch (FileNotFoundException e) {
-                    // If there is no CAS file, we do not have to upgrade it. Ignoring.
-                }
+                documentsAndUsers.add(Pair.of(doc, ann.getUser()));
             }
 
             // Also upgrade the curation CAS if it exists
-            try {
-                casStorageService.upgradeCas(doc, CURATION_USER);
-            }
-            catch (FileNotFoundException e) {
-                // If there is no CAS file, we do not have to upgrade it. Ignoring.
-            }
+            documentsAndUsers.add(Pair.of(doc, CURATION_USER));
         }
+
+        // CASes which do not exist do not have to be upgraded and are skipped
+        casStorageService.upgradeCases(documentsAndUsers);
     }
 }
@@ -68,8 +68,8 @@ import org.apache.uima.cas.Type;
 import org.apache.uima.cas.text.AnnotationFS;
 import org.apache.uima.collection.CollectionReader;
 import org.apache.uima.collection.CollectionReaderDescription;
-import org.apache.uima.fit.factory.CasFactory;
 import org.apache.uima.resource.metadata.TypeSystemDescription;
+import org.apache.uima.util.CasCreationUtils;
 import org.dkpro.core.api.io.JCasFileWriter_ImplBase;
 import org.dkpro.core.api.io.ResourceCollectionReaderBase;
 import org.slf4j.Logger;
@@ -283,8 +283,10 @@ public class ImportExportServiceImpl
             tsd = annotationService.getFullProjectTypeSystem(aProject);
         }
 
-        // Prepare a CAS with the project type system
-        CAS cas = CasFactory.createCas(tsd);
+        // Prepare a CAS with the project type system - reuse the committed project type system
+        // instead of compiling a new one for every imported file
+        CAS cas = CasCreationUtils.createCas(annotationService.getTypeSystem(tsd), null, null,
+                null);
 
         // Convert the source document to CAS
         FormatSupport format = getReadableFormatById(aFormatId).orElseThrow(
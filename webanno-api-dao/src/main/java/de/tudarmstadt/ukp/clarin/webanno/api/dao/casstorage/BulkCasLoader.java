@@ -0,0 +1,270 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.transferCasOwnershipToCurrentThread;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.apache.uima.cas.CAS;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.casstorage.CasAccessMode;
+import de.tudarmstadt.ukp.clarin.webanno.api.casstorage.CasStorageServiceLoader;
+import de.tudarmstadt.ukp.clarin.webanno.api.casstorage.LoadedCas;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+/**
+ * Loads CASes in background threads and delivers them in the order in which they were requested.
+ * At most {@code lookAhead} CASes are loaded (or being loaded) ahead of the consumer.
+ * <p>
+ * Each CAS is loaded in a separate CAS storage session in the background thread. This session does
+ * not release the CAS when it is closed. Instead, the CAS is handed over to the thread consuming
+ * the results and added to the CAS storage session of that thread, such that it is released when
+ * that session is closed. The consumer must thus be the thread which created the loader.
+ */
+public class BulkCasLoader
+    implements Iterator<LoadedCas>, AutoCloseable
+{
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final ExecutorService executor;
+    private final int lookAhead;
+    private final CasAccessMode accessMode;
+    private final CasStorageServiceLoader loader;
+    private final Iterator<Pair<SourceDocument, String>> requests;
+    private final Deque<PendingCas> pending = new ArrayDeque<>();
+    private final Map<CasKey, Future<LoadedCas>> submitted = new HashMap<>();
+
+    private boolean closed = false;
+
+    public BulkCasLoader(ExecutorService aExecutor, int aLookAhead,
+            List<Pair<SourceDocument, String>> aDocumentsAndUsers, CasAccessMode aAccessMode,
+            CasStorageServiceLoader aLoader)
+    {
+        executor = aExecutor;
+        lookAhead = Math.max(1, aLookAhead);
+        accessMode = aAccessMode;
+        loader = aLoader;
+        requests = aDocumentsAndUsers.iterator();
+
+        submitRequests();
+    }
+
+    public Stream<LoadedCas> stream()
+    {
+        return StreamSupport
+                .stream(Spliterators.spliteratorUnknownSize(this,
+                        Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(this::close);
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+        return !closed && !pending.isEmpty();
+    }
+
+    @Override
+    public LoadedCas next()
+    {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        PendingCas next = pending.poll();
+        LoadedCas result = await(next);
+
+        submitRequests();
+
+        if (next.isLoadedHere()) {
+            adoptCas(result);
+        }
+
+        return result;
+    }
+
+    /**
+     * Releases all CASes which have been loaded ahead but which have not been consumed yet. Loads
+     * which have not started yet are skipped. Loads which are in progress are waited for such that
+     * their CASes can be released.
+     */
+    @Override
+    public void close()
+    {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+
+        while (!pending.isEmpty()) {
+            PendingCas next = pending.poll();
+            if (!next.isLoadedHere()) {
+                continue;
+            }
+
+            if (next.started.compareAndSet(false, true)) {
+                next.future.cancel(false);
+                continue;
+            }
+
+            LoadedCas result = await(next);
+            Optional<CAS> cas = getCasQuietly(result);
+            if (cas.isPresent() && accessMode.isSessionManaged()) {
+                transferCasOwnershipToCurrentThread(cas.get());
+                cas.get().release();
+            }
+        }
+    }
+
+    private void submitRequests()
+    {
+        while (pending.size() < lookAhead && requests.hasNext()) {
+            Pair<SourceDocument, String> request = requests.next();
+            SourceDocument doc = request.getKey();
+            String user = request.getValue();
+            CasKey key = new CasKey(doc, user);
+
+            // If the CAS is already part of the session of the consumer, we do not need to load it
+            Optional<SessionManagedCas> mCas = accessMode.isSessionManaged()
+                    ? CasStorageSession.get().getManagedState(doc.getId(), user)
+                    : Optional.empty();
+            if (mCas.isPresent() && mCas.get().getMode().alsoPermits(accessMode)) {
+                pending.add(new PendingCas(CompletableFuture
+                        .completedFuture(new LoadedCas(doc, user, mCas.get().getCas(), null)),
+                        null));
+                continue;
+            }
+
+            // If the same CAS has been requested multiple times, we load it only once. Trying to
+            // load it again while the first request still holds it may otherwise block.
+            Future<LoadedCas> earlierRequest = submitted.get(key);
+            if (earlierRequest != null) {
+                pending.add(new PendingCas(earlierRequest, null));
+                continue;
+            }
+
+            AtomicBoolean started = new AtomicBoolean();
+            Future<LoadedCas> future = executor.submit(() -> load(doc, user, started));
+            submitted.put(key, future);
+            pending.add(new PendingCas(future, started));
+        }
+    }
+
+    private LoadedCas load(SourceDocument aDocument, String aUser, AtomicBoolean aStarted)
+    {
+        // The loader has been closed before the load could start
+        if (!aStarted.compareAndSet(false, true)) {
+            return new LoadedCas(aDocument, aUser, null, null);
+        }
+
+        try (CasStorageSession session = CasStorageSession.open()) {
+            CAS cas = loader.load(aDocument, aUser);
+
+            // The CAS is handed over to the session of the consumer
+            if (cas != null) {
+                session.getManagedState(cas).ifPresent(mCas -> mCas.setReleaseOnClose(false));
+            }
+
+            return new LoadedCas(aDocument, aUser, cas, null);
+        }
+        catch (Exception e) {
+            return new LoadedCas(aDocument, aUser, null, e);
+        }
+    }
+
+    private void adoptCas(LoadedCas aResult)
+    {
+        Optional<CAS> cas = getCasQuietly(aResult);
+        if (!cas.isPresent()) {
+            return;
+        }
+
+        transferCasOwnershipToCurrentThread(cas.get());
+
+        if (accessMode.isSessionManaged()) {
+            CasStorageSession.get()
+                    .add(aResult.getDocument().getId(), aResult.getUser(), accessMode, cas.get())
+                    .incrementReadCount();
+        }
+    }
+
+    private LoadedCas await(PendingCas aPending)
+    {
+        try {
+            return aPending.future.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for CAS to be loaded", e);
+        }
+        catch (ExecutionException e) {
+            // Should not happen because load() does not throw exceptions
+            log.error("Unable to load CAS", e.getCause());
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private static Optional<CAS> getCasQuietly(LoadedCas aResult)
+    {
+        try {
+            return Optional.ofNullable(aResult.getCas());
+        }
+        catch (Exception e) {
+            return Optional.empty();
+        }
+    }
+
+    private static class PendingCas
+    {
+        private final Future<LoadedCas> future;
+        // Set by whoever comes first: the background thread starting the load or the loader
+        // being closed. Null if the CAS is not loaded by this request.
+        private final AtomicBoolean started;
+
+        public PendingCas(Future<LoadedCas> aFuture, AtomicBoolean aStarted)
+        {
+            future = aFuture;
+            started = aStarted;
+        }
+
+        public boolean isLoadedHere()
+        {
+            return started != null;
+        }
+    }
+}
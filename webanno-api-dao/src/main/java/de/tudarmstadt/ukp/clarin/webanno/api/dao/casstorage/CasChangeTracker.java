@@ -0,0 +1,613 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.getRealCas;
+import static org.apache.uima.fit.util.CasUtil.selectAt;
+import static org.apache.uima.fit.util.CasUtil.selectCovered;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.CASRuntimeException;
+import org.apache.uima.cas.CommonArrayFS;
+import org.apache.uima.cas.Feature;
+import org.apache.uima.cas.FeatureStructure;
+import org.apache.uima.cas.Marker;
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.TypeSystem;
+import org.apache.uima.cas.impl.CASImpl;
+import org.apache.uima.cas.impl.FSIndexRepositoryImpl;
+import org.apache.uima.cas.impl.MarkerImpl;
+import org.apache.uima.cas.text.AnnotationFS;
+import org.apache.uima.jcas.cas.FSArray;
+import org.apache.uima.jcas.cas.TOP;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.event.AnnotationEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.event.FeatureValueUpdatedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.event.RelationCreatedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.event.RelationDeletedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.event.SpanCreatedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.event.SpanDeletedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.type.CASMetadata;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
+
+/**
+ * Records the changes made to a CAS since it was last persisted such that they can be appended
+ * to the {@link CasJournal} instead of writing the complete CAS.
+ * <p>
+ * The changes are recorded from the {@link AnnotationEvent annotation events} which the type
+ * adapters publish when spans and relations are created or deleted and when feature values are
+ * updated. Each operation is encoded at the time its event is published and the operations are
+ * replayed in the same order. Hence, an annotation can be referred to by its view, type, offsets
+ * and its rank among the annotations of the same type at the same offsets. Unlike feature
+ * structure IDs, this locator does not change when the CAS is saved and loaded again and it is
+ * resolved through the annotation index.
+ * <p>
+ * Changes which are not described by these events, e.g. changes to chains, bulk operations, CAS
+ * doctor repairs or merges, cannot be recorded. In order to notice such changes, a UIMA
+ * {@link Marker} is placed in the CAS. The feature structures which UIMA reports as added to,
+ * removed from or re-indexed in the indexes since then must all have been recorded. Otherwise,
+ * the complete CAS needs to be written.
+ */
+public class CasChangeTracker
+{
+    private static final Logger LOG = LoggerFactory.getLogger(CasChangeTracker.class);
+
+    static final byte OP_CREATE = 1;
+    static final byte OP_UPDATE = 2;
+    static final byte OP_DELETE = 3;
+
+    static final byte VALUE_NULL = 0;
+    static final byte VALUE_PRIMITIVE = 1;
+    static final byte VALUE_ANNOTATION = 2;
+    static final byte VALUE_INLINE = 3;
+
+    private final CasKey key;
+    private final TypeSystem typeSystem;
+    private final int casResets;
+    private final long checkpointLength;
+    private final Mark mark;
+
+    // Operations recorded since the changes were last persisted
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private final DataOutputStream out = new DataOutputStream(buffer);
+    private int operations;
+
+    // IDs of the feature structures created, deleted or updated by the recorded operations
+    private final BitSet recorded = new BitSet();
+
+    // Set once a change has been made which cannot be recorded
+    private boolean incomplete;
+
+    private int journalEntries;
+
+    private CasChangeTracker(CasKey aKey, CASImpl aCas, long aCheckpointLength,
+            int aJournalEntries, CasChangeTracker aPrevious)
+    {
+        key = aKey;
+        typeSystem = aCas.getTypeSystem();
+        casResets = aCas.getCasResets();
+        checkpointLength = aCheckpointLength;
+        journalEntries = aJournalEntries;
+
+        mark = Mark.of(aCas, aPrevious != null ? aPrevious.mark : null);
+        if (mark != null) {
+            // Any index changes made so far are part of the persisted state
+            mark.acknowledge(aCas);
+        }
+    }
+
+    /**
+     * Starts tracking changes to the given CAS. The current state of the CAS must be the state in
+     * which it has been persisted, i.e. this must be called right after loading or writing the
+     * CAS.
+     *
+     * @param aKey
+     *            the document/user the CAS is stored for.
+     * @param aCas
+     *            the CAS.
+     * @param aCheckpointLength
+     *            the size of the CAS file the journal applies to.
+     * @param aJournalEntries
+     *            the number of entries the journal of the persisted CAS already contains.
+     * @param aPrevious
+     *            (optional) the tracker previously used for the CAS.
+     * @return the tracker.
+     */
+    public static CasChangeTracker track(CasKey aKey, CAS aCas, long aCheckpointLength,
+            int aJournalEntries, CasChangeTracker aPrevious)
+    {
+        return new CasChangeTracker(aKey, ((CASImpl) getRealCas(aCas)).getBaseCAS(),
+                aCheckpointLength, aJournalEntries, aPrevious);
+    }
+
+    public CasKey getKey()
+    {
+        return key;
+    }
+
+    /**
+     * @return whether the given CAS is still the CAS which is being tracked for the given
+     *         document/user in a state in which its changes can be recorded. This is not the case
+     *         anymore e.g. after the type system of the CAS has been upgraded.
+     */
+    public boolean isTracking(CasKey aKey, CAS aCas)
+    {
+        CASImpl cas = (CASImpl) getRealCas(aCas);
+        return key.equals(aKey) && cas.getTypeSystem() == typeSystem
+                && cas.getCasResets() == casResets;
+    }
+
+    public int getJournalEntries()
+    {
+        return journalEntries;
+    }
+
+    /**
+     * Notes that the CAS has been changed in a way that cannot be recorded such that the complete
+     * CAS is written the next time.
+     */
+    public synchronized void invalidate()
+    {
+        incomplete = true;
+    }
+
+    /**
+     * Records the operation described by the given event. The event must refer to the tracked CAS
+     * and must be passed on while the CAS is still in the state right after the operation.
+     */
+    public synchronized void record(AnnotationEvent aEvent)
+    {
+        if (incomplete) {
+            return;
+        }
+
+        try {
+            if (aEvent instanceof SpanCreatedEvent) {
+                AnnotationFS span = ((SpanCreatedEvent) aEvent).getAnnotation();
+                writeCreate(span);
+                writeAttachedValues(aEvent.getLayer(), span);
+            }
+            else if (aEvent instanceof SpanDeletedEvent) {
+                AnnotationFS span = ((SpanDeletedEvent) aEvent).getAnnotation();
+                writeDelete(span);
+                writeAttachedValues(aEvent.getLayer(), span);
+            }
+            else if (aEvent instanceof RelationCreatedEvent) {
+                writeCreate(((RelationCreatedEvent) aEvent).getAnnotation());
+            }
+            else if (aEvent instanceof RelationDeletedEvent) {
+                writeDelete(((RelationDeletedEvent) aEvent).getAnnotation());
+            }
+            else if (aEvent instanceof FeatureValueUpdatedEvent) {
+                FeatureValueUpdatedEvent event = (FeatureValueUpdatedEvent) aEvent;
+                FeatureStructure fs = event.getFS();
+                Feature feature = fs.getType()
+                        .getFeatureByBaseName(event.getFeature().getName());
+                if (!(fs instanceof AnnotationFS) || feature == null) {
+                    throw new IOException("Unable to record update of feature ["
+                            + event.getFeature().getName() + "] on type ["
+                            + fs.getType().getName() + "]");
+                }
+                writeUpdate((AnnotationFS) fs, feature);
+            }
+            else {
+                throw new IOException("Unable to record the changes announced by ["
+                        + aEvent.getClass().getSimpleName() + "]");
+            }
+        }
+        catch (IOException e) {
+            LOG.debug("{} - the complete CAS will be written for {}", e.getMessage(), key);
+            incomplete = true;
+        }
+    }
+
+    /**
+     * Encodes the operations recorded since the tracking started or since the last recorded
+     * changes. The changes are only considered as persisted once {@link Changes#commit()} is
+     * called.
+     *
+     * @param aCas
+     *            the tracked CAS.
+     * @return the changes or {@code null} if the changes cannot be represented in the journal
+     *         because no operations have been recorded or because the CAS has been changed in a
+     *         way that could not be recorded. In this case, the complete CAS needs to be written.
+     */
+    public synchronized Changes recordChanges(CAS aCas) throws IOException
+    {
+        if (incomplete || operations == 0 || mark == null) {
+            return null;
+        }
+
+        CASImpl cas = ((CASImpl) getRealCas(aCas)).getBaseCAS();
+        if (!mark.isCovered(cas, recorded)) {
+            LOG.debug("CAS has been changed without notification - the complete CAS will be "
+                    + "written for {}", key);
+            return null;
+        }
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(buffer.size() + 12);
+        DataOutputStream entry = new DataOutputStream(bos);
+        entry.writeLong(checkpointLength);
+        entry.writeInt(operations);
+        out.flush();
+        buffer.writeTo(entry);
+        entry.flush();
+
+        return new Changes(bos.toByteArray());
+    }
+
+    private void writeCreate(AnnotationFS aAnnotation) throws IOException
+    {
+        if (rank(aAnnotation, true) < 0) {
+            throw new IOException("Unable to record creation of unindexed annotation of type ["
+                    + aAnnotation.getType().getName() + "]");
+        }
+
+        out.writeByte(OP_CREATE);
+        out.writeUTF(aAnnotation.getView().getViewName());
+        out.writeUTF(aAnnotation.getType().getName());
+        out.writeInt(aAnnotation.getBegin());
+        out.writeInt(aAnnotation.getEnd());
+
+        List<Feature> features = new ArrayList<>();
+        for (Feature feature : aAnnotation.getType().getFeatures()) {
+            switch (feature.getShortName()) {
+            case CAS.FEATURE_BASE_NAME_SOFA: // fall-through
+            case CAS.FEATURE_BASE_NAME_BEGIN: // fall-through
+            case CAS.FEATURE_BASE_NAME_END:
+                break;
+            default:
+                features.add(feature);
+            }
+        }
+        writeFeatures((TOP) aAnnotation, features, newIdentitySet());
+
+        recorded.set(((TOP) aAnnotation)._id());
+        operations++;
+    }
+
+    private void writeDelete(AnnotationFS aAnnotation) throws IOException
+    {
+        out.writeByte(OP_DELETE);
+        // The annotation has already been removed from the index, but it does not count towards
+        // the rank of the other annotations either way
+        writeLocator(aAnnotation, rank(aAnnotation, false));
+
+        recorded.set(((TOP) aAnnotation)._id());
+        operations++;
+    }
+
+    private void writeUpdate(AnnotationFS aAnnotation, Feature aFeature) throws IOException
+    {
+        int rank = rank(aAnnotation, true);
+        if (rank < 0) {
+            throw new IOException("Unable to record update of unindexed annotation of type ["
+                    + aAnnotation.getType().getName() + "]");
+        }
+
+        out.writeByte(OP_UPDATE);
+        writeLocator(aAnnotation, rank);
+        writeFeatures((TOP) aAnnotation, Collections.singletonList(aFeature),
+                newIdentitySet());
+
+        recorded.set(((TOP) aAnnotation)._id());
+        operations++;
+    }
+
+    /**
+     * Spans of layers attaching to another layer are set as a feature value of the annotation
+     * they attach to when they are created and this value is cleared when they are deleted. These
+     * changes are not announced separately.
+     */
+    private void writeAttachedValues(AnnotationLayer aLayer, AnnotationFS aSpan)
+        throws IOException
+    {
+        if (aLayer == null || aLayer.getAttachType() == null
+                || aLayer.getAttachFeature() == null) {
+            return;
+        }
+
+        CAS view = aSpan.getView();
+        Type attachType = view.getTypeSystem().getType(aLayer.getAttachType().getName());
+        Feature attachFeature = attachType != null
+                ? attachType.getFeatureByBaseName(aLayer.getAttachFeature().getName())
+                : null;
+        if (attachFeature == null) {
+            throw new IOException("Unable to record update of attach feature ["
+                    + aLayer.getAttachFeature().getName() + "]");
+        }
+
+        for (AnnotationFS target : selectCovered(view, attachType, aSpan.getBegin(),
+                aSpan.getEnd())) {
+            writeUpdate(target, attachFeature);
+        }
+    }
+
+    private void writeLocator(AnnotationFS aAnnotation, int aRank) throws IOException
+    {
+        out.writeUTF(aAnnotation.getView().getViewName());
+        out.writeUTF(aAnnotation.getType().getName());
+        out.writeInt(aAnnotation.getBegin());
+        out.writeInt(aAnnotation.getEnd());
+        out.writeInt(aRank);
+    }
+
+    private void writeFeatures(TOP aFs, List<Feature> aFeatures, Set<TOP> aPath)
+        throws IOException
+    {
+        out.writeInt(aFeatures.size());
+        for (Feature feature : aFeatures) {
+            out.writeUTF(feature.getShortName());
+            if (feature.getRange().isPrimitive()) {
+                writePrimitive(aFs.getFeatureValueAsString(feature));
+            }
+            else {
+                writeReference(aFs.getFeatureValue(feature), aPath);
+            }
+        }
+    }
+
+    private void writePrimitive(String aValue) throws IOException
+    {
+        if (aValue == null) {
+            out.writeByte(VALUE_NULL);
+        }
+        else {
+            out.writeByte(VALUE_PRIMITIVE);
+            CasJournal.writeString(out, aValue);
+        }
+    }
+
+    /**
+     * Indexed annotations are referred to by their locator. Other feature structures, e.g. the
+     * links of a link feature or the values of a multi-valued feature, are not shared and are
+     * recorded as part of the value.
+     */
+    private void writeReference(TOP aFs, Set<TOP> aPath) throws IOException
+    {
+        if (aFs == null) {
+            out.writeByte(VALUE_NULL);
+            return;
+        }
+
+        if (aFs instanceof AnnotationFS) {
+            int rank = rank((AnnotationFS) aFs, true);
+            if (rank >= 0) {
+                out.writeByte(VALUE_ANNOTATION);
+                writeLocator((AnnotationFS) aFs, rank);
+                return;
+            }
+        }
+
+        if (isIndexed(aFs)) {
+            throw new IOException("Unable to record reference to indexed feature structure of "
+                    + "type [" + aFs.getType().getName() + "]");
+        }
+
+        if (!aPath.add(aFs)) {
+            throw new IOException("Unable to record cyclic reference to feature structure of "
+                    + "type [" + aFs.getType().getName() + "]");
+        }
+
+        out.writeByte(VALUE_INLINE);
+        out.writeUTF(aFs.getType().getName());
+        if (aFs instanceof FSArray) {
+            FSArray<?> array = (FSArray<?>) aFs;
+            out.writeInt(array.size());
+            for (int i = 0; i < array.size(); i++) {
+                writeReference((TOP) array.get(i), aPath);
+            }
+        }
+        else if (aFs instanceof CommonArrayFS) {
+            String[] values = ((CommonArrayFS<?>) aFs).toStringArray();
+            out.writeInt(values.length);
+            for (String value : values) {
+                writePrimitive(value);
+            }
+        }
+        else {
+            out.writeInt(-1);
+            List<Feature> features = new ArrayList<>();
+            for (Feature feature : aFs.getType().getFeatures()) {
+                if (!CAS.FEATURE_BASE_NAME_SOFA.equals(feature.getShortName())) {
+                    features.add(feature);
+                }
+            }
+            writeFeatures(aFs, features, aPath);
+        }
+
+        aPath.remove(aFs);
+    }
+
+    /**
+     * @return the rank of the given annotation among the indexed annotations of the same type at
+     *         the same offsets, ordered by their ID. If the annotation must be indexed itself and
+     *         is not, -1 is returned.
+     */
+    private static int rank(AnnotationFS aAnnotation, boolean aMustBeIndexed)
+    {
+        int id = ((TOP) aAnnotation)._id();
+        int rank = 0;
+        boolean indexed = false;
+        for (AnnotationFS fs : selectAt(aAnnotation.getView(), aAnnotation.getType(),
+                aAnnotation.getBegin(), aAnnotation.getEnd())) {
+            if (fs == aAnnotation) {
+                indexed = true;
+            }
+            else if (fs.getType() == aAnnotation.getType() && ((TOP) fs)._id() < id) {
+                rank++;
+            }
+        }
+
+        return indexed || !aMustBeIndexed ? rank : -1;
+    }
+
+    private static boolean isIndexed(TOP aFs)
+    {
+        Iterator<CAS> i = aFs.getCAS().getViewIterator();
+        while (i.hasNext()) {
+            for (TOP fs : i.next().getIndexRepository().<TOP> getIndexedFSs(aFs.getType())) {
+                if (fs == aFs) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static Set<TOP> newIdentitySet()
+    {
+        return Collections.newSetFromMap(new IdentityHashMap<>());
+    }
+
+    /**
+     * Changes recorded by {@link CasChangeTracker#recordChanges}.
+     */
+    public class Changes
+    {
+        private final byte[] data;
+
+        private Changes(byte[] aData)
+        {
+            data = aData;
+        }
+
+        public byte[] getData()
+        {
+            return data;
+        }
+
+        /**
+         * Marks the changes as persisted such that the next recording only contains changes made
+         * after this point.
+         */
+        public void commit()
+        {
+            synchronized (CasChangeTracker.this) {
+                mark.acknowledge(recorded);
+                recorded.clear();
+                buffer.reset();
+                operations = 0;
+                journalEntries++;
+            }
+        }
+    }
+
+    /**
+     * The UIMA marker placed in a CAS. The marker remains in place for as long as the CAS is not
+     * reset, i.e. it is shared by the trackers successively used for the CAS.
+     */
+    private static final class Mark
+    {
+        // The marker is kept alive by the CAS - it must not keep the CAS alive in turn
+        private final WeakReference<MarkerImpl> marker;
+
+        // IDs of the feature structures whose index changes are part of the persisted state
+        private final BitSet acknowledged = new BitSet();
+
+        private Mark(MarkerImpl aMarker)
+        {
+            marker = new WeakReference<>(aMarker);
+        }
+
+        static Mark of(CASImpl aCas, Mark aPrevious)
+        {
+            MarkerImpl current = aCas.getCurrentMark();
+            if (current == null) {
+                try {
+                    return new Mark((MarkerImpl) aCas.createMarker());
+                }
+                catch (CASRuntimeException e) {
+                    LOG.warn("Unable to place marker in CAS - changes will not be recorded in "
+                            + "the journal", e);
+                    return null;
+                }
+            }
+
+            // If the marker has not been placed by us, we do not know in which state the CAS was
+            // when the marker was placed
+            if (aPrevious != null && aPrevious.marker.get() == current && current.isValid()) {
+                return aPrevious;
+            }
+
+            return null;
+        }
+
+        void acknowledge(CASImpl aCas)
+        {
+            forEachIndexChange(aCas, fs -> acknowledged.set(fs._id()));
+        }
+
+        void acknowledge(BitSet aIds)
+        {
+            acknowledged.or(aIds);
+        }
+
+        /**
+         * @return whether all index changes logged by UIMA are either persisted or recorded.
+         */
+        boolean isCovered(CASImpl aCas, BitSet aRecorded)
+        {
+            MarkerImpl current = marker.get();
+            if (current == null || current != aCas.getCurrentMark() || !current.isValid()) {
+                return false;
+            }
+
+            boolean[] covered = { true };
+            forEachIndexChange(aCas, fs -> {
+                // The CAS metadata is maintained by the CAS storage and is updated whenever the
+                // CAS is loaded or saved
+                if (CASMetadata.class.getName().equals(fs.getType().getName())) {
+                    return;
+                }
+
+                if (!acknowledged.get(fs._id()) && !aRecorded.get(fs._id())) {
+                    covered[0] = false;
+                }
+            });
+            return covered[0];
+        }
+
+        private static void forEachIndexChange(CASImpl aCas, Consumer<TOP> aConsumer)
+        {
+            Iterator<CAS> i = aCas.getViewIterator();
+            while (i.hasNext()) {
+                FSIndexRepositoryImpl repository = (FSIndexRepositoryImpl) i.next()
+                        .getIndexRepository();
+                repository.getAddedFSs().forEach(aConsumer);
+                repository.getDeletedFSs().forEach(aConsumer);
+                repository.getReindexedFSs().forEach(aConsumer);
+            }
+        }
+    }
+}
@@ -17,11 +17,17 @@
  */
 package de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage;
 
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.getRealCas;
 import static org.apache.commons.lang3.builder.ToStringStyle.SHORT_PREFIX_STYLE;
 
+import java.util.Iterator;
+
 import org.apache.commons.lang3.Validate;
 import org.apache.commons.lang3.builder.ToStringBuilder;
 import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.impl.CASImpl;
+
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
 
 /**
  * Object representing the attempt to load a CAS, either containing a CAS or an exception if the
@@ -29,6 +35,9 @@ import org.apache.uima.cas.CAS;
  */
 public class CasHolder
 {
+    // Rough estimate of the heap used by a feature structure including its index entries
+    private static final long ESTIMATED_BYTES_PER_FS = 128;
+
     private final CasKey key;
 
     private CAS cas;
@@ -36,6 +45,18 @@ public class CasHolder
     private boolean typeSystemOutdated;
     private boolean deleted;
 
+    // Write-behind state - if a document is set, the CAS has changes which have not yet been
+    // written to the storage
+    private SourceDocument pendingWriteDocument;
+    private long pendingWriteSince;
+    private long pendingWriteTimestamp;
+    private boolean flushRequested;
+
+    // Memory management state
+    private long estimatedSize = -1;
+    private long idleSince;
+    private boolean prefetched;
+
     public CasHolder(CasKey aKey)
     {
         key = aKey;
@@ -111,6 +132,150 @@ public class CasHolder
         return deleted;
     }
 
+    /**
+     * Marks the CAS as having changes which have not yet been written to the storage.
+     * 
+     * @param aDocument
+     *            the document to which the CAS belongs.
+     * @param aTimestamp
+     *            the time of the change. This is reported as the timestamp of the CAS until the
+     *            changes have been written and is then also used as the timestamp of the file in
+     *            the storage.
+     */
+    public synchronized void markWritePending(SourceDocument aDocument, long aTimestamp)
+    {
+        Validate.notNull(aDocument, "Document cannot be null");
+
+        if (pendingWriteDocument == null) {
+            pendingWriteSince = aTimestamp;
+        }
+
+        pendingWriteDocument = aDocument;
+        pendingWriteTimestamp = aTimestamp;
+    }
+
+    public synchronized void clearWritePending()
+    {
+        pendingWriteDocument = null;
+        pendingWriteSince = 0;
+        pendingWriteTimestamp = 0;
+        flushRequested = false;
+    }
+
+    public synchronized boolean isWritePending()
+    {
+        return pendingWriteDocument != null;
+    }
+
+    public synchronized SourceDocument getPendingWriteDocument()
+    {
+        return pendingWriteDocument;
+    }
+
+    /**
+     * @return time of the first change which has not yet been written to the storage.
+     */
+    public synchronized long getPendingWriteSince()
+    {
+        return pendingWriteSince;
+    }
+
+    /**
+     * @return time of the last change which has not yet been written to the storage.
+     */
+    public synchronized long getPendingWriteTimestamp()
+    {
+        return pendingWriteTimestamp;
+    }
+
+    public synchronized void requestFlush()
+    {
+        flushRequested = isWritePending();
+    }
+
+    public synchronized boolean isFlushRequested()
+    {
+        return flushRequested;
+    }
+
+    /**
+     * @return the estimated heap footprint of the CAS in bytes. The estimate is computed when it is
+     *         first requested and only updated when {@link #updateEstimatedSize()} is called.
+     */
+    public synchronized long getEstimatedSize()
+    {
+        if (estimatedSize < 0) {
+            updateEstimatedSize();
+        }
+
+        return estimatedSize;
+    }
+
+    public synchronized void updateEstimatedSize()
+    {
+        estimatedSize = cas != null ? estimateSize(cas) : 0;
+    }
+
+    /**
+     * @return time since which the holder is idle in the exclusive access pool or {@code 0} if it
+     *         is currently borrowed.
+     */
+    public synchronized long getIdleSince()
+    {
+        return idleSince;
+    }
+
+    public synchronized void setIdleSince(long aIdleSince)
+    {
+        idleSince = aIdleSince;
+    }
+
+    /**
+     * Marks the CAS as having been loaded, repaired and upgraded in the background before anybody
+     * actually asked for it.
+     */
+    public synchronized void markPrefetched()
+    {
+        prefetched = true;
+    }
+
+    /**
+     * @return whether the CAS was prefetched and has not been borrowed since.
+     */
+    public synchronized boolean clearPrefetched()
+    {
+        boolean wasPrefetched = prefetched;
+        prefetched = false;
+        return wasPrefetched;
+    }
+
+    /**
+     * Estimates the heap footprint of a CAS from the length of the texts in its views and the
+     * number of feature structures it contains.
+     * 
+     * @param aCas
+     *            a CAS.
+     * @return the estimated size in bytes.
+     */
+    public static long estimateSize(CAS aCas)
+    {
+        CASImpl cas = (CASImpl) getRealCas(aCas);
+
+        // IDs are assigned consecutively and are compacted when the CAS is loaded, so the last
+        // used ID is a good approximation of the number of feature structures
+        long size = cas.getLastUsedFsId() * ESTIMATED_BYTES_PER_FS;
+
+        Iterator<CAS> i = cas.getViewIterator();
+        while (i.hasNext()) {
+            String text = i.next().getDocumentText();
+            if (text != null) {
+                size += text.length() * (long) Character.BYTES;
+            }
+        }
+
+        return size;
+    }
+
     public static CasHolder of(CasKey aKey, SupplierThrowingException<CAS> aSupplier)
     {
         try {
@@ -142,7 +307,7 @@ public class CasHolder
     {
         return new ToStringBuilder(this, SHORT_PREFIX_STYLE).append("key", key)
                 .append("deleted", deleted).append("typeSystemOutdated", typeSystemOutdated)
-                .toString();
+                .append("writePending", pendingWriteDocument != null).toString();
     }
 
 }
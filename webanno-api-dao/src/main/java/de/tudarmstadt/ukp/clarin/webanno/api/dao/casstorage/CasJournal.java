@@ -0,0 +1,356 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.getRealCas;
+import static de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasChangeTracker.OP_CREATE;
+import static de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasChangeTracker.OP_DELETE;
+import static de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasChangeTracker.OP_UPDATE;
+import static de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasChangeTracker.VALUE_ANNOTATION;
+import static de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasChangeTracker.VALUE_INLINE;
+import static de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasChangeTracker.VALUE_NULL;
+import static de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasChangeTracker.VALUE_PRIMITIVE;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Comparator.comparingInt;
+import static java.util.stream.Collectors.toList;
+import static org.apache.uima.fit.util.CasUtil.selectAt;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.CASRuntimeException;
+import org.apache.uima.cas.Feature;
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.impl.CASImpl;
+import org.apache.uima.cas.impl.TypeImpl;
+import org.apache.uima.cas.text.AnnotationFS;
+import org.apache.uima.jcas.cas.CommonPrimitiveArray;
+import org.apache.uima.jcas.cas.FSArray;
+import org.apache.uima.jcas.cas.TOP;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only journal of the changes made to a stored CAS since it was last written completely.
+ * The journal is stored next to the CAS file. Each entry contains the operations recorded by a
+ * {@link CasChangeTracker} for one save operation. When a CAS is loaded, the journal is replayed
+ * on top of the CAS file. Writing the complete CAS again (compaction) folds the journal into the
+ * CAS file and deletes the journal.
+ * <p>
+ * Each entry is stored as its length, its data and a CRC32 checksum of the data. A partially
+ * written entry at the end of the journal (e.g. due to a crash while writing) is discarded.
+ */
+public class CasJournal
+{
+    private static final Logger LOG = LoggerFactory.getLogger(CasJournal.class);
+
+    public static final String JOURNAL_SUFFIX = ".journal";
+
+    /**
+     * @return the journal belonging to the given CAS file.
+     */
+    public static File getJournalFile(File aCasFile)
+    {
+        return new File(aCasFile.getPath() + JOURNAL_SUFFIX);
+    }
+
+    /**
+     * Appends an entry to the given journal.
+     */
+    public static void append(File aJournalFile, byte[] aData) throws IOException
+    {
+        CRC32 crc = new CRC32();
+        crc.update(aData);
+
+        try (DataOutputStream out = new DataOutputStream(
+                new FileOutputStream(aJournalFile, true))) {
+            out.writeInt(aData.length);
+            out.write(aData);
+            out.writeLong(crc.getValue());
+        }
+    }
+
+    /**
+     * Replays the given journal onto the given CAS which must just have been loaded from the
+     * corresponding CAS file.
+     *
+     * @param aCas
+     *            the CAS.
+     * @param aJournalFile
+     *            the journal.
+     * @param aCheckpointLength
+     *            the size of the CAS file the CAS has been loaded from.
+     * @return the number of entries which have been replayed.
+     * @throws IOException
+     *             if the journal cannot be read or does not match the CAS.
+     */
+    public static int replay(CAS aCas, File aJournalFile, long aCheckpointLength)
+        throws IOException
+    {
+        CASImpl cas = (CASImpl) getRealCas(aCas);
+
+        List<byte[]> entries = new ArrayList<>();
+        long validLength = 0;
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(aJournalFile)))) {
+            while (true) {
+                byte[] data;
+                try {
+                    int length = in.readInt();
+                    if (length < 0 || validLength + length > aJournalFile.length()) {
+                        throw new EOFException();
+                    }
+                    data = new byte[length];
+                    in.readFully(data);
+                    long checksum = in.readLong();
+                    CRC32 crc = new CRC32();
+                    crc.update(data);
+                    if (crc.getValue() != checksum) {
+                        LOG.warn("Discarding corrupt entry at end of journal [{}]", aJournalFile);
+                        break;
+                    }
+                }
+                catch (EOFException e) {
+                    if (validLength < aJournalFile.length()) {
+                        LOG.warn("Discarding incomplete entry at end of journal [{}]",
+                                aJournalFile);
+                    }
+                    break;
+                }
+                entries.add(data);
+                validLength += Integer.BYTES + data.length + Long.BYTES;
+            }
+        }
+
+        // Remove any incomplete entry so that new entries can be appended safely
+        if (validLength < aJournalFile.length()) {
+            try (RandomAccessFile raf = new RandomAccessFile(aJournalFile, "rw")) {
+                raf.setLength(validLength);
+            }
+        }
+
+        Replayer replayer = new Replayer(cas);
+        for (int i = 0; i < entries.size(); i++) {
+            try (DataInputStream in = new DataInputStream(
+                    new ByteArrayInputStream(entries.get(i)))) {
+                // The journal was recorded on a different CAS file. This should not happen since
+                // the journal is moved aside before the CAS file is written completely, but the
+                // files may e.g. have been restored from different backups.
+                if (in.readLong() != aCheckpointLength) {
+                    // The journal must be deleted so that new entries are not appended to it.
+                    if (i == 0) {
+                        LOG.warn("Deleting stale journal [{}]", aJournalFile);
+                        Files.delete(aJournalFile.toPath());
+                        return 0;
+                    }
+
+                    throw new IOException("Journal [" + aJournalFile
+                            + "] does not match the CAS at entry " + i);
+                }
+
+                replayer.apply(in);
+            }
+        }
+
+        return entries.size();
+    }
+
+    static void writeString(DataOutputStream aOut, String aValue) throws IOException
+    {
+        byte[] bytes = aValue.getBytes(UTF_8);
+        aOut.writeInt(bytes.length);
+        aOut.write(bytes);
+    }
+
+    static String readString(DataInputStream aIn) throws IOException
+    {
+        byte[] bytes = new byte[aIn.readInt()];
+        aIn.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private static class Replayer
+    {
+        private final CASImpl cas;
+
+        Replayer(CASImpl aCas)
+        {
+            cas = aCas;
+        }
+
+        void apply(DataInputStream aIn) throws IOException
+        {
+            int count = aIn.readInt();
+            for (int i = 0; i < count; i++) {
+                byte op = aIn.readByte();
+                switch (op) {
+                case OP_CREATE: {
+                    CAS view = getView(aIn.readUTF());
+                    Type type = getType(aIn.readUTF());
+                    int begin = aIn.readInt();
+                    int end = aIn.readInt();
+                    AnnotationFS annotation = view.createAnnotation(type, begin, end);
+                    readFeatures(aIn, view, (TOP) annotation);
+                    view.addFsToIndexes(annotation);
+                    break;
+                }
+                case OP_UPDATE: {
+                    AnnotationFS annotation = locate(aIn);
+                    readFeatures(aIn, annotation.getView(), (TOP) annotation);
+                    break;
+                }
+                case OP_DELETE: {
+                    AnnotationFS annotation = locate(aIn);
+                    annotation.getView().removeFsFromIndexes(annotation);
+                    break;
+                }
+                default:
+                    throw new IOException("Unknown journal operation [" + op + "]");
+                }
+            }
+        }
+
+        private void readFeatures(DataInputStream aIn, CAS aView, TOP aFs) throws IOException
+        {
+            int count = aIn.readInt();
+            for (int i = 0; i < count; i++) {
+                String name = aIn.readUTF();
+                Feature feature = aFs.getType().getFeatureByBaseName(name);
+                if (feature == null) {
+                    throw new IOException("Unknown feature [" + name + "] on type ["
+                            + aFs.getType().getName() + "]");
+                }
+
+                byte kind = aIn.readByte();
+                if (feature.getRange().isPrimitive()) {
+                    aFs.setFeatureValueFromString(feature, readPrimitive(aIn, kind));
+                }
+                else {
+                    aFs.setFeatureValue(feature, readReference(aIn, aView, kind));
+                }
+            }
+        }
+
+        private String readPrimitive(DataInputStream aIn, byte aKind) throws IOException
+        {
+            switch (aKind) {
+            case VALUE_NULL:
+                return null;
+            case VALUE_PRIMITIVE:
+                return readString(aIn);
+            default:
+                throw new IOException("Unexpected value kind [" + aKind + "] for primitive");
+            }
+        }
+
+        private TOP readReference(DataInputStream aIn, CAS aView, byte aKind) throws IOException
+        {
+            switch (aKind) {
+            case VALUE_NULL:
+                return null;
+            case VALUE_ANNOTATION:
+                return (TOP) locate(aIn);
+            case VALUE_INLINE:
+                return readInline(aIn, aView);
+            default:
+                throw new IOException("Unexpected value kind [" + aKind + "] for reference");
+            }
+        }
+
+        private TOP readInline(DataInputStream aIn, CAS aView) throws IOException
+        {
+            Type type = getType(aIn.readUTF());
+            int arrayLength = aIn.readInt();
+
+            if (arrayLength < 0) {
+                TOP fs = aView.createFS(type);
+                readFeatures(aIn, aView, fs);
+                return fs;
+            }
+
+            TOP array = cas.createArray((TypeImpl) type, arrayLength);
+            for (int i = 0; i < arrayLength; i++) {
+                byte kind = aIn.readByte();
+                if (array instanceof FSArray) {
+                    ((FSArray<TOP>) array).set(i, readReference(aIn, aView, kind));
+                }
+                else {
+                    ((CommonPrimitiveArray<?>) array).setArrayValueFromString(i,
+                            readPrimitive(aIn, kind));
+                }
+            }
+            return array;
+        }
+
+        /**
+         * Resolves the annotation referred to by the locator written by
+         * {@link CasChangeTracker}.
+         */
+        private AnnotationFS locate(DataInputStream aIn) throws IOException
+        {
+            CAS view = getView(aIn.readUTF());
+            Type type = getType(aIn.readUTF());
+            int begin = aIn.readInt();
+            int end = aIn.readInt();
+            int rank = aIn.readInt();
+
+            List<AnnotationFS> candidates = selectAt(view, type, begin, end).stream()
+                    .filter(fs -> fs.getType() == type)
+                    .sorted(comparingInt(fs -> ((TOP) fs)._id()))
+                    .collect(toList());
+            if (rank < 0 || rank >= candidates.size()) {
+                throw new IOException("Journal refers to unknown annotation of type ["
+                        + type.getName() + "] at [" + begin + "-" + end + "]");
+            }
+
+            return candidates.get(rank);
+        }
+
+        private CAS getView(String aName) throws IOException
+        {
+            try {
+                return cas.getView(aName);
+            }
+            catch (CASRuntimeException e) {
+                throw new IOException("Unknown view [" + aName + "]", e);
+            }
+        }
+
+        private Type getType(String aName) throws IOException
+        {
+            Type type = cas.getTypeSystem().getType(aName);
+            if (type == null) {
+                throw new IOException("Unknown type [" + aName + "]");
+            }
+            return type;
+        }
+    }
+}
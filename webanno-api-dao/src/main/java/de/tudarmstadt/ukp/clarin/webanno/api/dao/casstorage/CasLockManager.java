@@ -0,0 +1,341 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage;
+
+import static java.lang.System.currentTimeMillis;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.casstorage.CasSessionException;
+
+/**
+ * Controls exclusive access to CASes. For every {@link CasKey}, there is at most one
+ * {@link CasHolder} which can only be borrowed by one party at a time. Borrowing and releasing a
+ * holder that nobody else is waiting for only requires a lookup in a concurrent map and an
+ * uncontended compare-and-set.
+ * <p>
+ * A CAS may be released by a different thread than the one which borrowed it. Holders which have
+ * been idle for too long are dropped by a background sweeper unless they have changes that have
+ * not yet been written to the storage.
+ * <p>
+ * If debug logging is enabled, the thread and stack trace of the party holding a CAS are recorded
+ * and logged when another party times out waiting for the CAS.
+ */
+public class CasLockManager
+    implements AutoCloseable
+{
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final ConcurrentHashMap<CasKey, Lease> leases = new ConcurrentHashMap<>();
+    private final AtomicLong idleSize = new AtomicLong();
+    private final long maxIdleTime;
+    private final long maxIdleSize;
+    private final ScheduledExecutorService sweeper;
+
+    /**
+     * @param aMaxIdleTime
+     *            time after which idle CASes are dropped (milliseconds).
+     * @param aMaxIdleSize
+     *            maximum estimated size of all idle CASes (bytes). If this is exceeded, the CASes
+     *            which have been idle the longest are dropped. If this is {@code 0}, idle CASes
+     *            are only dropped after the idle time has passed.
+     */
+    public CasLockManager(long aMaxIdleTime, long aMaxIdleSize)
+    {
+        maxIdleTime = aMaxIdleTime;
+        maxIdleSize = aMaxIdleSize;
+
+        sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cas-lock-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sweeper.scheduleWithFixedDelay(this::evictIdle, maxIdleTime, maxIdleTime, MILLISECONDS);
+    }
+
+    /**
+     * Borrows the holder for the given key, waiting if it is currently borrowed by somebody else.
+     *
+     * @return the holder. The holder may not contain a CAS yet.
+     * @throws CasSessionException
+     *             if the holder could not be borrowed within the given time.
+     */
+    public CasHolder borrow(CasKey aKey, long aTimeout, TimeUnit aUnit)
+        throws CasSessionException
+    {
+        return tryBorrow(aKey, aTimeout, aUnit)
+                .orElseThrow(() -> new CasSessionException("Timed out waiting for exclusive "
+                        + "access to CAS [" + aKey.getUserId() + "]@[" + aKey.getDocumentName()
+                        + "](" + aKey.getDocumentId() + ")"));
+    }
+
+    /**
+     * Borrows the holder for the given key, waiting if it is currently borrowed by somebody else.
+     *
+     * @return the holder or nothing if it could not be borrowed within the given time.
+     */
+    public Optional<CasHolder> tryBorrow(CasKey aKey, long aTimeout, TimeUnit aUnit)
+    {
+        long deadline = System.nanoTime() + aUnit.toNanos(aTimeout);
+
+        while (true) {
+            Lease lease = leases.computeIfAbsent(aKey, Lease::new);
+
+            try {
+                if (!lease.permit.tryAcquire(deadline - System.nanoTime(), NANOSECONDS)) {
+                    Throwable owner = lease.owner;
+                    if (owner != null) {
+                        log.debug("Timed out waiting for CAS [{}]@[{}]({})", aKey.getUserId(),
+                                aKey.getDocumentName(), aKey.getDocumentId(), owner);
+                    }
+                    return Optional.empty();
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CasSessionException("Interrupted while waiting for exclusive access to "
+                        + "CAS [" + aKey.getUserId() + "]@[" + aKey.getDocumentName() + "]("
+                        + aKey.getDocumentId() + ")", e);
+            }
+
+            // The lease may have been dropped while we were waiting for it. In this case, we try
+            // again with the lease that replaced it.
+            if (lease.dropped) {
+                lease.permit.release();
+                continue;
+            }
+
+            // A holder which has been invalidated while idle is replaced with a fresh one
+            CasHolder holder = lease.holder;
+            if (!holder.isWritePending() && (holder.isTypeSystemOutdated() || holder.isDeleted())) {
+                holder = new CasHolder(aKey);
+                lease.holder = holder;
+            }
+
+            idleSize.addAndGet(-lease.idleSize);
+            lease.idleSize = 0;
+            holder.setIdleSince(0);
+
+            if (log.isDebugEnabled()) {
+                lease.owner = new Throwable("CAS [" + aKey.getUserId() + "]@["
+                        + aKey.getDocumentName() + "](" + aKey.getDocumentId()
+                        + ") borrowed by thread [" + Thread.currentThread().getName() + "]");
+            }
+
+            lease.borrowed.set(true);
+            return Optional.of(holder);
+        }
+    }
+
+    /**
+     * Releases a previously borrowed holder. Holders which do not contain a CAS or which have
+     * been invalidated are dropped unless they have changes that have not yet been written to the
+     * storage.
+     *
+     * @throws IllegalStateException
+     *             if the holder is not currently borrowed.
+     */
+    public void release(CasKey aKey, CasHolder aHolder)
+    {
+        Lease lease = leases.get(aKey);
+        if (lease == null || lease.holder != aHolder || !lease.borrowed.compareAndSet(true, false)) {
+            throw new IllegalStateException("CAS [" + aKey.getUserId() + "]@["
+                    + aKey.getDocumentName() + "](" + aKey.getDocumentId()
+                    + ") is not currently borrowed");
+        }
+
+        lease.owner = null;
+
+        if (!aHolder.isWritePending() && (!aHolder.isCasSet() || aHolder.isTypeSystemOutdated()
+                || aHolder.isDeleted())) {
+            drop(lease);
+        }
+        else {
+            // The CAS may have grown while it was borrowed
+            aHolder.updateEstimatedSize();
+            aHolder.setIdleSince(currentTimeMillis());
+            lease.idleSize = aHolder.getEstimatedSize();
+            idleSize.addAndGet(lease.idleSize);
+        }
+
+        lease.permit.release();
+
+        if (maxIdleSize > 0 && idleSize.get() > maxIdleSize) {
+            evictSurplus();
+        }
+    }
+
+    /**
+     * @return the holder for the given key if it is currently known. The holder may be borrowed
+     *         by somebody else.
+     */
+    public Optional<CasHolder> getHolder(CasKey aKey)
+    {
+        return Optional.ofNullable(leases.get(aKey)).map(lease -> lease.holder);
+    }
+
+    /**
+     * Calls the given action for every holder which is currently known, irrespective of whether it
+     * is borrowed or idle.
+     */
+    public void forEachHolder(Consumer<CasHolder> aAction)
+    {
+        leases.values().forEach(lease -> aAction.accept(lease.holder));
+    }
+
+    /**
+     * @return estimated size of all idle CASes in bytes.
+     */
+    public long getIdleSize()
+    {
+        return idleSize.get();
+    }
+
+    public int getEntryCount()
+    {
+        return leases.size();
+    }
+
+    public long getBorrowedCount()
+    {
+        return leases.values().stream().filter(lease -> lease.borrowed.get()).count();
+    }
+
+    /**
+     * Drops the holders which have been idle for too long or which have been invalidated while
+     * idle.
+     */
+    void evictIdle()
+    {
+        long now = currentTimeMillis();
+        for (Lease lease : leases.values()) {
+            evictIfIdle(lease, holder -> now - holder.getIdleSince() >= maxIdleTime
+                    || holder.isTypeSystemOutdated() || holder.isDeleted());
+        }
+
+        if (maxIdleSize > 0 && idleSize.get() > maxIdleSize) {
+            evictSurplus();
+        }
+    }
+
+    /**
+     * Drops the holders which have been idle the longest until the idle CASes no longer exceed the
+     * maximum size.
+     */
+    private void evictSurplus()
+    {
+        List<Lease> idleLeases = new ArrayList<>();
+        for (Lease lease : leases.values()) {
+            if (lease.holder.getIdleSince() > 0) {
+                idleLeases.add(lease);
+            }
+        }
+
+        idleLeases.sort(Comparator.comparingLong(lease -> lease.holder.getIdleSince()));
+        for (Lease lease : idleLeases) {
+            if (idleSize.get() <= maxIdleSize) {
+                break;
+            }
+
+            evictIfIdle(lease, holder -> true);
+        }
+    }
+
+    private void evictIfIdle(Lease aLease, Predicate<CasHolder> aCondition)
+    {
+        // Never wait here - if somebody has borrowed the CAS, it is not idle
+        if (!aLease.permit.tryAcquire()) {
+            return;
+        }
+
+        try {
+            CasHolder holder = aLease.holder;
+            if (!aLease.dropped && !aLease.borrowed.get() && !holder.isWritePending()
+                    && aCondition.test(holder)) {
+                log.trace("Evicting idle CAS [{}] for [{}]@[{}]({})", holder.getCasHashCode(),
+                        aLease.key.getUserId(), aLease.key.getDocumentName(),
+                        aLease.key.getDocumentId());
+                drop(aLease);
+            }
+        }
+        finally {
+            aLease.permit.release();
+        }
+    }
+
+    /**
+     * Removes the lease from the map. The caller must hold the permit of the lease. Anybody
+     * waiting for the permit notices that the lease was dropped once they obtain the permit.
+     */
+    private void drop(Lease aLease)
+    {
+        aLease.dropped = true;
+        leases.remove(aLease.key, aLease);
+        idleSize.addAndGet(-aLease.idleSize);
+        aLease.idleSize = 0;
+        aLease.holder.setIdleSince(0);
+    }
+
+    @Override
+    public void close()
+    {
+        sweeper.shutdownNow();
+    }
+
+    private static class Lease
+    {
+        private final CasKey key;
+        private final Semaphore permit = new Semaphore(1);
+        private final AtomicBoolean borrowed = new AtomicBoolean(false);
+
+        // The holder may be read without holding the permit, e.g. to inform it that its CAS has
+        // become outdated, but it is only replaced while holding the permit
+        private volatile CasHolder holder;
+
+        // Only accessed while holding the permit - acquiring the permit makes changes by the
+        // previous holder of the permit visible
+        private boolean dropped;
+        private long idleSize;
+
+        // Only recorded if debug logging is enabled
+        private volatile Throwable owner;
+
+        public Lease(CasKey aKey)
+        {
+            key = aKey;
+            holder = new CasHolder(aKey);
+        }
+    }
+}
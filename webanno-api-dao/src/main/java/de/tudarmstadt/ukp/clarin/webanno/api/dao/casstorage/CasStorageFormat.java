@@ -0,0 +1,40 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage;
+
+/**
+ * Formats in which annotation CASes can be stored in the repository. Both formats can be read
+ * side by side. The format configured for writing only affects files which are written after the
+ * configuration has been changed, i.e. existing files are migrated lazily the next time they are
+ * saved.
+ */
+public enum CasStorageFormat
+{
+    /**
+     * Java-serialized {@code CASCompleteSerializer}. Every file contains its own copy of the type
+     * system and index definitions. This is the format used by all previous versions and the
+     * format used when exporting projects.
+     */
+    SERIALIZED,
+
+    /**
+     * Compressed binary form 6 annotation data plus a reference to a type system snapshot which is
+     * stored only once per project and type system version.
+     */
+    COMPACT;
+}
@@ -0,0 +1,324 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.getRealCas;
+import static java.util.Collections.synchronizedMap;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static org.apache.uima.cas.impl.Serialization.deserializeCASComplete;
+import static org.apache.uima.cas.impl.Serialization.serializeCAS;
+import static org.apache.uima.cas.impl.Serialization.serializeCASMgr;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.TypeSystem;
+import org.apache.uima.cas.impl.CASCompleteSerializer;
+import org.apache.uima.cas.impl.CASImpl;
+import org.apache.uima.cas.impl.CASMgrSerializer;
+import org.apache.uima.resource.ResourceInitializationException;
+import org.apache.uima.util.CasCreationUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil;
+
+/**
+ * Stores the type system and index definitions used by CASes in the
+ * {@link CasStorageFormat#COMPACT compact} storage format. Each distinct type system is stored
+ * only once per folder (i.e. per project) in a file named after its fingerprint. The snapshot is a
+ * {@link CASCompleteSerializer} of an <b>empty</b> CAS, so deserializing it into a CAS sets up the
+ * type system and index definitions, after which the actual annotation data can be loaded.
+ */
+public class TypeSystemSnapshotStore
+{
+    private static final Logger LOG = LoggerFactory.getLogger(TypeSystemSnapshotStore.class);
+
+    private static final String SNAPSHOT_SUFFIX = ".ser";
+
+    private static final long SNAPSHOT_CACHE_SIZE = 100;
+    private static final long EVICT_IDLE_SNAPSHOTS_AFTER_MINUTES = 30;
+
+    // Snapshots which have been used more recently than this are never deleted. The timestamp of
+    // a snapshot is refreshed whenever it is used for writing a CAS, but only this often.
+    private static final long SNAPSHOT_IN_USE_MILLIS = MINUTES.toMillis(60);
+    private static final long SNAPSHOT_TOUCH_INTERVAL_MILLIS = MINUTES.toMillis(1);
+
+    // Type systems are committed and shared between CASes by UIMA, so we can remember the
+    // fingerprint per type system instance and avoid re-computing it on every write.
+    private final Map<TypeSystem, String> fingerprints = synchronizedMap(new WeakHashMap<>());
+
+    private final Cache<File, CASCompleteSerializer> snapshots;
+    private final Cache<File, TypeSystem> typeSystems;
+
+    public TypeSystemSnapshotStore()
+    {
+        snapshots = Caffeine.newBuilder()
+                .expireAfterAccess(EVICT_IDLE_SNAPSHOTS_AFTER_MINUTES, MINUTES)
+                .maximumSize(SNAPSHOT_CACHE_SIZE).build();
+        typeSystems = Caffeine.newBuilder()
+                .expireAfterAccess(EVICT_IDLE_SNAPSHOTS_AFTER_MINUTES, MINUTES)
+                .maximumSize(SNAPSHOT_CACHE_SIZE).build();
+    }
+
+    /**
+     * Ensures that a snapshot of the type system of the given CAS exists in the given folder.
+     *
+     * @param aCas
+     *            the CAS whose type system should be stored.
+     * @param aFolder
+     *            the folder containing the snapshots.
+     * @return the fingerprint by which the snapshot can be retrieved again.
+     * @throws IOException
+     *             if the snapshot could not be written.
+     */
+    public String store(CAS aCas, File aFolder) throws IOException
+    {
+        CASImpl realCas = (CASImpl) getRealCas(aCas);
+
+        CASMgrSerializer casMgrSerializer = null;
+        String fingerprint = fingerprints.get(realCas.getTypeSystem());
+        if (fingerprint == null) {
+            casMgrSerializer = serializeCASMgr(realCas);
+            fingerprint = fingerprint(casMgrSerializer);
+            fingerprints.put(realCas.getTypeSystem(), fingerprint);
+        }
+
+        File snapshotFile = getSnapshotFile(aFolder, fingerprint);
+        if (touchIfExists(snapshotFile)) {
+            return fingerprint;
+        }
+
+        if (casMgrSerializer == null) {
+            casMgrSerializer = serializeCASMgr(realCas);
+        }
+
+        CASCompleteSerializer snapshot = new CASCompleteSerializer();
+        snapshot.setCasMgrSerializer(casMgrSerializer);
+        snapshot.setCasSerializer(serializeCAS(createEmptyCas(realCas.getTypeSystem())));
+
+        // Write to a temporary file first and move it in place afterwards so that concurrent
+        // writers never see a partially written snapshot
+        FileUtils.forceMkdir(aFolder);
+        File tempFile = File.createTempFile(fingerprint, ".tmp", aFolder);
+        try {
+            try (ObjectOutputStream os = new ObjectOutputStream(new FileOutputStream(tempFile))) {
+                os.writeObject(snapshot);
+            }
+
+            if (!tempFile.renameTo(snapshotFile) && !snapshotFile.exists()) {
+                throw new IOException("Unable to store type system snapshot [" + snapshotFile
+                        + "]");
+            }
+        }
+        finally {
+            Files.deleteIfExists(tempFile.toPath());
+        }
+
+        snapshots.put(snapshotFile, snapshot);
+
+        LOG.debug("Stored type system snapshot [{}]", snapshotFile);
+
+        return fingerprint;
+    }
+
+    /**
+     * Retrieves the snapshot with the given fingerprint from the given folder.
+     *
+     * @param aFolder
+     *            the folder containing the snapshots.
+     * @param aFingerprint
+     *            the snapshot fingerprint.
+     * @return the snapshot.
+     * @throws IOException
+     *             if the snapshot does not exist or could not be read.
+     */
+    public CASCompleteSerializer load(File aFolder, String aFingerprint) throws IOException
+    {
+        File snapshotFile = getSnapshotFile(aFolder, aFingerprint);
+
+        CASCompleteSerializer snapshot = snapshots.getIfPresent(snapshotFile);
+        if (snapshot != null) {
+            return snapshot;
+        }
+
+        if (!snapshotFile.exists()) {
+            throw new IOException("Type system snapshot [" + snapshotFile + "] does not exist");
+        }
+
+        try (ObjectInputStream is = new ObjectInputStream(new FileInputStream(snapshotFile))) {
+            snapshot = (CASCompleteSerializer) is.readObject();
+        }
+        catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+
+        snapshots.put(snapshotFile, snapshot);
+
+        return snapshot;
+    }
+
+    /**
+     * Retrieves the committed type system of the snapshot with the given fingerprint from the given
+     * folder. All CASes using the same snapshot can share this type system instead of each of them
+     * compiling their own.
+     *
+     * @param aFolder
+     *            the folder containing the snapshots.
+     * @param aFingerprint
+     *            the snapshot fingerprint.
+     * @return the type system.
+     * @throws IOException
+     *             if the snapshot does not exist or could not be read.
+     */
+    public TypeSystem loadTypeSystem(File aFolder, String aFingerprint) throws IOException
+    {
+        File snapshotFile = getSnapshotFile(aFolder, aFingerprint);
+
+        TypeSystem typeSystem = typeSystems.getIfPresent(snapshotFile);
+        if (typeSystem != null) {
+            return typeSystem;
+        }
+
+        try {
+            CAS cas = WebAnnoCasUtil.createCas();
+            deserializeCASComplete(load(aFolder, aFingerprint), (CASImpl) getRealCas(cas));
+            typeSystem = cas.getTypeSystem();
+        }
+        catch (ResourceInitializationException e) {
+            throw new IOException("Unable to create type system from snapshot [" + snapshotFile
+                    + "]", e);
+        }
+
+        typeSystems.put(snapshotFile, typeSystem);
+        fingerprints.put(typeSystem, aFingerprint);
+
+        return typeSystem;
+    }
+
+    /**
+     * Deletes the snapshots in the given folder which are not used by any of the given
+     * fingerprints and which have not recently been used to write a CAS.
+     *
+     * @param aFolder
+     *            the folder containing the snapshots.
+     * @param aUsedFingerprints
+     *            the fingerprints of all the snapshots referenced by CAS files.
+     * @return the number of unused snapshots which were kept because they have been used
+     *         recently.
+     */
+    public int deleteUnused(File aFolder, Set<String> aUsedFingerprints)
+    {
+        File[] snapshotFiles = aFolder.listFiles(
+                (dir, name) -> name.endsWith(SNAPSHOT_SUFFIX) && !aUsedFingerprints.contains(
+                        name.substring(0, name.length() - SNAPSHOT_SUFFIX.length())));
+        if (snapshotFiles == null) {
+            return 0;
+        }
+
+        int kept = 0;
+        for (File snapshotFile : snapshotFiles) {
+            if (deleteIfUnused(snapshotFile)) {
+                snapshots.invalidate(snapshotFile);
+                typeSystems.invalidate(snapshotFile);
+                LOG.debug("Deleted unused type system snapshot [{}]", snapshotFile);
+            }
+            else {
+                kept++;
+            }
+        }
+
+        return kept;
+    }
+
+    /**
+     * Checking for the snapshot and deleting it must not interleave, otherwise a CAS might be
+     * written referring to a snapshot which is just being deleted.
+     */
+    private synchronized boolean touchIfExists(File aSnapshotFile)
+    {
+        if (!aSnapshotFile.exists()) {
+            return false;
+        }
+
+        long now = System.currentTimeMillis();
+        if (now - aSnapshotFile.lastModified() > SNAPSHOT_TOUCH_INTERVAL_MILLIS
+                && !aSnapshotFile.setLastModified(now)) {
+            LOG.warn("Unable to update timestamp of type system snapshot [{}]", aSnapshotFile);
+        }
+
+        return true;
+    }
+
+    private synchronized boolean deleteIfUnused(File aSnapshotFile)
+    {
+        if (System.currentTimeMillis() - aSnapshotFile.lastModified() < SNAPSHOT_IN_USE_MILLIS) {
+            return false;
+        }
+
+        return aSnapshotFile.delete();
+    }
+
+    private File getSnapshotFile(File aFolder, String aFingerprint)
+    {
+        return new File(aFolder, aFingerprint + SNAPSHOT_SUFFIX);
+    }
+
+    private static CAS createEmptyCas(TypeSystem aTypeSystem) throws IOException
+    {
+        try {
+            return CasCreationUtils.createCas(aTypeSystem, null, null, null);
+        }
+        catch (Exception e) {
+            throw new IOException("Unable to create empty CAS for type system snapshot", e);
+        }
+    }
+
+    private static String fingerprint(CASMgrSerializer aSerializer) throws IOException
+    {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (ObjectOutputStream os = new ObjectOutputStream(bos)) {
+            os.writeObject(aSerializer);
+        }
+
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(bos.toByteArray());
+            return String.format("%064x", new BigInteger(1, digest));
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+}
@@ -20,7 +20,9 @@ package de.tudarmstadt.ukp.clarin.webanno.api.dao.export;
 import static de.tudarmstadt.ukp.clarin.webanno.api.export.ProjectExportRequest.FORMAT_AUTO;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.List;
 
 import org.apache.commons.io.FileUtils;
@@ -160,7 +162,10 @@ public class ProjectExportCuratedDocumentsTask
                         WebAnnoConst.CURATION_USER);
                 if (curationCasFile.exists()) {
                     // Copy CAS - this is used when importing the project again
-                    FileUtils.copyFileToDirectory(curationCasFile, curationCasDir);
+                    try (OutputStream os = new FileOutputStream(
+                            new File(curationCasDir, curationCasFile.getName()))) {
+                        documentService.exportCas(sourceDocument, WebAnnoConst.CURATION_USER, os);
+                    }
 
                     // Copy secondary export format for convenience - not used during import
                     try {
@@ -17,6 +17,7 @@
  */
 package de.tudarmstadt.ukp.clarin.webanno.api.dao.export.exporters;
 
+import static de.tudarmstadt.ukp.clarin.webanno.api.CasUpgradeMode.NO_CAS_UPGRADE;
 import static de.tudarmstadt.ukp.clarin.webanno.api.ProjectService.ANNOTATION_FOLDER;
 import static de.tudarmstadt.ukp.clarin.webanno.api.ProjectService.DOCUMENT_FOLDER;
 import static de.tudarmstadt.ukp.clarin.webanno.api.ProjectService.PROJECT_FOLDER;
@@ -24,6 +25,7 @@ import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.CORRECTION_USER
 import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.INITIAL_CAS_PSEUDO_USER;
 import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.PROJECT_TYPE_AUTOMATION;
 import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.PROJECT_TYPE_CORRECTION;
+import static de.tudarmstadt.ukp.clarin.webanno.api.casstorage.CasAccessMode.EXCLUSIVE_WRITE_ACCESS;
 import static de.tudarmstadt.ukp.clarin.webanno.api.export.ProjectExportRequest.FORMAT_AUTO;
 import static de.tudarmstadt.ukp.clarin.webanno.model.Mode.ANNOTATION;
 import static de.tudarmstadt.ukp.clarin.webanno.model.Mode.CORRECTION;
@@ -41,16 +43,20 @@ import static org.apache.commons.io.FileUtils.forceDelete;
 import static org.apache.commons.io.FileUtils.forceMkdir;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.stream.Stream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
@@ -69,6 +75,7 @@ import com.github.benmanes.caffeine.cache.LoadingCache;
 import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
 import de.tudarmstadt.ukp.clarin.webanno.api.ImportExportService;
 import de.tudarmstadt.ukp.clarin.webanno.api.RepositoryProperties;
+import de.tudarmstadt.ukp.clarin.webanno.api.casstorage.LoadedCas;
 import de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasStorageSession;
 import de.tudarmstadt.ukp.clarin.webanno.api.export.ProjectExportRequest;
 import de.tudarmstadt.ukp.clarin.webanno.api.export.ProjectExportTaskMonitor;
@@ -164,8 +171,6 @@ public class AnnotationDocumentExporter
         Map<Pair<Project, String>, Object> bulkOperationContext = new HashMap<>();
 
         List<SourceDocument> documents = documentService.listSourceDocuments(project);
-        int i = 1;
-        int initProgress = aMonitor.getProgress();
 
         // Create a map containing the annotation documents for each source document. Doing this
         // as one DB access before the main processing to avoid hammering the DB in the loops
@@ -178,7 +183,54 @@ public class AnnotationDocumentExporter
         LoadingCache<String, User> usersCache = Caffeine.newBuilder()
                 .build(key -> userRepository.get(key));
 
+        // Determine which annotation documents are exported and load their CASes in parallel
+        // ahead of the actual export
+        Map<SourceDocument, List<AnnotationDocument>> exportedAnnDocs = new HashMap<>();
+        Set<AnnotationDocument> loadedAnnDocs = new HashSet<>();
+        List<Pair<SourceDocument, String>> casRequests = new ArrayList<>();
         for (SourceDocument srcDoc : documents) {
+            List<AnnotationDocument> annDocs = new ArrayList<>();
+            for (AnnotationDocument annDoc : srcToAnnIdx.computeIfAbsent(srcDoc,
+                    key -> emptyList())) {
+                // copy annotation document only for existing users and the state of the
+                // annotation document is not NEW/IGNORE
+                if (usersCache.get(annDoc.getUser()) != null
+                        && !annDoc.getState().equals(AnnotationDocumentState.NEW)
+                        && !annDoc.getState().equals(AnnotationDocumentState.IGNORE)) {
+                    annDocs.add(annDoc);
+
+                    if (documentService.getCasFile(srcDoc, annDoc.getUser()).exists()) {
+                        loadedAnnDocs.add(annDoc);
+                        casRequests.add(Pair.of(srcDoc, annDoc.getUser()));
+                    }
+                }
+            }
+            exportedAnnDocs.put(srcDoc, annDocs);
+        }
+
+        // Each CAS is added to the session of the source document which is being exported at the
+        // time the CAS is taken from the stream and released when that session is closed
+        try (CasStorageSession bulkSession = CasStorageSession.openNested();
+                Stream<LoadedCas> loadedCases = documentService.readAnnotationCases(casRequests,
+                        NO_CAS_UPGRADE, EXCLUSIVE_WRITE_ACCESS)) {
+            exportAnnotationDocumentContents(aRequest, aMonitor, aStage, documents,
+                    exportedAnnDocs, loadedAnnDocs, loadedCases.iterator(),
+                    bulkOperationContext);
+        }
+    }
+
+    private void exportAnnotationDocumentContents(ProjectExportRequest aRequest,
+            ProjectExportTaskMonitor aMonitor, File aStage, List<SourceDocument> aDocuments,
+            Map<SourceDocument, List<AnnotationDocument>> aExportedAnnDocs,
+            Set<AnnotationDocument> aLoadedAnnDocs, Iterator<LoadedCas> aCasIterator,
+            Map<Pair<Project, String>, Object> aBulkOperationContext)
+        throws UIMAException, ClassNotFoundException, IOException
+    {
+        Project project = aRequest.getProject();
+        int i = 1;
+        int initProgress = aMonitor.getProgress();
+
+        for (SourceDocument srcDoc : aDocuments) {
             try (CasStorageSession session = CasStorageSession.openNested()) {
                 //
                 // Export initial CASes
@@ -201,7 +253,7 @@ public class AnnotationDocumentExporter
 
                 File initialCasFile = documentService.getCasFile(srcDoc, INITIAL_CAS_PSEUDO_USER);
 
-                copyFileToDirectory(initialCasFile, targetDir);
+                exportCas(srcDoc, INITIAL_CAS_PSEUDO_USER, initialCasFile, targetDir);
 
                 log.info("Exported annotation document content for user [" + INITIAL_CAS_PSEUDO_USER
                         + "] for source document [" + srcDoc.getId() + "] in project ["
@@ -227,42 +279,32 @@ public class AnnotationDocumentExporter
                         });
 
                 // Export annotations from regular users
-                for (AnnotationDocument annDoc : srcToAnnIdx.computeIfAbsent(srcDoc,
-                        key -> emptyList())) {
-
-                    // copy annotation document only for existing users and the state of the
-                    // annotation document is not NEW/IGNORE
-                    if (usersCache.get(annDoc.getUser()) != null
-                            && !annDoc.getState().equals(AnnotationDocumentState.NEW)
-                            && !annDoc.getState().equals(AnnotationDocumentState.IGNORE)) {
-                        File annSerDir = new File(aStage.getAbsolutePath() + ANNOTATION_CAS_FOLDER
-                                + srcDoc.getName());
-                        File annDocDir = new File(aStage.getAbsolutePath()
-                                + ANNOTATION_ORIGINAL_FOLDER + srcDoc.getName());
-
-                        forceMkdir(annSerDir);
-                        forceMkdir(annDocDir);
-
-                        File annSerFile = documentService.getCasFile(srcDoc, annDoc.getUser());
-
-                        File annFile = null;
-                        if (annSerFile.exists()) {
-                            annFile = importExportService.exportAnnotationDocument(srcDoc,
-                                    annDoc.getUser(), format, annDoc.getUser(), ANNOTATION, false,
-                                    bulkOperationContext);
-                        }
-
-                        if (annSerFile.exists()) {
-                            copyFileToDirectory(annSerFile, annSerDir);
-                            copyFileToDirectory(annFile, annDocDir);
-                            forceDelete(annFile);
-                        }
-
-                        log.info("Exported annotation document content for user ["
-                                + annDoc.getUser() + "] for source document [" + srcDoc.getId()
-                                + "] in project [" + project.getName() + "] with id ["
-                                + project.getId() + "]");
+                for (AnnotationDocument annDoc : aExportedAnnDocs.get(srcDoc)) {
+                    File annSerDir = new File(
+                            aStage.getAbsolutePath() + ANNOTATION_CAS_FOLDER + srcDoc.getName());
+                    File annDocDir = new File(aStage.getAbsolutePath() + ANNOTATION_ORIGINAL_FOLDER
+                            + srcDoc.getName());
+
+                    forceMkdir(annSerDir);
+                    forceMkdir(annDocDir);
+
+                    File annSerFile = documentService.getCasFile(srcDoc, annDoc.getUser());
+
+                    if (aLoadedAnnDocs.contains(annDoc)) {
+                        // Take the CAS which has been loaded ahead into the current session
+                        aCasIterator.next().getCas();
+
+                        File annFile = importExportService.exportAnnotationDocument(srcDoc,
+                                annDoc.getUser(), format, annDoc.getUser(), ANNOTATION, false,
+                                aBulkOperationContext);
+                        exportCas(srcDoc, annDoc.getUser(), annSerFile, annSerDir);
+                        copyFileToDirectory(annFile, annDocDir);
+                        forceDelete(annFile);
                     }
+
+                    log.info("Exported annotation document content for user [" + annDoc.getUser()
+                            + "] for source document [" + srcDoc.getId() + "] in project ["
+                            + project.getName() + "] with id [" + project.getId() + "]");
                 }
 
                 // Special handling for the virtual CORRECTION_USER data used in automation and
@@ -279,7 +321,7 @@ public class AnnotationDocumentExporter
                         File curationSerDir = new File(
                                 aStage + ANNOTATION_AS_SERIALISED_CAS + srcDoc.getName());
                         forceMkdir(curationSerDir);
-                        copyFileToDirectory(corrSerFile, curationSerDir);
+                        exportCas(srcDoc, CORRECTION_USER, corrSerFile, curationSerDir);
 
                         // Copy secondary export format for convenience - not used during import
                         File curationDir = new File(
@@ -293,11 +335,23 @@ public class AnnotationDocumentExporter
                 }
             }
 
-            aMonitor.setProgress(initProgress + (int) ceil(((double) i) / documents.size() * 80.0));
+            aMonitor.setProgress(initProgress + (int) ceil(((double) i) / aDocuments.size() * 80.0));
             i++;
         }
     }
 
+    /**
+     * Exports the CAS in a self-contained format irrespective of the format in which it is kept in
+     * the storage.
+     */
+    private void exportCas(SourceDocument aDocument, String aUser, File aCasFile, File aTargetDir)
+        throws IOException
+    {
+        try (OutputStream os = new FileOutputStream(new File(aTargetDir, aCasFile.getName()))) {
+            documentService.exportCas(aDocument, aUser, os);
+        }
+    }
+
     @Override
     public void importData(ProjectImportRequest aRequest, Project aProject,
             ExportedProject aExProject, ZipFile aZip)
@@ -29,7 +29,9 @@ import static org.apache.commons.io.FileUtils.forceDelete;
 import static org.apache.commons.io.FileUtils.forceMkdir;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.List;
@@ -123,7 +125,10 @@ public class CuratedDocumentsExporter
                 File curationCasFile = documentService.getCasFile(sourceDocument, CURATION_USER);
                 if (curationCasFile.exists()) {
                     // Copy CAS - this is used when importing the project again
-                    copyFileToDirectory(curationCasFile, curationCasDir);
+                    try (OutputStream os = new FileOutputStream(
+                            new File(curationCasDir, curationCasFile.getName()))) {
+                        documentService.exportCas(sourceDocument, CURATION_USER, os);
+                    }
 
                     // Determine which format to use for export
                     String formatId = FORMAT_AUTO.equals(aRequest.getFormat())
@@ -0,0 +1,186 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.casstorage.CasAccessMode.EXCLUSIVE_WRITE_ACCESS;
+import static de.tudarmstadt.ukp.clarin.webanno.api.dao.CasMetadataUtils.getTypeSystemFingerprint;
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static org.apache.uima.fit.factory.TypeSystemDescriptionFactory.createTypeSystemDescription;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.spy;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.jcas.JCas;
+import org.apache.uima.fit.factory.CasFactory;
+import org.apache.uima.fit.util.JCasUtil;
+import org.apache.uima.resource.metadata.TypeSystemDescription;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasStorageSession;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.LayerConfigurationChangedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.type.CASMetadata;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.dkpro.core.api.metadata.type.DocumentMetaData;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
+import de.tudarmstadt.ukp.dkpro.core.api.syntax.type.dependency.Dependency;
+
+public class AnnotationSchemaServiceImplTest
+{
+    private AnnotationSchemaServiceImpl sut;
+    private CasStorageSession casStorageSession;
+    private Project project;
+
+    @Before
+    public void setup()
+    {
+        sut = spy(new AnnotationSchemaServiceImpl());
+
+        doReturn(emptyList()).when(sut).listAnnotationLayer(any());
+        doReturn(emptyList()).when(sut).listAnnotationFeature((Project) any());
+
+        project = new Project();
+        project.setId(1l);
+        project.setName("test");
+
+        casStorageSession = CasStorageSession.open();
+    }
+
+    @After
+    public void tearDown()
+    {
+        casStorageSession.close();
+    }
+
+    @Test
+    public void thatProjectTypeSystemIsCachedUntilLayerConfigurationChanges() throws Exception
+    {
+        TypeSystemDescription tsd = sut.getFullProjectTypeSystem(project);
+
+        assertThat(sut.getFullProjectTypeSystem(project)).isSameAs(tsd);
+
+        sut.onLayerConfigurationChanged(new LayerConfigurationChangedEvent(this, project));
+
+        assertThat(sut.getFullProjectTypeSystem(project)).isNotSameAs(tsd);
+    }
+
+    @Test
+    public void thatUpgradedCasUsesSharedProjectTypeSystem() throws Exception
+    {
+        // A CAS which does not know about the internal types yet requires an upgrade
+        CAS cas = CasFactory.createCas(createTypeSystemDescription());
+        casStorageSession.add("cas", EXCLUSIVE_WRITE_ACCESS, cas);
+        cas.setDocumentText("This is a test .");
+
+        assertThat(sut.upgradeCasIfRequired(asList(cas), project)).isTrue();
+
+        assertThat(cas.getTypeSystem())
+                .isSameAs(sut.getTypeSystem(sut.getFullProjectTypeSystem(project)));
+        assertThat(sut.upgradeCasIfRequired(asList(cas), project)).isFalse();
+    }
+
+    @Test
+    public void thatUpgradeIsSkippedWhenFingerprintMatches() throws Exception
+    {
+        // A CAS which has been created with the project type system but which does not share
+        // the committed project type system
+        CAS cas = CasFactory.createCas(sut.getFullProjectTypeSystem(project));
+        casStorageSession.add("cas", EXCLUSIVE_WRITE_ACCESS, cas);
+        cas.setDocumentText("This is a test .");
+        cas.addFsToIndexes(cas.createAnnotation(cas.getTypeSystem()
+                .getType(CASMetadata.class.getName()), 0, 0));
+
+        // Once the CAS has been checked, the fingerprint of the project type system is recorded
+        assertThat(getTypeSystemFingerprint(cas)).isEmpty();
+        assertThat(sut.upgradeCasIfRequired(asList(cas), project)).isFalse();
+        assertThat(getTypeSystemFingerprint(cas)).isPresent();
+
+        // Rebuilding the project type system without actual changes keeps the fingerprint
+        String fingerprint = getTypeSystemFingerprint(cas).get();
+        sut.onLayerConfigurationChanged(new LayerConfigurationChangedEvent(this, project));
+
+        assertThat(sut.upgradeCasIfRequired(asList(cas), project)).isFalse();
+        assertThat(getTypeSystemFingerprint(cas)).contains(fingerprint);
+    }
+
+    @Test
+    public void thatUpgradeByCopyPreservesContents() throws Exception
+    {
+        JCas jcas = JCasFactory.createText("This is", "en");
+        CAS cas = jcas.getCas();
+        casStorageSession.add("cas", EXCLUSIVE_WRITE_ACCESS, cas);
+        DocumentMetaData dmd = DocumentMetaData.create(jcas);
+        dmd.setDocumentId("doc");
+        Token t1 = new Token(jcas, 0, 4);
+        t1.addToIndexes();
+        Token t2 = new Token(jcas, 5, 7);
+        t2.addToIndexes();
+        Dependency dep = new Dependency(jcas, 5, 7);
+        dep.setGovernor(t1);
+        dep.setDependent(t2);
+        dep.setDependencyType("nsubj");
+        dep.addToIndexes();
+        cas.createView("other").setDocumentText("Other view");
+
+        TypeSystemDescription tsd = sut.getFullProjectTypeSystem(project);
+        assertThat(CasUpgradeUtils.isUpgradeByCopyPossible(cas, sut.getTypeSystem(tsd)))
+                .isTrue();
+
+        sut.upgradeCas(cas, tsd);
+
+        JCas upgraded = cas.getJCas();
+        assertThat(cas.getTypeSystem()).isSameAs(sut.getTypeSystem(tsd));
+        assertThat(cas.getDocumentText()).isEqualTo("This is");
+        assertThat(cas.getDocumentLanguage()).isEqualTo("en");
+        assertThat(DocumentMetaData.get(upgraded).getDocumentId()).isEqualTo("doc");
+        assertThat(JCasUtil.select(upgraded, Token.class))
+                .extracting(Token::getCoveredText)
+                .containsExactly("This", "is");
+        Dependency upgradedDep = JCasUtil.selectSingle(upgraded, Dependency.class);
+        assertThat(upgradedDep.getDependencyType()).isEqualTo("nsubj");
+        assertThat(upgradedDep.getGovernor().getCoveredText()).isEqualTo("This");
+        assertThat(upgradedDep.getDependent())
+                .isSameAs(upgraded.select(Token.class).get(1));
+        assertThat(cas.getView("other").getDocumentText()).isEqualTo("Other view");
+    }
+
+    @Test
+    public void thatUpgradeFallsBackToSerializationWhenTypesAreRemoved() throws Exception
+    {
+        CAS cas = CasFactory.createCas(sut.getFullProjectTypeSystem(project));
+        casStorageSession.add("cas", EXCLUSIVE_WRITE_ACCESS, cas);
+        cas.setDocumentText("This is a test .");
+        cas.addFsToIndexes(cas.createAnnotation(cas.getTypeSystem()
+                .getType(CASMetadata.class.getName()), 0, 0));
+
+        // The export type system does not contain the internal types
+        TypeSystemDescription tsd = sut.getFullProjectTypeSystem(project, false);
+        assertThat(CasUpgradeUtils.isUpgradeByCopyPossible(cas, sut.getTypeSystem(tsd)))
+                .isFalse();
+
+        sut.upgradeCas(cas, tsd);
+
+        assertThat(cas.getDocumentText()).isEqualTo("This is a test .");
+        assertThat(cas.getTypeSystem().getType(CASMetadata.class.getName())).isNull();
+    }
+}
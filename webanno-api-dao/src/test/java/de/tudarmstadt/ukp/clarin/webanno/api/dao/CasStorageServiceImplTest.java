@@ -26,27 +26,37 @@ import static de.tudarmstadt.ukp.clarin.webanno.api.casstorage.CasAccessMode.SHA
 import static de.tudarmstadt.ukp.clarin.webanno.api.casstorage.CasAccessMode.UNMANAGED_ACCESS;
 import static de.tudarmstadt.ukp.clarin.webanno.api.casstorage.CasAccessMode.UNMANAGED_NON_INITIALIZING_ACCESS;
 import static de.tudarmstadt.ukp.clarin.webanno.api.dao.CasMetadataUtils.getInternalTypeSystem;
+import static de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasStorageFormat.COMPACT;
+import static de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasStorageFormat.SERIALIZED;
 import static de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasStorageSession.openNested;
 import static java.lang.Thread.sleep;
 import static java.util.Arrays.asList;
+import static java.util.stream.Collectors.toList;
 import static org.apache.commons.lang3.StringUtils.repeat;
 import static org.apache.uima.fit.factory.CasFactory.createCas;
 import static org.apache.uima.fit.factory.TypeSystemDescriptionFactory.createTypeSystemDescription;
 import static org.apache.uima.fit.util.JCasUtil.select;
+import static org.apache.uima.fit.util.JCasUtil.selectSingle;
 import static org.apache.uima.util.CasCreationUtils.mergeTypeSystems;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.assertj.core.api.Assertions.tuple;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.lang.reflect.Proxy;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
 import java.util.Random;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
 
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.tuple.Pair;
 import org.apache.uima.cas.CAS;
 import org.apache.uima.cas.CASException;
 import org.apache.uima.cas.text.AnnotationFS;
@@ -64,12 +74,24 @@ import org.slf4j.LoggerFactory;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.CasProvider;
 import de.tudarmstadt.ukp.clarin.webanno.api.RepositoryProperties;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.event.FeatureValueUpdatedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.event.RelationCreatedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.event.RelationDeletedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.event.SpanCreatedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.event.SpanDeletedEvent;
 import de.tudarmstadt.ukp.clarin.webanno.api.casstorage.CasSessionException;
+import de.tudarmstadt.ukp.clarin.webanno.api.casstorage.LoadedCas;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasJournal;
 import de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasStorageSession;
 import de.tudarmstadt.ukp.clarin.webanno.api.event.LayerConfigurationChangedEvent;
 import de.tudarmstadt.ukp.clarin.webanno.api.type.CASMetadata;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
 import de.tudarmstadt.ukp.clarin.webanno.model.Project;
 import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+import de.tudarmstadt.ukp.dkpro.core.api.lexmorph.type.pos.POS;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
+import de.tudarmstadt.ukp.dkpro.core.api.syntax.type.dependency.Dependency;
 
 public class CasStorageServiceImplTest
 {
@@ -87,6 +109,7 @@ public class CasStorageServiceImplTest
     private CasStorageServiceImpl sut;
     private BackupProperties backupProperties;
     private RepositoryProperties repositoryProperties;
+    private CasStorageProperties casStorageProperties;
 
     @Rule
     public TemporaryFolder testFolder = new TemporaryFolder();
@@ -108,7 +131,10 @@ public class CasStorageServiceImplTest
         repositoryProperties = new RepositoryProperties();
         repositoryProperties.setPath(testFolder.newFolder());
 
-        sut = new CasStorageServiceImpl(null, null, repositoryProperties, backupProperties);
+        casStorageProperties = new CasStorageProperties();
+
+        sut = new CasStorageServiceImpl(null, null, repositoryProperties, backupProperties,
+                casStorageProperties);
     }
 
     @Test
@@ -136,6 +162,409 @@ public class CasStorageServiceImplTest
         }
     }
 
+    @Test
+    public void testWriteReadCompactCas() throws Exception
+    {
+        casStorageProperties.setFormat(COMPACT);
+
+        try (CasStorageSession casStorageSession = openNested(true)) {
+            // Setup fixture
+            SourceDocument doc = makeSourceDocument(1l, 1l, "test");
+            JCas templateCas = JCasFactory.createText("This is a test");
+            casStorageSession.add("cas", EXCLUSIVE_WRITE_ACCESS, templateCas.getCas());
+            String user = "test";
+
+            sut.writeCas(doc, templateCas.getCas(), user);
+            assertThat(CasPersistenceUtils.detectFormat(sut.getCasFile(doc, user)))
+                    .isEqualTo(COMPACT);
+            assertThat(new File(repositoryProperties.getPath(), "/project/1/"
+                    + CasStorageServiceImpl.TYPE_SYSTEM_SNAPSHOT_FOLDER).listFiles())
+                            .hasSize(1);
+
+            // Actual test
+            CAS cas = sut.readCas(doc, user, UNMANAGED_ACCESS);
+            assertThat(cas.getDocumentText()).isEqualTo(templateCas.getDocumentText());
+
+            // CASes using the same type system snapshot share the type system
+            CAS otherCas = sut.readCas(doc, user, UNMANAGED_ACCESS);
+            assertThat(otherCas).isNotSameAs(cas);
+            assertThat(otherCas.getTypeSystem()).isSameAs(cas.getTypeSystem());
+        }
+    }
+
+    @Test
+    public void testThatSerializedCasIsMigratedToCompactOnWrite() throws Exception
+    {
+        try (CasStorageSession casStorageSession = openNested(true)) {
+            // Setup fixture
+            SourceDocument doc = makeSourceDocument(1l, 1l, "test");
+            String user = "test";
+            createCasFile(doc, user, "This is a test");
+            assertThat(CasPersistenceUtils.detectFormat(sut.getCasFile(doc, user)))
+                    .isEqualTo(SERIALIZED);
+
+            // Actual test
+            casStorageProperties.setFormat(COMPACT);
+            CAS cas = sut.readCas(doc, user);
+            assertThat(cas.getDocumentText()).isEqualTo("This is a test");
+
+            sut.writeCas(doc, cas, user);
+            assertThat(CasPersistenceUtils.detectFormat(sut.getCasFile(doc, user)))
+                    .isEqualTo(COMPACT);
+
+            ByteArrayOutputStream exported = new ByteArrayOutputStream();
+            sut.exportCas(doc, user, exported);
+            File exportedFile = testFolder.newFile();
+            FileUtils.writeByteArrayToFile(exportedFile, exported.toByteArray());
+            assertThat(CasPersistenceUtils.detectFormat(exportedFile)).isEqualTo(SERIALIZED);
+        }
+    }
+
+    @Test
+    public void testWriteBehind() throws Exception
+    {
+        casStorageProperties.getWriteBehind().setEnabled(true);
+        casStorageProperties.getWriteBehind().setQuietPeriod(3600);
+        casStorageProperties.getWriteBehind().setMaxDelay(3600);
+        sut = new CasStorageServiceImpl(null, null, repositoryProperties, backupProperties,
+                casStorageProperties);
+
+        try {
+            // Setup fixture
+            SourceDocument doc = makeSourceDocument(1l, 1l, "test");
+            String user = "test";
+            try (CasStorageSession session = openNested(true)) {
+                createCasFile(doc, user, "This is a test");
+            }
+            File casFile = sut.getCasFile(doc, user);
+            long initialTimestamp = casFile.lastModified();
+
+            // Actual test - changes are not written immediately
+            int annotationCount;
+            try (CasStorageSession session = openNested(true)) {
+                CAS cas = sut.readCas(doc, user);
+                cas.addFsToIndexes(cas.createAnnotation(cas.getAnnotationType(), 0, 4));
+                annotationCount = cas.getAnnotationIndex().size();
+                sut.writeCas(doc, cas, user);
+            }
+
+            assertThat(casFile.lastModified()).isEqualTo(initialTimestamp);
+
+            Optional<Long> pendingTimestamp;
+            try (CasStorageSession session = openNested(true)) {
+                pendingTimestamp = sut.getCasTimestamp(doc, user);
+            }
+
+            assertThat(pendingTimestamp.get()).isGreaterThan(initialTimestamp);
+
+            // Accessing the CAS in the storage directly writes the pending changes
+            try (CasStorageSession session = openNested(true)) {
+                CAS cas = sut.readCas(doc, user, UNMANAGED_ACCESS);
+                assertThat(cas.getAnnotationIndex().size()).isEqualTo(annotationCount);
+            }
+
+            assertThat(casFile.lastModified()).isEqualTo(pendingTimestamp.get());
+        }
+        finally {
+            sut.destroy();
+        }
+    }
+
+    @Test
+    public void testWriteBehindWritesPendingChangesOnShutdown() throws Exception
+    {
+        casStorageProperties.getWriteBehind().setEnabled(true);
+        casStorageProperties.getWriteBehind().setQuietPeriod(3600);
+        casStorageProperties.getWriteBehind().setMaxDelay(3600);
+        sut = new CasStorageServiceImpl(null, null, repositoryProperties, backupProperties,
+                casStorageProperties);
+
+        // Setup fixture
+        SourceDocument doc = makeSourceDocument(1l, 1l, "test");
+        String user = "test";
+        try (CasStorageSession session = openNested(true)) {
+            createCasFile(doc, user, "This is a test");
+        }
+        File casFile = sut.getCasFile(doc, user);
+        long initialTimestamp = casFile.lastModified();
+
+        try (CasStorageSession session = openNested(true)) {
+            CAS cas = sut.readCas(doc, user);
+            cas.addFsToIndexes(cas.createAnnotation(cas.getAnnotationType(), 0, 4));
+            sut.writeCas(doc, cas, user);
+        }
+
+        // Actual test
+        assertThat(casFile.lastModified()).isEqualTo(initialTimestamp);
+
+        sut.destroy();
+
+        assertThat(casFile.lastModified()).isGreaterThan(initialTimestamp);
+    }
+
+    @Test
+    public void testJournal() throws Exception
+    {
+        casStorageProperties.getJournal().setEnabled(true);
+        casStorageProperties.getJournal().setMaxEntries(3);
+        sut = new CasStorageServiceImpl(null, null, repositoryProperties, backupProperties,
+                casStorageProperties);
+
+        // Setup fixture
+        SourceDocument doc = makeSourceDocument(1l, 1l, "test");
+        String user = "test";
+        try (CasStorageSession session = openNested(true)) {
+            createCasFile(doc, user, "This is a test");
+        }
+        File casFile = sut.getCasFile(doc, user);
+        File journalFile = CasJournal.getJournalFile(casFile);
+        long initialSize = casFile.length();
+
+        AnnotationLayer tokenLayer = new AnnotationLayer();
+        tokenLayer.setName(Token.class.getName());
+        AnnotationLayer posLayer = new AnnotationLayer();
+        posLayer.setName(POS.class.getName());
+        posLayer.setAttachType(tokenLayer);
+        posLayer.setAttachFeature(new AnnotationFeature("pos", POS.class.getName()));
+
+        // Actual test - changes are recorded in the journal instead of rewriting the CAS file
+        try (CasStorageSession session = openNested(true)) {
+            CAS cas = sut.readCas(doc, user);
+            JCas jcas = cas.getJCas();
+            Token governor = new Token(jcas, 0, 4);
+            governor.addToIndexes();
+            sut.onAnnotationEvent(new SpanCreatedEvent(this, doc, user, tokenLayer, governor));
+            Token dependent = new Token(jcas, 5, 7);
+            dependent.addToIndexes();
+            sut.onAnnotationEvent(new SpanCreatedEvent(this, doc, user, tokenLayer, dependent));
+            Dependency dep = new Dependency(jcas, 5, 7);
+            dep.setGovernor(governor);
+            dep.setDependent(dependent);
+            dep.setDependencyType("nsubj");
+            dep.addToIndexes();
+            sut.onAnnotationEvent(
+                    new RelationCreatedEvent(this, doc, user, null, dep, dependent, governor));
+            sut.writeCas(doc, cas, user);
+        }
+
+        assertThat(journalFile).exists();
+        assertThat(casFile.length()).isEqualTo(initialSize);
+
+        // Drop the CAS from memory so it is loaded again from the CAS file and the journal and
+        // record further changes on top of that
+        sut = new CasStorageServiceImpl(null, null, repositoryProperties, backupProperties,
+                casStorageProperties);
+        try (CasStorageSession session = openNested(true)) {
+            CAS cas = sut.readCas(doc, user);
+            JCas jcas = cas.getJCas();
+            Dependency dep = selectSingle(jcas, Dependency.class);
+            dep.setDependencyType("dobj");
+            sut.onAnnotationEvent(new FeatureValueUpdatedEvent(this, doc, user, null, dep,
+                    new AnnotationFeature("DependencyType", CAS.TYPE_NAME_STRING), "dobj",
+                    "nsubj"));
+            Token token = new Token(jcas, 10, 14);
+            token.addToIndexes();
+            sut.onAnnotationEvent(new SpanCreatedEvent(this, doc, user, tokenLayer, token));
+            POS pos = new POS(jcas, 0, 4);
+            pos.setPosValue("DT");
+            pos.addToIndexes();
+            dep.getGovernor().setPos(pos);
+            sut.onAnnotationEvent(new SpanCreatedEvent(this, doc, user, posLayer, pos));
+            sut.writeCas(doc, cas, user);
+        }
+
+        assertThat(casFile.length()).isEqualTo(initialSize);
+
+        try (CasStorageSession session = openNested(true)) {
+            JCas jcas = sut.readCas(doc, user, UNMANAGED_ACCESS).getJCas();
+            Dependency dep = selectSingle(jcas, Dependency.class);
+            assertThat(dep.getDependencyType()).isEqualTo("dobj");
+            assertThat(dep.getGovernor().getCoveredText()).isEqualTo("This");
+            assertThat(dep.getGovernor().getPos().getPosValue()).isEqualTo("DT");
+            assertThat(dep.getDependent().getCoveredText()).isEqualTo("is");
+            assertThat(select(jcas, Token.class)).extracting(Token::getCoveredText)
+                    .containsExactly("This", "is", "test");
+        }
+
+        // Once the maximum number of entries is reached, the journal is folded into the CAS file
+        try (CasStorageSession session = openNested(true)) {
+            CAS cas = sut.readCas(doc, user);
+            JCas jcas = cas.getJCas();
+            Token token = new Token(jcas, 8, 9);
+            token.addToIndexes();
+            sut.onAnnotationEvent(new SpanCreatedEvent(this, doc, user, tokenLayer, token));
+            sut.writeCas(doc, cas, user);
+            assertThat(journalFile).exists();
+
+            Dependency dep = selectSingle(jcas, Dependency.class);
+            dep.removeFromIndexes();
+            sut.onAnnotationEvent(new RelationDeletedEvent(this, doc, user, null, dep,
+                    dep.getDependent(), dep.getGovernor()));
+            sut.writeCas(doc, cas, user);
+        }
+
+        assertThat(journalFile).doesNotExist();
+        assertThat(casFile.length()).isGreaterThan(initialSize);
+
+        try (CasStorageSession session = openNested(true)) {
+            JCas jcas = sut.readCas(doc, user, UNMANAGED_ACCESS).getJCas();
+            assertThat(select(jcas, Dependency.class)).isEmpty();
+            assertThat(select(jcas, Token.class)).extracting(Token::getCoveredText)
+                    .containsExactly("This", "is", "a", "test");
+        }
+    }
+
+    @Test
+    public void testJournalRecordsRepeatedChangesToTheSameCas() throws Exception
+    {
+        casStorageProperties.getJournal().setEnabled(true);
+        casStorageProperties.getJournal().setMaxEntries(10);
+        sut = new CasStorageServiceImpl(null, null, repositoryProperties, backupProperties,
+                casStorageProperties);
+
+        SourceDocument doc = makeSourceDocument(1l, 1l, "test");
+        String user = "test";
+        try (CasStorageSession session = openNested(true)) {
+            createCasFile(doc, user, "This is a test");
+        }
+        File casFile = sut.getCasFile(doc, user);
+        long initialSize = casFile.length();
+
+        // Changes to annotations created in an earlier save of the same CAS, including stacking
+        // annotations at the same position and deleting one of them, must all end up in the
+        // journal
+        try (CasStorageSession session = openNested(true)) {
+            CAS cas = sut.readCas(doc, user);
+            JCas jcas = cas.getJCas();
+            Token token = new Token(jcas, 0, 4);
+            token.addToIndexes();
+            sut.onAnnotationEvent(new SpanCreatedEvent(this, doc, user, null, token));
+            Token other = new Token(jcas, 5, 7);
+            other.addToIndexes();
+            sut.onAnnotationEvent(new SpanCreatedEvent(this, doc, user, null, other));
+            sut.writeCas(doc, cas, user);
+
+            Token stacked = new Token(jcas, 0, 4);
+            stacked.setId("stacked");
+            stacked.addToIndexes();
+            sut.onAnnotationEvent(new SpanCreatedEvent(this, doc, user, null, stacked));
+            token.removeFromIndexes();
+            sut.onAnnotationEvent(new SpanDeletedEvent(this, doc, user, null, token));
+            sut.writeCas(doc, cas, user);
+
+            Dependency dep = new Dependency(jcas, 5, 7);
+            dep.setGovernor(stacked);
+            dep.setDependent(other);
+            dep.setDependencyType("nsubj");
+            dep.addToIndexes();
+            sut.onAnnotationEvent(
+                    new RelationCreatedEvent(this, doc, user, null, dep, other, stacked));
+            sut.writeCas(doc, cas, user);
+
+            dep.setDependencyType("dobj");
+            sut.onAnnotationEvent(new FeatureValueUpdatedEvent(this, doc, user, null, dep,
+                    new AnnotationFeature("DependencyType", CAS.TYPE_NAME_STRING), "dobj",
+                    "nsubj"));
+            sut.writeCas(doc, cas, user);
+        }
+
+        assertThat(casFile.length()).isEqualTo(initialSize);
+
+        sut = new CasStorageServiceImpl(null, null, repositoryProperties, backupProperties,
+                casStorageProperties);
+        try (CasStorageSession session = openNested(true)) {
+            JCas jcas = sut.readCas(doc, user, UNMANAGED_ACCESS).getJCas();
+            assertThat(select(jcas, Token.class)).extracting(Token::getCoveredText)
+                    .containsExactly("This", "is");
+            Dependency dep = selectSingle(jcas, Dependency.class);
+            assertThat(dep.getDependencyType()).isEqualTo("dobj");
+            assertThat(dep.getGovernor().getId()).isEqualTo("stacked");
+            assertThat(dep.getDependent().getCoveredText()).isEqualTo("is");
+        }
+    }
+
+    @Test
+    public void testThatUnannouncedChangesAreWrittenCompletely() throws Exception
+    {
+        casStorageProperties.getJournal().setEnabled(true);
+        sut = new CasStorageServiceImpl(null, null, repositoryProperties, backupProperties,
+                casStorageProperties);
+
+        SourceDocument doc = makeSourceDocument(1l, 1l, "test");
+        String user = "test";
+        try (CasStorageSession session = openNested(true)) {
+            createCasFile(doc, user, "This is a test");
+        }
+        File casFile = sut.getCasFile(doc, user);
+        File journalFile = CasJournal.getJournalFile(casFile);
+
+        // A change which has not been announced by an event is noticed through the indexes
+        try (CasStorageSession session = openNested(true)) {
+            CAS cas = sut.readCas(doc, user);
+            JCas jcas = cas.getJCas();
+            Token token = new Token(jcas, 0, 4);
+            token.addToIndexes();
+            sut.onAnnotationEvent(new SpanCreatedEvent(this, doc, user, null, token));
+            new Token(jcas, 5, 7).addToIndexes();
+            sut.writeCas(doc, cas, user);
+        }
+
+        assertThat(journalFile).doesNotExist();
+
+        // A save without any announced change writes the complete CAS as well
+        try (CasStorageSession session = openNested(true)) {
+            CAS cas = sut.readCas(doc, user);
+            JCas jcas = cas.getJCas();
+            select(jcas, Token.class).iterator().next().setId("changed");
+            sut.writeCas(doc, cas, user);
+        }
+
+        assertThat(journalFile).doesNotExist();
+
+        sut = new CasStorageServiceImpl(null, null, repositoryProperties, backupProperties,
+                casStorageProperties);
+        try (CasStorageSession session = openNested(true)) {
+            JCas jcas = sut.readCas(doc, user, UNMANAGED_ACCESS).getJCas();
+            assertThat(select(jcas, Token.class)).extracting(Token::getCoveredText,
+                    Token::getId).containsExactly(tuple("This", "changed"), tuple("is", null));
+        }
+    }
+
+    @Test
+    public void testCachesAreBoundedByEstimatedSize() throws Exception
+    {
+        casStorageProperties.getSharedCache().setMaxSize(1);
+        casStorageProperties.getExclusivePool().setMaxIdleSize(1);
+        sut = new CasStorageServiceImpl(null, null, repositoryProperties, backupProperties,
+                casStorageProperties);
+
+        // Setup fixture - each CAS is estimated to use more than half of the permitted size
+        String text = repeat("word ", 90_000);
+        List<SourceDocument> docs = new ArrayList<>();
+        for (long i = 1; i <= 3; i++) {
+            SourceDocument doc = makeSourceDocument(1l, i, "test" + i);
+            try (CasStorageSession session = openNested(true)) {
+                createCasFile(doc, "test", text);
+            }
+            docs.add(doc);
+        }
+
+        // Returning the CASes to the exclusive access pool evicts those idle for the longest time
+        assertThat(sut.getExclusivePoolIdleSize()).isLessThanOrEqualTo(1);
+
+        // Actual test
+        for (SourceDocument doc : docs) {
+            try (CasStorageSession session = openNested(true)) {
+                sut.readCas(doc, "test", SHARED_READ_ONLY_ACCESS);
+            }
+        }
+
+        assertThat(sut.getSharedCacheEntryCount()).isEqualTo(1);
+        assertThat(sut.getSharedCacheEvictionCount()).isEqualTo(2);
+        assertThat(sut.getSharedCacheMissCount()).isEqualTo(3);
+        assertThat(sut.getSharedCacheSize()).isLessThanOrEqualTo(1);
+    }
+
     @Test
     public void testCasMetadataGetsCreated() throws Exception
     {
@@ -183,6 +612,127 @@ public class CasStorageServiceImplTest
         }
     }
 
+    @Test(timeout = 60000)
+    public void testReadCases() throws Exception
+    {
+        String user = "test";
+        List<Pair<SourceDocument, String>> requests = new ArrayList<>();
+        try (CasStorageSession casStorageSession = openNested(true)) {
+            for (long n = 1; n <= 5; n++) {
+                SourceDocument doc = makeSourceDocument(1l, n, "doc" + n);
+                createCasFile(doc, user, "Text " + n);
+                requests.add(Pair.of(doc, user));
+            }
+        }
+        requests.add(Pair.of(makeSourceDocument(1l, 6l, "doc6"), user));
+
+        try (CasStorageSession casStorageSession = openNested(true)) {
+            List<LoadedCas> loadedCases;
+            try (Stream<LoadedCas> stream = sut.readCases(requests, NO_CAS_UPGRADE, null,
+                    EXCLUSIVE_WRITE_ACCESS)) {
+                loadedCases = stream.collect(toList());
+            }
+
+            assertThat(loadedCases).extracting(LoadedCas::getDocument)
+                    .containsExactlyElementsOf(
+                            requests.stream().map(Pair::getKey).collect(toList()));
+
+            for (LoadedCas loadedCas : loadedCases.subList(0, 5)) {
+                CAS cas = loadedCas.getCas();
+                assertThat(cas.getDocumentText())
+                        .isEqualTo("Text " + loadedCas.getDocument().getId());
+                assertThat(casStorageSession.isWritingPermitted(cas)).isTrue();
+            }
+
+            assertThat(loadedCases.get(5).getException())
+                    .containsInstanceOf(FileNotFoundException.class);
+        }
+
+        // Closing the stream early releases the CASes which have been loaded ahead
+        try (CasStorageSession casStorageSession = openNested(true)) {
+            try (Stream<LoadedCas> stream = sut.readCases(requests, NO_CAS_UPGRADE, null,
+                    EXCLUSIVE_WRITE_ACCESS)) {
+                assertThat(stream.findFirst().get().getCas().getDocumentText())
+                        .isEqualTo("Text 1");
+            }
+        }
+
+        try (CasStorageSession casStorageSession = openNested(true)) {
+            for (Pair<SourceDocument, String> request : requests.subList(0, 5)) {
+                assertThat(sut.readCas(request.getKey(), user).getDocumentText())
+                        .isEqualTo("Text " + request.getKey().getId());
+            }
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void testPrefetchCases() throws Exception
+    {
+        casStorageProperties.getPrefetch().setEnabled(true);
+        sut = new CasStorageServiceImpl(null, null, repositoryProperties, backupProperties,
+                casStorageProperties);
+
+        String user = "test";
+        List<SourceDocument> docs = new ArrayList<>();
+        for (long n = 1; n <= 4; n++) {
+            SourceDocument doc = makeSourceDocument(1l, n, "doc" + n);
+            try (CasStorageSession session = openNested(true)) {
+                createCasFile(doc, user, "Text " + n);
+            }
+            docs.add(doc);
+        }
+
+        // Make sure none of the CASes are in memory anymore
+        sut.destroy();
+        sut = new CasStorageServiceImpl(null, null, repositoryProperties, backupProperties,
+                casStorageProperties);
+
+        // Only the documents next to the current document are prefetched
+        sut.prefetchCases(docs.get(1), docs, user);
+        while (sut.getExclusivePoolEntryCount() < 2 || sut.getExclusivePoolBorrowedCount() > 0) {
+            sleep(10);
+        }
+        assertThat(sut.getExclusivePoolEntryCount()).isEqualTo(2);
+
+        // The prefetched CAS is handed out when the document is opened
+        try (CasStorageSession session = openNested(true)) {
+            CAS cas = sut.readCas(docs.get(2), user);
+            assertThat(cas.getDocumentText()).isEqualTo("Text 3");
+            assertThat(sut.getExclusivePoolEntryCount()).isEqualTo(2);
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void testPrefetchDoesNotCreateCases() throws Exception
+    {
+        casStorageProperties.getPrefetch().setEnabled(true);
+        casStorageProperties.getPrefetch().setThreads(1);
+        sut = new CasStorageServiceImpl(null, null, repositoryProperties, backupProperties,
+                casStorageProperties);
+
+        String user = "test";
+        SourceDocument previous = makeSourceDocument(1l, 1l, "doc1");
+        SourceDocument current = makeSourceDocument(1l, 2l, "doc2");
+        SourceDocument unopened = makeSourceDocument(1l, 3l, "doc3");
+        try (CasStorageSession session = openNested(true)) {
+            createCasFile(previous, user, "Text 1");
+            createCasFile(current, user, "Text 2");
+        }
+
+        sut.destroy();
+        sut = new CasStorageServiceImpl(null, null, repositoryProperties, backupProperties,
+                casStorageProperties);
+
+        // The next document is prefetched first - once the previous one has been loaded, the
+        // single prefetch thread is done with the next one as well
+        sut.prefetchCases(current, asList(previous, current, unopened), user);
+        while (sut.getExclusivePoolEntryCount() < 1 || sut.getExclusivePoolBorrowedCount() > 0) {
+            sleep(10);
+        }
+
+        assertThat(sut.getCasFile(unopened, user)).doesNotExist();
+    }
+
     @Test
     public void testThatLayerChangeEventInvalidatesCachedCas() throws Exception
     {
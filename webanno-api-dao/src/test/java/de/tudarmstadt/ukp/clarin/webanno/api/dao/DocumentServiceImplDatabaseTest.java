@@ -118,7 +118,7 @@ public class DocumentServiceImplDatabaseTest
         public CasStorageService casStorageService()
         {
             return new CasStorageServiceImpl(null, null, repositoryProperties(),
-                    backupProperties());
+                    backupProperties(), new CasStorageProperties());
         }
 
         @Bean
@@ -112,7 +112,7 @@ public class DocumentServiceImplTest
         repositoryProperties.setPath(testFolder.newFolder());
 
         storageService = new CasStorageServiceImpl(null, null, repositoryProperties,
-                backupProperties);
+                backupProperties, new CasStorageProperties());
 
         sut = spy(new DocumentServiceImpl(repositoryProperties, storageService, importExportService,
                 projectService, applicationEventPublisher, entityManager));
@@ -0,0 +1,148 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.uima.fit.factory.CasFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.casstorage.CasSessionException;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+public class CasLockManagerTest
+{
+    private CasLockManager sut;
+
+    @Before
+    public void setup()
+    {
+        sut = new CasLockManager(MINUTES.toMillis(5), 0);
+    }
+
+    @After
+    public void tearDown()
+    {
+        sut.close();
+    }
+
+    @Test
+    public void thatOnlyOnePartyCanBorrowAtATime() throws Exception
+    {
+        CasKey key = new CasKey(1, 1, "user");
+
+        CasHolder holder = sut.borrow(key, 1, SECONDS);
+        holder.setCas(CasFactory.createCas());
+
+        assertThat(sut.tryBorrow(key, 10, MILLISECONDS)).isEmpty();
+        assertThatExceptionOfType(CasSessionException.class)
+                .isThrownBy(() -> sut.borrow(key, 10, MILLISECONDS));
+        assertThat(sut.tryBorrow(new CasKey(1, 2, "user"), 10, MILLISECONDS)).isPresent();
+
+        // A different thread waiting for the CAS gets it once it is released
+        CompletableFuture<CasHolder> waiting = CompletableFuture
+                .supplyAsync(() -> sut.borrow(key, 10, SECONDS));
+        sut.release(key, holder);
+        assertThat(waiting.get(10, SECONDS)).isSameAs(holder);
+        assertThat(sut.getBorrowedCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void thatCasCanBeReleasedByAnotherThread() throws Exception
+    {
+        CasKey key = new CasKey(1, 1, "user");
+
+        CasHolder holder = CompletableFuture.supplyAsync(() -> sut.borrow(key, 1, SECONDS))
+                .get(10, SECONDS);
+        holder.setCas(CasFactory.createCas());
+        sut.release(key, holder);
+
+        assertThat(sut.borrow(key, 1, SECONDS)).isSameAs(holder);
+    }
+
+    @Test
+    public void thatReleasingTwiceFails() throws Exception
+    {
+        CasKey key = new CasKey(1, 1, "user");
+
+        CasHolder holder = sut.borrow(key, 1, SECONDS);
+        holder.setCas(CasFactory.createCas());
+        sut.release(key, holder);
+
+        assertThatExceptionOfType(IllegalStateException.class)
+                .isThrownBy(() -> sut.release(key, holder));
+    }
+
+    @Test
+    public void thatInvalidatedHoldersAreReplaced() throws Exception
+    {
+        CasKey key = new CasKey(1, 1, "user");
+
+        CasHolder holder = sut.borrow(key, 1, SECONDS);
+        holder.setCas(CasFactory.createCas());
+        sut.release(key, holder);
+
+        // Holders which become outdated while idle are replaced when borrowed next
+        holder.setTypeSystemOutdated(true);
+        CasHolder holder2 = sut.borrow(key, 1, SECONDS);
+        assertThat(holder2).isNotSameAs(holder);
+        assertThat(holder2.isCasSet()).isFalse();
+
+        // Holders which become outdated while borrowed are dropped when released
+        holder2.setCas(CasFactory.createCas());
+        holder2.setTypeSystemOutdated(true);
+        sut.release(key, holder2);
+        assertThat(sut.getHolder(key)).isEmpty();
+    }
+
+    @Test
+    public void thatIdleHoldersAreEvicted() throws Exception
+    {
+        sut.close();
+        sut = new CasLockManager(MINUTES.toMillis(5), 1);
+
+        CasKey key1 = new CasKey(1, 1, "user");
+        CasKey key2 = new CasKey(1, 2, "user");
+
+        CasHolder holder1 = sut.borrow(key1, 1, SECONDS);
+        holder1.setCas(CasFactory.createCas());
+        holder1.getCas().setDocumentText("Some text.");
+        CasHolder holder2 = sut.borrow(key2, 1, SECONDS);
+        holder2.setCas(CasFactory.createCas());
+        holder2.getCas().setDocumentText("Some text.");
+
+        // Holders with pending changes must be kept
+        holder1.markWritePending(new SourceDocument(),
+                System.currentTimeMillis());
+
+        sut.release(key1, holder1);
+        sut.release(key2, holder2);
+
+        assertThat(sut.getHolder(key1)).containsSame(holder1);
+        assertThat(sut.getHolder(key2)).isEmpty();
+        assertThat(sut.getEntryCount()).isEqualTo(1);
+    }
+}
@@ -19,14 +19,19 @@ package de.tudarmstadt.ukp.clarin.webanno.api;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
+import org.apache.commons.lang3.tuple.Pair;
 import org.apache.uima.cas.CAS;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.casstorage.CasAccessMode;
 import de.tudarmstadt.ukp.clarin.webanno.api.casstorage.CasSessionException;
 import de.tudarmstadt.ukp.clarin.webanno.api.casstorage.CasStorageServiceAction;
 import de.tudarmstadt.ukp.clarin.webanno.api.casstorage.CasStorageServiceLoader;
+import de.tudarmstadt.ukp.clarin.webanno.api.casstorage.LoadedCas;
 import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
 
 public interface CasStorageService
@@ -118,6 +123,56 @@ public interface CasStorageService
             CasProvider aSupplier, CasAccessMode aAccessMode)
         throws IOException, CasSessionException;
 
+    /**
+     * Reads the CASes for the given document/user pairs. The CASes are loaded in parallel by a
+     * bounded number of background threads, but they are delivered in the order of the given
+     * pairs. Only a limited number of CASes is loaded ahead of the consumer.
+     * <p>
+     * Each CAS is handed over to the calling thread and added to the CAS storage session of the
+     * calling thread at the time it is delivered by the stream, i.e. the stream must be consumed
+     * by the thread which requested it. The stream should be closed when it is not consumed
+     * completely to release any CASes which have been loaded ahead.
+     * <p>
+     * If a CAS cannot be loaded, the exception is reported via {@link LoadedCas#getException()}
+     * and the stream continues with the next CAS.
+     * 
+     * @param aDocumentsAndUsers
+     *            the documents and users to obtain the CASes for.
+     * @param aUpgradeMode
+     *            whether the CASes should be upgraded to the latest project type system.
+     * @param aFallbackLoader
+     *            (optional) used to create a new CAS if none for a given user/document
+     *            combination exists in the storage. The CAS returned by the loader <b>must not be
+     *            managed</b>.
+     * @param aAccessMode
+     *            the CAS access mode.
+     * @return the CASes in the order of the given pairs.
+     * @throws CasSessionException
+     *             if no CAS storage session in available for the current thread.
+     */
+    Stream<LoadedCas> readCases(List<Pair<SourceDocument, String>> aDocumentsAndUsers,
+            CasUpgradeMode aUpgradeMode, CasStorageServiceLoader aFallbackLoader,
+            CasAccessMode aAccessMode)
+        throws CasSessionException;
+
+    /**
+     * Loads the CASes of the given user for the documents surrounding the given document in the
+     * given list into memory in the background, such that they are readily available when the user
+     * moves on to one of these documents. The CASes are repaired and upgraded to the latest
+     * project type system during loading. Prefetching only reads CASes which already exist in the
+     * storage - it never creates new CASes. Any prefetching previously requested for the same user
+     * which has not yet started is cancelled. If prefetching is disabled, this method has no
+     * effect.
+     * 
+     * @param aDocument
+     *            the document the user is currently working on.
+     * @param aDocuments
+     *            the documents the user can navigate through.
+     * @param aUser
+     *            the user to prefetch the CASes for.
+     */
+    void prefetchCases(SourceDocument aDocument, List<SourceDocument> aDocuments, String aUser);
+
     /**
      * Delete a CAS from the storage and also remove it from the active session.
      * 
@@ -141,6 +196,23 @@ public interface CasStorageService
 
     boolean existsCas(SourceDocument aDocument, String aUser) throws IOException;
 
+    /**
+     * Writes the CAS of the given user for the given document to the given stream in a
+     * self-contained format, i.e. including the type system, irrespective of the format in which
+     * the CAS is kept in the storage. This is meant for exporting CASes.
+     *
+     * @param aDocument
+     *            the document to export the CAS for.
+     * @param aUser
+     *            the user to export the CAS for.
+     * @param aStream
+     *            the stream to write the CAS to. The stream is not closed.
+     * @throws IOException
+     *             if the CAS could not be read or written.
+     */
+    void exportCas(SourceDocument aDocument, String aUser, OutputStream aStream)
+        throws IOException;
+
     /**
      * Runs {@code CasDoctor} in repair mode on the given CAS (if repairs are active), otherwise it
      * runs only in analysis mode.
@@ -174,6 +246,18 @@ public interface CasStorageService
      */
     void upgradeCas(SourceDocument aDocument, String aUser) throws IOException, CasSessionException;
 
+    /**
+     * Upgrades the given CASes in the storage. The CASes are upgraded in parallel by a bounded
+     * number of background threads. CASes which do not exist in the storage are skipped.
+     * 
+     * @param aDocumentsAndUsers
+     *            the documents and users to upgrade the CASes for.
+     * @throws IOException
+     *             if any of the CASes could not be loaded, upgraded or saved. The remaining CASes
+     *             are upgraded nevertheless.
+     */
+    void upgradeCases(List<Pair<SourceDocument, String>> aDocumentsAndUsers) throws IOException;
+
     void forceActionOnCas(SourceDocument aDocument, String aUser, CasStorageServiceLoader aLoader,
             CasStorageServiceAction aAction, boolean aSave)
         throws IOException;
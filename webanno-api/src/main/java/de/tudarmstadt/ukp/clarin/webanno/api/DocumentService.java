@@ -20,18 +20,22 @@ package de.tudarmstadt.ukp.clarin.webanno.api;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 import javax.persistence.NoResultException;
 
+import org.apache.commons.lang3.tuple.Pair;
 import org.apache.uima.UIMAException;
 import org.apache.uima.cas.CAS;
 import org.apache.uima.resource.metadata.TypeSystemDescription;
 import org.springframework.security.access.prepost.PreAuthorize;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.casstorage.CasAccessMode;
+import de.tudarmstadt.ukp.clarin.webanno.api.casstorage.LoadedCas;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentStateTransition;
@@ -310,6 +314,21 @@ public interface DocumentService
      */
     File getCasFile(SourceDocument document, String user) throws IOException;
 
+    /**
+     * Writes the serialized CAS of the given user for the given document to the given stream in a
+     * self-contained format which can be used to import the CAS into another repository.
+     *
+     * @param document
+     *            the source document.
+     * @param user
+     *            the username.
+     * @param stream
+     *            the stream to write the CAS to. The stream is not closed.
+     * @throws IOException
+     *             if the CAS could not be read or written.
+     */
+    void exportCas(SourceDocument document, String user, OutputStream stream) throws IOException;
+
     /**
      * Get the annotation document.
      *
@@ -409,6 +428,38 @@ public interface DocumentService
             CasAccessMode aMode)
         throws IOException;
 
+    /**
+     * Gets the CASes for the given document/user pairs. Converts them from the source documents if
+     * necessary. The CASes are loaded in parallel, but delivered in the order of the given pairs.
+     * See {@link CasStorageService#readCases} for details on how the CASes are handed over to the
+     * CAS storage session of the calling thread.
+     *
+     * @param aDocumentsAndUsers
+     *            the documents and users.
+     * @param aUpgradeMode
+     *            whether the CASes should be upgraded to the latest project type system.
+     * @param aMode
+     *            the access mode.
+     * @return the CASes in the order of the given pairs.
+     */
+    Stream<LoadedCas> readAnnotationCases(List<Pair<SourceDocument, String>> aDocumentsAndUsers,
+            CasUpgradeMode aUpgradeMode, CasAccessMode aMode);
+
+    /**
+     * Loads the CASes of the given user for the documents surrounding the given document in the
+     * given list into memory in the background. Documents the user has not started annotating yet
+     * are skipped. See {@link CasStorageService#prefetchCases} for details.
+     *
+     * @param aDocument
+     *            the document the user is currently working on.
+     * @param aDocuments
+     *            the documents the user can navigate through.
+     * @param aUser
+     *            the user.
+     */
+    void prefetchAnnotationCases(SourceDocument aDocument, List<SourceDocument> aDocuments,
+            User aUser);
+
     /**
      * Read the initial CAS for the given document. If the CAS does not exist then it is created.
      * This method does not perform an upgrade of the type system in the CAS.
@@ -0,0 +1,80 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.api.casstorage;
+
+import java.io.IOException;
+import java.util.Optional;
+
+import org.apache.uima.cas.CAS;
+
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+/**
+ * The outcome of loading the CAS of a particular user for a particular document as part of a bulk
+ * operation. Either the CAS or the exception which prevented loading it is set.
+ */
+public class LoadedCas
+{
+    private final SourceDocument document;
+    private final String user;
+    private final CAS cas;
+    private final Exception exception;
+
+    public LoadedCas(SourceDocument aDocument, String aUser, CAS aCas, Exception aException)
+    {
+        document = aDocument;
+        user = aUser;
+        cas = aCas;
+        exception = aException;
+    }
+
+    public SourceDocument getDocument()
+    {
+        return document;
+    }
+
+    public String getUser()
+    {
+        return user;
+    }
+
+    /**
+     * @return the CAS.
+     * @throws IOException
+     *             if the CAS could not be loaded. If the original problem was an
+     *             {@link IOException} (e.g. a {@link java.io.FileNotFoundException}), then it is
+     *             re-thrown as it is.
+     */
+    public CAS getCas() throws IOException
+    {
+        if (exception instanceof IOException) {
+            throw (IOException) exception;
+        }
+
+        if (exception != null) {
+            throw new IOException(exception);
+        }
+
+        return cas;
+    }
+
+    public Optional<Exception> getException()
+    {
+        return Optional.ofNullable(exception);
+    }
+}
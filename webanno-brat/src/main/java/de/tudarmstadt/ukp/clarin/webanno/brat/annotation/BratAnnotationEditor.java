@@ -21,11 +21,14 @@ import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.adapter.TypeAdapt
 import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.selectAnnotationByAddr;
 import static de.tudarmstadt.ukp.clarin.webanno.brat.metrics.BratMetrics.RenderType.DIFFERENTIAL;
 import static de.tudarmstadt.ukp.clarin.webanno.brat.metrics.BratMetrics.RenderType.FULL;
+import static de.tudarmstadt.ukp.clarin.webanno.brat.metrics.BratMetrics.RenderType.INCREMENTAL;
 import static de.tudarmstadt.ukp.clarin.webanno.brat.metrics.BratMetrics.RenderType.SKIP;
 import static de.tudarmstadt.ukp.clarin.webanno.support.wicket.WicketUtil.serverTiming;
 import static org.apache.wicket.markup.head.JavaScriptHeaderItem.forReference;
 
 import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -49,6 +52,7 @@ import org.apache.wicket.markup.head.IHeaderResponse;
 import org.apache.wicket.markup.head.OnDomReadyHeaderItem;
 import org.apache.wicket.markup.html.WebMarkupContainer;
 import org.apache.wicket.model.IModel;
+import org.apache.wicket.request.IRequestHandler;
 import org.apache.wicket.request.IRequestParameters;
 import org.apache.wicket.request.cycle.RequestCycle;
 import org.apache.wicket.spring.injection.annot.SpringBean;
@@ -59,6 +63,7 @@ import org.slf4j.LoggerFactory;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.flipkart.zjsonpatch.JsonDiff;
 import com.googlecode.wicket.jquery.ui.settings.JQueryUILibrarySettings;
 import com.googlecode.wicket.jquery.ui.widget.menu.IMenuItem;
@@ -89,6 +94,7 @@ import de.tudarmstadt.ukp.clarin.webanno.brat.message.SpanAnnotationResponse;
 import de.tudarmstadt.ukp.clarin.webanno.brat.message.VisualOptions;
 import de.tudarmstadt.ukp.clarin.webanno.brat.metrics.BratMetrics;
 import de.tudarmstadt.ukp.clarin.webanno.brat.metrics.BratMetrics.RenderType;
+import de.tudarmstadt.ukp.clarin.webanno.brat.render.BratDocumentDelta;
 import de.tudarmstadt.ukp.clarin.webanno.brat.render.BratRenderer;
 import de.tudarmstadt.ukp.clarin.webanno.brat.render.model.NormalizationQueryResult;
 import de.tudarmstadt.ukp.clarin.webanno.brat.render.model.Offsets;
@@ -112,6 +118,7 @@ import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
 import de.tudarmstadt.ukp.clarin.webanno.support.JSONUtil;
 import de.tudarmstadt.ukp.clarin.webanno.support.lambda.LambdaMenuItem;
 import de.tudarmstadt.ukp.clarin.webanno.support.wicket.ContextMenu;
+import de.tudarmstadt.ukp.clarin.webanno.support.wicket.JsonStreamRequestHandler;
 import de.tudarmstadt.ukp.clarin.webanno.support.wicket.WicketUtil;
 
 /**
@@ -130,6 +137,7 @@ public class BratAnnotationEditor
     private static final String PARAM_TARGET_SPAN_ID = "targetSpanId";
     private static final String PARAM_ORIGIN_SPAN_ID = "originSpanId";
     private static final String PARAM_SPAN_TYPE = "type";
+    private static final String PARAM_RENDER_SEQUENCE = "renderSequence";
 
     private static final String ACTION_CONTEXT_MENU = "contextMenu";
 
@@ -144,10 +152,26 @@ public class BratAnnotationEditor
 
     private WebMarkupContainer vis;
     private AbstractAjaxBehavior requestHandler;
+    private AbstractAjaxBehavior documentDataProvider;
 
+    // The last rendered JSON is only converted to bytes when the page is serialized - see
+    // writeObject/readObject
     private transient JsonNode lastRenederedJsonParsed;
-    private String lastRenderedJson;
     private int lastRenderedWindowStart = -1;
+    // Size of the last full data sent to the browser. It serves as an estimate of the size of the
+    // full data when deciding whether a differential update is worthwhile, so the current data
+    // does not have to be serialized just to measure it.
+    private long lastRenderedJsonSize = -1;
+
+    // Every render gets a new sequence number. When the browser fetches the document data from
+    // the documentDataProvider, it passes the number of the render it fetches the data for. This
+    // allows us to recognize requests which have been superseded by a later render.
+    private int renderSequence = 0;
+
+    // Document data which has already been rendered in bratRenderCommand and which the browser is
+    // about to fetch from the documentDataProvider
+    private transient JsonNode pendingDocument;
+    private int pendingWindowStart = -1;
 
     public BratAnnotationEditor(String id, IModel<AnnotatorState> aModel,
             final AnnotationActionHandler aActionHandler, final CasProvider aCasProvider)
@@ -323,6 +347,22 @@ public class BratAnnotationEditor
         };
 
         add(requestHandler);
+
+        // The document data can be several megabytes large. Instead of embedding it into the
+        // AJAX response as JavaScript, the browser fetches it from here and we stream it directly
+        // to the client.
+        documentDataProvider = new AbstractAjaxBehavior()
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public void onRequest()
+            {
+                getRequestCycle().scheduleRequestHandlerAfterCurrent(actionGetDocumentData());
+            }
+        };
+
+        add(documentDataProvider);
     }
 
     private Object actionLookupNormData(AjaxRequestTarget aTarget, IRequestParameters request,
@@ -544,21 +584,123 @@ public class BratAnnotationEditor
         String json;
         if (getModelObject().getProject() != null) {
             render(response, aCas);
-            json = toJson(response);
-            lastRenderedJson = json;
-            lastRenederedJsonParsed = null;
+            JsonNode tree = JSONUtil.getObjectMapper().valueToTree(response);
+            json = toJson(tree);
+            pendingDocument = null;
+            lastRenederedJsonParsed = tree;
+            lastRenderedWindowStart = getModelObject().getWindowBeginOffset();
+            lastRenderedJsonSize = json.length();
         }
         else {
             json = toJson(response);
         }
 
         timer.stop();
-        metrics.renderComplete(RenderType.FULL, timer.getTime(), json, null);
+        metrics.renderComplete(RenderType.FULL, timer.getTime(), json.length(), -1);
         serverTiming("Brat-JSON", "Brat JSON generation (FULL)", timer.getTime());
 
         return json;
     }
 
+    /**
+     * Provides the document data to the browser. If the data has already been rendered by
+     * {@link #bratRenderCommand(CAS)}, it is sent as it is, otherwise it is rendered now. In either
+     * case, the JSON is written directly to the response without building it as a string first.
+     * <p>
+     * The data becomes the baseline for differential updates only once it has been written to
+     * the browser. Requests for a render which has been superseded by a later render are
+     * rejected - the browser fetches the data again for the later render.
+     */
+    private IRequestHandler actionGetDocumentData()
+    {
+        ObjectMapper mapper = JSONUtil.getObjectMapper();
+
+        int sequence = getRequest().getQueryParameters()
+                .getParameterValue(PARAM_RENDER_SEQUENCE).toInt(-1);
+        if (sequence != renderSequence) {
+            LOG.trace("[{}][{}] Ignoring document data request for render {} (current: {})",
+                    getMarkupId(), vis.getMarkupId(), sequence, renderSequence);
+            return new JsonStreamRequestHandler(mapper, createGetDocumentError(mapper));
+        }
+
+        JsonNode data = pendingDocument;
+        int windowStart = pendingWindowStart;
+        pendingDocument = null;
+
+        if (data != null) {
+            return new JsonStreamRequestHandler(mapper, data)
+                    .onWritten(size -> setRenderBaseline(sequence, data, windowStart, size));
+        }
+
+        StopWatch timer = new StopWatch();
+        timer.start();
+
+        GetDocumentResponse response = new GetDocumentResponse();
+        if (getModelObject().getDocument() != null) {
+            try {
+                render(response, getCasProvider().get());
+            }
+            catch (Exception e) {
+                LOG.error("Unable to load data", e);
+                return new JsonStreamRequestHandler(mapper, createGetDocumentError(mapper));
+            }
+        }
+
+        JsonNode renderedData = mapper.valueToTree(response);
+        int renderedWindowStart = getModelObject().getWindowBeginOffset();
+
+        timer.stop();
+        serverTiming("Brat-JSON", "Brat JSON generation (FULL)", timer.getTime());
+
+        long time = timer.getTime();
+        return new JsonStreamRequestHandler(mapper, renderedData).onWritten(size -> {
+            setRenderBaseline(sequence, renderedData, renderedWindowStart, size);
+            metrics.renderComplete(FULL, time, size, -1);
+        });
+    }
+
+    private ObjectNode createGetDocumentError(ObjectMapper aMapper)
+    {
+        ObjectNode error = aMapper.createObjectNode();
+        error.put("action", GetDocumentResponse.COMMAND);
+        error.put("exception", true);
+        return error;
+    }
+
+    /**
+     * Remembers the data the browser has received as the baseline for differential updates -
+     * unless there has been another render in the meantime.
+     */
+    private void setRenderBaseline(int aSequence, JsonNode aData, int aWindowStart, long aSize)
+    {
+        if (aSequence != renderSequence) {
+            return;
+        }
+
+        lastRenederedJsonParsed = aData;
+        lastRenderedWindowStart = aWindowStart;
+        lastRenderedJsonSize = aSize;
+    }
+
+    /**
+     * Starts a new render which requires the browser to fetch the full document data from the
+     * documentDataProvider. Until the data has been served, there is no baseline for differential
+     * updates because we do not know which data the browser has.
+     * 
+     * @param aData
+     *            the data which has already been rendered or {@code null} if the data should be
+     *            rendered when the browser requests it.
+     */
+    private void startFullRender(JsonNode aData)
+    {
+        renderSequence++;
+        pendingDocument = aData;
+        pendingWindowStart = getModelObject().getWindowBeginOffset();
+        lastRenederedJsonParsed = null;
+        lastRenderedWindowStart = -1;
+        lastRenderedJsonSize = -1;
+    }
+
     /**
      * Extract offset information from the current request. These are either offsets of an existing
      * selected annotations or offsets contained in the request for the creation of a new
@@ -654,6 +796,27 @@ public class BratAnnotationEditor
     {
         LOG.trace("[{}][{}] bratRenderCommand", getMarkupId(), vis.getMarkupId());
 
+        // Here, we try to balance server CPU load against network load. So if we have a chance
+        // of significantly reducing the data sent to the client via a differential update, then
+        // we try that. However, if it is pretty obvious that we won't save a lot, then we will
+        // not even try. I.e. we apply some heuristics to see if large parts of the editor have
+        // changed.
+        AnnotatorState aState = getModelObject();
+        JsonNode previous = lastRenederedJsonParsed;
+        long fullSize = lastRenderedJsonSize;
+        boolean tryDifferentialUpdate = previous != null && lastRenderedWindowStart >= 0
+                && fullSize >= 0
+                // Check if we did a far scroll or switch pages
+                && Math.abs(lastRenderedWindowStart - aState.getWindowBeginOffset()) < aState
+                        .getPreferences().getWindowSize() / 3;
+
+        // If we do a full rendering anyway, the browser fetches the data from the
+        // documentDataProvider which renders it on demand
+        if (!tryDifferentialUpdate) {
+            startFullRender(null);
+            return Optional.of(renderDocumentCommand());
+        }
+
         StopWatch timer = new StopWatch();
         timer.start();
 
@@ -662,81 +825,96 @@ public class BratAnnotationEditor
 
         ObjectMapper mapper = JSONUtil.getObjectMapper();
         JsonNode current = mapper.valueToTree(response);
-        String json = toJson(current);
 
         // By default, we do a full rendering...
         RenderType renderType = FULL;
-        String cmd = "renderData";
-        String responseJson = json;
+        String cmd = null;
+        String responseJson = null;
+        JsonNode rendered = current;
         JsonNode diff;
         String diffJsonStr = null;
 
-        // Here, we try to balance server CPU load against network load. So if we have a chance
-        // of significantly reducing the data sent to the client via a differential update, then
-        // we try that. However, if it is pretty obvious that we won't save a lot, then we will
-        // not even try. I.e. we apply some heuristics to see if large parts of the editor have
-        // changed.
-        AnnotatorState aState = getModelObject();
-        boolean tryDifferentialUpdate = lastRenderedWindowStart >= 0
-                // Check if we did a far scroll or switch pages
-                && Math.abs(lastRenderedWindowStart - aState.getWindowBeginOffset()) < aState
-                        .getPreferences().getWindowSize() / 3;
+        // If the window did not move, entities and relations are matched by ID which is much
+        // faster than a generic JSON diff. The generic diff is only used when scrolling.
+        Optional<ObjectNode> delta = lastRenderedWindowStart == aState.getWindowBeginOffset()
+                ? BratDocumentDelta.diff(previous, current)
+                : Optional.empty();
 
-        if (tryDifferentialUpdate) {
-            // ... try to render diff
-            JsonNode previous = null;
-            try {
-                if (lastRenederedJsonParsed != null) {
-                    previous = lastRenederedJsonParsed;
-                }
-                else {
-                    previous = lastRenderedJson != null ? mapper.readTree(lastRenderedJson) : null;
-                }
+        if (delta.isPresent()) {
+            diffJsonStr = delta.get().toString();
+
+            if (delta.get().size() == 0) {
+                renderType = SKIP;
             }
-            catch (IOException e) {
-                LOG.error("Unable to generate diff, falling back to full render.", e);
-                // Fall-through
+            else if (diffJsonStr.length() < fullSize) {
+                cmd = "renderDataDelta";
+                responseJson = diffJsonStr;
+                renderType = INCREMENTAL;
+                // Added entities and relations are appended in the browser. Later patches refer
+                // to items by their position, so we need to remember the order which the browser
+                // has.
+                rendered = BratDocumentDelta.apply((ObjectNode) previous, delta.get());
             }
+        }
+        else {
+            diff = JsonDiff.asJson(previous, current);
+            diffJsonStr = diff.toString();
 
-            if (previous != null && current != null) {
-                diff = JsonDiff.asJson(previous, current);
-                diffJsonStr = diff.toString();
-
-                if (diff instanceof ArrayNode && ((ArrayNode) diff).isEmpty()) {
-                    // No difference? Well, don't render at all :)
-                    renderType = SKIP;
-                }
-                else if (diffJsonStr.length() < json.length()) {
-                    // Only sent a patch if it is smaller than sending the full data. E.g. when
-                    // switching pages, the patch usually ends up being twice as large as the full
-                    // data.
-                    cmd = "renderDataPatch";
-                    responseJson = diffJsonStr;
-                    renderType = DIFFERENTIAL;
-                }
-
-                // LOG.info("Diff: " + diff);
-                // LOG.info("Full: {} Patch: {} Diff time: {}", json.length(), diff.length(),
-                // timer);
+            if (diff instanceof ArrayNode && ((ArrayNode) diff).isEmpty()) {
+                // No difference? Well, don't render at all :)
+                renderType = SKIP;
+            }
+            else if (diffJsonStr.length() < fullSize) {
+                // Only sent a patch if it is smaller than sending the full data. E.g. when
+                // switching pages, the patch usually ends up being twice as large as the full
+                // data.
+                cmd = "renderDataPatch";
+                responseJson = diffJsonStr;
+                renderType = DIFFERENTIAL;
             }
         }
 
-        // Storing the last rendered JSON as string because JsonNodes are not serializable.
-        lastRenderedJson = json;
-        lastRenederedJsonParsed = current;
-        lastRenderedWindowStart = aState.getWindowBeginOffset();
-
         timer.stop();
 
-        metrics.renderComplete(renderType, timer.getTime(), json, diffJsonStr);
+        metrics.renderComplete(renderType, timer.getTime(), fullSize,
+                diffJsonStr != null ? diffJsonStr.length() : -1);
         serverTiming("Brat-JSON", "Brat-JSON generation (" + renderType + ")", timer.getTime());
 
+        if (FULL.equals(renderType)) {
+            // The browser picks up the data we have just rendered from the documentDataProvider
+            startFullRender(current);
+            return Optional.of(renderDocumentCommand());
+        }
+
+        // Differential updates are sent inline, so the browser has the data right away
+        renderSequence++;
+        pendingDocument = null;
+        lastRenederedJsonParsed = rendered;
+        lastRenderedWindowStart = aState.getWindowBeginOffset();
+
         if (SKIP.equals(renderType)) {
             return Optional.empty();
         }
 
-        return Optional.of("Wicket.$('" + vis.getMarkupId() + "').dispatcher.post('" + cmd + "', ["
-                + responseJson + "]);");
+        return Optional.of(renderSequenceCommand() + "Wicket.$('" + vis.getMarkupId()
+                + "').dispatcher.post('" + cmd + "', [" + responseJson + "]);");
+    }
+
+    private String renderDocumentCommand()
+    {
+        return renderSequenceCommand() + "Wicket.$('" + vis.getMarkupId()
+                + "').dispatcher.post('renderDocument');";
+    }
+
+    /**
+     * Tells the browser the sequence number of the current render. The browser passes it on when
+     * it fetches the document data - no matter whether it does so because of this render or on
+     * its own account.
+     */
+    private String renderSequenceCommand()
+    {
+        return "Wicket.$('" + vis.getMarkupId() + "').dispatcher.renderSequence = "
+                + renderSequence + ";";
     }
 
     private void render(GetDocumentResponse response, CAS aCas)
@@ -764,6 +942,8 @@ public class BratAnnotationEditor
         js.append("  var dispatcher = new Dispatcher();");
         // Each visualizer talks to its own Wicket component instance
         js.append("  dispatcher.ajaxUrl = '" + requestHandler.getCallbackUrl() + "'; ");
+        // The document data is fetched from a separate endpoint which streams it to the client
+        js.append("  dispatcher.dataUrl = '" + documentDataProvider.getCallbackUrl() + "'; ");
         // We attach the JSON send back from the server to this HTML element
         // because we cannot directly pass it from Wicket to the caller in ajax.js.
         js.append("  dispatcher.wicketId = '" + vis.getMarkupId() + "'; ");
@@ -807,8 +987,12 @@ public class BratAnnotationEditor
     {
         LOG.trace("[{}][{}] bratRenderLaterCommand", getMarkupId(), vis.getMarkupId());
 
-        return "Wicket.$('" + vis.getMarkupId() + "').dispatcher.post('current', " + "["
-                + toJson(getCollection()) + ", '1234', {}, true]);";
+        // The editor has been (re-)initialized in the browser, so it fetches the full data
+        startFullRender(null);
+
+        return renderSequenceCommand() + "Wicket.$('" + vis.getMarkupId()
+                + "').dispatcher.post('current', " + "[" + toJson(getCollection())
+                + ", '1234', {}, true]);";
     }
 
     @Override
@@ -897,6 +1081,25 @@ public class BratAnnotationEditor
         }
     }
 
+    private void writeObject(ObjectOutputStream aOut) throws IOException
+    {
+        aOut.defaultWriteObject();
+        // JsonNodes are not serializable, so we need the last rendered JSON as bytes to be able
+        // to send differential updates after the page has been deserialized.
+        aOut.writeObject(lastRenederedJsonParsed != null
+                ? JSONUtil.getObjectMapper().writeValueAsBytes(lastRenederedJsonParsed)
+                : null);
+    }
+
+    private void readObject(ObjectInputStream aIn) throws IOException, ClassNotFoundException
+    {
+        aIn.defaultReadObject();
+        byte[] lastRenderedJson = (byte[]) aIn.readObject();
+        lastRenederedJsonParsed = lastRenderedJson != null
+                ? JSONUtil.getObjectMapper().readTree(lastRenderedJson)
+                : null;
+    }
+
     private String toJson(Object result)
     {
         String json = "[]";
@@ -21,8 +21,15 @@ public interface BratMetrics
 {
     public static enum RenderType
     {
-        FULL, DIFFERENTIAL, SKIP;
+        FULL, DIFFERENTIAL, INCREMENTAL, SKIP;
     }
 
-    void renderComplete(RenderType aType, long aTime, String aFull, String aDiff);
+    /**
+     * @param aFullSize
+     *            size of the full document data.
+     * @param aDiffSize
+     *            size of the differential update or {@code -1} if no differential update has been
+     *            attempted.
+     */
+    void renderComplete(RenderType aType, long aTime, long aFullSize, long aDiffSize);
 }
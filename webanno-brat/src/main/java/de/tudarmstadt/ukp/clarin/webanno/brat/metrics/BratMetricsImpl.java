@@ -36,6 +36,9 @@ public class BratMetricsImpl
     private long diffRenderCount = 0;
     private long diffRenderedSize = 0;
 
+    private long incrementalRenderCount = 0;
+    private long incrementalRenderedSize = 0;
+
     private long skipRenderCount = 0;
 
     private long savedRenderedSize = 0;
@@ -76,6 +79,18 @@ public class BratMetricsImpl
         return diffRenderedSize;
     }
 
+    @ManagedMetric(metricType = COUNTER)
+    public long getIncrementalRenderCount()
+    {
+        return incrementalRenderCount;
+    }
+
+    @ManagedMetric(metricType = COUNTER, unit = "chars")
+    public long getIncrementalRenderedSize()
+    {
+        return incrementalRenderedSize;
+    }
+
     @ManagedMetric(metricType = COUNTER)
     public long getSkipRenderCount()
     {
@@ -120,6 +135,8 @@ public class BratMetricsImpl
         diffRenderAttempts = 0;
         diffRenderCount = 0;
         diffRenderedSize = 0;
+        incrementalRenderCount = 0;
+        incrementalRenderedSize = 0;
         savedRenderedSize = 0;
         sentRenderedSize = 0;
         renderTime = 0;
@@ -128,25 +145,31 @@ public class BratMetricsImpl
     }
 
     @Override
-    public synchronized void renderComplete(RenderType aType, long aTime, String aFull,
-            String aDiff)
+    public synchronized void renderComplete(RenderType aType, long aTime, long aFullSize,
+            long aDiffSize)
     {
         switch (aType) {
         case SKIP:
             skipRenderCount++;
-            savedRenderedSize += aFull.length();
+            savedRenderedSize += aFullSize;
             break;
         case DIFFERENTIAL:
             diffRenderCount++;
-            diffRenderedSize += aDiff.length();
-            sentRenderedSize += aDiff.length();
-            savedRenderedSize += aFull.length() - aDiff.length();
+            diffRenderedSize += aDiffSize;
+            sentRenderedSize += aDiffSize;
+            savedRenderedSize += aFullSize - aDiffSize;
+            break;
+        case INCREMENTAL:
+            incrementalRenderCount++;
+            incrementalRenderedSize += aDiffSize;
+            sentRenderedSize += aDiffSize;
+            savedRenderedSize += aFullSize - aDiffSize;
             break;
         case FULL:
             fullRenderCount++;
-            fullRenderedSize += aFull.length();
-            sentRenderedSize += aFull.length();
-            if (aDiff != null) {
+            fullRenderedSize += aFullSize;
+            sentRenderedSize += aFullSize;
+            if (aDiffSize >= 0) {
                 diffRenderAttempts++;
             }
             break;
@@ -0,0 +1,248 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.brat.render;
+
+import static java.util.Arrays.asList;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Calculates the changes between two renderings of the same window of a document. Entities and
+ * relations are matched by their ID, so only those that were added, removed or changed are sent
+ * to the browser. All other properties of the document (e.g. comments or markers) are sent in
+ * full if they changed. Unlike a generic JSON diff, this takes linear time in the size of the
+ * rendered window.
+ * <p>
+ * The delta has the following structure. Sections that do not contain any changes are omitted.
+ * 
+ * <pre>
+ * {
+ *   "entities":  { "remove": [ id, ... ], "put": [ entity, ... ] },
+ *   "relations": { "remove": [ id, ... ], "put": [ relation, ... ] },
+ *   "replace":   { property: value, ... },
+ *   "drop":      [ property, ... ]
+ * }
+ * </pre>
+ * 
+ * Entities and relations in the {@code put} section replace the item with the same ID. If there
+ * is no such item, they are added at the end.
+ */
+public class BratDocumentDelta
+{
+    public static final String ENTITIES = "entities";
+    public static final String RELATIONS = "relations";
+    public static final String REMOVE = "remove";
+    public static final String PUT = "put";
+    public static final String REPLACE = "replace";
+    public static final String DROP = "drop";
+
+    private static final List<String> KEYED_PROPERTIES = asList(ENTITIES, RELATIONS);
+
+    private BratDocumentDelta()
+    {
+        // No instances
+    }
+
+    /**
+     * @return the delta or nothing if the renderings cannot be compared by ID, e.g. because an ID
+     *         appears more than once. In this case, the caller should fall back to a different
+     *         kind of update.
+     */
+    public static Optional<ObjectNode> diff(JsonNode aPrevious, JsonNode aCurrent)
+    {
+        if (!aPrevious.isObject() || !aCurrent.isObject()) {
+            return Optional.empty();
+        }
+
+        ObjectNode delta = JsonNodeFactory.instance.objectNode();
+
+        for (String property : KEYED_PROPERTIES) {
+            Optional<ObjectNode> keyedDelta = diffById(aPrevious.get(property),
+                    aCurrent.get(property));
+            if (!keyedDelta.isPresent()) {
+                return Optional.empty();
+            }
+
+            if (keyedDelta.get().size() > 0) {
+                delta.set(property, keyedDelta.get());
+            }
+        }
+
+        Set<String> properties = new LinkedHashSet<>();
+        aPrevious.fieldNames().forEachRemaining(properties::add);
+        aCurrent.fieldNames().forEachRemaining(properties::add);
+        properties.removeAll(KEYED_PROPERTIES);
+
+        ObjectNode replace = JsonNodeFactory.instance.objectNode();
+        ArrayNode drop = JsonNodeFactory.instance.arrayNode();
+        for (String property : properties) {
+            JsonNode previous = aPrevious.get(property);
+            JsonNode current = aCurrent.get(property);
+            if (current == null) {
+                drop.add(property);
+            }
+            else if (!current.equals(previous)) {
+                replace.set(property, current);
+            }
+        }
+
+        if (replace.size() > 0) {
+            delta.set(REPLACE, replace);
+        }
+
+        if (drop.size() > 0) {
+            delta.set(DROP, drop);
+        }
+
+        return Optional.of(delta);
+    }
+
+    /**
+     * Applies the delta in the same way as the browser does. Entities and relations which are
+     * added by the delta end up at the end of their list, so the result may differ from the
+     * rendering the delta was calculated from in the order of these items.
+     * 
+     * @return the document as the browser has it after applying the delta.
+     */
+    public static ObjectNode apply(ObjectNode aDocument, ObjectNode aDelta)
+    {
+        ObjectNode result = aDocument.deepCopy();
+
+        for (String property : KEYED_PROPERTIES) {
+            if (aDelta.has(property)) {
+                result.set(property, applyById(result.get(property), aDelta.get(property)));
+            }
+        }
+
+        if (aDelta.has(REPLACE)) {
+            aDelta.get(REPLACE).fields()
+                    .forEachRemaining(e -> result.set(e.getKey(), e.getValue()));
+        }
+
+        if (aDelta.has(DROP)) {
+            aDelta.get(DROP).elements().forEachRemaining(property -> result
+                    .remove(property.asText()));
+        }
+
+        return result;
+    }
+
+    private static ArrayNode applyById(JsonNode aItems, JsonNode aDelta)
+    {
+        Set<String> removed = new HashSet<>();
+        if (aDelta.has(REMOVE)) {
+            aDelta.get(REMOVE).elements().forEachRemaining(id -> removed.add(id.asText()));
+        }
+
+        Map<String, JsonNode> put = new LinkedHashMap<>();
+        if (aDelta.has(PUT)) {
+            aDelta.get(PUT).elements()
+                    .forEachRemaining(item -> put.put(item.get(0).asText(), item));
+        }
+
+        ArrayNode result = JsonNodeFactory.instance.arrayNode();
+        if (aItems != null) {
+            for (JsonNode item : aItems) {
+                String id = item.get(0).asText();
+                if (removed.contains(id)) {
+                    continue;
+                }
+
+                JsonNode replacement = put.remove(id);
+                result.add(replacement != null ? replacement : item);
+            }
+        }
+        put.values().forEach(result::add);
+
+        return result;
+    }
+
+    private static Optional<ObjectNode> diffById(JsonNode aPrevious, JsonNode aCurrent)
+    {
+        Optional<Map<String, JsonNode>> previous = indexById(aPrevious);
+        Optional<Map<String, JsonNode>> current = indexById(aCurrent);
+        if (!previous.isPresent() || !current.isPresent()) {
+            return Optional.empty();
+        }
+
+        ArrayNode remove = JsonNodeFactory.instance.arrayNode();
+        for (String id : previous.get().keySet()) {
+            if (!current.get().containsKey(id)) {
+                remove.add(id);
+            }
+        }
+
+        ArrayNode put = JsonNodeFactory.instance.arrayNode();
+        for (Map.Entry<String, JsonNode> e : current.get().entrySet()) {
+            if (!e.getValue().equals(previous.get().get(e.getKey()))) {
+                put.add(e.getValue());
+            }
+        }
+
+        ObjectNode delta = JsonNodeFactory.instance.objectNode();
+        if (remove.size() > 0) {
+            delta.set(REMOVE, remove);
+        }
+        if (put.size() > 0) {
+            delta.set(PUT, put);
+        }
+        return Optional.of(delta);
+    }
+
+    /**
+     * Brat serializes entities and relations as arrays which carry the ID as their first element.
+     */
+    private static Optional<Map<String, JsonNode>> indexById(JsonNode aItems)
+    {
+        Map<String, JsonNode> index = new LinkedHashMap<>();
+
+        if (aItems == null || aItems.isNull()) {
+            return Optional.of(index);
+        }
+
+        if (!aItems.isArray()) {
+            return Optional.empty();
+        }
+
+        Iterator<JsonNode> i = aItems.elements();
+        while (i.hasNext()) {
+            JsonNode item = i.next();
+            if (!item.isArray() || item.size() == 0 || !item.get(0).isValueNode()) {
+                return Optional.empty();
+            }
+
+            if (index.put(item.get(0).asText(), item) != null) {
+                return Optional.empty();
+            }
+        }
+
+        return Optional.of(index);
+    }
+}
@@ -47,6 +47,83 @@ var Ajax = (function($, window, undefined) {
           data['protocol'] = 1;
         }
 
+// WEBANNO EXTENSION BEGIN - Fetch document data from a separate endpoint
+        var handleResponse = function(response) {
+// WEBANNO EXTENSION END
+          pending--;
+          // If no exception is set, verify the server results
+          if (response.exception == undefined && response.action !== data.action) {
+            console.error('Action ' + data.action +
+              ' returned the results of action ' + response.action);
+            response.exception = true;
+            dispatcher.post('messages', [[['Protocol error: Action' + data.action + ' returned the results of action ' + response.action + ' maybe the server is unable to run, please run tools/troubleshooting.sh from your installation to diagnose it', 'error', -1]]]);
+          }
+
+          // If the request is obsolete, do nothing; if not...
+          if (pendingList.hasOwnProperty(id)) {
+            dispatcher.post('messages', [response.messages]);
+            if (response.exception == 'configurationError'
+                || response.exception == 'protocolVersionMismatch') {
+              // this is a no-rescue critical failure.
+              // Stop *everything*.
+              pendingList = {};
+              dispatcher.post('screamingHalt');
+              // If we had a protocol mismatch, prompt the user for a reload
+              if (response.exception == 'protocolVersionMismatch') {
+                if(confirm('The server is running a different version ' +
+                    'from brat than your client, possibly due to a ' +
+                    'server upgrade. Would you like to reload the ' +
+                    'current page to update your client to the latest ' +
+                    'version?')) {
+                  window.location.reload(true);
+                } else {
+                  dispatcher.post('messages', [[['Fatal Error: Protocol ' +
+                      'version mismatch, please contact the administrator',
+                      'error', -1]]]);
+                }
+              }
+              return;
+            }
+
+            delete pendingList[id];
+
+            // if .exception is just Boolean true, do not process
+            // the callback; if it is anything else, the
+            // callback is responsible for handling it
+            if (response.exception == true) {
+              $('#waiter').dialog('close');
+            } else if (callback) {
+              $.extend(response, merge);
+              dispatcher.post(0, callback, [response]);
+            }
+          }
+          dispatcher.post('unspin');
+// WEBANNO EXTENSION BEGIN - Fetch document data from a separate endpoint
+        };
+
+        var handleFailure = function() {
+          pending--;
+          dispatcher.post('unspin');
+          $('#waiter').dialog('close');
+        };
+
+        // The document data is streamed by the server as plain JSON instead of being embedded
+        // into the Wicket AJAX response
+        if (data.action === 'getDocument' && dispatcher.dataUrl) {
+          $.ajax({
+            url: dispatcher.dataUrl,
+            type: 'GET',
+            // Allows the server to recognize requests superseded by a later render
+            data: { renderSequence: dispatcher.renderSequence },
+            dataType: 'json',
+            cache: false,
+            success: handleResponse,
+            error: handleFailure
+          });
+          return id;
+        }
+// WEBANNO EXTENSION END
+
 // WEBANNO EXTENSION BEGIN
         Wicket.Ajax.ajax({
           "m" : "POST",
@@ -66,62 +143,11 @@ var Ajax = (function($, window, undefined) {
             	// We simply ignore this.
                 return;
             }
-// WEBANNO EXTENSION END
-            pending--;
-            // If no exception is set, verify the server results
-            if (response.exception == undefined && response.action !== data.action) {
-              console.error('Action ' + data.action +
-                ' returned the results of action ' + response.action);
-              response.exception = true;
-              dispatcher.post('messages', [[['Protocol error: Action' + data.action + ' returned the results of action ' + response.action + ' maybe the server is unable to run, please run tools/troubleshooting.sh from your installation to diagnose it', 'error', -1]]]);
-            }
-
-            // If the request is obsolete, do nothing; if not...
-            if (pendingList.hasOwnProperty(id)) {
-              dispatcher.post('messages', [response.messages]);
-              if (response.exception == 'configurationError'
-                  || response.exception == 'protocolVersionMismatch') {
-                // this is a no-rescue critical failure.
-                // Stop *everything*.
-                pendingList = {};
-                dispatcher.post('screamingHalt');
-                // If we had a protocol mismatch, prompt the user for a reload
-                if (response.exception == 'protocolVersionMismatch') {
-                  if(confirm('The server is running a different version ' +
-                      'from brat than your client, possibly due to a ' +
-                      'server upgrade. Would you like to reload the ' +
-                      'current page to update your client to the latest ' +
-                      'version?')) {
-                    window.location.reload(true);
-                  } else {
-                    dispatcher.post('messages', [[['Fatal Error: Protocol ' +
-                        'version mismatch, please contact the administrator',
-                        'error', -1]]]);
-                  }
-                }
-                return;
-              }
-
-              delete pendingList[id];
-
-              // if .exception is just Boolean true, do not process
-              // the callback; if it is anything else, the
-              // callback is responsible for handling it
-              if (response.exception == true) {
-                $('#waiter').dialog('close');
-              } else if (callback) {
-                $.extend(response, merge);
-                dispatcher.post(0, callback, [response]);
-              }
-            }
-            dispatcher.post('unspin');
-// WEBANNO EXTENSION BEGIN
+            handleResponse(response);
           }],
           // error
           "fh" : [ function() {
-            pending--;
-            dispatcher.post('unspin');
-            $('#waiter').dialog('close');
+            handleFailure();
             // TODO find some way or access or pass on the response, textStatus and errorThrown from BratAnnotator or Wicket.
             // In the original ajax.js, these are parameters to the error callback.
 //            dispatcher.post('messages', [[['Error: Action' + data.action + ' failed on error ' + response.statusText, 'error']]]);
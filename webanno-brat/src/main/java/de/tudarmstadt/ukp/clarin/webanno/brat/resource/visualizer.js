@@ -4011,6 +4011,60 @@ Util.profileReport();
       }
 // END WEBANNO EXTENSION - #790 - Differential updates for brat view 
 
+// BEGIN WEBANNO EXTENSION - Incremental updates for brat view
+      // Entities and relations are arrays with their ID as first element. Items in "put" replace
+      // the item with the same ID or are appended if there is no such item.
+      var applyDeltaById = function(items, delta) {
+        if (!delta) {
+          return items;
+        }
+
+        var removed = {};
+        $.each(delta.remove || [], function(i, id) {
+          removed[id] = true;
+        });
+        var put = {};
+        $.each(delta.put || [], function(i, item) {
+          put[item[0]] = item;
+        });
+
+        var result = [];
+        $.each(items || [], function(i, item) {
+          var id = item[0];
+          if (removed[id]) {
+            return;
+          }
+          if (put[id]) {
+            result.push(put[id]);
+            delete put[id];
+          }
+          else {
+            result.push(item);
+          }
+        });
+        $.each(delta.put || [], function(i, item) {
+          if (put[item[0]]) {
+            result.push(item);
+          }
+        });
+        return result;
+      }
+
+      var renderDataDelta = function(delta) {
+        Util.profileEnd('invoke getDocument');
+        sourceData.entities = applyDeltaById(sourceData.entities, delta.entities);
+        sourceData.relations = applyDeltaById(sourceData.relations, delta.relations);
+        $.each(delta.replace || {}, function(key, value) {
+          sourceData[key] = value;
+        });
+        $.each(delta.drop || [], function(i, key) {
+          delete sourceData[key];
+        });
+        setSourceDataDefaults(sourceData);
+        rerender();
+      }
+// END WEBANNO EXTENSION - Incremental updates for brat view
+
       var renderDocument = function() {
         Util.profileStart('invoke getDocument');
         dispatcher.post('ajax', [{
@@ -4508,12 +4562,18 @@ Util.profileStart('before render');
           on('collectionChanged', collectionChanged).
           on('collectionLoaded', collectionLoaded).
           on('renderData', renderData).
+// BEGIN WEBANNO EXTENSION - Fetch document data from a separate endpoint
+          on('renderDocument', renderDocument).
+// END WEBANNO EXTENSION - Fetch document data from a separate endpoint
 // BEGIN WEBANNO EXTENSION - #1519 - Optimize re-rendering of brat view when window is resizes
           on('rerender', rerender).
 // END WEBANNO EXTENSION - #1519 - Optimize re-rendering of brat view when window is resizes
 // BEGIN WEBANNO EXTENSION - #790 - Differential updates for brat view 
           on('renderDataPatch', renderDataPatch).
 // END WEBANNO EXTENSION - #790 - Differential updates for brat view 
+// BEGIN WEBANNO EXTENSION - Incremental updates for brat view
+          on('renderDataDelta', renderDataDelta).
+// END WEBANNO EXTENSION - Incremental updates for brat view
           on('triggerRender', triggerRender).
           on('requestRenderData', requestRenderData).
           on('isReloadOkay', isReloadOkay).
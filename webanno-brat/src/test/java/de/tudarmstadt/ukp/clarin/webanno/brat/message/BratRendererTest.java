@@ -31,6 +31,7 @@ import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
 
 import java.io.File;
+import java.util.List;
 
 import org.apache.uima.analysis_engine.AnalysisEngine;
 import org.apache.uima.cas.CAS;
@@ -59,6 +60,7 @@ import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.AnnotatorState;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.AnnotatorStateImpl;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.paging.LineOrientedPagingStrategy;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.paging.SentenceOrientedPagingStrategy;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.ParallelRenderingProperties;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.PreRenderer;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.PreRendererImpl;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.model.VDocument;
@@ -82,6 +84,7 @@ public class BratRendererTest
     private AnnotationLayer posLayer;
     private AnnotationFeature posFeature;
 
+    private LayerSupportRegistryImpl layerRegistry;
     private PreRenderer preRenderer;
 
     @Before
@@ -129,7 +132,7 @@ public class BratRendererTest
         LayerBehaviorRegistryImpl layerBehaviorRegistry = new LayerBehaviorRegistryImpl(asList());
         layerBehaviorRegistry.init();
 
-        LayerSupportRegistryImpl layerRegistry = new LayerSupportRegistryImpl(asList(
+        layerRegistry = new LayerSupportRegistryImpl(asList(
                 new SpanLayerSupport(featureSupportRegistry, null, layerBehaviorRegistry),
                 new RelationLayerSupport(featureSupportRegistry, null, layerBehaviorRegistry),
                 new ChainLayerSupport(featureSupportRegistry, null, layerBehaviorRegistry)));
@@ -219,4 +222,50 @@ public class BratRendererTest
         assertThat(contentOf(new File("src/test/resources/multiline.json"), UTF_8))
                 .isEqualToNormalizingNewlines(contentOf(new File(jsonFilePath), UTF_8));
     }
+
+    @Test
+    public void thatParallelRenderingProducesSameResultAsSequentialRendering() throws Exception
+    {
+        CAS cas = JCasFactory.createJCas().getCas();
+        CollectionReader reader = createReader(TcfReader.class, TcfReader.PARAM_SOURCE_LOCATION,
+                "src/test/resources/tcf04-karin-wl.xml");
+        reader.getNext(cas);
+        AnnotatorState state = new AnnotatorStateImpl(Mode.ANNOTATION);
+        state.setPagingStrategy(new SentenceOrientedPagingStrategy());
+        state.getPreferences().setWindowSize(10);
+        state.setFirstVisibleUnit(WebAnnoCasUtil.getFirstSentence(cas));
+        state.setProject(project);
+
+        List<AnnotationLayer> layers = asList(posLayer, tokenLayer);
+
+        VDocument sequential = new VDocument();
+        preRenderer.render(sequential, state.getWindowBeginOffset(), state.getWindowEndOffset(),
+                cas, layers);
+
+        ParallelRenderingProperties properties = new ParallelRenderingProperties();
+        properties.setEnabled(true);
+        properties.setThreads(2);
+        properties.setMinLayers(1);
+        PreRendererImpl parallelPreRenderer = new PreRendererImpl(layerRegistry, schemaService,
+                properties);
+        VDocument parallel = new VDocument();
+        try {
+            parallelPreRenderer.render(parallel, state.getWindowBeginOffset(),
+                    state.getWindowEndOffset(), cas, layers);
+        }
+        finally {
+            parallelPreRenderer.destroy();
+        }
+
+        BratRenderer renderer = new BratRenderer(schemaService,
+                new ColoringServiceImpl(schemaService));
+        GetDocumentResponse sequentialResponse = new GetDocumentResponse();
+        renderer.render(sequentialResponse, state, sequential, cas);
+        GetDocumentResponse parallelResponse = new GetDocumentResponse();
+        renderer.render(parallelResponse, state, parallel, cas);
+
+        assertThat(parallel.spans()).isNotEmpty();
+        assertThat(JSONUtil.toJsonString(parallelResponse))
+                .isEqualTo(JSONUtil.toJsonString(sequentialResponse));
+    }
 }
@@ -0,0 +1,113 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.brat.render;
+
+import static de.tudarmstadt.ukp.clarin.webanno.brat.render.BratDocumentDelta.ENTITIES;
+import static de.tudarmstadt.ukp.clarin.webanno.brat.render.BratDocumentDelta.PUT;
+import static de.tudarmstadt.ukp.clarin.webanno.brat.render.BratDocumentDelta.REMOVE;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.util.Optional;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+public class BratDocumentDeltaTest
+{
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    public void thatAddedEntityIsPut() throws Exception
+    {
+        ObjectNode base = read("src/test/resources/brat_normal.json");
+        ObjectNode added = read("src/test/resources/brat_added_entity_near_middle.json");
+
+        ObjectNode delta = BratDocumentDelta.diff(base, added).get();
+
+        assertThat(delta.fieldNames()).toIterable().containsExactly(ENTITIES);
+        assertThat(delta.get(ENTITIES).has(REMOVE)).isFalse();
+        assertThat(delta.get(ENTITIES).get(PUT)).hasSize(1);
+        assertThat(delta.toString().length()).isLessThan(added.toString().length());
+
+        ObjectNode result = BratDocumentDelta.apply(base, delta);
+        assertThat(result.get(ENTITIES))
+                .containsExactlyInAnyOrderElementsOf(added.get(ENTITIES));
+        assertThat(BratDocumentDelta.diff(result, added).get().size()).isEqualTo(0);
+    }
+
+    @Test
+    public void thatRemovedEntityIsRemoved() throws Exception
+    {
+        ObjectNode base = read("src/test/resources/brat_normal.json");
+        ObjectNode removed = read("src/test/resources/brat_removed_entity_in_middle.json");
+
+        ObjectNode delta = BratDocumentDelta.diff(base, removed).get();
+
+        assertThat(delta.get(ENTITIES).get(REMOVE)).hasSize(1);
+        assertThat(delta.get(ENTITIES).has(PUT)).isFalse();
+        assertThat(BratDocumentDelta.apply(base, delta)).isEqualTo(removed);
+    }
+
+    @Test
+    public void thatUnchangedDocumentYieldsEmptyDelta() throws Exception
+    {
+        ObjectNode base = read("src/test/resources/brat_normal.json");
+
+        assertThat(BratDocumentDelta.diff(base, base.deepCopy()).get().size()).isEqualTo(0);
+    }
+
+    @Test
+    public void thatChangedPropertyIsReplaced() throws Exception
+    {
+        ObjectNode base = read("src/test/resources/brat_normal.json");
+        ObjectNode changed = base.deepCopy();
+        changed.put("text", "Something else .");
+        changed.remove("info");
+
+        ObjectNode delta = BratDocumentDelta.diff(base, changed).get();
+
+        assertThat(delta.get(BratDocumentDelta.REPLACE).get("text").asText())
+                .isEqualTo("Something else .");
+        assertThat(delta.get(BratDocumentDelta.DROP)).containsExactly(mapper.valueToTree("info"));
+        assertThat(BratDocumentDelta.apply(base, delta)).isEqualTo(changed);
+    }
+
+    @Test
+    public void thatDuplicateIdsPreventDelta() throws Exception
+    {
+        ObjectNode base = read("src/test/resources/brat_normal.json");
+        ObjectNode duplicate = base.deepCopy();
+        ArrayNode entities = (ArrayNode) duplicate.get(ENTITIES);
+        entities.add(entities.get(0).deepCopy());
+
+        Optional<ObjectNode> delta = BratDocumentDelta.diff(base, duplicate);
+
+        assertThat(delta).isEmpty();
+    }
+
+    private ObjectNode read(String aFile) throws Exception
+    {
+        JsonNode node = mapper.readTree(new File(aFile));
+        return (ObjectNode) node;
+    }
+}
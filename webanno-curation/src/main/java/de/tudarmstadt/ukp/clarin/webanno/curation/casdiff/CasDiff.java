@@ -30,19 +30,31 @@ import static org.apache.uima.fit.util.CasUtil.selectCovered;
 
 import java.io.PrintStream;
 import java.io.Serializable;
+import java.util.AbstractSet;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.NavigableMap;
+import java.util.Objects;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Function;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.uima.cas.ArrayFS;
@@ -64,6 +76,7 @@ import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.api.DiffAdapter;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.api.DiffAdapter_ImplBase;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.api.Position;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.internal.AID;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.internal.IdTable;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.relation.RelationDiffAdapter;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.span.SpanDiffAdapter;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
@@ -77,18 +90,31 @@ public class CasDiff
 
     private final Map<Position, ConfigurationSet> configSets = new TreeMap<>();
 
-    private final Map<String, String[]> sortedFeaturesCache = new HashMap<>();
+    private final Map<String, List<String>> comparedFeaturesCache = new ConcurrentHashMap<>();
+
+    // Shared by all configuration sets and configurations of the diff
+    private final IdTable casGroupIdTable = new IdTable();
+    private final IdTable featureIdTable = new IdTable();
 
     private int begin;
 
     private int end;
 
-    private final Map<String, DiffAdapter> typeAdapters = new HashMap<>();
+    // Accessed concurrently when calculating the differences in parallel
+    private final Map<String, DiffAdapter> typeAdapters = new ConcurrentHashMap<>();
+
+    private final List<String> types = new ArrayList<>();
 
     private final LinkCompareBehavior linkCompareBehavior;
 
     private boolean recurseIntoLinkFeatures = false;
 
+    private DiffResult result;
+
+    // Positions of the annotations which may be compared by equalsAnnotationFS while the
+    // differences are calculated in parallel - see doDiffParallel
+    private Map<FeatureStructure, Position> comparisonPositions;
+
     private CasDiff(int aBegin, int aEnd, Iterable<? extends DiffAdapter> aAdapters,
             LinkCompareBehavior aLinkCompareBehavior)
     {
@@ -98,6 +124,7 @@ public class CasDiff
         if (aAdapters != null) {
             for (DiffAdapter adapter : aAdapters) {
                 typeAdapters.put(adapter.getType(), adapter);
+                types.add(adapter.getType());
             }
         }
     }
@@ -189,11 +216,141 @@ public class CasDiff
             }
         }
 
+        diff.compact();
+
         LOG.trace("CASDiff completed in {} ms", System.currentTimeMillis() - startTime);
 
         return diff;
     }
 
+    /**
+     * Calculate the differences between CASes using the common fork/join pool.
+     * 
+     * @param aAdapters
+     *            a set of diff adapters how the diff algorithm should handle different features
+     * @param aCasMap
+     *            a set of CASes, each associated with an ID
+     * @return a diff result.
+     * @see #doDiffParallel(Iterable, LinkCompareBehavior, Map, int, int, ForkJoinPool)
+     */
+    public static CasDiff doDiffParallel(Iterable<? extends DiffAdapter> aAdapters,
+            LinkCompareBehavior aLinkCompareBehavior, Map<String, List<CAS>> aCasMap)
+    {
+        return doDiffParallel(aAdapters, aLinkCompareBehavior, aCasMap, -1, -1,
+                ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Calculate the differences between CASes in parallel. The result is the same as the one
+     * produced by {@link #doDiff(Iterable, LinkCompareBehavior, Map, int, int)}.
+     * <p>
+     * Positions of different CASes (i.e. different documents) or different types never end up in
+     * the same configuration set, so the configuration sets for each combination of CAS and type
+     * are calculated as separate tasks on the given pool and merged afterwards. Selecting the
+     * annotations and calculating everything which requires access to the CAS indexes, i.e. the
+     * positions and fingerprints, happens on the calling thread which must own the CASes. The
+     * tasks only compare the feature values of the annotations.
+     * 
+     * @param aAdapters
+     *            a set of diff adapters telling how the diff algorithm should handle different
+     *            features
+     * @param aCasMap
+     *            a set of CASes, each associated with an ID
+     * @param aBegin
+     *            begin of the span for which differences should be calculated.
+     * @param aEnd
+     *            end of the span for which differences should be calculated.
+     * @param aPool
+     *            the pool on which the differences are calculated.
+     * @return a diff.
+     */
+    public static CasDiff doDiffParallel(Iterable<? extends DiffAdapter> aAdapters,
+            LinkCompareBehavior aLinkCompareBehavior, Map<String, List<CAS>> aCasMap, int aBegin,
+            int aEnd, ForkJoinPool aPool)
+    {
+        if (aCasMap.isEmpty()) {
+            return new CasDiff(0, 0, aAdapters, aLinkCompareBehavior);
+        }
+
+        List<CAS> casList = aCasMap.values().iterator().next();
+        if (casList.isEmpty()) {
+            return new CasDiff(0, 0, aAdapters, aLinkCompareBehavior);
+        }
+
+        long startTime = System.currentTimeMillis();
+
+        sanityCheck(aCasMap);
+
+        CasDiff diff = new CasDiff(aBegin, aEnd, aAdapters, aLinkCompareBehavior);
+
+        // Select the annotations and calculate their positions and fingerprints on the calling
+        // thread because this requires access to the CAS indexes (and may even add the document
+        // metadata to the CAS). The annotations are grouped by CAS and type in the same order in
+        // which the sequential diff would process them.
+        Map<Integer, Map<String, List<PendingAnnotation>>> partitions = new TreeMap<>();
+        Map<FeatureStructure, Position> comparisonPositions = new IdentityHashMap<>();
+        for (Entry<String, List<CAS>> e : aCasMap.entrySet()) {
+            int casId = 0;
+            for (CAS cas : e.getValue()) {
+                for (DiffAdapter adapter : aAdapters) {
+                    String type = adapter.getType();
+                    List<PendingAnnotation> partition = partitions
+                            .computeIfAbsent(casId, k -> new LinkedHashMap<>())
+                            .computeIfAbsent(type, k -> new ArrayList<>());
+                    for (AnnotationFS fs : diff.selectAnnotations(e.getKey(), casId, cas, type)) {
+                        List<Position> positions = diff.getPositions(casId, type, fs);
+                        comparisonPositions.put(fs, positions.get(0));
+                        diff.collectComparisonPositions(casId, fs, comparisonPositions);
+                        partition.add(new PendingAnnotation(e.getKey(), fs, positions,
+                                diff.fingerprint(fs)));
+                    }
+                }
+                casId++;
+            }
+        }
+
+        // The tasks do not access the CASes at all. The representatives of the configurations
+        // are looked up among the annotations of the partition instead of in the CASes.
+        diff.comparisonPositions = comparisonPositions;
+        List<ForkJoinTask<Map<Position, ConfigurationSet>>> tasks = new ArrayList<>();
+        for (Map<String, List<PendingAnnotation>> casPartitions : partitions.values()) {
+            for (List<PendingAnnotation> partition : casPartitions.values()) {
+                if (partition.isEmpty()) {
+                    continue;
+                }
+
+                tasks.add(aPool.submit(() -> {
+                    Map<String, Map<Integer, FeatureStructure>> fsByAddr = new HashMap<>();
+                    Function<Configuration, FeatureStructure> representatives = cfg -> fsByAddr
+                            .get(cfg.getCasGroupId(0)).get(cfg.getAddress(0));
+                    Map<Position, ConfigurationSet> configSets = new TreeMap<>();
+                    for (PendingAnnotation pending : partition) {
+                        fsByAddr.computeIfAbsent(pending.casGroupId, k -> new HashMap<>())
+                                .put(getAddr(pending.fs), pending.fs);
+                        diff.addAnnotation(configSets, representatives, pending.casGroupId,
+                                pending.fs, pending.positions, pending.fingerprint);
+                    }
+                    return configSets;
+                }));
+            }
+        }
+
+        try {
+            for (ForkJoinTask<Map<Position, ConfigurationSet>> task : tasks) {
+                diff.configSets.putAll(task.join());
+            }
+        }
+        finally {
+            diff.comparisonPositions = null;
+        }
+
+        diff.compact();
+
+        LOG.trace("Parallel CASDiff completed in {} ms", System.currentTimeMillis() - startTime);
+
+        return diff;
+    }
+
     /**
      * Sanity check - all CASes should have the same text.
      */
@@ -237,15 +394,23 @@ public class CasDiff
         // End sanity check
     }
 
-    private DiffAdapter getAdapter(String aType)
+    /**
+     * Drops the data from the configuration sets which is only required while calculating the
+     * differences. This considerably reduces the memory required by large diffs.
+     */
+    private void compact()
     {
-        DiffAdapter adapter = typeAdapters.get(aType);
-        if (adapter == null) {
-            LOG.warn("No diff adapter for type [" + aType + "] -- treating as without features");
-            adapter = new SpanDiffAdapter(aType, emptySet());
-            typeAdapters.put(aType, adapter);
+        for (ConfigurationSet set : configSets.values()) {
+            set.compact();
         }
-        return adapter;
+    }
+
+    private DiffAdapter getAdapter(String aType)
+    {
+        return typeAdapters.computeIfAbsent(aType, type -> {
+            LOG.warn("No diff adapter for type [" + type + "] -- treating as without features");
+            return new SpanDiffAdapter(type, emptySet());
+        });
     }
 
     public Map<String, DiffAdapter> getTypeAdapters()
@@ -266,12 +431,38 @@ public class CasDiff
      *            the type on which to calculate the diff.
      */
     private void addCas(String aCasGroupId, int aCasId, CAS aCas, String aType)
+    {
+        Collection<AnnotationFS> annotations = selectAnnotations(aCasGroupId, aCasId, aCas, aType);
+        if (annotations.isEmpty()) {
+            return;
+        }
+
+        int posBefore = configSets.keySet().size();
+        LOG.debug("Positions before: [" + posBefore + "]");
+
+        addAnnotations(aCasGroupId, aCasId, aType, annotations);
+
+        LOG.debug("Positions after: [" + configSets.keySet().size() + "] (delta: "
+                + (configSets.keySet().size() - posBefore) + ")");
+
+        //
+        // // Remember that we have processed the type
+        // entryTypes.add(aType);
+    }
+
+    /**
+     * Remembers the given CAS and selects the annotations of the given type from it which are
+     * within the range of the diff.
+     */
+    private Collection<AnnotationFS> selectAnnotations(String aCasGroupId, int aCasId, CAS aCas,
+            String aType)
     {
         // Remember that we have already seen this CAS.
         List<CAS> casList = cases.get(aCasGroupId);
         if (casList == null) {
             casList = new ArrayList<>();
             cases.put(aCasGroupId, casList);
+            casGroupIdTable.intern(aCasGroupId);
         }
 
         // Avoid adding same CAS twice in cases where we add multiple types from a CAS. If the
@@ -289,7 +480,7 @@ public class CasDiff
         if (aCas == null) {
             LOG.debug("CAS group [" + aCasGroupId + "] does not contain a CAS at index [" + aCasId
                     + "].");
-            return;
+            return Collections.emptyList();
         }
 
         if (LOG.isDebugEnabled()) {
@@ -313,7 +504,7 @@ public class CasDiff
         if (type == null) {
             LOG.debug("CAS group [" + aCasGroupId + "] CAS [" + aCasId
                     + "] contains no annotations of type [" + aType + "]");
-            return;
+            return Collections.emptyList();
         }
 
         Collection<AnnotationFS> annotations;
@@ -327,65 +518,202 @@ public class CasDiff
         if (annotations.isEmpty()) {
             LOG.debug("CAS group [" + aCasGroupId + "] CAS [" + aCasId
                     + "] contains no annotations of type [" + aType + "]");
-            return;
+            return Collections.emptyList();
         }
 
         LOG.debug("CAS group [" + aCasGroupId + "] CAS [" + aCasId + "] contains ["
                 + annotations.size() + "] annotations of type [" + aType + "]");
 
-        int posBefore = configSets.keySet().size();
-        LOG.debug("Positions before: [" + posBefore + "]");
+        return annotations;
+    }
+
+    private void addAnnotations(String aCasGroupId, int aCasId, String aType,
+            Collection<AnnotationFS> aAnnotations)
+    {
+        for (AnnotationFS fs : aAnnotations) {
+            addAnnotation(configSets, cfg -> cfg.getRepresentative(cases), aCasGroupId, fs,
+                    getPositions(aCasId, aType, fs), fingerprint(fs));
+        }
+    }
+
+    private List<Position> getPositions(int aCasId, String aType, AnnotationFS aFS)
+    {
+        List<Position> positions = new ArrayList<>();
+
+        // Get/create configuration set at the current position
+        positions.add(getAdapter(aType).getPosition(aCasId, aFS));
+
+        // Generate secondary positions for multi-link features
+        positions.addAll(getAdapter(aType).generateSubPositions(aCasId, aFS, linkCompareBehavior));
+
+        return positions;
+    }
 
-        for (AnnotationFS fs : annotations) {
-            List<Position> positions = new ArrayList<>();
+    /**
+     * Collects the positions of all annotations which {@link #equalsAnnotationFS} may compare
+     * when the given annotation is compared to another one - i.e. the annotation itself, the
+     * annotations reachable via the compared features and the targets of its links.
+     */
+    private void collectComparisonPositions(int aCasId, FeatureStructure aFS,
+            Map<FeatureStructure, Position> aPositions)
+    {
+        if (aFS instanceof AnnotationFS && !aPositions.containsKey(aFS)) {
+            aPositions.put(aFS, getAdapter(aFS.getType().getName()).getPosition(aCasId, aFS));
+        }
 
-            // Get/create configuration set at the current position
-            positions.add(getAdapter(aType).getPosition(aCasId, fs));
+        DiffAdapter adapter = typeAdapters.get(aFS.getType().getName());
+        if (adapter == null) {
+            return;
+        }
+
+        // Values of the compared features - see equalsFS
+        for (String feature : getComparedFeatures(adapter)) {
+            Feature f = aFS.getType().getFeatureByBaseName(feature);
+            if (f == null || f.getRange().isPrimitive()) {
+                continue;
+            }
 
-            // Generate secondary positions for multi-link features
-            positions.addAll(
-                    getAdapter(aType).generateSubPositions(aCasId, fs, linkCompareBehavior));
+            FeatureStructure value = aFS.getFeatureValue(f);
+            if (value != null && !(value instanceof SofaFS) && !aPositions.containsKey(value)) {
+                collectComparisonPositions(aCasId, value, aPositions);
+            }
+        }
 
-            for (Position pos : positions) {
-                ConfigurationSet configSet = configSets.get(pos);
-                if (configSet == null) {
-                    configSet = new ConfigurationSet(pos);
-                    configSets.put(pos, configSet);
+        // Link targets - see addConfiguration
+        for (LinkFeatureDecl decl : adapter.getLinkFeatures()) {
+            Feature f = aFS.getType().getFeatureByBaseName(decl.getName());
+            if (f == null || !(aFS.getFeatureValue(f) instanceof ArrayFS)) {
+                continue;
+            }
+
+            for (FeatureStructure link : ((ArrayFS) aFS.getFeatureValue(f)).toArray()) {
+                FeatureStructure target = link.getFeatureValue(
+                        link.getType().getFeatureByBaseName(decl.getTargetFeature()));
+                if (target instanceof AnnotationFS && !aPositions.containsKey(target)) {
+                    aPositions.put(target, getAdapter(target.getType().getName())
+                            .getPosition(aCasId, target));
                 }
+            }
+        }
+    }
 
-                // REC: appears to be left-over debug code that can be removed...
-                // if (pos.getClass() != configSet.position.getClass()) {
-                // pos.compareTo(configSet.position);
-                // }
+    private void addAnnotation(Map<Position, ConfigurationSet> aConfigSets,
+            Function<Configuration, FeatureStructure> aRepresentatives, String aCasGroupId,
+            AnnotationFS aFS, List<Position> aPositions, int aFingerprint)
+    {
+        for (Position pos : aPositions) {
+            ConfigurationSet configSet = aConfigSets.get(pos);
+            if (configSet == null) {
+                configSet = new ConfigurationSet(pos, casGroupIdTable, featureIdTable);
+                configSet.begin = aFS.getBegin();
+                configSet.end = aFS.getEnd();
+                aConfigSets.put(pos, configSet);
+            }
 
-                assert pos.getClass() == configSet.position.getClass() : "Position type mismatch ["
-                        + pos.getClass() + "] vs [" + configSet.position.getClass() + "]";
+            // REC: appears to be left-over debug code that can be removed...
+            // if (pos.getClass() != configSet.position.getClass()) {
+            // pos.compareTo(configSet.position);
+            // }
 
-                // Merge FS into current set
-                addConfiguration(configSet, aCasGroupId, fs);
+            assert pos.getClass() == configSet.position.getClass() : "Position type mismatch ["
+                    + pos.getClass() + "] vs [" + configSet.position.getClass() + "]";
+
+            // Merge FS into current set
+            addConfiguration(aRepresentatives, configSet, aCasGroupId, aFS, aFingerprint);
+        }
+    }
+
+    /**
+     * Updates the differences after annotations have been created, changed or deleted in any of
+     * the CASes. Only the configuration sets for the annotations covered by the given range are
+     * recalculated - everything else is left untouched. Since positions are determined by the
+     * offsets of the annotations, the range should cover the offsets of the annotations before
+     * and after the change. A result obtained from {@link #toResult()} reflects the update.
+     * 
+     * @param aBegin
+     *            begin of the range in which annotations have changed.
+     * @param aEnd
+     *            end of the range in which annotations have changed.
+     */
+    public void update(int aBegin, int aEnd)
+    {
+        int rangeBegin = aBegin;
+        int rangeEnd = aEnd;
+
+        // If the diff is scoped to a span, changes outside the span do not affect it
+        if (!(begin == -1 && end == -1)) {
+            rangeBegin = Math.max(aBegin, begin);
+            rangeEnd = Math.min(aEnd, end);
+        }
+
+        if (rangeBegin > rangeEnd) {
+            return;
+        }
+
+        // Drop all configuration sets in the range...
+        List<ConfigurationSet> touched = new ArrayList<>();
+        Iterator<ConfigurationSet> i = configSets.values().iterator();
+        while (i.hasNext()) {
+            ConfigurationSet set = i.next();
+            if (set.begin >= rangeBegin && set.end <= rangeEnd) {
+                touched.add(set);
+                i.remove();
             }
         }
 
-        LOG.debug("Positions after: [" + configSets.keySet().size() + "] (delta: "
-                + (configSets.keySet().size() - posBefore) + ")");
+        // ... and rebuild them in the same order as doDiff() would
+        for (Entry<String, List<CAS>> e : cases.entrySet()) {
+            int casId = 0;
+            for (CAS cas : e.getValue()) {
+                if (cas != null) {
+                    for (String typeName : types) {
+                        Type type = cas.getTypeSystem().getType(typeName);
+                        if (type != null) {
+                            addAnnotations(e.getKey(), casId, typeName,
+                                    selectCovered(cas, type, rangeBegin, rangeEnd));
+                        }
+                    }
+                }
+                casId++;
+            }
+        }
 
-        //
-        // // Remember that we have processed the type
-        // entryTypes.add(aType);
+        for (ConfigurationSet set : configSets.values()) {
+            if (set.begin >= rangeBegin && set.end <= rangeEnd) {
+                touched.add(set);
+                set.compact();
+            }
+        }
+
+        LOG.trace("Updated [{}] configuration sets in range [{}-{}]", touched.size(), rangeBegin,
+                rangeEnd);
+
+        if (result != null) {
+            result.update(touched);
+        }
     }
 
-    private void addConfiguration(ConfigurationSet aSet, String aCasGroupId, FeatureStructure aFS)
+    /**
+     * @param aRepresentatives
+     *            provides the representative annotation of a configuration.
+     * @param aFingerprint
+     *            the {@link #fingerprint} of the annotation.
+     */
+    private void addConfiguration(Function<Configuration, FeatureStructure> aRepresentatives,
+            ConfigurationSet aSet, String aCasGroupId, FeatureStructure aFS, int aFingerprint)
     {
         if (aFS instanceof SofaFS) {
             return;
         }
 
         if (aSet.position.getFeature() == null) {
-            // Check if this configuration is already present
+            // Check if this configuration is already present - only configurations with the same
+            // fingerprint can be equal
+            int fingerprint = aFingerprint;
             Configuration configuration = null;
-            for (Configuration cfg : aSet.configurations) {
+            for (Configuration cfg : aSet.getCandidates(fingerprint)) {
                 // Handle main positions
-                if (equalsFS(cfg.getRepresentative(cases), aFS)) {
+                if (equalsFS(aRepresentatives.apply(cfg), aFS)) {
                     configuration = cfg;
                     break;
                 }
@@ -393,8 +721,7 @@ public class CasDiff
 
             // Not found, add new one
             if (configuration == null) {
-                configuration = new Configuration(aSet.position);
-                aSet.configurations.add(configuration);
+                configuration = aSet.addConfiguration(fingerprint);
             }
 
             configuration.add(aCasGroupId, aFS);
@@ -416,7 +743,9 @@ public class CasDiff
                 DiffAdapter adapter = getAdapter(aFS.getType().getName());
                 LinkFeatureDecl decl = adapter.getLinkFeature(aSet.position.getFeature());
 
-                // Check if this configuration is already present
+                // Check if this configuration is already present - only configurations with the
+                // same fingerprint can be equal
+                int fingerprint;
                 Configuration configuration = null;
                 switch (aSet.position.getLinkCompareBehavior()) {
                 case LINK_TARGET_AS_LABEL: {
@@ -429,8 +758,9 @@ public class CasDiff
                     AnnotationFS target = (AnnotationFS) link.getFeatureValue(
                             link.getType().getFeatureByBaseName(decl.getTargetFeature()));
 
-                    cfgLoop: for (Configuration cfg : aSet.configurations) {
-                        FeatureStructure repFS = cfg.getRepresentative(cases);
+                    fingerprint = 31 * target.getBegin() + target.getEnd();
+                    cfgLoop: for (Configuration cfg : aSet.getCandidates(fingerprint)) {
+                        FeatureStructure repFS = aRepresentatives.apply(cfg);
                         AID repAID = cfg.getRepresentativeAID();
                         FeatureStructure repLink = ((ArrayFS) repFS.getFeatureValue(
                                 repFS.getType().getFeatureByBaseName(decl.getName())))
@@ -457,8 +787,9 @@ public class CasDiff
                     String role = link.getStringValue(
                             link.getType().getFeatureByBaseName(decl.getRoleFeature()));
 
-                    cfgLoop: for (Configuration cfg : aSet.configurations) {
-                        FeatureStructure repFS = cfg.getRepresentative(cases);
+                    fingerprint = Objects.hashCode(role);
+                    cfgLoop: for (Configuration cfg : aSet.getCandidates(fingerprint)) {
+                        FeatureStructure repFS = aRepresentatives.apply(cfg);
                         AID repAID = cfg.getRepresentativeAID();
                         FeatureStructure repLink = ((ArrayFS) repFS.getFeatureValue(
                                 repFS.getType().getFeatureByBaseName(decl.getName())))
@@ -481,15 +812,72 @@ public class CasDiff
 
                 // Not found, add new one
                 if (configuration == null) {
-                    configuration = new Configuration(aSet.position);
-                    aSet.configurations.add(configuration);
+                    configuration = aSet.addConfiguration(fingerprint);
                 }
 
                 configuration.add(aCasGroupId, aFS, aSet.position.getFeature(), i);
             }
         }
 
-        aSet.casGroupIds.add(aCasGroupId);
+        aSet.casGroupIds.set(casGroupIdTable.getId(aCasGroupId));
+    }
+
+    private static class PendingAnnotation
+    {
+        private final String casGroupId;
+        private final AnnotationFS fs;
+        private final List<Position> positions;
+        private final int fingerprint;
+
+        public PendingAnnotation(String aCasGroupId, AnnotationFS aFS, List<Position> aPositions,
+                int aFingerprint)
+        {
+            casGroupId = aCasGroupId;
+            fs = aFS;
+            positions = aPositions;
+            fingerprint = aFingerprint;
+        }
+    }
+
+    /**
+     * Read-only view on the CAS group IDs recorded in a bit set. The IDs are iterated in the order
+     * in which they have been interned, i.e. in the order in which the CAS groups have been added
+     * to the diff.
+     */
+    private static class CasGroupIdSet
+        extends AbstractSet<String>
+    {
+        private final IdTable casGroupIdTable;
+        private final BitSet casGroupIds;
+
+        public CasGroupIdSet(IdTable aCasGroupIdTable, BitSet aCasGroupIds)
+        {
+            casGroupIdTable = aCasGroupIdTable;
+            casGroupIds = aCasGroupIds;
+        }
+
+        @Override
+        public Iterator<String> iterator()
+        {
+            return casGroupIds.stream().mapToObj(casGroupIdTable::getName).iterator();
+        }
+
+        @Override
+        public boolean contains(Object aObject)
+        {
+            if (!(aObject instanceof String)) {
+                return false;
+            }
+
+            int id = casGroupIdTable.getId((String) aObject);
+            return id >= 0 && casGroupIds.get(id);
+        }
+
+        @Override
+        public int size()
+        {
+            return casGroupIds.cardinality();
+        }
     }
 
     /**
@@ -501,12 +889,95 @@ public class CasDiff
         private static final long serialVersionUID = -2820621316555472339L;
 
         private final Position position;
-        private List<Configuration> configurations = new ArrayList<>();
-        private Set<String> casGroupIds = new LinkedHashSet<>();
+        private final IdTable casGroupIdTable;
+        private final IdTable featureIdTable;
+        private ArrayList<Configuration> configurations = new ArrayList<>();
+        // IDs of the CAS groups from the casGroupIdTable
+        private final BitSet casGroupIds = new BitSet();
+        // Offsets of the annotations from which the set was created - used to assign the set to
+        // segments (cf. DiffResult.getResultsBySegment)
+        private int begin;
+        private int end;
+        // Configurations by fingerprint - only required while the diff is being calculated
+        private transient Map<Integer, List<Configuration>> configurationsByFingerprint;
 
         public ConfigurationSet(Position aPosition)
+        {
+            this(aPosition, new IdTable(), new IdTable());
+        }
+
+        private ConfigurationSet(Position aPosition, IdTable aCasGroupIdTable,
+                IdTable aFeatureIdTable)
         {
             position = aPosition;
+            casGroupIdTable = aCasGroupIdTable;
+            featureIdTable = aFeatureIdTable;
+        }
+
+        private List<Configuration> getCandidates(int aFingerprint)
+        {
+            // After the set has been compacted, all configurations are candidates
+            if (configurationsByFingerprint == null) {
+                return configurations;
+            }
+
+            return configurationsByFingerprint.getOrDefault(aFingerprint,
+                    Collections.emptyList());
+        }
+
+        private Configuration addConfiguration(int aFingerprint)
+        {
+            if (configurationsByFingerprint == null && configurations.isEmpty()) {
+                configurationsByFingerprint = new HashMap<>();
+            }
+
+            Configuration configuration = new Configuration(position, casGroupIdTable,
+                    featureIdTable);
+            configurations.add(configuration);
+            if (configurationsByFingerprint != null) {
+                configurationsByFingerprint.computeIfAbsent(aFingerprint, k -> new ArrayList<>(1))
+                        .add(configuration);
+            }
+            return configuration;
+        }
+
+        /**
+         * Drops the data which is only required while the set is being filled and releases
+         * unused capacity.
+         */
+        private void compact()
+        {
+            configurationsByFingerprint = null;
+            configurations.trimToSize();
+            for (Configuration cfg : configurations) {
+                cfg.compact();
+            }
+        }
+
+        /**
+         * @return a copy of this set which only contains the annotations of the given CAS groups
+         *         or {@code null} if none of them has an annotation at this position.
+         */
+        private ConfigurationSet restrictTo(BitSet aCasGroupIds)
+        {
+            if (!casGroupIds.intersects(aCasGroupIds)) {
+                return null;
+            }
+
+            ConfigurationSet set = new ConfigurationSet(position, casGroupIdTable,
+                    featureIdTable);
+            set.begin = begin;
+            set.end = end;
+            set.casGroupIds.or(casGroupIds);
+            set.casGroupIds.and(aCasGroupIds);
+            for (Configuration cfg : configurations) {
+                Configuration restricted = cfg.restrictTo(aCasGroupIds);
+                if (restricted != null) {
+                    set.configurations.add(restricted);
+                }
+            }
+            set.configurations.trimToSize();
+            return set;
         }
 
         /**
@@ -517,7 +988,7 @@ public class CasDiff
         {
             int i = 0;
             for (Configuration cfg : configurations) {
-                i += cfg.getAddressByCasId().size();
+                i += cfg.size;
             }
             return i;
         }
@@ -527,7 +998,7 @@ public class CasDiff
          */
         public Set<String> getCasGroupIds()
         {
-            return casGroupIds;
+            return new CasGroupIdSet(casGroupIdTable, casGroupIds);
         }
 
         /**
@@ -547,7 +1018,7 @@ public class CasDiff
         {
             List<Configuration> configurationsForUser = new ArrayList<>();
             for (Configuration cfg : configurations) {
-                if (cfg.fsAddresses.keySet().contains(aCasGroupId)) {
+                if (cfg.indexOf(aCasGroupId) >= 0) {
                     configurationsForUser.add(cfg);
                 }
             }
@@ -615,21 +1086,6 @@ public class CasDiff
             return false;
         }
 
-        assert type1.getNumberOfFeatures() == type2.getNumberOfFeatures();
-
-        // Sort features by name to be independent over implementation details that may change the
-        // order of the features as returned from Type.getFeatures().
-        String[] cachedSortedFeatures = sortedFeaturesCache.get(type1.getName());
-        if (cachedSortedFeatures == null) {
-            cachedSortedFeatures = new String[type1.getNumberOfFeatures()];
-            int i = 0;
-            for (Feature f : aFS1.getType().getFeatures()) {
-                cachedSortedFeatures[i] = f.getShortName();
-                i++;
-            }
-            sortedFeaturesCache.put(type1.getName(), cachedSortedFeatures);
-        }
-
         DiffAdapter adapter = typeAdapters.get(type1.getName());
 
         if (adapter == null) {
@@ -637,21 +1093,7 @@ public class CasDiff
             return true;
         }
 
-        // Only consider label features. In particular these must not include position features
-        // such as begin, end, etc.
-        List<String> sortedFeatures = new ArrayList<>(asList(cachedSortedFeatures));
-        Set<String> labelFeatures = adapter.getLabelFeatures();
-        sortedFeatures.removeIf(f -> !labelFeatures.contains(f));
-
-        if (!recurseIntoLinkFeatures) {
-            // #1795 Chili REC: We can/should change CasDiff2 such that it does not recurse into
-            // link features (or rather into any features that are covered by their own
-            // sub-positions). So when when comparing two spans that differ only in their slots
-            // (sub-positions) the main position could still exhibit agreement.
-            sortedFeatures.removeIf(f -> adapter.getLinkFeature(f) != null);
-        }
-
-        nextFeature: for (String feature : sortedFeatures) {
+        nextFeature: for (String feature : getComparedFeatures(adapter)) {
             Feature f1 = type1.getFeatureByBaseName(feature);
             Feature f2 = type2.getFeatureByBaseName(feature);
 
@@ -782,6 +1224,104 @@ public class CasDiff
         return true;
     }
 
+    /**
+     * @return the features compared by {@link #equalsFS} sorted by name to be independent of
+     *         implementation details that may change the order of the features as returned from
+     *         Type.getFeatures().
+     */
+    private List<String> getComparedFeatures(DiffAdapter aAdapter)
+    {
+        return comparedFeaturesCache.computeIfAbsent(aAdapter.getType(), k -> {
+            // Only consider label features. In particular these must not include position
+            // features such as begin, end, etc.
+            List<String> features = new ArrayList<>(aAdapter.getLabelFeatures());
+
+            if (!recurseIntoLinkFeatures) {
+                // #1795 Chili REC: We can/should change CasDiff2 such that it does not recurse
+                // into link features (or rather into any features that are covered by their own
+                // sub-positions). So when when comparing two spans that differ only in their
+                // slots (sub-positions) the main position could still exhibit agreement.
+                features.removeIf(f -> aAdapter.getLinkFeature(f) != null);
+            }
+
+            Collections.sort(features);
+            return features;
+        });
+    }
+
+    /**
+     * Calculates a hash over the compared features of the given feature structure. Feature
+     * structures which are equal according to {@link #equalsFS} have the same fingerprint, so
+     * only feature structures with the same fingerprint need to be compared. Features which are
+     * not declared or which have a default value (e.g. {@code null} or {@code 0}) do not
+     * contribute to the fingerprint because {@link #equalsFS} considers them the same.
+     */
+    private int fingerprint(FeatureStructure aFS)
+    {
+        if (aFS == null) {
+            return 0;
+        }
+
+        Type type = aFS.getType();
+        int fingerprint = type.getName().hashCode();
+
+        DiffAdapter adapter = typeAdapters.get(type.getName());
+        if (adapter == null) {
+            return fingerprint;
+        }
+
+        for (String feature : getComparedFeatures(adapter)) {
+            Feature f = type.getFeatureByBaseName(feature);
+            if (f == null) {
+                continue;
+            }
+
+            int valueHash;
+            switch (f.getRange().getName()) {
+            case CAS.TYPE_NAME_BOOLEAN:
+                valueHash = aFS.getBooleanValue(f) ? 1 : 0;
+                break;
+            case CAS.TYPE_NAME_BYTE:
+                valueHash = aFS.getByteValue(f);
+                break;
+            case CAS.TYPE_NAME_DOUBLE: {
+                double value = aFS.getDoubleValue(f);
+                valueHash = value == 0.0d ? 0 : Double.hashCode(value);
+                break;
+            }
+            case CAS.TYPE_NAME_FLOAT: {
+                float value = aFS.getFloatValue(f);
+                valueHash = value == 0.0f ? 0 : Float.hashCode(value);
+                break;
+            }
+            case CAS.TYPE_NAME_INTEGER:
+                valueHash = aFS.getIntValue(f);
+                break;
+            case CAS.TYPE_NAME_LONG:
+                valueHash = Long.hashCode(aFS.getLongValue(f));
+                break;
+            case CAS.TYPE_NAME_SHORT:
+                valueHash = aFS.getShortValue(f);
+                break;
+            case CAS.TYPE_NAME_STRING:
+                valueHash = Objects.hashCode(aFS.getStringValue(f));
+                break;
+            default: {
+                // The SofaFS is ignored by equalsFS
+                FeatureStructure value = aFS.getFeatureValue(f);
+                valueHash = value instanceof SofaFS ? 0 : fingerprint(value);
+                break;
+            }
+            }
+
+            if (valueHash != 0) {
+                fingerprint = 31 * fingerprint + (feature.hashCode() ^ valueHash);
+            }
+        }
+
+        return fingerprint;
+    }
+
     private boolean equalsAnnotationFS(AnnotationFS aFS1, AnnotationFS aFS2)
     {
         // Null check
@@ -790,11 +1330,26 @@ public class CasDiff
         }
 
         // Position check
-        DiffAdapter adapter = getAdapter(aFS1.getType().getName());
-        Position pos1 = adapter.getPosition(0, aFS1);
-        Position pos2 = adapter.getPosition(0, aFS2);
+        return getComparisonPosition(aFS1).compareTo(getComparisonPosition(aFS2)) == 0;
+    }
 
-        return pos1.compareTo(pos2) == 0;
+    /**
+     * @return the position of the given annotation for the purpose of comparing it. When the
+     *         differences are calculated in parallel, calculating positions is not permitted
+     *         because it requires access to the CAS indexes, so the positions must have been
+     *         calculated beforehand.
+     */
+    private Position getComparisonPosition(AnnotationFS aFS)
+    {
+        if (comparisonPositions == null) {
+            return getAdapter(aFS.getType().getName()).getPosition(0, aFS);
+        }
+
+        Position position = comparisonPositions.get(aFS);
+        if (position == null) {
+            throw new IllegalStateException("No position calculated for [" + aFS + "]");
+        }
+        return position;
     }
 
     /**
@@ -806,8 +1361,24 @@ public class CasDiff
     {
         private static final long serialVersionUID = 5387873327207575817L;
 
+        // Number of int values recorded per CAS group in the entries array
+        private static final int STRIDE = 4;
+        private static final int GROUP = 0;
+        private static final int ADDR = 1;
+        private static final int FEATURE = 2;
+        private static final int SLOT = 3;
+
         private final Position position;
-        private final Map<String, AID> fsAddresses = new TreeMap<>();
+        private final IdTable casGroupIdTable;
+        private final IdTable featureIdTable;
+
+        /**
+         * The annotations seen in the different CAS groups. For each CAS group, the CAS group ID,
+         * the address of the annotation, the feature ID ({@code -1} if none) and the slot are
+         * recorded. The entries are sorted by the name of the CAS group.
+         */
+        private int[] entries = new int[STRIDE];
+        private int size = 0;
 
         /**
          * Flag indicating that there is at least once CAS group containing more than one annotation
@@ -817,12 +1388,57 @@ public class CasDiff
 
         public Set<String> getCasGroupIds()
         {
-            return fsAddresses.keySet();
+            return new AbstractSet<String>()
+            {
+                @Override
+                public Iterator<String> iterator()
+                {
+                    return new Iterator<String>()
+                    {
+                        private int next = 0;
+
+                        @Override
+                        public boolean hasNext()
+                        {
+                            return next < size;
+                        }
+
+                        @Override
+                        public String next()
+                        {
+                            if (!hasNext()) {
+                                throw new NoSuchElementException();
+                            }
+                            return getCasGroupId(next++);
+                        }
+                    };
+                }
+
+                @Override
+                public boolean contains(Object aObject)
+                {
+                    return aObject instanceof String && indexOf((String) aObject) >= 0;
+                }
+
+                @Override
+                public int size()
+                {
+                    return size;
+                }
+            };
         }
 
         public Configuration(Position aPosition)
+        {
+            this(aPosition, new IdTable(), new IdTable());
+        }
+
+        private Configuration(Position aPosition, IdTable aCasGroupIdTable,
+                IdTable aFeatureIdTable)
         {
             position = aPosition;
+            casGroupIdTable = aCasGroupIdTable;
+            featureIdTable = aFeatureIdTable;
         }
 
         public Position getPosition()
@@ -837,48 +1453,150 @@ public class CasDiff
 
         private void add(String aCasGroupId, FeatureStructure aFS)
         {
-            AID old = fsAddresses.put(aCasGroupId, new AID(getAddr(aFS)));
-            if (old != null) {
-                stacked = true;
-            }
+            put(aCasGroupId, getAddr(aFS), -1, -1);
         }
 
         private void add(String aCasGroupId, FeatureStructure aFS, String aFeature, int aSlot)
         {
-            AID old = fsAddresses.put(aCasGroupId, new AID(getAddr(aFS), aFeature, aSlot));
-            if (old != null) {
-                stacked = true;
+            put(aCasGroupId, getAddr(aFS),
+                    aFeature != null ? featureIdTable.intern(aFeature) : -1, aSlot);
+        }
+
+        private void put(String aCasGroupId, int aAddr, int aFeatureId, int aSlot)
+        {
+            // Find the insertion point keeping the entries sorted by CAS group name
+            int i = 0;
+            while (i < size) {
+                int cmp = getCasGroupId(i).compareTo(aCasGroupId);
+                if (cmp == 0) {
+                    stacked = true;
+                    break;
+                }
+                if (cmp > 0) {
+                    insertAt(i);
+                    break;
+                }
+                i++;
             }
+
+            if (i == size) {
+                insertAt(i);
+            }
+
+            int offset = i * STRIDE;
+            entries[offset + GROUP] = casGroupIdTable.intern(aCasGroupId);
+            entries[offset + ADDR] = aAddr;
+            entries[offset + FEATURE] = aFeatureId;
+            entries[offset + SLOT] = aSlot;
         }
 
-        public AID getRepresentativeAID()
+        private void insertAt(int aIndex)
         {
-            Entry<String, AID> e = fsAddresses.entrySet().iterator().next();
-            return e.getValue();
+            if ((size + 1) * STRIDE > entries.length) {
+                entries = Arrays.copyOf(entries, entries.length * 2);
+            }
+            System.arraycopy(entries, aIndex * STRIDE, entries, (aIndex + 1) * STRIDE,
+                    (size - aIndex) * STRIDE);
+            size++;
         }
 
-        public FeatureStructure getRepresentative(Map<String, List<CAS>> aCasMap)
+        private void compact()
         {
-            Entry<String, AID> e = fsAddresses.entrySet().iterator().next();
-            return selectFsByAddr(aCasMap.get(e.getKey()).get(position.getCasId()),
-                    e.getValue().addr);
+            if (entries.length > size * STRIDE) {
+                entries = Arrays.copyOf(entries, size * STRIDE);
+            }
         }
 
-        private Map<String, AID> getAddressByCasId()
+        /**
+         * @return a copy of this configuration which only contains the annotations of the given
+         *         CAS groups or {@code null} if none of them is part of it. The stacked flag is
+         *         not recorded per CAS group and is therefore retained as is.
+         */
+        private Configuration restrictTo(BitSet aCasGroupIds)
         {
-            return fsAddresses;
+            Configuration cfg = new Configuration(position, casGroupIdTable, featureIdTable);
+            cfg.entries = new int[size * STRIDE];
+            for (int i = 0; i < size; i++) {
+                if (aCasGroupIds.get(entries[i * STRIDE + GROUP])) {
+                    System.arraycopy(entries, i * STRIDE, cfg.entries, cfg.size * STRIDE, STRIDE);
+                    cfg.size++;
+                }
+            }
+
+            if (cfg.size == 0) {
+                return null;
+            }
+
+            cfg.stacked = stacked;
+            cfg.compact();
+            return cfg;
+        }
+
+        private int indexOf(String aCasGroupId)
+        {
+            int groupId = casGroupIdTable.getId(aCasGroupId);
+            if (groupId == -1) {
+                return -1;
+            }
+
+            for (int i = 0; i < size; i++) {
+                if (entries[i * STRIDE + GROUP] == groupId) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private String getCasGroupId(int aIndex)
+        {
+            return casGroupIdTable.getName(entries[aIndex * STRIDE + GROUP]);
+        }
+
+        private int getAddress(int aIndex)
+        {
+            return entries[aIndex * STRIDE + ADDR];
+        }
+
+        private AID getAID(int aIndex)
+        {
+            int offset = aIndex * STRIDE;
+            int featureId = entries[offset + FEATURE];
+            if (featureId == -1) {
+                return new AID(entries[offset + ADDR]);
+            }
+
+            return new AID(entries[offset + ADDR], featureIdTable.getName(featureId),
+                    entries[offset + SLOT]);
+        }
+
+        public AID getRepresentativeAID()
+        {
+            if (size == 0) {
+                throw new NoSuchElementException();
+            }
+            return getAID(0);
+        }
+
+        public FeatureStructure getRepresentative(Map<String, List<CAS>> aCasMap)
+        {
+            if (size == 0) {
+                throw new NoSuchElementException();
+            }
+            return selectFsByAddr(aCasMap.get(getCasGroupId(0)).get(position.getCasId()),
+                    getAddress(0));
         }
 
         public AID getAID(String aCasGroupId)
         {
-            return fsAddresses.get(aCasGroupId);
+            int i = indexOf(aCasGroupId);
+            return i >= 0 ? getAID(i) : null;
         }
 
         public <T extends FeatureStructure> FeatureStructure getFs(String aCasGroupId, int aCasId,
                 Class<T> aClass, Map<String, List<CAS>> aCasMap)
         {
-            AID aid = fsAddresses.get(aCasGroupId);
-            if (aid == null) {
+            int i = indexOf(aCasGroupId);
+            if (i == -1) {
                 return null;
             }
 
@@ -892,7 +1610,7 @@ public class CasDiff
                 return null;
             }
 
-            return selectFsByAddr(cas, aid.addr);
+            return selectFsByAddr(cas, getAddress(i));
         }
 
         // FIXME aCasId parameter should not be required as we can get it from the position
@@ -916,13 +1634,13 @@ public class CasDiff
         {
             StringBuilder sb = new StringBuilder();
             sb.append('[');
-            for (Entry<String, AID> e : fsAddresses.entrySet()) {
+            for (int i = 0; i < size; i++) {
                 if (sb.length() > 1) {
                     sb.append(", ");
                 }
-                sb.append(e.getKey());
+                sb.append(getCasGroupId(i));
                 sb.append(':');
-                sb.append(e.getValue());
+                sb.append(getAID(i));
             }
             sb.append("] -> ");
             sb.append(getRepresentativeAID());
@@ -941,18 +1659,48 @@ public class CasDiff
         private final Map<Position, ConfigurationSet> data;
         private final Set<String> casGroupIds;
         private final Map<ConfigurationSet, Boolean> completenessCache = new HashMap<>();
-        private final boolean cachedHasDifferences;
+        private final Set<Position> differingPositions = new TreeSet<>();
 
         private DiffResult(CasDiff aDiff)
         {
-            data = Collections.unmodifiableMap(aDiff.configSets);
-            casGroupIds = new LinkedHashSet<>(aDiff.cases.keySet());
-            cachedHasDifferences = !getDifferingConfigurationSets().isEmpty();
+            this(aDiff.configSets, aDiff.cases.keySet());
+        }
+
+        private DiffResult(Map<Position, ConfigurationSet> aData, Set<String> aCasGroupIds)
+        {
+            data = Collections.unmodifiableMap(aData);
+            casGroupIds = new LinkedHashSet<>(aCasGroupIds);
+            for (ConfigurationSet set : data.values()) {
+                if (!isAgreement(set)) {
+                    differingPositions.add(set.position);
+                }
+            }
+        }
+
+        /**
+         * Re-evaluates the given configuration sets after they have been updated, replaced or
+         * removed by {@link CasDiff#update}.
+         */
+        private void update(Collection<ConfigurationSet> aTouched)
+        {
+            for (ConfigurationSet set : aTouched) {
+                completenessCache.remove(set);
+            }
+
+            for (ConfigurationSet set : aTouched) {
+                ConfigurationSet current = data.get(set.position);
+                if (current != null && !isAgreement(current)) {
+                    differingPositions.add(set.position);
+                }
+                else {
+                    differingPositions.remove(set.position);
+                }
+            }
         }
 
         public boolean hasDifferences()
         {
-            return cachedHasDifferences;
+            return !differingPositions.isEmpty();
         }
 
         public Collection<Position> getPositions()
@@ -1027,11 +1775,8 @@ public class CasDiff
 
             Boolean complete = completenessCache.get(aConfigurationSet);
             if (complete == null) {
-                HashSet<String> unseenGroupCasIDs = new HashSet<>(casGroupIds);
-                for (Configuration cfg : aConfigurationSet.configurations) {
-                    unseenGroupCasIDs.removeAll(cfg.fsAddresses.keySet());
-                }
-                complete = unseenGroupCasIDs.isEmpty();
+                // The CAS groups of the set are the union of the CAS groups of its configurations
+                complete = aConfigurationSet.getCasGroupIds().containsAll(casGroupIds);
                 completenessCache.put(aConfigurationSet, complete);
             }
 
@@ -1041,10 +1786,8 @@ public class CasDiff
         public Map<Position, ConfigurationSet> getDifferingConfigurationSets()
         {
             Map<Position, ConfigurationSet> diffs = new LinkedHashMap<>();
-            for (Entry<Position, ConfigurationSet> e : data.entrySet()) {
-                if (!isAgreement(e.getValue())) {
-                    diffs.put(e.getKey(), e.getValue());
-                }
+            for (Position pos : differingPositions) {
+                diffs.put(pos, data.get(pos));
             }
 
             return diffs;
@@ -1067,6 +1810,87 @@ public class CasDiff
             return data.size();
         }
 
+        /**
+         * Splits this result into the parts covered by the given segments (e.g. sentences). A
+         * configuration set belongs to a segment if the annotations from which it was created are
+         * covered by the segment. Configuration sets which are not covered by any segment are
+         * omitted. This yields the same results as calculating the differences for each segment
+         * separately (cf. {@link CasDiff#doDiffSingle}), but requires only a single pass over the
+         * CASes.
+         * 
+         * @param aSegments
+         *            the begin and end offsets of the segments. The segments must not overlap.
+         * @return the results by segment begin offset. There is a result for every segment, even
+         *         if it does not contain any configuration sets.
+         */
+        public Map<Integer, DiffResult> getResultsBySegment(
+                NavigableMap<Integer, Integer> aSegments)
+        {
+            Map<Integer, Map<Position, ConfigurationSet>> dataBySegment = new LinkedHashMap<>();
+            for (Integer segmentBegin : aSegments.keySet()) {
+                dataBySegment.put(segmentBegin, new LinkedHashMap<>());
+            }
+
+            // The data is sorted by position, so the sets are also sorted within each segment
+            for (ConfigurationSet set : data.values()) {
+                // A zero-width annotation at the boundary between two adjacent segments is covered
+                // by both of them, so we need to check the preceding segment as well
+                Entry<Integer, Integer> segment = aSegments.floorEntry(set.begin);
+                while (segment != null && set.begin <= segment.getValue()) {
+                    if (set.end <= segment.getValue()) {
+                        dataBySegment.get(segment.getKey()).put(set.position, set);
+                    }
+                    segment = aSegments.lowerEntry(segment.getKey());
+                }
+            }
+
+            Map<Integer, DiffResult> results = new LinkedHashMap<>();
+            for (Entry<Integer, Map<Position, ConfigurationSet>> e : dataBySegment.entrySet()) {
+                results.put(e.getKey(), new DiffResult(e.getValue(), casGroupIds));
+            }
+            return results;
+        }
+
+        /**
+         * Restricts this result to the given CAS groups. Configuration sets in which none of the
+         * given CAS groups has an annotation are omitted. This yields the same results as
+         * calculating the differences only for the CASes of the given CAS groups, e.g. to derive
+         * all pairwise results from a single diff over many CAS groups.
+         * 
+         * @param aCasGroupIds
+         *            the CAS groups to retain.
+         * @return the restricted result.
+         */
+        public DiffResult getResultForCasGroups(Collection<String> aCasGroupIds)
+        {
+            Set<String> retainedGroupIds = new LinkedHashSet<>(aCasGroupIds);
+            retainedGroupIds.retainAll(casGroupIds);
+
+            Map<Position, ConfigurationSet> restrictedData = new LinkedHashMap<>();
+            IdTable groupIdTable = null;
+            BitSet groupIds = null;
+            for (ConfigurationSet set : data.values()) {
+                // The sets of a diff normally share the same CAS group ID table
+                if (set.casGroupIdTable != groupIdTable) {
+                    groupIdTable = set.casGroupIdTable;
+                    groupIds = new BitSet();
+                    for (String casGroupId : retainedGroupIds) {
+                        int id = set.casGroupIdTable.getId(casGroupId);
+                        if (id != -1) {
+                            groupIds.set(id);
+                        }
+                    }
+                }
+
+                ConfigurationSet restricted = set.restrictTo(groupIds);
+                if (restricted != null) {
+                    restrictedData.put(set.position, restricted);
+                }
+            }
+
+            return new DiffResult(restrictedData, retainedGroupIds);
+        }
+
         public int size(String aType)
         {
             int n = 0;
@@ -1164,9 +1988,15 @@ public class CasDiff
         return adapters;
     }
 
+    /**
+     * @return the result of the diff. The result reflects later calls to {@link #update}.
+     */
     public DiffResult toResult()
     {
-        return new DiffResult(this);
+        if (result == null) {
+            result = new DiffResult(this);
+        }
+        return result;
     }
 
     // private Set<String> entryTypes = new LinkedHashSet<>();
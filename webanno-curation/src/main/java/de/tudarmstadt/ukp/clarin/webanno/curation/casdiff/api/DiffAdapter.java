@@ -18,6 +18,7 @@
 package de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.api;
 
 import java.util.Collection;
+import java.util.List;
 import java.util.Set;
 
 import org.apache.uima.cas.FeatureStructure;
@@ -35,6 +36,8 @@ public interface DiffAdapter
 
     LinkFeatureDecl getLinkFeature(String aFeature);
 
+    List<LinkFeatureDecl> getLinkFeatures();
+
     Set<String> getLabelFeatures();
 
     Position getPosition(int aCasId, FeatureStructure aFS);
@@ -74,6 +74,12 @@ public abstract class DiffAdapter_ImplBase
         return null;
     }
 
+    @Override
+    public List<LinkFeatureDecl> getLinkFeatures()
+    {
+        return Collections.unmodifiableList(linkFeatures);
+    }
+
     @Override
     public Position getPosition(int aCasId, FeatureStructure aFS)
     {
@@ -0,0 +1,54 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.cache;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Optional;
+
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.DiffResult;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.LinkCompareBehavior;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.api.DiffAdapter;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+/**
+ * Cache for diff results. Results are identified by the timestamps of the CASes they were
+ * calculated from, so a cached result can be looked up without loading the CASes.
+ * <p>
+ * The annotation addresses recorded in a cached result refer to the CASes as they were when the
+ * result was calculated. A cached result is meant to be used for inspecting the structure of the
+ * differences (e.g. which positions differ or are incomplete). Callers which need to access the
+ * annotations themselves should calculate the differences on the CASes they are working with.
+ */
+public interface DiffResultCache
+{
+    String SERVICE_NAME = "diffResultCache";
+
+    /**
+     * Creates a key for a diff on the given document. This looks up the timestamps of the CASes of
+     * the given users, but does not load the CASes.
+     */
+    DiffResultCacheKey createKey(SourceDocument aDocument, Collection<String> aUsers,
+            Iterable<? extends DiffAdapter> aAdapters, LinkCompareBehavior aLinkCompareBehavior,
+            int aBegin, int aEnd)
+        throws IOException;
+
+    Optional<DiffResult> get(DiffResultCacheKey aKey);
+
+    void put(DiffResultCacheKey aKey, DiffResult aResult);
+}
@@ -0,0 +1,273 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.cache;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.SerializationException;
+import org.apache.commons.lang3.SerializationUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
+import de.tudarmstadt.ukp.clarin.webanno.api.RepositoryProperties;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.BeforeDocumentRemovedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.BeforeProjectRemovedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.DiffResult;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.LinkCompareBehavior;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.api.DiffAdapter;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.relation.RelationDiffAdapter;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+/**
+ * Keeps serialized diff results in memory and optionally in the {@code diff-cache} folder of the
+ * repository. On disk, there is at most one file per document and diff scope (users, adapters,
+ * range). It is overwritten when the result is calculated again for changed CASes.
+ */
+@Component(DiffResultCache.SERVICE_NAME)
+public class DiffResultCacheImpl
+    implements DiffResultCache
+{
+    public static final String DIFF_CACHE_FOLDER = "diff-cache";
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final CasStorageService casStorageService;
+    private final RepositoryProperties repositoryProperties;
+    private final DiffResultCacheProperties properties;
+    private final Cache<DiffResultCacheKey, byte[]> memoryCache;
+
+    @Autowired
+    public DiffResultCacheImpl(CasStorageService aCasStorageService,
+            RepositoryProperties aRepositoryProperties, DiffResultCacheProperties aProperties)
+    {
+        casStorageService = aCasStorageService;
+        repositoryProperties = aRepositoryProperties;
+        properties = aProperties;
+        memoryCache = Caffeine.newBuilder() //
+                .maximumWeight(properties.getMaxSize() * 1024 * 1024)
+                .weigher((DiffResultCacheKey key, byte[] value) -> value.length) //
+                .build();
+    }
+
+    @Override
+    public DiffResultCacheKey createKey(SourceDocument aDocument, Collection<String> aUsers,
+            Iterable<? extends DiffAdapter> aAdapters, LinkCompareBehavior aLinkCompareBehavior,
+            int aBegin, int aEnd)
+        throws IOException
+    {
+        SortedMap<String, Long> timestamps = new TreeMap<>();
+        for (String user : aUsers) {
+            timestamps.put(user, casStorageService.getCasTimestamp(aDocument, user).orElse(-1l));
+        }
+
+        return new DiffResultCacheKey(aDocument.getProject().getId(), aDocument.getId(),
+                timestamps, getAdapterSignature(aAdapters), aLinkCompareBehavior, aBegin, aEnd);
+    }
+
+    @Override
+    public Optional<DiffResult> get(DiffResultCacheKey aKey)
+    {
+        if (!properties.isEnabled()) {
+            return Optional.empty();
+        }
+
+        byte[] data = memoryCache.getIfPresent(aKey);
+
+        if (data == null && properties.getDisk().isEnabled()) {
+            data = readFromDisk(aKey);
+            if (data != null) {
+                memoryCache.put(aKey, data);
+            }
+        }
+
+        if (data == null) {
+            log.trace("Diff cache miss for {}", aKey);
+            return Optional.empty();
+        }
+
+        try {
+            log.trace("Diff cache hit for {}", aKey);
+            return Optional.of(SerializationUtils.deserialize(data));
+        }
+        catch (SerializationException e) {
+            log.warn("Unable to restore cached diff result for {}", aKey, e);
+            memoryCache.invalidate(aKey);
+            return Optional.empty();
+        }
+    }
+
+    @Override
+    public void put(DiffResultCacheKey aKey, DiffResult aResult)
+    {
+        if (!properties.isEnabled()) {
+            return;
+        }
+
+        byte[] data = SerializationUtils.serialize(aResult);
+        memoryCache.put(aKey, data);
+
+        if (properties.getDisk().isEnabled()) {
+            writeToDisk(aKey, data);
+        }
+    }
+
+    @EventListener
+    public void onBeforeDocumentRemoved(BeforeDocumentRemovedEvent aEvent)
+    {
+        SourceDocument document = aEvent.getDocument();
+        long documentId = document.getId();
+        memoryCache.asMap().keySet().removeIf(key -> key.getDocumentId() == documentId);
+        deleteCacheFolder(new File(getCacheFolder(document.getProject().getId()),
+                String.valueOf(documentId)));
+    }
+
+    @EventListener
+    public void onBeforeProjectRemoved(BeforeProjectRemovedEvent aEvent)
+    {
+        long projectId = aEvent.getProject().getId();
+        memoryCache.asMap().keySet().removeIf(key -> key.getProjectId() == projectId);
+        deleteCacheFolder(getCacheFolder(projectId));
+    }
+
+    private void deleteCacheFolder(File aFolder)
+    {
+        if (!aFolder.exists()) {
+            return;
+        }
+
+        try {
+            FileUtils.deleteDirectory(aFolder);
+        }
+        catch (IOException e) {
+            log.warn("Unable to delete cached diff results in [{}]", aFolder, e);
+        }
+    }
+
+    private byte[] readFromDisk(DiffResultCacheKey aKey)
+    {
+        File file = getCacheFile(aKey);
+        if (!file.exists()) {
+            return null;
+        }
+
+        try (InputStream is = Files.newInputStream(file.toPath());
+                ObjectInputStream ois = new ObjectInputStream(is)) {
+            // The file may contain the result for an older version of the CASes
+            if (!aKey.equals(ois.readObject())) {
+                return null;
+            }
+
+            return (byte[]) ois.readObject();
+        }
+        catch (IOException | ClassNotFoundException | ClassCastException e) {
+            log.warn("Unable to read cached diff result from [{}]", file, e);
+            return null;
+        }
+    }
+
+    private void writeToDisk(DiffResultCacheKey aKey, byte[] aData)
+    {
+        File file = getCacheFile(aKey);
+        File tempFile = new File(file.getPath() + ".tmp");
+        try {
+            Files.createDirectories(file.getParentFile().toPath());
+            try (OutputStream os = Files.newOutputStream(tempFile.toPath());
+                    ObjectOutputStream oos = new ObjectOutputStream(os)) {
+                oos.writeObject(aKey);
+                oos.writeObject(aData);
+            }
+            Files.move(tempFile.toPath(), file.toPath(), REPLACE_EXISTING, ATOMIC_MOVE);
+        }
+        catch (IOException e) {
+            log.warn("Unable to write cached diff result to [{}]", file, e);
+            tempFile.delete();
+        }
+    }
+
+    private File getCacheFile(DiffResultCacheKey aKey)
+    {
+        return new File(getCacheFolder(aKey.getProjectId()),
+                aKey.getDocumentId() + "/" + sha1(aKey.getScope()) + ".ser");
+    }
+
+    private File getCacheFolder(long aProjectId)
+    {
+        return new File(repositoryProperties.getPath(), DIFF_CACHE_FOLDER + "/" + aProjectId);
+    }
+
+    static String getAdapterSignature(Iterable<? extends DiffAdapter> aAdapters)
+    {
+        List<String> signature = new ArrayList<>();
+        for (DiffAdapter adapter : aAdapters) {
+            List<String> features = new ArrayList<>();
+            for (String feature : adapter.getLabelFeatures()) {
+                features.add(adapter.getLinkFeature(feature) != null
+                        ? feature + "=" + adapter.getLinkFeature(feature)
+                        : feature);
+            }
+            features.sort(null);
+            // The source and target features determine the positions of relations
+            if (adapter instanceof RelationDiffAdapter) {
+                RelationDiffAdapter relationAdapter = (RelationDiffAdapter) adapter;
+                features.add(0, "source=" + relationAdapter.getSourceFeature());
+                features.add(1, "target=" + relationAdapter.getTargetFeature());
+            }
+            signature.add(adapter.getClass().getSimpleName() + ":" + adapter.getType()
+                    + features);
+        }
+        return signature.toString();
+    }
+
+    private static String sha1(String aValue)
+    {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            return String.format("%040x", new BigInteger(1, digest.digest(aValue.getBytes(UTF_8))));
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
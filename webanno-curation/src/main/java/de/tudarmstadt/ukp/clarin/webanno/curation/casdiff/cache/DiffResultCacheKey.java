@@ -0,0 +1,141 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.cache;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.Objects;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.LinkCompareBehavior;
+
+/**
+ * Identifies the inputs of a diff: the document, the users and the timestamps of their CASes, the
+ * diff adapter configuration and the range of the diff. If any of these change, the key changes.
+ */
+public class DiffResultCacheKey
+    implements Serializable
+{
+    private static final long serialVersionUID = 7383338616212599426L;
+
+    private final long projectId;
+    private final long documentId;
+    private final SortedMap<String, Long> casTimestamps;
+    private final String adapterSignature;
+    private final LinkCompareBehavior linkCompareBehavior;
+    private final int begin;
+    private final int end;
+
+    public DiffResultCacheKey(long aProjectId, long aDocumentId,
+            SortedMap<String, Long> aCasTimestamps, String aAdapterSignature,
+            LinkCompareBehavior aLinkCompareBehavior, int aBegin, int aEnd)
+    {
+        projectId = aProjectId;
+        documentId = aDocumentId;
+        casTimestamps = Collections.unmodifiableSortedMap(new TreeMap<>(aCasTimestamps));
+        adapterSignature = aAdapterSignature;
+        linkCompareBehavior = aLinkCompareBehavior;
+        begin = aBegin;
+        end = aEnd;
+    }
+
+    public long getProjectId()
+    {
+        return projectId;
+    }
+
+    public long getDocumentId()
+    {
+        return documentId;
+    }
+
+    /**
+     * @return the timestamps of the CASes by user. A timestamp of {@code -1} indicates that the
+     *         user has no CAS.
+     */
+    public SortedMap<String, Long> getCasTimestamps()
+    {
+        return casTimestamps;
+    }
+
+    public String getAdapterSignature()
+    {
+        return adapterSignature;
+    }
+
+    public LinkCompareBehavior getLinkCompareBehavior()
+    {
+        return linkCompareBehavior;
+    }
+
+    public int getBegin()
+    {
+        return begin;
+    }
+
+    public int getEnd()
+    {
+        return end;
+    }
+
+    /**
+     * @return a string identifying all inputs of the diff except for the CAS timestamps. Keys
+     *         which only differ in their timestamps describe different versions of the same diff.
+     */
+    public String getScope()
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append(projectId).append('/').append(documentId);
+        sb.append('/').append(casTimestamps.keySet());
+        sb.append('/').append(adapterSignature);
+        sb.append('/').append(linkCompareBehavior);
+        sb.append('/').append(begin).append('-').append(end);
+        return sb.toString();
+    }
+
+    @Override
+    public boolean equals(Object aOther)
+    {
+        if (this == aOther) {
+            return true;
+        }
+        if (!(aOther instanceof DiffResultCacheKey)) {
+            return false;
+        }
+        DiffResultCacheKey castOther = (DiffResultCacheKey) aOther;
+        return projectId == castOther.projectId && documentId == castOther.documentId
+                && begin == castOther.begin && end == castOther.end
+                && casTimestamps.equals(castOther.casTimestamps)
+                && adapterSignature.equals(castOther.adapterSignature)
+                && linkCompareBehavior == castOther.linkCompareBehavior;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Objects.hash(projectId, documentId, casTimestamps, adapterSignature,
+                linkCompareBehavior, begin, end);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "[" + getScope() + "@" + casTimestamps.values() + "]";
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.internal;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Assigns dense numeric IDs to strings such as CAS group IDs or feature names. The IDs are
+ * assigned in the order in which the strings are first interned. Interning is thread-safe, so a
+ * table can be shared by the tasks of a parallel diff.
+ */
+public class IdTable
+    implements Serializable
+{
+    private static final long serialVersionUID = -4311986423153396385L;
+
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private volatile String[] names = new String[0];
+
+    /**
+     * @return the ID of the given string. If the string has not been seen before, a new ID is
+     *         assigned.
+     */
+    public int intern(String aName)
+    {
+        Integer id = ids.get(aName);
+        if (id != null) {
+            return id;
+        }
+
+        synchronized (this) {
+            id = ids.get(aName);
+            if (id != null) {
+                return id;
+            }
+
+            String[] newNames = Arrays.copyOf(names, names.length + 1);
+            newNames[names.length] = aName;
+            // Publish the name before the ID so that any thread seeing the ID can resolve it
+            names = newNames;
+            ids.put(aName, names.length - 1);
+            return names.length - 1;
+        }
+    }
+
+    /**
+     * @return the ID of the given string or {@code -1} if it has not been interned.
+     */
+    public int getId(String aName)
+    {
+        if (aName == null) {
+            return -1;
+        }
+
+        Integer id = ids.get(aName);
+        return id != null ? id : -1;
+    }
+
+    public String getName(int aId)
+    {
+        return names[aId];
+    }
+
+    public int size()
+    {
+        return names.length;
+    }
+}
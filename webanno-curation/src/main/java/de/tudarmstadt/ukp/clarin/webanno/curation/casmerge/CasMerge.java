@@ -39,8 +39,6 @@ import static java.util.stream.Collectors.toMap;
 import static org.apache.uima.cas.impl.Serialization.deserializeCASComplete;
 import static org.apache.uima.cas.impl.Serialization.serializeCASComplete;
 import static org.apache.uima.fit.util.CasUtil.getType;
-import static org.apache.uima.fit.util.CasUtil.selectAt;
-import static org.apache.uima.fit.util.CasUtil.selectCovered;
 import static org.apache.uima.fit.util.FSUtil.getFeature;
 
 import java.util.ArrayList;
@@ -113,6 +111,9 @@ public class CasMerge
     private Map<AnnotationLayer, List<AnnotationFeature>> featureCache = new HashMap<>();
     private LoadingCache<AnnotationLayer, TypeAdapter> adapterCache;
 
+    // Only set while re-merging a CAS
+    private TargetCasIndex targetIndex;
+
     public CasMerge(AnnotationSchemaService aSchemaService)
     {
         this(aSchemaService, null);
@@ -189,9 +190,23 @@ public class CasMerge
      *            the {@link DiffResult}
      * @param aCases
      *            a map of {@code CAS}s for each users and the random merge
+     * @return a summary of the merge operations.
      */
-    public void reMergeCas(DiffResult aDiff, SourceDocument aTargetDocument, String aTargetUsername,
-            CAS aTargetCas, Map<String, CAS> aCases)
+    public CasMergeResult reMergeCas(DiffResult aDiff, SourceDocument aTargetDocument,
+            String aTargetUsername, CAS aTargetCas, Map<String, CAS> aCases)
+        throws AnnotationException, UIMAException
+    {
+        try {
+            return doReMergeCas(aDiff, aTargetDocument, aTargetUsername, aTargetCas, aCases);
+        }
+        finally {
+            // Do not keep the target CAS index around if the merge fails half-way
+            targetIndex = null;
+        }
+    }
+
+    private CasMergeResult doReMergeCas(DiffResult aDiff, SourceDocument aTargetDocument,
+            String aTargetUsername, CAS aTargetCas, Map<String, CAS> aCases)
         throws AnnotationException, UIMAException
     {
         silenceEvents = true;
@@ -205,9 +220,15 @@ public class CasMerge
 
         // If there is nothing to merge, bail out
         if (aCases.isEmpty()) {
-            return;
+            return new CasMergeResult(created, updated, messages);
         }
 
+        // All lookups of annotations in the target CAS go through this index while merging
+        targetIndex = new TargetCasIndex(aTargetCas);
+
+        Map<String, List<CAS>> casMap = new LinkedHashMap<>();
+        aCases.forEach((k, v) -> casMap.put(k, asList(v)));
+
         // Set up a cache for resolving type to layer to avoid hammering the DB as we process each
         // position
         Map<String, AnnotationLayer> type2layer = aDiff.getPositions().stream()
@@ -257,8 +278,6 @@ public class CasMerge
                 }
 
                 try {
-                    Map<String, List<CAS>> casMap = new LinkedHashMap<>();
-                    aCases.forEach((k, v) -> casMap.put(k, asList(v)));
                     AnnotationFS sourceFS = (AnnotationFS) cfgs.getConfigurations().get(0)
                             .getRepresentative(casMap);
                     CasMergeOperationResult result = mergeSpanAnnotation(aTargetDocument,
@@ -305,8 +324,6 @@ public class CasMerge
                 }
 
                 try {
-                    Map<String, List<CAS>> casMap = new LinkedHashMap<>();
-                    aCases.forEach((k, v) -> casMap.put(k, asList(v)));
                     AnnotationFS sourceFS = (AnnotationFS) cfgs.getConfigurations().get(0)
                             .getRepresentative(casMap);
                     AID sourceFsAid = cfgs.getConfigurations().get(0).getRepresentativeAID();
@@ -345,8 +362,6 @@ public class CasMerge
                 }
 
                 try {
-                    Map<String, List<CAS>> casMap = new LinkedHashMap<>();
-                    aCases.forEach((k, v) -> casMap.put(k, asList(v)));
                     AnnotationFS sourceFS = (AnnotationFS) cfgs.getConfigurations().get(0)
                             .getRepresentative(casMap);
                     CasMergeOperationResult result = mergeRelationAnnotation(aTargetDocument,
@@ -370,10 +385,14 @@ public class CasMerge
             }
         }
 
+        targetIndex = null;
+
         if (eventPublisher != null) {
             eventPublisher.publishEvent(
                     new BulkAnnotationEvent(this, aTargetDocument, aTargetUsername, null));
         }
+
+        return new CasMergeResult(created, updated, messages);
     }
 
     private static void clearAnnotations(CAS aCas) throws UIMAException
@@ -408,23 +427,53 @@ public class CasMerge
         }
     }
 
-    private static boolean existsEquivalentAt(CAS aCas, TypeAdapter aAdapter, AnnotationFS aFs)
+    /**
+     * @return the annotations of the given type which start and end at the given offsets in the
+     *         target CAS. While re-merging a CAS, these are looked up from the index of the target
+     *         CAS instead of scanning the CAS.
+     */
+    private List<AnnotationFS> selectAt(CAS aTargetCas, Type aType, int aBegin, int aEnd)
+    {
+        if (targetIndex != null && targetIndex.isIndexing(aTargetCas)) {
+            return targetIndex.selectAt(aType, aBegin, aEnd);
+        }
+
+        return CasUtil.selectAt(aTargetCas, aType, aBegin, aEnd);
+    }
+
+    private void indexAdded(CAS aTargetCas, AnnotationFS aFs)
+    {
+        if (targetIndex != null && targetIndex.isIndexing(aTargetCas)) {
+            targetIndex.add(aFs);
+        }
+    }
+
+    private void indexRemoved(CAS aTargetCas, AnnotationFS aFs)
+    {
+        if (targetIndex != null && targetIndex.isIndexing(aTargetCas)) {
+            targetIndex.remove(aFs);
+        }
+    }
+
+    private boolean existsEquivalentAt(CAS aCas, TypeAdapter aAdapter, AnnotationFS aFs)
     {
-        return selectAt(aCas, aFs.getType(), aFs.getBegin(), aFs.getEnd()).stream() //
+        Type targetType = CasUtil.getType(aCas, aFs.getType().getName());
+        return selectAt(aCas, targetType, aFs.getBegin(), aFs.getEnd()).stream() //
                 .filter(cand -> aAdapter.equivalents(aFs, cand,
                         (_fs, _f) -> !shouldIgnoreFeatureOnMerge(_fs, _f))) //
                 .findAny().isPresent();
     }
 
-    private static List<AnnotationFS> selectCandidateRelationsAt(CAS aTargetCas,
+    private List<AnnotationFS> selectCandidateRelationsAt(CAS aTargetCas,
             AnnotationFS aSourceFs, AnnotationFS aSourceOriginFs, AnnotationFS aSourceTargetFs)
     {
         Type type = aSourceFs.getType();
         Type targetType = CasUtil.getType(aTargetCas, aSourceFs.getType().getName());
         Feature sourceFeat = type.getFeatureByBaseName(FEAT_REL_SOURCE);
         Feature targetFeat = type.getFeatureByBaseName(FEAT_REL_TARGET);
-        return selectCovered(aTargetCas, targetType, aSourceFs.getBegin(), aSourceFs.getEnd())
-                .stream()
+        // Relations receive the offsets of their target annotation
+        return selectAt(aTargetCas, targetType, aSourceTargetFs.getBegin(),
+                aSourceTargetFs.getEnd()).stream()
                 .filter(fs -> fs.getFeatureValue(sourceFeat).equals(aSourceOriginFs)
                         && fs.getFeatureValue(targetFeat).equals(aSourceTargetFs))
                 .collect(toList());
@@ -465,11 +514,12 @@ public class CasMerge
         }
     }
 
-    private static List<AnnotationFS> getCandidateAnnotations(CAS aTargetCas, TypeAdapter aAdapter,
+    private List<AnnotationFS> getCandidateAnnotations(CAS aTargetCas, TypeAdapter aAdapter,
             AnnotationFS aSource)
     {
+        // Equivalent annotations always have the same offsets
         Type targetType = CasUtil.getType(aTargetCas, aSource.getType().getName());
-        return selectCovered(aTargetCas, targetType, aSource.getBegin(), aSource.getEnd()).stream()
+        return selectAt(aTargetCas, targetType, aSource.getBegin(), aSource.getEnd()).stream()
                 .filter(fs -> aAdapter.equivalents(fs, aSource,
                         (_fs, _f) -> !shouldIgnoreFeatureOnMerge(_fs, _f)))
                 .collect(toList());
@@ -499,6 +549,7 @@ public class CasMerge
             // annotation if necessary
             AnnotationFS mergedSpan = adapter.add(aDocument, aUsername, aTargetCas,
                     aSourceFs.getBegin(), aSourceFs.getEnd());
+            indexAdded(aTargetCas, mergedSpan);
 
             int mergedSpanAddr = -1;
             try {
@@ -509,6 +560,7 @@ public class CasMerge
                 // If there was an error while setting the features, then we skip the entire
                 // annotation
                 adapter.delete(aDocument, aUsername, aTargetCas, new VID(mergedSpan));
+                indexRemoved(aTargetCas, mergedSpan);
                 throw e;
             }
             return new CasMergeOperationResult(CasMergeOperationResult.ResultState.CREATED,
@@ -587,6 +639,7 @@ public class CasMerge
         if (existingAnnos.isEmpty() || aAllowStacking) {
             AnnotationFS mergedRelation = relationAdapter.add(aDocument, aUsername, originFs,
                     targetFs, aTargetCas);
+            indexAdded(aTargetCas, mergedRelation);
             try {
                 copyFeatures(aDocument, aUsername, relationAdapter, mergedRelation, aSourceFs);
             }
@@ -594,6 +647,7 @@ public class CasMerge
                 // If there was an error while setting the features, then we skip the entire
                 // annotation
                 relationAdapter.delete(aDocument, aUsername, aTargetCas, new VID(mergedRelation));
+                indexRemoved(aTargetCas, mergedRelation);
             }
             return new CasMergeOperationResult(CasMergeOperationResult.ResultState.CREATED,
                     getAddr(mergedRelation));
@@ -668,11 +722,11 @@ public class CasMerge
                 getAddr(mergeFs));
     }
 
-    private static List<AnnotationFS> checkAndGetTargets(CAS aCas, AnnotationFS aOldTarget)
+    private List<AnnotationFS> checkAndGetTargets(CAS aCas, AnnotationFS aOldTarget)
         throws UnfulfilledPrerequisitesException
     {
         Type casType = CasUtil.getType(aCas, aOldTarget.getType().getName());
-        List<AnnotationFS> targets = selectCovered(aCas, casType, aOldTarget.getBegin(),
+        List<AnnotationFS> targets = selectAt(aCas, casType, aOldTarget.getBegin(),
                 aOldTarget.getEnd())
                         .stream()
                         .filter(fs -> isEquivalentSpanAnnotation(fs, aOldTarget,
@@ -0,0 +1,72 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.curation.casmerge;
+
+import static java.util.Collections.unmodifiableSet;
+
+import java.io.Serializable;
+import java.util.Set;
+
+import de.tudarmstadt.ukp.clarin.webanno.support.logging.LogMessage;
+
+/**
+ * Summary of merging all agreeing annotations of a document into a target CAS using
+ * {@link CasMerge#reMergeCas}.
+ */
+public class CasMergeResult
+    implements Serializable
+{
+    private static final long serialVersionUID = -3391716093040442418L;
+
+    private final int created;
+    private final int updated;
+    private final Set<LogMessage> messages;
+
+    public CasMergeResult(int aCreated, int aUpdated, Set<LogMessage> aMessages)
+    {
+        created = aCreated;
+        updated = aUpdated;
+        messages = unmodifiableSet(aMessages);
+    }
+
+    /**
+     * @return number of merge operations which resulted in a new annotation being created.
+     * @see CasMergeOperationResult.ResultState#CREATED
+     */
+    public int getCreated()
+    {
+        return created;
+    }
+
+    /**
+     * @return number of merge operations which updated an existing annotation.
+     * @see CasMergeOperationResult.ResultState#UPDATED
+     */
+    public int getUpdated()
+    {
+        return updated;
+    }
+
+    /**
+     * @return messages about annotations which could not be merged.
+     */
+    public Set<LogMessage> getMessages()
+    {
+        return messages;
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.curation.casmerge;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.TypeSystem;
+import org.apache.uima.cas.text.AnnotationFS;
+import org.apache.uima.fit.util.CasUtil;
+
+/**
+ * Index of the annotations in the target CAS of a merge by type and offsets.
+ * <p>
+ * While merging, {@link CasMerge} looks up the annotations at the offsets of every merged position
+ * in the target CAS. For large documents, scanning the CAS index for each of these lookups
+ * dominates the time needed for the merge. Instead, the annotations of a type are indexed once
+ * when the type is first looked up. The index is then kept up to date as annotations are added to
+ * or removed from the target CAS during the merge.
+ */
+class TargetCasIndex
+{
+    private final CAS cas;
+    private final Map<Type, Map<Long, List<AnnotationFS>>> index = new HashMap<>();
+
+    TargetCasIndex(CAS aCas)
+    {
+        cas = aCas;
+    }
+
+    boolean isIndexing(CAS aCas)
+    {
+        return cas == aCas;
+    }
+
+    /**
+     * @return the annotations of the given type or any of its subtypes which start and end at the
+     *         given offsets in the order in which they appear in the CAS index.
+     */
+    List<AnnotationFS> selectAt(Type aType, int aBegin, int aEnd)
+    {
+        List<AnnotationFS> annotations = getOffsetIndex(aType).get(key(aBegin, aEnd));
+
+        // Return a copy since the caller may add further annotations while using the result
+        return annotations != null ? new ArrayList<>(annotations) : new ArrayList<>();
+    }
+
+    /**
+     * Records an annotation which has been added to the CAS.
+     */
+    void add(AnnotationFS aAnnotation)
+    {
+        TypeSystem ts = cas.getTypeSystem();
+        for (Entry<Type, Map<Long, List<AnnotationFS>>> e : index.entrySet()) {
+            if (ts.subsumes(e.getKey(), aAnnotation.getType())) {
+                e.getValue()
+                        .computeIfAbsent(key(aAnnotation.getBegin(), aAnnotation.getEnd()),
+                                k -> new ArrayList<>())
+                        .add(aAnnotation);
+            }
+        }
+    }
+
+    /**
+     * Records an annotation which has been removed from the CAS.
+     */
+    void remove(AnnotationFS aAnnotation)
+    {
+        TypeSystem ts = cas.getTypeSystem();
+        for (Entry<Type, Map<Long, List<AnnotationFS>>> e : index.entrySet()) {
+            if (ts.subsumes(e.getKey(), aAnnotation.getType())) {
+                List<AnnotationFS> annotations = e.getValue()
+                        .get(key(aAnnotation.getBegin(), aAnnotation.getEnd()));
+                if (annotations != null) {
+                    annotations.remove(aAnnotation);
+                }
+            }
+        }
+    }
+
+    private Map<Long, List<AnnotationFS>> getOffsetIndex(Type aType)
+    {
+        return index.computeIfAbsent(aType, type -> {
+            Map<Long, List<AnnotationFS>> offsetIndex = new HashMap<>();
+            for (AnnotationFS fs : CasUtil.select(cas, type)) {
+                offsetIndex.computeIfAbsent(key(fs.getBegin(), fs.getEnd()),
+                        k -> new ArrayList<>()).add(fs);
+            }
+            return offsetIndex;
+        });
+    }
+
+    private static long key(int aBegin, int aEnd)
+    {
+        return ((long) aBegin << 32) | (aEnd & 0xFFFFFFFFL);
+    }
+}
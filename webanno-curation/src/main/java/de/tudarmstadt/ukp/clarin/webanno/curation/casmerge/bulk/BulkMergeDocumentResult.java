@@ -0,0 +1,104 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.curation.casmerge.bulk;
+
+import java.io.Serializable;
+
+import de.tudarmstadt.ukp.clarin.webanno.curation.casmerge.CasMergeResult;
+
+/**
+ * Outcome of merging a single document as part of a bulk merge.
+ */
+public class BulkMergeDocumentResult
+    implements Serializable
+{
+    private static final long serialVersionUID = -7012896530286441950L;
+
+    public static enum ResultState
+    {
+        /**
+         * The curation CAS was created from the annotator CASes.
+         */
+        MERGED,
+
+        /**
+         * The document was not touched, e.g. because its curation was already finished.
+         */
+        SKIPPED,
+
+        /**
+         * An error occurred while merging the document.
+         */
+        FAILED;
+    }
+
+    private final String documentName;
+    private final ResultState state;
+    private final CasMergeResult mergeResult;
+    private final String message;
+
+    private BulkMergeDocumentResult(String aDocumentName, ResultState aState,
+            CasMergeResult aMergeResult, String aMessage)
+    {
+        documentName = aDocumentName;
+        state = aState;
+        mergeResult = aMergeResult;
+        message = aMessage;
+    }
+
+    public static BulkMergeDocumentResult merged(String aDocumentName, CasMergeResult aResult)
+    {
+        return new BulkMergeDocumentResult(aDocumentName, ResultState.MERGED, aResult, null);
+    }
+
+    public static BulkMergeDocumentResult skipped(String aDocumentName, String aReason)
+    {
+        return new BulkMergeDocumentResult(aDocumentName, ResultState.SKIPPED, null, aReason);
+    }
+
+    public static BulkMergeDocumentResult failed(String aDocumentName, String aError)
+    {
+        return new BulkMergeDocumentResult(aDocumentName, ResultState.FAILED, null, aError);
+    }
+
+    public String getDocumentName()
+    {
+        return documentName;
+    }
+
+    public ResultState getState()
+    {
+        return state;
+    }
+
+    /**
+     * @return the summary of the merge operations or {@code null} if the document was not merged.
+     */
+    public CasMergeResult getMergeResult()
+    {
+        return mergeResult;
+    }
+
+    /**
+     * @return the reason why the document was skipped or the error if merging it failed.
+     */
+    public String getMessage()
+    {
+        return message;
+    }
+}
@@ -15,30 +15,28 @@
  * See the License for the specific language governing permissions and
  * limitations under the License.
  */
-package de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage;
+package de.tudarmstadt.ukp.clarin.webanno.curation.casmerge.bulk;
 
-import org.apache.commons.pool2.BaseKeyedPooledObjectFactory;
-import org.apache.commons.pool2.PooledObject;
-import org.apache.commons.pool2.impl.DefaultPooledObject;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
 
-public class PooledCasHolderFactory
-    extends BaseKeyedPooledObjectFactory<CasKey, CasHolder>
+@Component
+@ConfigurationProperties("curation.bulk-merge")
+public class BulkMergeProperties
 {
-    @Override
-    public CasHolder create(CasKey aKey) throws Exception
-    {
-        return new CasHolder(aKey);
-    }
+    private int threads = 0;
 
-    @Override
-    public PooledObject<CasHolder> wrap(CasHolder aCas)
+    /**
+     * @return number of documents which are merged in parallel by all bulk merge tasks together.
+     *         If this is {@code 0}, the number of available processors is used.
+     */
+    public int getThreads()
     {
-        return new DefaultPooledObject<CasHolder>(aCas);
+        return threads;
     }
 
-    @Override
-    public boolean validateObject(CasKey aKey, PooledObject<CasHolder> aP)
+    public void setThreads(int aThreads)
     {
-        return !aP.getObject().isTypeSystemOutdated() && !aP.getObject().isDeleted();
+        threads = aThreads;
     }
 }
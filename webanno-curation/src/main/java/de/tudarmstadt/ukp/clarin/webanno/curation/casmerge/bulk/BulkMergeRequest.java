@@ -0,0 +1,65 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.curation.casmerge.bulk;
+
+import java.io.Serializable;
+
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+
+public class BulkMergeRequest
+    implements Serializable
+{
+    private static final long serialVersionUID = 6226463498574745536L;
+
+    private final Project project;
+    private final boolean mergeIncompleteAnnotations;
+    private final boolean overwriteExisting;
+
+    /**
+     * @param aProject
+     *            the project whose documents are merged.
+     * @param aMergeIncompleteAnnotations
+     *            whether annotations on which not all annotators agree are merged if those who did
+     *            annotate agree.
+     * @param aOverwriteExisting
+     *            whether documents for which the curation has already been started are merged
+     *            again. Documents for which the curation has been finished are never merged.
+     */
+    public BulkMergeRequest(Project aProject, boolean aMergeIncompleteAnnotations,
+            boolean aOverwriteExisting)
+    {
+        project = aProject;
+        mergeIncompleteAnnotations = aMergeIncompleteAnnotations;
+        overwriteExisting = aOverwriteExisting;
+    }
+
+    public Project getProject()
+    {
+        return project;
+    }
+
+    public boolean isMergeIncompleteAnnotations()
+    {
+        return mergeIncompleteAnnotations;
+    }
+
+    public boolean isOverwriteExisting()
+    {
+        return overwriteExisting;
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.curation.casmerge.bulk;
+
+import static de.tudarmstadt.ukp.clarin.webanno.curation.casmerge.bulk.BulkMergeTaskState.NOT_STARTED;
+import static de.tudarmstadt.ukp.clarin.webanno.curation.casmerge.bulk.BulkMergeTaskState.RUNNING;
+import static java.util.Arrays.asList;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.AutowireCapableBeanFactory;
+import org.springframework.context.ApplicationContext;
+import org.springframework.stereotype.Component;
+import org.springframework.util.ConcurrentReferenceHashMap;
+
+@Component(BulkMergeService.SERVICE_NAME)
+public class BulkMergeServiceImpl
+    implements BulkMergeService, DisposableBean
+{
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final Map<BulkMergeTaskHandle, TaskInfo> tasks = new ConcurrentReferenceHashMap<>();
+    private final ApplicationContext applicationContext;
+    private final ExecutorService taskExecutorService;
+    private final ExecutorService workerExecutorService;
+    private final ScheduledExecutorService cleaningScheduler;
+
+    @Autowired
+    public BulkMergeServiceImpl(ApplicationContext aApplicationContext,
+            BulkMergeProperties aProperties)
+    {
+        applicationContext = aApplicationContext;
+
+        int threads = aProperties.getThreads() > 0 ? aProperties.getThreads()
+                : Runtime.getRuntime().availableProcessors();
+
+        // The tasks themselves mostly wait for their documents. The number of documents merged in
+        // parallel is bounded by the worker pool which is shared by all tasks.
+        taskExecutorService = Executors.newFixedThreadPool(4);
+        workerExecutorService = Executors.newFixedThreadPool(threads);
+
+        cleaningScheduler = Executors.newScheduledThreadPool(1);
+        cleaningScheduler.scheduleAtFixedRate(this::cleanUp, 15, 15, TimeUnit.MINUTES);
+    }
+
+    @Override
+    public void destroy() throws Exception
+    {
+        taskExecutorService.shutdownNow();
+        workerExecutorService.shutdownNow();
+        cleaningScheduler.shutdownNow();
+    }
+
+    @Override
+    public BulkMergeTaskHandle startBulkMergeTask(BulkMergeRequest aRequest, String aUsername)
+    {
+        BulkMergeTaskHandle handle = new BulkMergeTaskHandle();
+        BulkMergeTaskMonitor monitor = new BulkMergeTaskMonitor();
+        BulkMergeTask task = new BulkMergeTask(handle, monitor, aRequest, aUsername,
+                workerExecutorService);
+
+        // This autowires the task fields manually.
+        AutowireCapableBeanFactory factory = applicationContext.getAutowireCapableBeanFactory();
+        factory.autowireBean(task);
+        factory.initializeBean(task, "transientTask");
+
+        tasks.put(handle, new TaskInfo(taskExecutorService.submit(task), task));
+
+        return handle;
+    }
+
+    @Override
+    public BulkMergeRequest getMergeRequest(BulkMergeTaskHandle aHandle)
+    {
+        TaskInfo task = tasks.get(aHandle);
+
+        if (task == null) {
+            return null;
+        }
+
+        return task.task.getRequest();
+    }
+
+    @Override
+    public BulkMergeTaskMonitor getTaskMonitor(BulkMergeTaskHandle aHandle)
+    {
+        TaskInfo task = tasks.get(aHandle);
+
+        if (task == null) {
+            return null;
+        }
+
+        return task.task.getMonitor();
+    }
+
+    @Override
+    public boolean cancelTask(BulkMergeTaskHandle aHandle)
+    {
+        TaskInfo task = tasks.get(aHandle);
+
+        if (task == null) {
+            return false;
+        }
+
+        task.future.cancel(true);
+
+        return true;
+    }
+
+    private void cleanUp()
+    {
+        for (Entry<BulkMergeTaskHandle, TaskInfo> e : tasks.entrySet()) {
+            BulkMergeTaskMonitor monitor = e.getValue().task.getMonitor();
+
+            // Do not clean up running tasks or tasks that have not started yet
+            if (asList(NOT_STARTED, RUNNING).contains(monitor.getState())) {
+                continue;
+            }
+
+            // Remove task info from the tasks map one hour after completion/failure/etc.
+            long age = System.currentTimeMillis() - monitor.getEndTime();
+            if (age > Duration.ofHours(1).toMillis()) {
+                log.info("Cleaning up stale bulk merge task for project [{}]:",
+                        e.getValue().task.getRequest().getProject().getName());
+                tasks.remove(e.getKey());
+            }
+        }
+    }
+
+    private static class TaskInfo
+    {
+        private final Future<?> future;
+        private final BulkMergeTask task;
+
+        public TaskInfo(Future<?> aFuture, BulkMergeTask aTask)
+        {
+            future = aFuture;
+            task = aTask;
+        }
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.curation.casmerge.bulk;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.CasUpgradeMode.AUTO_CAS_UPGRADE;
+import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.CURATION_USER;
+import static de.tudarmstadt.ukp.clarin.webanno.api.casstorage.CasAccessMode.SHARED_READ_ONLY_ACCESS;
+import static de.tudarmstadt.ukp.clarin.webanno.api.casstorage.CasAccessMode.UNMANAGED_ACCESS;
+import static de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.doDiffSingle;
+import static de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.getDiffAdapters;
+import static de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.LinkCompareBehavior.LINK_ROLE_AS_LABEL;
+import static de.tudarmstadt.ukp.clarin.webanno.curation.casmerge.bulk.BulkMergeTaskState.CANCELLED;
+import static de.tudarmstadt.ukp.clarin.webanno.curation.casmerge.bulk.BulkMergeTaskState.COMPLETED;
+import static de.tudarmstadt.ukp.clarin.webanno.curation.casmerge.bulk.BulkMergeTaskState.FAILED;
+import static de.tudarmstadt.ukp.clarin.webanno.curation.casmerge.bulk.BulkMergeTaskState.RUNNING;
+import static de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState.FINISHED;
+import static de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentState.CURATION_FINISHED;
+import static de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentState.CURATION_IN_PROGRESS;
+import static de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentStateTransition.ANNOTATION_IN_PROGRESS_TO_CURATION_IN_PROGRESS;
+import static de.tudarmstadt.ukp.clarin.webanno.support.logging.Logging.KEY_PROJECT_ID;
+import static de.tudarmstadt.ukp.clarin.webanno.support.logging.Logging.KEY_REPOSITORY_PATH;
+import static de.tudarmstadt.ukp.clarin.webanno.support.logging.Logging.KEY_USERNAME;
+import static java.util.stream.Collectors.toList;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.apache.uima.cas.CAS;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
+import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.casstorage.CasStorageSession;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.DiffResult;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.api.DiffAdapter;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casmerge.CasMerge;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casmerge.CasMergeResult;
+import de.tudarmstadt.ukp.clarin.webanno.curation.storage.CurationDocumentService;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+import de.tudarmstadt.ukp.clarin.webanno.support.logging.LogMessage;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
+
+/**
+ * Merges all curatable documents of a project. The documents are diffed and merged in parallel on
+ * the worker executor shared by all bulk merge tasks while this task collects the results in the
+ * order of the documents. Cancelling the task also cancels the documents which are still pending.
+ */
+public class BulkMergeTask
+    implements Runnable
+{
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    // The task needs to hold on to the handle because it is used in a weak map in
+    // BulkMergeService to allow access to tasks.
+    private final BulkMergeTaskHandle handle;
+    private final String username;
+    private final BulkMergeTaskMonitor monitor;
+    private final BulkMergeRequest request;
+    private final ExecutorService workers;
+
+    private @Autowired DocumentService documentService;
+    private @Autowired CurationDocumentService curationDocumentService;
+    private @Autowired AnnotationSchemaService schemaService;
+    private @Autowired ApplicationEventPublisher eventPublisher;
+
+    public BulkMergeTask(BulkMergeTaskHandle aHandle, BulkMergeTaskMonitor aMonitor,
+            BulkMergeRequest aRequest, String aUsername, ExecutorService aWorkers)
+    {
+        handle = aHandle;
+        request = aRequest;
+        username = aUsername;
+        monitor = aMonitor;
+        workers = aWorkers;
+
+        monitor.setCreateTime(System.currentTimeMillis());
+    }
+
+    @Override
+    public void run()
+    {
+        List<Future<BulkMergeDocumentResult>> pending = new ArrayList<>();
+        // We are in a new thread. Set up thread-specific MDC
+        Map<String, String> previousMdc = setupMdc();
+        try {
+            monitor.setState(RUNNING);
+
+            List<SourceDocument> documents = curationDocumentService
+                    .listCuratableSourceDocuments(request.getProject());
+            monitor.setDocumentCount(documents.size());
+
+            // Use the same layers the curation page uses by default
+            List<AnnotationLayer> layers = schemaService.listAnnotationLayer(request.getProject())
+                    .stream()
+                    .filter(l -> !Token.class.getName().equals(l.getName()))
+                    .filter(AnnotationLayer::isEnabled)
+                    .collect(toList());
+            List<DiffAdapter> adapters = getDiffAdapters(schemaService, layers);
+
+            for (SourceDocument document : documents) {
+                pending.add(workers.submit(() -> mergeDocument(document, adapters)));
+            }
+
+            for (int i = 0; i < pending.size(); i++) {
+                BulkMergeDocumentResult result;
+                try {
+                    result = pending.get(i).get();
+                }
+                catch (ExecutionException e) {
+                    result = BulkMergeDocumentResult.failed(documents.get(i).getName(),
+                            ExceptionUtils.getRootCauseMessage(e));
+                }
+                monitor.addResult(result);
+            }
+
+            monitor.setStateAndProgress(COMPLETED, 100);
+        }
+        catch (InterruptedException e) {
+            pending.forEach(future -> future.cancel(true));
+            monitor.setStateAndProgress(CANCELLED, 100);
+        }
+        catch (Throwable e) {
+            pending.forEach(future -> future.cancel(true));
+            // This marks the progression as complete and causes ProgressBar#onFinished
+            // to be called where we display the messages
+            monitor.setStateAndProgress(FAILED, 100);
+            monitor.addMessage(LogMessage.error(this, "Unexpected error during bulk merge: %s",
+                    ExceptionUtils.getRootCauseMessage(e)));
+            log.error("Unexpected error during bulk merge", e);
+        }
+        finally {
+            restoreMdc(previousMdc);
+        }
+    }
+
+    private BulkMergeDocumentResult mergeDocument(SourceDocument aDocument,
+            List<DiffAdapter> aAdapters)
+        throws Exception
+    {
+        // Each worker thread needs its own MDC. The worker threads are pooled, so the MDC must
+        // not outlive the merge of the document.
+        Map<String, String> previousMdc = setupMdc();
+        try {
+            return mergeDocumentInSession(aDocument, aAdapters);
+        }
+        finally {
+            restoreMdc(previousMdc);
+        }
+    }
+
+    private BulkMergeDocumentResult mergeDocumentInSession(SourceDocument aDocument,
+            List<DiffAdapter> aAdapters)
+        throws Exception
+    {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedException();
+        }
+
+        if (CURATION_FINISHED.equals(aDocument.getState())) {
+            return BulkMergeDocumentResult.skipped(aDocument.getName(),
+                    "Curation already finished");
+        }
+
+        if (!request.isOverwriteExisting()
+                && curationDocumentService.existsCurationCas(aDocument)) {
+            return BulkMergeDocumentResult.skipped(aDocument.getName(),
+                    "Curation already started");
+        }
+
+        List<AnnotationDocument> finishedAnnotationDocuments = documentService
+                .listAnnotationDocuments(aDocument).stream()
+                .filter(adoc -> FINISHED.equals(adoc.getState()))
+                .collect(toList());
+
+        if (finishedAnnotationDocuments.isEmpty()) {
+            return BulkMergeDocumentResult.skipped(aDocument.getName(),
+                    "No finished annotation documents");
+        }
+
+        try (CasStorageSession session = CasStorageSession.open()) {
+            Map<String, CAS> casses = new LinkedHashMap<>();
+            for (AnnotationDocument adoc : finishedAnnotationDocuments) {
+                casses.put(adoc.getUser(), documentService.readAnnotationCas(aDocument,
+                        adoc.getUser(), AUTO_CAS_UPGRADE, SHARED_READ_ONLY_ACCESS));
+            }
+
+            // We need a modifiable copy of some annotation document which we can use to
+            // initialize the curation CAS. This is an exceptional case where BYPASS is the
+            // correct choice
+            CAS mergeCas = documentService.readAnnotationCas(finishedAnnotationDocuments.get(0),
+                    UNMANAGED_ACCESS);
+
+            DiffResult diff = doDiffSingle(aAdapters, LINK_ROLE_AS_LABEL, casses, 0,
+                    mergeCas.getDocumentText().length()).toResult();
+
+            // The merge only publishes a single bulk event for the document
+            CasMerge casMerge = new CasMerge(schemaService, eventPublisher);
+            casMerge.setMergeIncompleteAnnotations(request.isMergeIncompleteAnnotations());
+            CasMergeResult result = casMerge.reMergeCas(diff, aDocument, CURATION_USER, mergeCas,
+                    casses);
+
+            curationDocumentService.writeCurationCas(mergeCas, aDocument, true);
+
+            if (!CURATION_IN_PROGRESS.equals(aDocument.getState())) {
+                documentService.transitionSourceDocumentState(aDocument,
+                        ANNOTATION_IN_PROGRESS_TO_CURATION_IN_PROGRESS);
+            }
+
+            return BulkMergeDocumentResult.merged(aDocument.getName(), result);
+        }
+        catch (Exception e) {
+            log.error("Unable to merge document [{}]({})", aDocument.getName(), aDocument.getId(),
+                    e);
+            return BulkMergeDocumentResult.failed(aDocument.getName(),
+                    ExceptionUtils.getRootCauseMessage(e));
+        }
+    }
+
+    /**
+     * @return the MDC of the current thread before it was set up.
+     */
+    private Map<String, String> setupMdc()
+    {
+        Map<String, String> previousMdc = MDC.getCopyOfContextMap();
+        MDC.put(KEY_USERNAME, username);
+        MDC.put(KEY_PROJECT_ID, String.valueOf(request.getProject().getId()));
+        MDC.put(KEY_REPOSITORY_PATH, documentService.getDir().toString());
+        return previousMdc;
+    }
+
+    private void restoreMdc(Map<String, String> aPreviousMdc)
+    {
+        if (aPreviousMdc != null) {
+            MDC.setContextMap(aPreviousMdc);
+        }
+        else {
+            MDC.clear();
+        }
+    }
+
+    public BulkMergeRequest getRequest()
+    {
+        return request;
+    }
+
+    public BulkMergeTaskMonitor getMonitor()
+    {
+        return monitor;
+    }
+
+    public BulkMergeTaskHandle getHandle()
+    {
+        return handle;
+    }
+}
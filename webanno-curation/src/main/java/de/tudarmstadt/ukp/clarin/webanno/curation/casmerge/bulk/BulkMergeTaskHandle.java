@@ -0,0 +1,63 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.curation.casmerge.bulk;
+
+import java.io.Serializable;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.RandomUtils;
+
+public class BulkMergeTaskHandle
+    implements Serializable
+{
+    private static final long serialVersionUID = 3496316541476213387L;
+
+    private static final AtomicLong NEXT_ID = new AtomicLong(1);
+    private static final long INSTANCE_ID = RandomUtils.nextLong();
+
+    // This is a random number initialized at boot time which is used whether a handle is from a
+    // previous instance run and no longer valid.
+    private final long instanceId;
+
+    // This is the id of the task within the instance.
+    private final long runId;
+
+    public BulkMergeTaskHandle()
+    {
+        runId = NEXT_ID.getAndIncrement();
+        instanceId = INSTANCE_ID;
+    }
+
+    @Override
+    public boolean equals(final Object other)
+    {
+        if (!(other instanceof BulkMergeTaskHandle)) {
+            return false;
+        }
+        BulkMergeTaskHandle castOther = (BulkMergeTaskHandle) other;
+        return Objects.equals(instanceId, castOther.instanceId)
+                && Objects.equals(runId, castOther.runId);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Objects.hash(instanceId, runId);
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.curation.casmerge.bulk;
+
+import static de.tudarmstadt.ukp.clarin.webanno.curation.casmerge.bulk.BulkMergeTaskState.CANCELLED;
+import static de.tudarmstadt.ukp.clarin.webanno.curation.casmerge.bulk.BulkMergeTaskState.COMPLETED;
+import static de.tudarmstadt.ukp.clarin.webanno.curation.casmerge.bulk.BulkMergeTaskState.FAILED;
+import static de.tudarmstadt.ukp.clarin.webanno.curation.casmerge.bulk.BulkMergeTaskState.NOT_STARTED;
+import static java.util.Arrays.asList;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import de.tudarmstadt.ukp.clarin.webanno.support.logging.LogMessage;
+
+public class BulkMergeTaskMonitor
+{
+    private final Queue<LogMessage> messages = new ConcurrentLinkedQueue<>();
+    private final List<BulkMergeDocumentResult> results = new ArrayList<>();
+
+    private long createTime;
+    private long startTime = -1;
+    private long endTime = -1;
+    private int progress = 0;
+    private int documentCount = 0;
+    private BulkMergeTaskState state = NOT_STARTED;
+
+    public synchronized BulkMergeTaskState getState()
+    {
+        return state;
+    }
+
+    public synchronized void setState(BulkMergeTaskState aState)
+    {
+        if (state == NOT_STARTED && aState != NOT_STARTED) {
+            startTime = System.currentTimeMillis();
+        }
+
+        state = aState;
+
+        if (asList(COMPLETED, CANCELLED, FAILED).contains(aState)) {
+            endTime = System.currentTimeMillis();
+        }
+    }
+
+    public synchronized long getCreateTime()
+    {
+        return createTime;
+    }
+
+    public synchronized void setCreateTime(long aCreateTime)
+    {
+        createTime = aCreateTime;
+    }
+
+    public synchronized long getStartTime()
+    {
+        return startTime;
+    }
+
+    public synchronized long getEndTime()
+    {
+        return endTime;
+    }
+
+    public synchronized int getProgress()
+    {
+        return progress;
+    }
+
+    public synchronized void setStateAndProgress(BulkMergeTaskState aState, int aProgress)
+    {
+        setState(aState);
+        setProgress(aProgress);
+    }
+
+    public synchronized void setProgress(int aProgress)
+    {
+        progress = aProgress;
+    }
+
+    public synchronized int getDocumentCount()
+    {
+        return documentCount;
+    }
+
+    public synchronized void setDocumentCount(int aDocumentCount)
+    {
+        documentCount = aDocumentCount;
+    }
+
+    /**
+     * Records the outcome for a document and updates the progress accordingly.
+     */
+    public synchronized void addResult(BulkMergeDocumentResult aResult)
+    {
+        results.add(aResult);
+
+        if (documentCount > 0) {
+            progress = (results.size() * 100) / documentCount;
+        }
+    }
+
+    /**
+     * @return the outcomes for the documents processed so far in the order of the documents.
+     */
+    public synchronized List<BulkMergeDocumentResult> getResults()
+    {
+        return new ArrayList<>(results);
+    }
+
+    public void addMessage(LogMessage aMessage)
+    {
+        if (!messages.contains(aMessage)) {
+            messages.add(aMessage);
+        }
+    }
+
+    public Queue<LogMessage> getMessages()
+    {
+        return messages;
+    }
+}
@@ -24,6 +24,8 @@ import static de.tudarmstadt.ukp.clarin.webanno.curation.CurationTestUtils.loadW
 import static de.tudarmstadt.ukp.clarin.webanno.curation.CurationTestUtils.makeLinkFS;
 import static de.tudarmstadt.ukp.clarin.webanno.curation.CurationTestUtils.makeLinkHostFS;
 import static de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.doDiff;
+import static de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.doDiffParallel;
+import static de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.doDiffSingle;
 import static de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.LinkCompareBehavior.LINK_ROLE_AS_LABEL;
 import static de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.LinkCompareBehavior.LINK_TARGET_AS_LABEL;
 import static de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.relation.RelationDiffAdapter.DEPENDENCY_DIFF_ADAPTER;
@@ -32,19 +34,26 @@ import static java.util.Arrays.asList;
 import static org.apache.uima.fit.factory.JCasFactory.createJCas;
 import static org.apache.uima.fit.util.JCasUtil.select;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
 
+import org.apache.commons.lang3.SerializationUtils;
 import org.apache.uima.cas.CAS;
 import org.apache.uima.cas.Type;
 import org.apache.uima.cas.text.AnnotationFS;
 import org.apache.uima.fit.factory.JCasFactory;
 import org.apache.uima.fit.factory.TypeSystemDescriptionFactory;
 import org.apache.uima.fit.testing.factory.TokenBuilder;
+import org.apache.uima.fit.util.CasUtil;
 import org.apache.uima.fit.util.FSUtil;
 import org.apache.uima.jcas.JCas;
 import org.apache.uima.resource.metadata.TypeSystemDescription;
@@ -54,6 +63,8 @@ import org.junit.Rule;
 import org.junit.Test;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.Configuration;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.ConfigurationSet;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.DiffResult;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.api.DiffAdapter;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.relation.RelationDiffAdapter;
@@ -274,6 +285,281 @@ public class CasDiffTest
         // assertEquals(0, agreement.getIncompleteSetsByPosition().size());
     }
 
+    @Test
+    public void resultsBySegmentTest() throws Exception
+    {
+        Map<String, List<CAS>> casByUser = load("casdiff/someDifferences/user1.conll",
+                "casdiff/someDifferences/user2.conll");
+
+        Map<String, CAS> casByUserSingle = new LinkedHashMap<>();
+        casByUser.forEach((user, casList) -> casByUserSingle.put(user, casList.get(0)));
+
+        List<? extends DiffAdapter> diffAdapters = asList(POS_DIFF_ADAPTER,
+                DEPENDENCY_DIFF_ADAPTER);
+
+        // Use the tokens as segments to get a good number of segments
+        CAS cas = casByUserSingle.get("user1");
+        NavigableMap<Integer, Integer> segments = new TreeMap<>();
+        for (AnnotationFS token : CasUtil.select(cas, CasUtil.getType(cas, Token.class))) {
+            segments.put(token.getBegin(), token.getEnd());
+        }
+
+        Map<Integer, DiffResult> resultsBySegment = doDiff(diffAdapters, LINK_TARGET_AS_LABEL,
+                casByUser).toResult().getResultsBySegment(segments);
+
+        assertEquals(new ArrayList<>(segments.keySet()),
+                new ArrayList<>(resultsBySegment.keySet()));
+
+        // Splitting a single diff must yield the same results as diffing each segment separately
+        int differingSegments = 0;
+        for (Entry<Integer, Integer> segment : segments.entrySet()) {
+            DiffResult expected = doDiffSingle(diffAdapters, LINK_TARGET_AS_LABEL,
+                    casByUserSingle, segment.getKey(), segment.getValue()).toResult();
+            DiffResult actual = resultsBySegment.get(segment.getKey());
+
+            assertEquals(expected.getPositions().toString(), actual.getPositions().toString());
+            assertEquals(expected.getDifferingConfigurationSets().keySet().toString(),
+                    actual.getDifferingConfigurationSets().keySet().toString());
+            assertEquals(expected.getIncompleteConfigurationSets().keySet().toString(),
+                    actual.getIncompleteConfigurationSets().keySet().toString());
+            assertEquals(expected.hasDifferences(), actual.hasDifferences());
+
+            if (actual.hasDifferences()) {
+                differingSegments++;
+            }
+        }
+
+        assertTrue(differingSegments > 0);
+    }
+
+    @Test
+    public void updateTest() throws Exception
+    {
+        Map<String, List<CAS>> casByUser = load("casdiff/someDifferences/user1.conll",
+                "casdiff/someDifferences/user2.conll");
+
+        List<? extends DiffAdapter> diffAdapters = asList(POS_DIFF_ADAPTER,
+                DEPENDENCY_DIFF_ADAPTER);
+
+        CasDiff diff = doDiff(diffAdapters, LINK_TARGET_AS_LABEL, casByUser);
+        DiffResult result = diff.toResult();
+
+        CAS user1Cas = casByUser.get("user1").get(0);
+        CAS user2Cas = casByUser.get("user2").get(0);
+        Type posType = CasUtil.getType(user2Cas, POS.class);
+
+        // Resolve a disagreement by changing the label in the second CAS
+        AnnotationFS differing = (AnnotationFS) result.getDifferingConfigurationSets().values()
+                .stream()
+                .filter(set -> set.getPosition().getType().equals(POS.class.getName()))
+                .findFirst().get().getConfigurations().get(0).getRepresentative(casByUser);
+        AnnotationFS user1Pos = CasUtil.selectCovered(user1Cas, posType, differing.getBegin(),
+                differing.getEnd()).get(0);
+        AnnotationFS user2Pos = CasUtil.selectCovered(user2Cas, posType, differing.getBegin(),
+                differing.getEnd()).get(0);
+        FSUtil.setFeature(user2Pos, "PosValue", FSUtil.getFeature(user1Pos, "PosValue",
+                String.class));
+        FSUtil.setFeature(user2Pos, "coarseValue", FSUtil.getFeature(user1Pos, "coarseValue",
+                String.class));
+        diff.update(user2Pos.getBegin(), user2Pos.getEnd());
+        assertSameResult(doDiff(diffAdapters, LINK_TARGET_AS_LABEL, casByUser).toResult(),
+                result);
+        assertEquals(5, result.getDifferingConfigurationSets().size());
+
+        // Make a set incomplete by deleting the annotation in the second CAS
+        user2Cas.removeFsFromIndexes(user2Pos);
+        diff.update(user2Pos.getBegin(), user2Pos.getEnd());
+        assertSameResult(doDiff(diffAdapters, LINK_TARGET_AS_LABEL, casByUser).toResult(),
+                result);
+        assertEquals(1, result.getIncompleteConfigurationSets().size());
+
+        // Restore the annotation
+        user2Cas.addFsToIndexes(user2Pos);
+        diff.update(user2Pos.getBegin(), user2Pos.getEnd());
+        assertSameResult(doDiff(diffAdapters, LINK_TARGET_AS_LABEL, casByUser).toResult(),
+                result);
+        assertEquals(0, result.getIncompleteConfigurationSets().size());
+    }
+
+    private static void assertSameResult(DiffResult aExpected, DiffResult aActual)
+    {
+        assertEquals(aExpected.getPositions().toString(), aActual.getPositions().toString());
+        assertEquals(aExpected.getDifferingConfigurationSets().keySet().toString(),
+                aActual.getDifferingConfigurationSets().keySet().toString());
+        assertEquals(aExpected.getIncompleteConfigurationSets().keySet().toString(),
+                aActual.getIncompleteConfigurationSets().keySet().toString());
+        assertEquals(aExpected.hasDifferences(), aActual.hasDifferences());
+    }
+
+    @Test
+    public void manyAnnotatorsTest() throws Exception
+    {
+        TokenBuilder<Token, Sentence> tb = new TokenBuilder<>(Token.class, Sentence.class);
+
+        // Every user labels every token with one of three labels. Users who do not set a label
+        // agree with users who set the label to null.
+        String[] labels = { "NN", "VB", null };
+        Map<String, List<CAS>> casByUser = new LinkedHashMap<>();
+        for (int user = 0; user < 9; user++) {
+            JCas jcas = createJCas();
+            tb.buildTokens(jcas, "This is a test .");
+            for (Token token : select(jcas, Token.class)) {
+                POS pos = new POS(jcas, token.getBegin(), token.getEnd());
+                if (labels[user % labels.length] != null) {
+                    pos.setPosValue(labels[user % labels.length]);
+                }
+                pos.addToIndexes();
+            }
+            casByUser.put("user" + user, asList(jcas.getCas()));
+        }
+
+        List<SpanDiffAdapter> diffAdapters = asList(POS_DIFF_ADAPTER);
+
+        DiffResult result = doDiff(diffAdapters, LINK_TARGET_AS_LABEL, casByUser).toResult();
+
+        assertEquals(5, result.size());
+        assertEquals(5, result.getDifferingConfigurationSets().size());
+        assertEquals(0, result.getIncompleteConfigurationSets().size());
+        for (ConfigurationSet set : result.getConfigurationSets()) {
+            assertEquals(3, set.getConfigurations().size());
+            for (Configuration cfg : set.getConfigurations()) {
+                assertEquals(3, cfg.getCasGroupIds().size());
+            }
+        }
+    }
+
+    @Test
+    public void parallelTest() throws Exception
+    {
+        TokenBuilder<Token, Sentence> tb = new TokenBuilder<>(Token.class, Sentence.class);
+
+        String[] labels = { "NN", "VB", "DT" };
+        Map<String, List<CAS>> casByUser = new LinkedHashMap<>();
+        for (int user = 0; user < 3; user++) {
+            List<CAS> casses = new ArrayList<>();
+            for (int doc = 0; doc < 3; doc++) {
+                // null elements in the list can occur if a user has never worked on a CAS
+                if (user == 2 && doc == 1) {
+                    casses.add(null);
+                    continue;
+                }
+
+                JCas jcas = createJCas();
+                tb.buildTokens(jcas, "This is a test .\nAnother test .");
+                int i = 0;
+                for (Token token : select(jcas, Token.class)) {
+                    POS pos = new POS(jcas, token.getBegin(), token.getEnd());
+                    pos.setPosValue(labels[(i + user * doc) % labels.length]);
+                    pos.addToIndexes();
+                    if ((i + user) % 2 == 0) {
+                        Lemma lemma = new Lemma(jcas, token.getBegin(), token.getEnd());
+                        lemma.setValue(token.getCoveredText());
+                        lemma.addToIndexes();
+                    }
+                    i++;
+                }
+                casses.add(jcas.getCas());
+            }
+            casByUser.put("user" + user, casses);
+        }
+
+        List<SpanDiffAdapter> diffAdapters = asList(POS_DIFF_ADAPTER,
+                new SpanDiffAdapter(Lemma.class.getName(), "value"));
+
+        DiffResult expected = doDiff(diffAdapters, LINK_TARGET_AS_LABEL, casByUser).toResult();
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            DiffResult result = doDiffParallel(diffAdapters, LINK_TARGET_AS_LABEL, casByUser, -1,
+                    -1, pool).toResult();
+
+            assertSameResult(expected, result);
+            for (ConfigurationSet set : expected.getConfigurationSets()) {
+                assertEquals(set.getConfigurations().size(),
+                        result.getConfigurationSet(set.getPosition()).getConfigurations().size());
+            }
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void parallelRelationAndLinkTest() throws Exception
+    {
+        Map<String, List<CAS>> dependencyCasByUser = load("casdiff/someDifferences/user1.conll",
+                "casdiff/someDifferences/user2.conll");
+        List<? extends DiffAdapter> dependencyAdapters = asList(POS_DIFF_ADAPTER,
+                DEPENDENCY_DIFF_ADAPTER);
+
+        JCas jcasA = createJCas(createMultiLinkWithRoleTestTypeSystem());
+        makeLinkHostFS(jcasA, 0, 0, makeLinkFS(jcasA, "slot1", 0, 0),
+                makeLinkFS(jcasA, "slot1", 10, 10));
+        JCas jcasB = createJCas(createMultiLinkWithRoleTestTypeSystem());
+        makeLinkHostFS(jcasB, 0, 0, makeLinkFS(jcasB, "slot1", 10, 10));
+        Map<String, List<CAS>> linkCasByUser = new LinkedHashMap<>();
+        linkCasByUser.put("user1", asList(jcasA.getCas()));
+        linkCasByUser.put("user2", asList(jcasB.getCas()));
+        SpanDiffAdapter linkAdapter = new SpanDiffAdapter(HOST_TYPE);
+        linkAdapter.addLinkFeature("links", "role", "target");
+        List<? extends DiffAdapter> linkAdapters = asList(linkAdapter);
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (LinkCompareBehavior behavior : LinkCompareBehavior.values()) {
+                assertSameResult(doDiff(dependencyAdapters, behavior, dependencyCasByUser)
+                        .toResult(),
+                        doDiffParallel(dependencyAdapters, behavior, dependencyCasByUser, -1, -1,
+                                pool).toResult());
+                assertSameResult(doDiff(linkAdapters, behavior, linkCasByUser).toResult(),
+                        doDiffParallel(linkAdapters, behavior, linkCasByUser, -1, -1, pool)
+                                .toResult());
+            }
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void compactRepresentationTest() throws Exception
+    {
+        TokenBuilder<Token, Sentence> tb = new TokenBuilder<>(Token.class, Sentence.class);
+
+        Map<String, List<CAS>> casByUser = new LinkedHashMap<>();
+        for (String user : asList("user2", "user1")) {
+            JCas jcas = createJCas();
+            tb.buildTokens(jcas, "Test .");
+            Token token = select(jcas, Token.class).iterator().next();
+            POS pos = new POS(jcas, token.getBegin(), token.getEnd());
+            pos.setPosValue("NN");
+            pos.addToIndexes();
+            if (user.equals("user1")) {
+                // Stacked annotation
+                POS pos2 = new POS(jcas, token.getBegin(), token.getEnd());
+                pos2.setPosValue("NN");
+                pos2.addToIndexes();
+            }
+            casByUser.put(user, asList(jcas.getCas()));
+        }
+
+        DiffResult result = doDiff(asList(POS_DIFF_ADAPTER), LINK_TARGET_AS_LABEL, casByUser)
+                .toResult();
+        result = SerializationUtils.roundtrip(result);
+
+        assertEquals(1, result.size());
+        ConfigurationSet set = result.getConfigurationSets().iterator().next();
+        assertEquals(asList("user2", "user1"), new ArrayList<>(set.getCasGroupIds()));
+        assertTrue(result.isComplete(set));
+
+        Configuration cfg = set.getConfigurations().get(0);
+        assertEquals(asList("user1", "user2"), new ArrayList<>(cfg.getCasGroupIds()));
+        assertTrue(cfg.isStacked());
+        assertEquals(cfg.getAID("user1").addr, cfg.getRepresentativeAID().addr);
+        assertEquals(null, cfg.getAID("user3"));
+        assertEquals(2, set.getRecordedConfigurationCount());
+    }
+
     @Test
     public void singleNoDifferencesTest() throws Exception
     {
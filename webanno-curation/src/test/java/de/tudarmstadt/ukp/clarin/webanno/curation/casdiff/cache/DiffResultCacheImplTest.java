@@ -0,0 +1,205 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.cache;
+
+import static de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.doDiffSingle;
+import static de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.LinkCompareBehavior.LINK_ROLE_AS_LABEL;
+import static de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.span.SpanDiffAdapter.POS_DIFF_ADAPTER;
+import static java.util.Arrays.asList;
+import static org.apache.uima.fit.factory.JCasFactory.createJCas;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.fit.testing.factory.TokenBuilder;
+import org.apache.uima.jcas.JCas;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
+import de.tudarmstadt.ukp.clarin.webanno.api.RepositoryProperties;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.BeforeDocumentRemovedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.event.BeforeProjectRemovedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.DiffResult;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.api.DiffAdapter;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+import de.tudarmstadt.ukp.dkpro.core.api.lexmorph.type.pos.POS;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
+
+public class DiffResultCacheImplTest
+{
+    public @Rule TemporaryFolder testFolder = new TemporaryFolder();
+
+    private CasStorageService casStorageService;
+    private RepositoryProperties repositoryProperties;
+    private DiffResultCacheProperties properties;
+    private SourceDocument document;
+    private List<DiffAdapter> adapters;
+    private DiffResult result;
+
+    @Before
+    public void setup() throws Exception
+    {
+        casStorageService = mock(CasStorageService.class);
+        when(casStorageService.getCasTimestamp(any(), eq("user1"))).thenReturn(Optional.of(1l));
+        when(casStorageService.getCasTimestamp(any(), eq("user2"))).thenReturn(Optional.of(2l));
+
+        repositoryProperties = new RepositoryProperties();
+        repositoryProperties.setPath(testFolder.newFolder());
+
+        properties = new DiffResultCacheProperties();
+
+        Project project = new Project();
+        project.setId(1l);
+        document = new SourceDocument();
+        document.setId(2l);
+        document.setProject(project);
+
+        adapters = asList(POS_DIFF_ADAPTER);
+
+        Map<String, CAS> casses = new LinkedHashMap<>();
+        for (String user : asList("user1", "user2")) {
+            JCas jcas = createJCas();
+            new TokenBuilder<>(Token.class, Sentence.class).buildTokens(jcas, "This is a test .");
+            POS pos = new POS(jcas, 0, 4);
+            pos.setPosValue(user);
+            pos.addToIndexes();
+            casses.put(user, jcas.getCas());
+        }
+        result = doDiffSingle(adapters, LINK_ROLE_AS_LABEL, casses, 0, 16).toResult();
+    }
+
+    @Test
+    public void thatResultIsCachedInMemory() throws Exception
+    {
+        DiffResultCacheImpl sut = new DiffResultCacheImpl(casStorageService, repositoryProperties,
+                properties);
+
+        DiffResultCacheKey key = sut.createKey(document, asList("user1", "user2"), adapters,
+                LINK_ROLE_AS_LABEL, 0, 16);
+        assertThat(sut.get(key)).isEmpty();
+
+        sut.put(key, result);
+
+        assertThat(sut.get(key)).hasValueSatisfying(cached -> {
+            assertThat(cached.getPositions().toString())
+                    .isEqualTo(result.getPositions().toString());
+            assertThat(cached.hasDifferences()).isTrue();
+        });
+        assertThat(sut.get(sut.createKey(document, asList("user1", "user2"), adapters,
+                LINK_ROLE_AS_LABEL, 0, 10))).isEmpty();
+    }
+
+    @Test
+    public void thatResultIsInvalidatedByCasTimestamp() throws Exception
+    {
+        DiffResultCacheImpl sut = new DiffResultCacheImpl(casStorageService, repositoryProperties,
+                properties);
+
+        sut.put(sut.createKey(document, asList("user1", "user2"), adapters, LINK_ROLE_AS_LABEL, 0,
+                16), result);
+
+        when(casStorageService.getCasTimestamp(any(), eq("user2"))).thenReturn(Optional.of(3l));
+
+        assertThat(sut.get(sut.createKey(document, asList("user1", "user2"), adapters,
+                LINK_ROLE_AS_LABEL, 0, 16))).isEmpty();
+    }
+
+    @Test
+    public void thatResultIsCachedOnDisk() throws Exception
+    {
+        properties.getDisk().setEnabled(true);
+
+        DiffResultCacheImpl sut = new DiffResultCacheImpl(casStorageService, repositoryProperties,
+                properties);
+        DiffResultCacheKey key = sut.createKey(document, asList("user1", "user2"), adapters,
+                LINK_ROLE_AS_LABEL, 0, 16);
+        sut.put(key, result);
+
+        // A fresh instance only has the disk tier
+        DiffResultCacheImpl sut2 = new DiffResultCacheImpl(casStorageService,
+                repositoryProperties, properties);
+        assertThat(sut2.get(key)).isPresent();
+
+        // The file on disk is replaced once the result for changed CASes is stored
+        when(casStorageService.getCasTimestamp(any(), eq("user2"))).thenReturn(Optional.of(3l));
+        DiffResultCacheKey key2 = sut.createKey(document, asList("user1", "user2"), adapters,
+                LINK_ROLE_AS_LABEL, 0, 16);
+        sut.put(key2, result);
+
+        DiffResultCacheImpl sut3 = new DiffResultCacheImpl(casStorageService,
+                repositoryProperties, properties);
+        assertThat(sut3.get(key)).isEmpty();
+        assertThat(sut3.get(key2)).isPresent();
+    }
+
+    @Test
+    public void thatDiskCacheIsDeletedWithDocument() throws Exception
+    {
+        properties.getDisk().setEnabled(true);
+
+        DiffResultCacheImpl sut = new DiffResultCacheImpl(casStorageService, repositoryProperties,
+                properties);
+        DiffResultCacheKey key = sut.createKey(document, asList("user1", "user2"), adapters,
+                LINK_ROLE_AS_LABEL, 0, 16);
+        sut.put(key, result);
+
+        File documentFolder = new File(repositoryProperties.getPath(),
+                DiffResultCacheImpl.DIFF_CACHE_FOLDER + "/1/2");
+        assertThat(documentFolder).isDirectory();
+
+        sut.onBeforeDocumentRemoved(new BeforeDocumentRemovedEvent(this, document));
+
+        assertThat(documentFolder).doesNotExist();
+        assertThat(sut.get(key)).isEmpty();
+    }
+
+    @Test
+    public void thatDiskCacheIsDeletedWithProject() throws Exception
+    {
+        properties.getDisk().setEnabled(true);
+
+        DiffResultCacheImpl sut = new DiffResultCacheImpl(casStorageService, repositoryProperties,
+                properties);
+        DiffResultCacheKey key = sut.createKey(document, asList("user1", "user2"), adapters,
+                LINK_ROLE_AS_LABEL, 0, 16);
+        sut.put(key, result);
+
+        File projectFolder = new File(repositoryProperties.getPath(),
+                DiffResultCacheImpl.DIFF_CACHE_FOLDER + "/1");
+        assertThat(projectFolder).isDirectory();
+
+        sut.onBeforeProjectRemoved(new BeforeProjectRemovedEvent(this, document.getProject()));
+
+        assertThat(projectFolder).doesNotExist();
+        assertThat(sut.get(key)).isEmpty();
+    }
+}
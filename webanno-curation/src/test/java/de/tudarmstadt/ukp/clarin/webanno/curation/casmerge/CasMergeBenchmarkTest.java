@@ -0,0 +1,146 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.curation.casmerge;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.FEAT_REL_SOURCE;
+import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.FEAT_REL_TARGET;
+import static de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.doDiff;
+import static de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.LinkCompareBehavior.LINK_TARGET_AS_LABEL;
+import static de.tudarmstadt.ukp.clarin.webanno.support.uima.AnnotationBuilder.buildAnnotation;
+import static de.tudarmstadt.ukp.dkpro.core.api.lexmorph.type.pos.POS._FeatName_PosValue;
+import static de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token._FeatName_pos;
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.text.AnnotationFS;
+import org.apache.uima.fit.factory.CasFactory;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.DiffResult;
+import de.tudarmstadt.ukp.dkpro.core.api.lexmorph.type.pos.POS;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
+import de.tudarmstadt.ukp.dkpro.core.api.syntax.type.dependency.Dependency;
+
+/**
+ * Measures how the time needed to re-merge a CAS grows with the number of positions. Since the
+ * annotations in the target CAS are looked up through an offset index, the time should grow
+ * roughly linearly with the number of positions.
+ * <p>
+ * The benchmark is skipped by default. Run it with {@code -Dwebanno.benchmark=true}.
+ */
+public class CasMergeBenchmarkTest
+    extends CasMergeTestBase
+{
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    @Before
+    public void checkBenchmarksEnabled()
+    {
+        assumeTrue("Benchmarks are disabled.", Boolean.getBoolean("webanno.benchmark"));
+    }
+
+    @Test
+    public void mergeTimeByPositionCount() throws Exception
+    {
+        // Warm up so that class loading and JIT compilation do not skew the first measurement
+        mergeAndMeasure(500);
+
+        int[] tokenCounts = { 500, 1000, 2000, 4000 };
+        double[] timePerPosition = new double[tokenCounts.length];
+        for (int i = 0; i < tokenCounts.length; i++) {
+            timePerPosition[i] = mergeAndMeasure(tokenCounts[i]);
+        }
+
+        // With a linear merge, the time per position stays roughly constant. A quadratic merge
+        // would need eight times as long per position for the largest CAS as for the smallest.
+        assertThat(timePerPosition[tokenCounts.length - 1])
+                .isLessThan(4 * Math.max(timePerPosition[0], 0.01));
+    }
+
+    private double mergeAndMeasure(int aTokenCount) throws Exception
+    {
+        Map<String, List<CAS>> casByUser = new LinkedHashMap<>();
+        casByUser.put("user1", asList(createAnnotatedCas(aTokenCount)));
+        casByUser.put("user2", asList(createAnnotatedCas(aTokenCount)));
+
+        Map<String, CAS> singleCasByUser = new LinkedHashMap<>();
+        casByUser.forEach((user, cases) -> singleCasByUser.put(user, cases.get(0)));
+
+        CAS curatorCas = createAnnotatedCas(aTokenCount);
+
+        DiffResult diff = doDiff(diffAdapters, LINK_TARGET_AS_LABEL, casByUser).toResult();
+
+        long start = System.nanoTime();
+        CasMergeResult result = sut.reMergeCas(diff, document, null, curatorCas,
+                singleCasByUser);
+        double duration = (System.nanoTime() - start) / 1_000_000.0;
+
+        log.info("Merged {} positions in {}ms", diff.getPositions().size(),
+                String.format("%.1f", duration));
+
+        // All POS tags and all dependency relations are created anew
+        assertThat(result.getCreated()).isEqualTo(2 * aTokenCount - 1);
+        assertThat(curatorCas.select(POS.class).count()).isEqualTo(aTokenCount);
+        assertThat(curatorCas.select(Dependency.class).count()).isEqualTo(aTokenCount - 1);
+
+        return duration / diff.getPositions().size();
+    }
+
+    private CAS createAnnotatedCas(int aTokenCount) throws Exception
+    {
+        CAS cas = CasFactory.createText(StringUtils.repeat("w", " ", aTokenCount));
+
+        AnnotationFS previous = null;
+        for (int i = 0; i < aTokenCount; i++) {
+            int begin = i * 2;
+
+            AnnotationFS pos = buildAnnotation(cas, POS.class) //
+                    .at(begin, begin + 1) //
+                    .withFeature(_FeatName_PosValue, i % 2 == 0 ? "NN" : "VB") //
+                    .buildAndAddToIndexes();
+
+            AnnotationFS token = buildAnnotation(cas, Token.class) //
+                    .at(begin, begin + 1) //
+                    .withFeature(_FeatName_pos, pos) //
+                    .buildAndAddToIndexes();
+
+            if (previous != null) {
+                buildAnnotation(cas, Dependency.class) //
+                        .at(begin, begin + 1) //
+                        .withFeature(FEAT_REL_SOURCE, previous) //
+                        .withFeature(FEAT_REL_TARGET, token) //
+                        .withFeature("DependencyType", "dep") //
+                        .buildAndAddToIndexes();
+            }
+
+            previous = token;
+        }
+
+        return cas;
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.curation.casmerge.bulk;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.CasUpgradeMode.AUTO_CAS_UPGRADE;
+import static de.tudarmstadt.ukp.clarin.webanno.api.casstorage.CasAccessMode.SHARED_READ_ONLY_ACCESS;
+import static de.tudarmstadt.ukp.clarin.webanno.api.casstorage.CasAccessMode.UNMANAGED_ACCESS;
+import static de.tudarmstadt.ukp.clarin.webanno.curation.casmerge.bulk.BulkMergeDocumentResult.ResultState.MERGED;
+import static de.tudarmstadt.ukp.clarin.webanno.curation.casmerge.bulk.BulkMergeDocumentResult.ResultState.SKIPPED;
+import static de.tudarmstadt.ukp.clarin.webanno.curation.casmerge.bulk.BulkMergeTaskState.COMPLETED;
+import static de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState.FINISHED;
+import static de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState.IN_PROGRESS;
+import static de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentState.ANNOTATION_IN_PROGRESS;
+import static de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentState.CURATION_FINISHED;
+import static de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentState.CURATION_IN_PROGRESS;
+import static de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentStateTransition.ANNOTATION_IN_PROGRESS_TO_CURATION_IN_PROGRESS;
+import static de.tudarmstadt.ukp.clarin.webanno.support.uima.AnnotationBuilder.buildAnnotation;
+import static de.tudarmstadt.ukp.dkpro.core.api.lexmorph.type.pos.POS._FeatName_PosValue;
+import static de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token._FeatName_pos;
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static org.apache.uima.fit.util.CasUtil.select;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.text.AnnotationFS;
+import org.apache.uima.fit.factory.CasFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.springframework.beans.DirectFieldAccessor;
+import org.springframework.context.ApplicationEventPublisher;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.event.BulkAnnotationEvent;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casmerge.CasMergeTestBase;
+import de.tudarmstadt.ukp.clarin.webanno.curation.storage.CurationDocumentService;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentState;
+import de.tudarmstadt.ukp.dkpro.core.api.lexmorph.type.pos.POS;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
+
+public class BulkMergeTaskTest
+    extends CasMergeTestBase
+{
+    private @Mock DocumentService documentService;
+    private @Mock CurationDocumentService curationDocumentService;
+    private @Mock ApplicationEventPublisher eventPublisher;
+
+    private ExecutorService workers;
+    private BulkMergeTaskMonitor monitor;
+    private BulkMergeTask task;
+
+    @Before
+    public void setupTask() throws Exception
+    {
+        project.setId(1l);
+        project.setName("project");
+
+        workers = Executors.newFixedThreadPool(2);
+        monitor = new BulkMergeTaskMonitor();
+        task = new BulkMergeTask(new BulkMergeTaskHandle(), monitor,
+                new BulkMergeRequest(project, false, false), "curator", workers);
+
+        // The task is normally autowired by the service
+        DirectFieldAccessor fields = new DirectFieldAccessor(task);
+        fields.setPropertyValue("documentService", documentService);
+        fields.setPropertyValue("curationDocumentService", curationDocumentService);
+        fields.setPropertyValue("schemaService", schemaService);
+        fields.setPropertyValue("eventPublisher", eventPublisher);
+
+        when(documentService.getDir()).thenReturn(new File("repository"));
+        when(schemaService.listAnnotationLayer(any())).thenReturn(asList(tokenLayer, posLayer));
+    }
+
+    @After
+    public void tearDown()
+    {
+        workers.shutdownNow();
+    }
+
+    @Test
+    public void thatCuratableDocumentsAreMerged() throws Exception
+    {
+        SourceDocument merged = document("merged", ANNOTATION_IN_PROGRESS);
+        AnnotationDocument user1 = annotationDocument(merged, "user1", FINISHED);
+        AnnotationDocument user2 = annotationDocument(merged, "user2", FINISHED);
+        when(documentService.listAnnotationDocuments(merged)).thenReturn(asList(user1, user2));
+        when(documentService.readAnnotationCas(merged, "user1", AUTO_CAS_UPGRADE,
+                SHARED_READ_ONLY_ACCESS)).thenReturn(casWithPos("X"));
+        when(documentService.readAnnotationCas(merged, "user2", AUTO_CAS_UPGRADE,
+                SHARED_READ_ONLY_ACCESS)).thenReturn(casWithPos("X"));
+        CAS mergeCas = casWithPos("Y");
+        when(documentService.readAnnotationCas(user1, UNMANAGED_ACCESS)).thenReturn(mergeCas);
+
+        SourceDocument finished = document("finished", CURATION_FINISHED);
+
+        SourceDocument started = document("started", CURATION_IN_PROGRESS);
+        when(curationDocumentService.existsCurationCas(started)).thenReturn(true);
+
+        SourceDocument unfinished = document("unfinished", ANNOTATION_IN_PROGRESS);
+        when(documentService.listAnnotationDocuments(unfinished)).thenReturn(
+                asList(annotationDocument(unfinished, "user1", IN_PROGRESS)));
+
+        SourceDocument empty = document("empty", ANNOTATION_IN_PROGRESS);
+        when(documentService.listAnnotationDocuments(empty)).thenReturn(emptyList());
+
+        when(curationDocumentService.listCuratableSourceDocuments(project))
+                .thenReturn(asList(empty, finished, merged, started, unfinished));
+
+        task.run();
+
+        assertThat(monitor.getState()).isEqualTo(COMPLETED);
+        assertThat(monitor.getProgress()).isEqualTo(100);
+        assertThat(monitor.getResults())
+                .extracting(BulkMergeDocumentResult::getDocumentName,
+                        BulkMergeDocumentResult::getState)
+                .containsExactly(
+                        tuple("empty", SKIPPED),
+                        tuple("finished", SKIPPED),
+                        tuple("merged", MERGED),
+                        tuple("started", SKIPPED),
+                        tuple("unfinished", SKIPPED));
+        assertThat(monitor.getResults().get(2).getMergeResult().getCreated()).isEqualTo(1);
+
+        assertThat(select(mergeCas, mergeCas.getTypeSystem().getType(POS.class.getName())))
+                .extracting(pos -> pos.getStringValue(pos.getType()
+                        .getFeatureByBaseName(_FeatName_PosValue)))
+                .containsExactly("X");
+
+        verify(curationDocumentService).writeCurationCas(mergeCas, merged, true);
+        verify(curationDocumentService, times(1)).writeCurationCas(any(), any(), eq(true));
+        verify(documentService).transitionSourceDocumentState(merged,
+                ANNOTATION_IN_PROGRESS_TO_CURATION_IN_PROGRESS);
+        verify(eventPublisher, times(1)).publishEvent(any(BulkAnnotationEvent.class));
+        verify(documentService, never()).readAnnotationCas(eq(finished), any(), any(), any());
+    }
+
+    private SourceDocument document(String aName, SourceDocumentState aState)
+    {
+        SourceDocument doc = new SourceDocument();
+        doc.setProject(project);
+        doc.setName(aName);
+        doc.setState(aState);
+        return doc;
+    }
+
+    private AnnotationDocument annotationDocument(SourceDocument aDocument, String aUser,
+            AnnotationDocumentState aState)
+    {
+        AnnotationDocument adoc = new AnnotationDocument(aDocument.getName(), project, aUser,
+                aDocument);
+        adoc.setState(aState);
+        return adoc;
+    }
+
+    private CAS casWithPos(String aPos) throws Exception
+    {
+        CAS cas = CasFactory.createText("word");
+
+        AnnotationFS posAnnotation = buildAnnotation(cas, POS.class) //
+                .at(0, 4) //
+                .withFeature(_FeatName_PosValue, aPos) //
+                .buildAndAddToIndexes();
+
+        buildAnnotation(cas, Token.class) //
+                .at(0, 4) //
+                .withFeature(_FeatName_pos, posAnnotation) //
+                .buildAndAddToIndexes();
+
+        return cas;
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.support.wicket;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.function.LongConsumer;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.wicket.request.IRequestCycle;
+import org.apache.wicket.request.IRequestHandler;
+import org.apache.wicket.request.http.WebRequest;
+import org.apache.wicket.request.http.WebResponse;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import de.tudarmstadt.ukp.clarin.webanno.support.JSONUtil;
+
+/**
+ * Writes an object as JSON directly to the response. The JSON is generated while it is written,
+ * so it never exists as a whole in memory. If the client accepts it, the response is compressed
+ * using gzip.
+ */
+public class JsonStreamRequestHandler
+    implements IRequestHandler
+{
+    private final ObjectMapper mapper;
+    private final Object data;
+    private LongConsumer sizeListener;
+
+    /**
+     * @param aData
+     *            a Jackson-serializable object or a {@link JsonNode}.
+     */
+    public JsonStreamRequestHandler(Object aData)
+    {
+        this(JSONUtil.getObjectMapper(), aData);
+    }
+
+    public JsonStreamRequestHandler(ObjectMapper aMapper, Object aData)
+    {
+        mapper = aMapper;
+        data = aData;
+    }
+
+    /**
+     * @param aListener
+     *            called with the size of the JSON in bytes (before compression) once it has been
+     *            written.
+     */
+    public JsonStreamRequestHandler onWritten(LongConsumer aListener)
+    {
+        sizeListener = aListener;
+        return this;
+    }
+
+    @Override
+    public void respond(IRequestCycle aRequestCycle)
+    {
+        WebRequest request = (WebRequest) aRequestCycle.getRequest();
+        WebResponse response = (WebResponse) aRequestCycle.getResponse();
+
+        response.setContentType("application/json; charset=UTF-8");
+        response.disableCaching();
+        response.setHeader("Vary", "Accept-Encoding");
+
+        boolean gzip = acceptsGzip(request);
+        if (gzip) {
+            response.setHeader("Content-Encoding", "gzip");
+        }
+
+        try {
+            OutputStream target = response.getOutputStream();
+            GZIPOutputStream gzipStream = gzip ? new GZIPOutputStream(target, 8192) : null;
+            CountingOutputStream out = new CountingOutputStream(
+                    gzipStream != null ? gzipStream : target);
+
+            // The response stream is managed by Wicket, so the generator must not close it
+            JsonGenerator generator = mapper.getFactory().createGenerator(out);
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            if (data instanceof JsonNode) {
+                generator.writeTree((JsonNode) data);
+            }
+            else {
+                generator.writeObject(data);
+            }
+            generator.flush();
+
+            if (gzipStream != null) {
+                gzipStream.finish();
+            }
+
+            if (sizeListener != null) {
+                sizeListener.accept(out.getByteCount());
+            }
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static boolean acceptsGzip(WebRequest aRequest)
+    {
+        String acceptEncoding = aRequest.getHeader("Accept-Encoding");
+        return acceptEncoding != null && acceptEncoding.toLowerCase().contains("gzip");
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Licensed to the Technische Universität Darmstadt under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The Technische Universität Darmstadt 
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.tudarmstadt.ukp.clarin.webanno.support.wicket;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.wicket.mock.MockWebRequest;
+import org.apache.wicket.mock.MockWebResponse;
+import org.apache.wicket.request.IRequestCycle;
+import org.apache.wicket.request.IRequestHandler;
+import org.apache.wicket.request.Request;
+import org.apache.wicket.request.Response;
+import org.apache.wicket.request.Url;
+import org.apache.wicket.request.UrlRenderer;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+public class JsonStreamRequestHandlerTest
+{
+    private ObjectMapper mapper;
+    private ObjectNode data;
+    private MockWebRequest request;
+    private StreamWebResponse response;
+
+    @Before
+    public void setup()
+    {
+        mapper = new ObjectMapper();
+        data = mapper.createObjectNode();
+        data.put("text", "This is a test.");
+        data.putArray("entities").addArray().add("T1").add("Token");
+
+        request = new MockWebRequest(Url.parse("data"));
+        response = new StreamWebResponse();
+    }
+
+    @Test
+    public void thatResponseIsCompressedIfAccepted() throws Exception
+    {
+        request.setHeader("Accept-Encoding", "gzip, deflate, br");
+
+        AtomicLong size = new AtomicLong(-1);
+        respond(new JsonStreamRequestHandler(mapper, data).onWritten(size::set));
+
+        assertThat(response.getContentType()).isEqualTo("application/json; charset=UTF-8");
+        assertThat(response.getHeader("Content-Encoding")).isEqualTo("gzip");
+        assertThat(response.getHeader("Vary")).isEqualTo("Accept-Encoding");
+
+        byte[] json;
+        try (GZIPInputStream is = new GZIPInputStream(
+                new ByteArrayInputStream(response.body.toByteArray()))) {
+            json = IOUtils.toByteArray(is);
+        }
+        assertThat(mapper.readTree(json)).isEqualTo(data);
+
+        // The size is reported before compression
+        assertThat(size.get()).isEqualTo(json.length);
+        assertThat(response.closed).isFalse();
+    }
+
+    @Test
+    public void thatResponseIsNotCompressedIfNotAccepted() throws Exception
+    {
+        AtomicLong size = new AtomicLong(-1);
+        respond(new JsonStreamRequestHandler(mapper, data).onWritten(size::set));
+
+        assertThat(response.getHeader("Content-Encoding")).isNull();
+
+        byte[] json = response.body.toByteArray();
+        assertThat(mapper.readTree(json)).isEqualTo(data);
+        assertThat(size.get()).isEqualTo(json.length);
+        assertThat(response.closed).isFalse();
+    }
+
+    @Test
+    public void thatObjectsAreSerialized() throws Exception
+    {
+        Map<String, Object> object = new LinkedHashMap<>();
+        object.put("action", "getDocument");
+        object.put("exception", true);
+
+        respond(new JsonStreamRequestHandler(mapper, object));
+
+        JsonNode json = mapper.readTree(new String(response.body.toByteArray(), UTF_8));
+        assertThat(json.get("action").asText()).isEqualTo("getDocument");
+        assertThat(json.get("exception").asBoolean()).isTrue();
+        assertThat(response.closed).isFalse();
+    }
+
+    private void respond(IRequestHandler aHandler)
+    {
+        aHandler.respond(new IRequestCycle()
+        {
+            @Override
+            public Response getResponse()
+            {
+                return response;
+            }
+
+            @Override
+            public Response setResponse(Response aResponse)
+            {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public Request getRequest()
+            {
+                return request;
+            }
+
+            @Override
+            public void scheduleRequestHandlerAfterCurrent(IRequestHandler aHandler)
+            {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public UrlRenderer getUrlRenderer()
+            {
+                throw new UnsupportedOperationException();
+            }
+        });
+    }
+
+    /**
+     * Records the bytes written to the output stream and whether the stream has been closed.
+     */
+    private static class StreamWebResponse
+        extends MockWebResponse
+    {
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        private boolean closed = false;
+
+        @Override
+        public OutputStream getOutputStream()
+        {
+            return new FilterOutputStream(body)
+            {
+                @Override
+                public void close() throws IOException
+                {
+                    closed = true;
+                    super.close();
+                }
+            };
+        }
+    }
+}
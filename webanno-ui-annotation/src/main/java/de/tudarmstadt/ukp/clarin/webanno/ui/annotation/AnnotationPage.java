@@ -550,6 +550,10 @@ public class AnnotationPage
                     new DocumentOpenedEvent(this, editorCas, getModelObject().getDocument(),
                             getModelObject().getUser().getUsername(),
                             userRepository.getCurrentUser().getUsername()));
+
+            // Load the documents the user is likely to move to next in the background
+            documentService.prefetchAnnotationCases(state.getDocument(), getListOfDocs(),
+                    state.getUser());
         }
         catch (Exception e) {
             handleException(aTarget, e);
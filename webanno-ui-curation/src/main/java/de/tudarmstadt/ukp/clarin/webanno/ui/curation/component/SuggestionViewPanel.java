@@ -22,6 +22,7 @@ import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.RELATION_TYPE;
 import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.SPAN_TYPE;
 import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.AnnotatorStateUtils.updateDocumentTimestampAfterWrite;
 import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.paging.FocusPosition.CENTERED;
+import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.getRealCas;
 import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.getSentenceNumber;
 import static de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil.selectAnnotationByAddr;
 import static de.tudarmstadt.ukp.clarin.webanno.brat.util.BratAnnotatorUtility.isDocumentFinished;
@@ -41,14 +42,17 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
 
 import org.apache.uima.UIMAException;
 import org.apache.uima.cas.CAS;
 import org.apache.uima.cas.FeatureStructure;
+import org.apache.uima.cas.impl.CASImpl;
 import org.apache.uima.cas.text.AnnotationFS;
 import org.apache.wicket.MarkupContainer;
 import org.apache.wicket.ajax.AjaxRequestTarget;
@@ -63,17 +67,25 @@ import org.apache.wicket.spring.injection.annot.SpringBean;
 import org.apache.wicket.util.string.StringValue;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.wicketstuff.event.annotation.OnEvent;
 
 import com.googlecode.wicket.jquery.ui.widget.menu.IMenuItem;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
+import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
 import de.tudarmstadt.ukp.clarin.webanno.api.CorrectionDocumentService;
 import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.adapter.TypeAdapter;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.coloring.ColoringRules;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.coloring.ColoringService;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.coloring.ColoringStrategy;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.event.AnnotationEvent;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.event.BulkAnnotationEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.event.ChainEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.event.FeatureValueUpdatedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.event.RelationEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.event.SpanDeletedEvent;
+import de.tudarmstadt.ukp.clarin.webanno.api.annotation.event.SpanEvent;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.exception.AnnotationException;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.AnnotatorState;
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.model.VID;
@@ -85,6 +97,7 @@ import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil;
 import de.tudarmstadt.ukp.clarin.webanno.brat.message.GetCollectionInformationResponse;
 import de.tudarmstadt.ukp.clarin.webanno.brat.message.GetDocumentResponse;
 import de.tudarmstadt.ukp.clarin.webanno.brat.render.BratRenderer;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.Configuration;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.ConfigurationSet;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.DiffResult;
@@ -147,6 +160,20 @@ public class SuggestionViewPanel
     private @SpringBean ColoringService coloringService;
     private @SpringBean UserDao userRepository;
     private @SpringBean ApplicationEventPublisherHolder applicationEventPublisher;
+    private @SpringBean CasStorageService casStorageService;
+
+    // The differences are kept between requests and patched from the annotation events instead of
+    // recalculating them after every action. They are transient because they refer to the CASes.
+    // If they get lost or do not match the current CASes anymore, they are recalculated. The CAS
+    // timestamps detect changes which were made outside this panel, e.g. in another browser tab.
+    private transient CasDiff cachedDiff;
+    private transient Map<String, CAS> cachedDiffCasses;
+    private transient Map<String, Long> cachedDiffTimestamps;
+    private transient Set<String> changedDiffUsers;
+    private transient List<AnnotationLayer> cachedDiffLayers;
+    private transient int cachedDiffBegin;
+    private transient int cachedDiffEnd;
+    private transient List<int[]> pendingDiffUpdates;
 
     public SuggestionViewPanel(String id, IModel<List<UserAnnotationSegment>> aModel)
     {
@@ -505,22 +532,22 @@ public class SuggestionViewPanel
 
         // We store the CAS that the user will edit as the "CURATION USER"
         casses.put(CURATION_USER, annotatorCas);
-        List<DiffAdapter> adapters = getDiffAdapters(schemaService, state.getAnnotationLayers());
 
         Map<String, Map<VID, AnnotationState>> annoStates1 = new HashMap<>();
 
         Project project = state.getProject();
         Mode mode1 = state.getMode();
 
+        // A new document has been loaded, so we do not try to reuse any differences
+        invalidateDiff();
+
         DiffResult diff;
         if (mode1.equals(CURATION)) {
-            diff = doDiffSingle(adapters, LINK_ROLE_AS_LABEL, casses,
-                    aCurationSegment.getCurationBegin(), aCurationSegment.getCurationEnd())
-                            .toResult();
+            diff = getDiff(state, casses, aCurationSegment.getCurationBegin(),
+                    aCurationSegment.getCurationEnd());
         }
         else {
-            diff = doDiffSingle(adapters, LINK_ROLE_AS_LABEL, casses, aCurationSegment.getBegin(),
-                    aCurationSegment.getEnd()).toResult();
+            diff = getDiff(state, casses, aCurationSegment.getBegin(), aCurationSegment.getEnd());
         }
 
         Collection<ConfigurationSet> d = diff.getDifferingConfigurationSets().values();
@@ -620,7 +647,6 @@ public class SuggestionViewPanel
 
         // We store the CAS that the user will edit as the "CURATION USER"
         casses.put(CURATION_USER, annotatorCas);
-        List<DiffAdapter> adapters = getDiffAdapters(schemaService, state.getAnnotationLayers());
 
         Map<String, Map<VID, AnnotationState>> annoStates = new HashMap<>();
 
@@ -629,13 +655,11 @@ public class SuggestionViewPanel
 
         DiffResult diff;
         if (mode.equals(CURATION)) {
-            diff = doDiffSingle(adapters, LINK_ROLE_AS_LABEL, casses,
-                    aCurationSegment.getCurationBegin(), aCurationSegment.getCurationEnd())
-                            .toResult();
+            diff = getDiff(state, casses, aCurationSegment.getCurationBegin(),
+                    aCurationSegment.getCurationEnd());
         }
         else {
-            diff = doDiffSingle(adapters, LINK_ROLE_AS_LABEL, casses, aCurationSegment.getBegin(),
-                    aCurationSegment.getEnd()).toResult();
+            diff = getDiff(state, casses, aCurationSegment.getBegin(), aCurationSegment.getEnd());
         }
 
         Collection<ConfigurationSet> d = diff.getDifferingConfigurationSets().values();
@@ -693,6 +717,175 @@ public class SuggestionViewPanel
         });
     }
 
+    /**
+     * Returns the differences between the given CASes in the given range. If the differences for
+     * the same CASes, layers and range have already been calculated in a previous request, only
+     * the annotations which have changed since are compared again.
+     * <p>
+     * A CAS may only have been saved since the differences were calculated if this panel has seen
+     * the annotation events for the changes. Otherwise, it may have been changed elsewhere and the
+     * differences are recalculated.
+     */
+    private DiffResult getDiff(AnnotatorState aState, Map<String, CAS> aCasses, int aBegin,
+            int aEnd)
+    {
+        List<AnnotationLayer> layers = new ArrayList<>(aState.getAnnotationLayers());
+        Map<String, Long> timestamps = getCasTimestamps(aState.getDocument(), aCasses.keySet());
+
+        if (cachedDiff != null && cachedDiffBegin == aBegin && cachedDiffEnd == aEnd
+                && cachedDiffLayers.equals(layers) && isSameCasses(cachedDiffCasses, aCasses)
+                && isUnchangedElsewhere(timestamps)) {
+            for (int[] range : pendingDiffUpdates) {
+                cachedDiff.update(range[0], range[1]);
+            }
+            LOG.trace("Updated differences for {} changes", pendingDiffUpdates.size());
+            pendingDiffUpdates.clear();
+            cachedDiffTimestamps = timestamps;
+            changedDiffUsers.clear();
+            return cachedDiff.toResult();
+        }
+
+        List<DiffAdapter> adapters = getDiffAdapters(schemaService, layers);
+        cachedDiff = doDiffSingle(adapters, LINK_ROLE_AS_LABEL, aCasses, aBegin, aEnd);
+        cachedDiffCasses = new HashMap<>(aCasses);
+        cachedDiffTimestamps = timestamps;
+        cachedDiffLayers = layers;
+        cachedDiffBegin = aBegin;
+        cachedDiffEnd = aEnd;
+        pendingDiffUpdates = new ArrayList<>();
+        changedDiffUsers = new HashSet<>();
+        return cachedDiff.toResult();
+    }
+
+    private void invalidateDiff()
+    {
+        cachedDiff = null;
+        cachedDiffCasses = null;
+        cachedDiffTimestamps = null;
+        cachedDiffLayers = null;
+        pendingDiffUpdates = null;
+        changedDiffUsers = null;
+    }
+
+    private Map<String, Long> getCasTimestamps(SourceDocument aDocument, Set<String> aUsers)
+    {
+        Map<String, Long> timestamps = new HashMap<>();
+        for (String user : aUsers) {
+            try {
+                timestamps.put(user, casStorageService.getCasTimestamp(aDocument, user)
+                        .orElse(-1l));
+            }
+            catch (IOException e) {
+                // An unknown timestamp never matches, so the differences are recalculated
+                LOG.warn("Unable to obtain CAS timestamp of user [{}]", user, e);
+                timestamps.put(user, null);
+            }
+        }
+        return timestamps;
+    }
+
+    private boolean isUnchangedElsewhere(Map<String, Long> aTimestamps)
+    {
+        for (Entry<String, Long> e : aTimestamps.entrySet()) {
+            if (changedDiffUsers.contains(e.getKey())) {
+                continue;
+            }
+
+            Long timestamp = e.getValue();
+            if (timestamp == null || !timestamp.equals(cachedDiffTimestamps.get(e.getKey()))) {
+                LOG.trace("CAS of user [{}] was changed elsewhere - recalculating", e.getKey());
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static boolean isSameCasses(Map<String, CAS> aCasses1, Map<String, CAS> aCasses2)
+    {
+        if (!aCasses1.keySet().equals(aCasses2.keySet())) {
+            return false;
+        }
+
+        for (Entry<String, CAS> e : aCasses1.entrySet()) {
+            if (!isSameCas(e.getValue(), aCasses2.get(e.getKey()))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static boolean isSameCas(CAS aCas1, CAS aCas2)
+    {
+        if (aCas1 == null || aCas2 == null) {
+            return aCas1 == aCas2;
+        }
+
+        return ((CASImpl) getRealCas(aCas1)).getBaseCAS() == ((CASImpl) getRealCas(aCas2))
+                .getBaseCAS();
+    }
+
+    /**
+     * Remembers the offsets of annotations which have been created, changed or deleted in one of
+     * the CASes so that the differences can be updated when the panel is updated.
+     */
+    @OnEvent
+    public void onAnnotationEvent(AnnotationEvent aEvent)
+    {
+        if (cachedDiff == null) {
+            return;
+        }
+
+        FeatureStructure fs = null;
+        if (aEvent instanceof SpanEvent) {
+            fs = ((SpanEvent) aEvent).getAnnotation();
+        }
+        else if (aEvent instanceof RelationEvent) {
+            fs = ((RelationEvent) aEvent).getAnnotation();
+        }
+        else if (aEvent instanceof ChainEvent) {
+            fs = ((ChainEvent) aEvent).getAnnotation();
+        }
+        else if (aEvent instanceof FeatureValueUpdatedEvent) {
+            fs = ((FeatureValueUpdatedEvent) aEvent).getFS();
+        }
+
+        // Events which cannot be pinned down to a single annotation (e.g. bulk operations) require
+        // recalculating the differences
+        if (!(fs instanceof AnnotationFS)) {
+            LOG.trace("Cannot update differences from {} - recalculating", aEvent);
+            invalidateDiff();
+            return;
+        }
+
+        // Ignore changes to CASes which are not part of the differences
+        CAS cas = fs.getCAS();
+        List<String> users = new ArrayList<>();
+        for (Entry<String, CAS> e : cachedDiffCasses.entrySet()) {
+            if (isSameCas(e.getValue(), cas)) {
+                users.add(e.getKey());
+            }
+        }
+
+        if (users.isEmpty()) {
+            return;
+        }
+
+        // When a span is deleted, link features pointing to it are cleared without sending an
+        // event, so we cannot tell which annotations have changed
+        if (aEvent instanceof SpanDeletedEvent && aEvent.getLayer() != null
+                && !schemaService.listAttachedLinkFeatures(aEvent.getLayer()).isEmpty()) {
+            LOG.trace("Cannot update differences from {} - recalculating", aEvent);
+            invalidateDiff();
+            return;
+        }
+
+        AnnotationFS ann = (AnnotationFS) fs;
+        changedDiffUsers.addAll(users);
+        pendingDiffUpdates.add(new int[] { ann.getBegin(), ann.getEnd() });
+    }
+
     private ColoringStrategy makeColoringStrategy(Map<VID, AnnotationState> aColors)
     {
         return new ColoringStrategy()
@@ -41,6 +41,9 @@ import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.TreeMap;
 
 import org.apache.commons.lang3.Validate;
 import org.apache.uima.UIMAException;
@@ -64,6 +67,8 @@ import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.Configuration;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.ConfigurationSet;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.CasDiff.DiffResult;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.api.DiffAdapter;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.cache.DiffResultCache;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.cache.DiffResultCacheKey;
 import de.tudarmstadt.ukp.clarin.webanno.curation.casmerge.CasMerge;
 import de.tudarmstadt.ukp.clarin.webanno.curation.storage.CurationDocumentService;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
@@ -97,6 +102,7 @@ public class SuggestionBuilder
     private final CurationDocumentService curationDocumentService;
     private final UserDao userRepository;
     private final CasStorageService casStorageService;
+    private final DiffResultCache diffResultCache;
 
     private int diffRangeBegin;
     private int diffRangeEnd;
@@ -105,6 +111,21 @@ public class SuggestionBuilder
             CorrectionDocumentService aCorrectionDocumentService,
             CurationDocumentService aCurationDocumentService,
             AnnotationSchemaService aAnnotationService, UserDao aUserDao)
+    {
+        this(aCasStorageService, aDocumentService, aCorrectionDocumentService,
+                aCurationDocumentService, aAnnotationService, aUserDao, null);
+    }
+
+    /**
+     * @param aDiffResultCache
+     *            cache used to avoid loading the annotator CASes and recalculating the differences
+     *            if the CASes have not changed. May be {@code null}.
+     */
+    public SuggestionBuilder(CasStorageService aCasStorageService, DocumentService aDocumentService,
+            CorrectionDocumentService aCorrectionDocumentService,
+            CurationDocumentService aCurationDocumentService,
+            AnnotationSchemaService aAnnotationService, UserDao aUserDao,
+            DiffResultCache aDiffResultCache)
     {
         documentService = aDocumentService;
         correctionDocumentService = aCorrectionDocumentService;
@@ -112,6 +133,7 @@ public class SuggestionBuilder
         schemaService = aAnnotationService;
         userRepository = aUserDao;
         casStorageService = aCasStorageService;
+        diffResultCache = aDiffResultCache;
     }
 
     public CurationContainer buildCurationContainer(AnnotatorState aState)
@@ -120,7 +142,7 @@ public class SuggestionBuilder
         CurationContainer curationContainer = new CurationContainer();
         // initialize Variables
         SourceDocument sourceDocument = aState.getDocument();
-        Map<Integer, Integer> segmentBeginEnd = new HashMap<>();
+        NavigableMap<Integer, Integer> segmentBeginEnd = new TreeMap<>();
         Map<Integer, Integer> segmentNumber = new HashMap<>();
         Map<String, Map<Integer, Integer>> segmentAdress = new HashMap<>();
         // get annotation documents
@@ -151,7 +173,11 @@ public class SuggestionBuilder
                     aState.getWindowEndOffset());
         }
         else {
-            casses = listCassesforCuration(finishedAnnotationDocuments, aState.getMode());
+            // The annotator CASes are only required here to initialize the curation CAS. Loading
+            // them for the difference calculation may not be necessary if the result is cached.
+            if (!curationDocumentService.existsCurationCas(sourceDocument)) {
+                casses = listCassesforCuration(finishedAnnotationDocuments, aState.getMode());
+            }
             mergeCas = getMergeCas(aState, sourceDocument, casses, randomAnnotationDocument, false,
                     false, false);
             updateSegment(aState, segmentBeginEnd, segmentNumber, segmentAdress, mergeCas,
@@ -170,18 +196,14 @@ public class SuggestionBuilder
 
         long diffStart = System.currentTimeMillis();
         log.debug("Calculating differences...");
-        int count = 0;
+        // Calculate the differences for the whole range at once and then split them up by
+        // sentence instead of calculating the differences for every sentence separately
+        Map<Integer, DiffResult> diffBySegment = getDiff(aState, finishedAnnotationDocuments,
+                casses, adapters).getResultsBySegment(segmentBeginEnd);
         for (Integer begin : segmentBeginEnd.keySet()) {
             Integer end = segmentBeginEnd.get(begin);
 
-            count++;
-            if (count % 100 == 0) {
-                log.debug("Processing differences: {} of {} sentences...", count,
-                        segmentBeginEnd.size());
-            }
-
-            DiffResult diff = doDiffSingle(adapters, LINK_ROLE_AS_LABEL, casses, begin, end)
-                    .toResult();
+            DiffResult diff = diffBySegment.get(begin);
 
             SourceListView curationSegment = new SourceListView();
             curationSegment.setBegin(begin);
@@ -227,6 +249,50 @@ public class SuggestionBuilder
         return curationContainer;
     }
 
+    /**
+     * Calculates the differences in the diff range or fetches them from the cache if the CASes
+     * have not changed since they were last calculated. If the CASes have not been loaded yet,
+     * they are only loaded if the differences need to be calculated.
+     */
+    private DiffResult getDiff(AnnotatorState aState,
+            List<AnnotationDocument> aFinishedAnnotationDocuments, Map<String, CAS> aCasses,
+            List<DiffAdapter> aAdapters)
+        throws UIMAException, ClassNotFoundException, IOException
+    {
+        Map<String, CAS> casses = aCasses;
+
+        DiffResultCacheKey cacheKey = null;
+        if (diffResultCache != null) {
+            List<String> users = new ArrayList<>(casses.keySet());
+            if (users.isEmpty()) {
+                for (AnnotationDocument annotationDocument : aFinishedAnnotationDocuments) {
+                    users.add(annotationDocument.getUser());
+                }
+            }
+
+            cacheKey = diffResultCache.createKey(aState.getDocument(), users, aAdapters,
+                    LINK_ROLE_AS_LABEL, diffRangeBegin, diffRangeEnd);
+            Optional<DiffResult> cachedResult = diffResultCache.get(cacheKey);
+            if (cachedResult.isPresent()) {
+                log.debug("Using cached differences");
+                return cachedResult.get();
+            }
+        }
+
+        if (casses.isEmpty()) {
+            casses = listCassesforCuration(aFinishedAnnotationDocuments, aState.getMode());
+        }
+
+        DiffResult result = doDiffSingle(aAdapters, LINK_ROLE_AS_LABEL, casses, diffRangeBegin,
+                diffRangeEnd).toResult();
+
+        if (cacheKey != null) {
+            diffResultCache.put(cacheKey, result);
+        }
+
+        return result;
+    }
+
     /**
      * Get a sentence at the end of an annotation
      */
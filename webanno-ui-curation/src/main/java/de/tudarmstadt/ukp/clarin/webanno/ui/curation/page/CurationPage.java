@@ -88,6 +88,7 @@ import de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.event.RenderAn
 import de.tudarmstadt.ukp.clarin.webanno.api.annotation.rendering.event.SelectionChangedEvent;
 import de.tudarmstadt.ukp.clarin.webanno.brat.annotation.BratAnnotationEditor;
 import de.tudarmstadt.ukp.clarin.webanno.constraints.ConstraintsService;
+import de.tudarmstadt.ukp.clarin.webanno.curation.casdiff.cache.DiffResultCache;
 import de.tudarmstadt.ukp.clarin.webanno.curation.storage.CurationDocumentService;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState;
@@ -133,6 +134,7 @@ public class CurationPage
     private @SpringBean ConstraintsService constraintsService;
     private @SpringBean AnnotationSchemaService annotationService;
     private @SpringBean UserDao userRepository;
+    private @SpringBean DiffResultCache diffResultCache;
 
     private long currentprojectId;
 
@@ -577,7 +579,7 @@ public class CurationPage
 
             SuggestionBuilder builder = new SuggestionBuilder(casStorageService, documentService,
                     correctionDocumentService, curationDocumentService, annotationService,
-                    userRepository);
+                    userRepository, diffResultCache);
             curationContainer = builder.buildCurationContainer(state);
             curationContainer.setState(state);
             editor.reset(aTarget);
@@ -630,8 +632,11 @@ public class CurationPage
         SuggestionBuilder cb = new SuggestionBuilder(casStorageService, documentService,
                 correctionDocumentService, curationDocumentService, annotationService,
                 userRepository);
-        Map<String, CAS> casses = cb.listCassesforCuration(finishedAnnotationDocuments,
-                state.getMode());
+        // The annotator CASes are only required if the curation CAS needs to be (re)created
+        Map<String, CAS> casses = new HashMap<>();
+        if (aForceRecreateCas || !curationDocumentService.existsCurationCas(state.getDocument())) {
+            casses = cb.listCassesforCuration(finishedAnnotationDocuments, state.getMode());
+        }
         CAS mergeCas = cb.getMergeCas(state, state.getDocument(), casses, randomAnnotationDocument,
                 true, aMergeIncompleteAnnotations, aForceRecreateCas);
         return mergeCas;
@@ -17,17 +17,15 @@
  */
 package de.tudarmstadt.ukp.clarin.webanno.ui.monitoring.page;
 
-import static de.tudarmstadt.ukp.clarin.webanno.api.CasUpgradeMode.AUTO_CAS_UPGRADE;
+import static de.tudarmstadt.ukp.clarin.webanno.agreement.task.AgreementTaskState.NOT_STARTED;
+import static de.tudarmstadt.ukp.clarin.webanno.agreement.task.AgreementTaskState.RUNNING;
 import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.PAGE_PARAM_PROJECT_ID;
-import static de.tudarmstadt.ukp.clarin.webanno.api.casstorage.CasAccessMode.SHARED_READ_ONLY_ACCESS;
-import static de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState.FINISHED;
-import static de.tudarmstadt.ukp.clarin.webanno.model.PermissionLevel.ANNOTATOR;
 import static de.tudarmstadt.ukp.clarin.webanno.support.lambda.LambdaBehavior.enabledWhen;
+import static java.util.Arrays.asList;
 
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -36,11 +34,8 @@ import java.util.stream.Collectors;
 
 import javax.persistence.NoResultException;
 
-import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.apache.commons.lang3.tuple.Pair;
 import org.apache.uima.cas.CAS;
-import org.apache.uima.cas.FeatureStructure;
-import org.apache.uima.fit.util.FSUtil;
 import org.apache.wicket.Component;
 import org.apache.wicket.ajax.AjaxRequestTarget;
 import org.apache.wicket.feedback.IFeedback;
@@ -62,26 +57,30 @@ import org.apache.wicket.util.string.StringValue;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.wicketstuff.annotation.mount.MountPath;
+import org.wicketstuff.progressbar.ProgressBar;
+import org.wicketstuff.progressbar.Progression;
+import org.wicketstuff.progressbar.ProgressionModel;
 
 import de.agilecoders.wicket.extensions.markup.html.bootstrap.form.select.BootstrapSelect;
-import de.tudarmstadt.ukp.clarin.webanno.agreement.measures.AgreementMeasure;
 import de.tudarmstadt.ukp.clarin.webanno.agreement.measures.AgreementMeasureSupport;
 import de.tudarmstadt.ukp.clarin.webanno.agreement.measures.AgreementMeasureSupportRegistry;
 import de.tudarmstadt.ukp.clarin.webanno.agreement.measures.DefaultAgreementTraits;
+import de.tudarmstadt.ukp.clarin.webanno.agreement.task.AgreementRequest;
+import de.tudarmstadt.ukp.clarin.webanno.agreement.task.AgreementService;
+import de.tudarmstadt.ukp.clarin.webanno.agreement.task.AgreementTaskHandle;
+import de.tudarmstadt.ukp.clarin.webanno.agreement.task.AgreementTaskMonitor;
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationSchemaService;
-import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
 import de.tudarmstadt.ukp.clarin.webanno.api.ProjectService;
 import de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst;
-import de.tudarmstadt.ukp.clarin.webanno.api.annotation.util.WebAnnoCasUtil;
-import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
 import de.tudarmstadt.ukp.clarin.webanno.model.Project;
-import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
 import de.tudarmstadt.ukp.clarin.webanno.security.UserDao;
 import de.tudarmstadt.ukp.clarin.webanno.security.model.User;
 import de.tudarmstadt.ukp.clarin.webanno.support.lambda.LambdaAjaxButton;
+import de.tudarmstadt.ukp.clarin.webanno.support.lambda.LambdaAjaxLink;
 import de.tudarmstadt.ukp.clarin.webanno.support.lambda.LambdaAjaxFormComponentUpdatingBehavior;
 import de.tudarmstadt.ukp.clarin.webanno.support.lambda.LambdaChoiceRenderer;
+import de.tudarmstadt.ukp.clarin.webanno.support.logging.LogMessage;
 import de.tudarmstadt.ukp.clarin.webanno.support.wicket.OverviewListChoice;
 import de.tudarmstadt.ukp.clarin.webanno.ui.core.page.ApplicationPageBase;
 import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
@@ -98,15 +97,16 @@ public class AgreementPage
     private static final String MID_TRAITS = "traits";
     private static final String MID_RESULTS = "results";
 
-    private @SpringBean DocumentService documentService;
     private @SpringBean ProjectService projectService;
     private @SpringBean AnnotationSchemaService annotationService;
     private @SpringBean UserDao userRepository;
     private @SpringBean AgreementMeasureSupportRegistry agreementRegistry;
+    private @SpringBean AgreementService agreementService;
 
     private ProjectSelectionForm projectSelectionForm;
     private AgreementForm agreementForm;
     private WebMarkupContainer resultsContainer;
+    private AgreementTaskHandle agreementTask;
 
     public AgreementPage()
     {
@@ -168,6 +168,10 @@ public class AgreementPage
 
         private final LambdaAjaxButton<Void> runCalculationsButton;
 
+        private final LambdaAjaxLink cancelButton;
+
+        private final ProgressBar progressBar;
+
         private final WebMarkupContainer traitsContainer;
 
         public AgreementForm(String id, IModel<AgreementFormModel> aModel)
@@ -225,7 +229,40 @@ public class AgreementPage
             measureDropDown.add(new LambdaAjaxFormComponentUpdatingBehavior("change",
                     _target -> _target.add(runCalculationsButton, traitsContainer)));
 
-            runCalculationsButton.add(enabledWhen(() -> measureDropDown.getModelObject() != null));
+            runCalculationsButton.add(enabledWhen(
+                () -> measureDropDown.getModelObject() != null && !isCalculationInProgress()));
+
+            add(cancelButton = new LambdaAjaxLink("cancel", this::actionCancel));
+            cancelButton.setOutputMarkupId(true);
+            cancelButton.add(enabledWhen(this::isCalculationInProgress));
+
+            add(progressBar = new ProgressBar("progress", new ProgressionModel()
+            {
+                private static final long serialVersionUID = -6379295193430284513L;
+
+                @Override
+                protected Progression getProgression()
+                {
+                    AgreementTaskMonitor monitor = agreementTask != null
+                            ? agreementService.getTaskMonitor(agreementTask)
+                            : null;
+                    if (monitor != null) {
+                        return new Progression(monitor.getProgress());
+                    }
+                    else {
+                        return new Progression(0, "Agreement calculation not started yet...");
+                    }
+                }
+            })
+            {
+                private static final long serialVersionUID = 2163929658440468604L;
+
+                @Override
+                protected void onFinished(AjaxRequestTarget aTarget)
+                {
+                    actionFinished(aTarget);
+                }
+            });
         }
 
         private void actionSelectFeature(AjaxRequestTarget aTarget)
@@ -244,7 +281,6 @@ public class AgreementPage
             aTarget.add(measureDropDown, runCalculationsButton, traitsContainer);
         }
 
-        @SuppressWarnings({ "rawtypes", "unchecked" })
         private void actionRunCalculations(AjaxRequestTarget aTarget, Form<?> aForm)
         {
             AnnotationFeature feature = featureList.getModelObject();
@@ -255,26 +291,86 @@ public class AgreementPage
                 return;
             }
 
-            AgreementMeasureSupport ams = agreementRegistry
-                    .getAgreementMeasureSupport(measureDropDown.getModelObject().getKey());
-
-            AgreementMeasure measure = ams.createMeasure(feature,
+            AgreementRequest request = new AgreementRequest(feature, measureHandle.getKey(),
                     (DefaultAgreementTraits) traitsContainer.get(MID_TRAITS)
                             .getDefaultModelObject());
 
-            Map<String, List<CAS>> casMap = getCasMap();
+            agreementTask = agreementService.startAgreementTask(request,
+                    userRepository.getCurrentUsername());
+
+            resultsContainer.addOrReplace(new EmptyPanel(MID_RESULTS));
+            aTarget.add(resultsContainer, runCalculationsButton, cancelButton);
+            progressBar.start(aTarget);
+        }
+
+        @SuppressWarnings({ "rawtypes", "unchecked" })
+        private void actionFinished(AjaxRequestTarget aTarget)
+        {
+            aTarget.add(runCalculationsButton, cancelButton);
+            aTarget.addChildren(getPage(), IFeedback.class);
+
+            AgreementTaskMonitor monitor = agreementService.getTaskMonitor(agreementTask);
+            AgreementRequest request = agreementService.getAgreementRequest(agreementTask);
+            if (monitor == null || request == null) {
+                error("Agreement calculation is no longer available");
+                agreementTask = null;
+                return;
+            }
 
-            if (casMap.values().stream().allMatch(list -> list == null || list.isEmpty())) {
-                error("No documents with annotations were found.");
-                aTarget.addChildren(getPage(), IFeedback.class);
+            while (!monitor.getMessages().isEmpty()) {
+                LogMessage msg = monitor.getMessages().poll();
+                switch (msg.getLevel()) {
+                case INFO:
+                    info(msg.getMessage());
+                    break;
+                case WARN:
+                    warn(msg.getMessage());
+                    break;
+                case ERROR:
+                    error(msg.getMessage());
+                    break;
+                default:
+                    error(msg.getMessage());
+                    break;
+                }
             }
-            else {
-                Serializable result = measure.getAgreement(casMap);
-                resultsContainer.addOrReplace(ams.createResultsPanel(MID_RESULTS, Model.of(result),
+
+            switch (monitor.getState()) {
+            case COMPLETED:
+                AgreementMeasureSupport ams = agreementRegistry
+                        .getAgreementMeasureSupport(request.getMeasure());
+                // The page only holds on to the task handle - the result itself stays on the
+                // server
+                resultsContainer.addOrReplace(ams.createResultsPanel(MID_RESULTS,
+                        LoadableDetachableModel.of(AgreementPage.this::getAgreementResult),
                         AgreementPage.this::getCasMap));
                 aTarget.add(resultsContainer);
+                break;
+            case FAILED:
+                error("Agreement calculation failed");
+                break;
+            case CANCELLED:
+                info("Agreement calculation cancelled");
+                break;
+            default:
+                error("Invalid agreement calculation state: " + monitor.getState());
             }
+        }
 
+        private void actionCancel(AjaxRequestTarget aTarget)
+        {
+            agreementService.cancelTask(agreementTask);
+            aTarget.add(cancelButton);
+        }
+
+        private boolean isCalculationInProgress()
+        {
+            if (agreementTask == null) {
+                return false;
+            }
+
+            AgreementTaskMonitor monitor = agreementService.getTaskMonitor(agreementTask);
+            return monitor != null && asList(NOT_STARTED, RUNNING).contains(monitor.getState());
         }
 
         List<Pair<String, String>> listMeasures()
@@ -383,93 +479,29 @@ public class AgreementPage
         }
     }
 
-    // The CASes cannot be serialized, so we make them transient here. However, it does not matter
-    // as we do not access the field directly but via getCases() which will re-load them if
-    // necessary, e.g. if the transient field is empty after a session is restored from a
-    // persisted state.
-    private transient Map<String, List<CAS>> cachedCASes;
-    private transient Project cachedProject;
-    private transient boolean cachedLimitToFinishedDocuments;
+    private Serializable getAgreementResult()
+    {
+        AgreementTaskMonitor monitor = agreementTask != null
+                ? agreementService.getTaskMonitor(agreementTask)
+                : null;
+        return monitor != null ? monitor.getResult() : null;
+    }
 
+    /**
+     * @return the CASes from which the current result was calculated. These are loaded again on
+     *         demand, e.g. when the user exports the data underlying the result.
+     */
     public Map<String, List<CAS>> getCasMap()
     {
-        if (agreementForm.featureList.getModelObject() == null) {
-            return Collections.emptyMap();
-        }
-
-        Project project = agreementForm.featureList.getModelObject().getProject();
-
-        DefaultAgreementTraits traits = (DefaultAgreementTraits) agreementForm.traitsContainer
-                .get(MID_TRAITS).getDefaultModelObject();
-
-        // Avoid reloading the CASes when switching features within the same project
-        if (cachedCASes != null && project.equals(cachedProject)
-                && cachedLimitToFinishedDocuments == traits.isLimitToFinishedDocuments()) {
-            return cachedCASes;
-        }
-
-        List<User> users = projectService.listProjectUsersWithPermissions(project, ANNOTATOR);
-
-        List<SourceDocument> sourceDocuments = documentService.listSourceDocuments(project);
-
-        cachedCASes = new LinkedHashMap<>();
-        for (User user : users) {
-            List<CAS> cases = new ArrayList<>();
+        AgreementRequest request = agreementTask != null
+                ? agreementService.getAgreementRequest(agreementTask)
+                : null;
 
-            // Bulk-fetch all source documents for which there is already an annotation document for
-            // the user which is faster then checking for their existence individually
-            List<SourceDocument> docsForUser = documentService
-                    .listAnnotationDocuments(project, user).stream()
-                    .map(AnnotationDocument::getDocument).distinct().collect(Collectors.toList());
-
-            nextDocument: for (SourceDocument document : sourceDocuments) {
-                CAS cas = null;
-
-                try {
-                    if (docsForUser.contains(document)) {
-                        AnnotationDocument annotationDocument = documentService
-                                .getAnnotationDocument(document, user);
-
-                        if (traits.isLimitToFinishedDocuments()
-                                && !annotationDocument.getState().equals(FINISHED)) {
-                            // Add a skip marker (null) for the current CAS to the CAS list - this
-                            // is necessary because we expect the CAS lists for all users to have
-                            // the same size
-                            cases.add(null);
-                            continue nextDocument;
-                        }
-                    }
-
-                    // Reads the user's annotation document or the initial source document -
-                    // depending on what is available
-                    cas = documentService.readAnnotationCas(document, user.getUsername(),
-                            AUTO_CAS_UPGRADE, SHARED_READ_ONLY_ACCESS);
-                }
-                catch (Exception e) {
-                    error("Unable to load data: " + ExceptionUtils.getRootCauseMessage(e));
-                    LOG.error("Unable to load data", e);
-                }
-
-                if (cas != null) {
-                    // Set the CAS name in the DocumentMetaData so that we can pick it
-                    // up in the Diff position for the purpose of debugging / transparency.
-                    FeatureStructure dmd = WebAnnoCasUtil.getDocumentMetadata(cas);
-                    FSUtil.setFeature(dmd, "documentId", document.getName());
-                    FSUtil.setFeature(dmd, "collectionId", document.getProject().getName());
-
-                }
-
-                // The next line can enter null values into the list if a user didn't work on this
-                // source document yet.
-                cases.add(cas);
-            }
-
-            cachedCASes.put(user.getUsername(), cases);
+        if (request == null) {
+            return Collections.emptyMap();
         }
 
-        cachedProject = project;
-        cachedLimitToFinishedDocuments = traits.isLimitToFinishedDocuments();
-
-        return cachedCASes;
+        return agreementService.loadCasMap(request.getProject(),
+                request.getTraits().isLimitToFinishedDocuments());
     }
 }
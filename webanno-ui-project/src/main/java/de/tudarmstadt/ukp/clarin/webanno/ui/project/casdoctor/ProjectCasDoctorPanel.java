@@ -17,6 +17,7 @@
  */
 package de.tudarmstadt.ukp.clarin.webanno.ui.project.casdoctor;
 
+import static de.tudarmstadt.ukp.clarin.webanno.api.CasUpgradeMode.NO_CAS_UPGRADE;
 import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.CORRECTION_USER;
 import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.CURATION_USER;
 import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.INITIAL_CAS_PSEUDO_USER;
@@ -30,9 +31,14 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+import org.apache.commons.lang3.tuple.Pair;
 import org.apache.uima.UIMAException;
 import org.apache.uima.cas.CAS;
 import org.apache.wicket.ajax.AjaxRequestTarget;
@@ -53,6 +59,7 @@ import de.tudarmstadt.ukp.clarin.webanno.api.CasStorageService;
 import de.tudarmstadt.ukp.clarin.webanno.api.DocumentService;
 import de.tudarmstadt.ukp.clarin.webanno.api.ImportExportService;
 import de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst;
+import de.tudarmstadt.ukp.clarin.webanno.api.casstorage.LoadedCas;
 import de.tudarmstadt.ukp.clarin.webanno.curation.storage.CurationDocumentService;
 import de.tudarmstadt.ukp.clarin.webanno.diag.CasDoctor;
 import de.tudarmstadt.ukp.clarin.webanno.diag.repairs.Repair;
@@ -285,98 +292,116 @@ public class ProjectCasDoctorPanel
 
         formModel.messageSets = new ArrayList<>();
 
-        for (SourceDocument sd : documentService.listSourceDocuments(project)) {
-            // Check INITIAL CAS
-            {
-                LogMessageSet messageSet = new LogMessageSet(sd.getName() + " [INITIAL]");
-
-                try {
-                    casStorageService.forceActionOnCas(sd, INITIAL_CAS_PSEUDO_USER,
-                            (doc, user) -> createOrReadInitialCasWithoutSaving(doc, messageSet),
-                            (cas) -> casDoctor.analyze(project, cas, messageSet.messages), //
-                            false);
-                }
-                catch (Exception e) {
-                    messageSet.messages.add(new LogMessage(getClass(), LogLevel.ERROR,
-                            "Error checking initial CAS for [" + sd.getName() + "]: "
-                                    + e.getMessage()));
-                    LOG.error("Error checking initial CAS for [{}]", sd.getName(), e);
-                }
+        List<SourceDocument> documents = documentService.listSourceDocuments(project);
 
-                noticeIfThereAreNoMessages(messageSet);
-                formModel.messageSets.add(messageSet);
+        // Determine which annotator CASes exist, then load the CASes of the correction user, the
+        // curator and the annotators in parallel ahead of checking them. The checks only read the
+        // CASes, so we use unmanaged copies which do not need to be released.
+        Map<SourceDocument, List<AnnotationDocument>> annDocsWithCas = new HashMap<>();
+        List<Pair<SourceDocument, String>> casRequests = new ArrayList<>();
+        for (SourceDocument sd : documents) {
+            if (WebAnnoConst.PROJECT_TYPE_CORRECTION.equals(project.getMode())) {
+                casRequests.add(Pair.of(sd, CORRECTION_USER));
             }
 
-            // Check CORRECTION_USER CAS if necessary
-            if (WebAnnoConst.PROJECT_TYPE_CORRECTION.equals(project.getMode())) {
-                LogMessageSet messageSet = new LogMessageSet(
-                        sd.getName() + " [" + CORRECTION_USER + "]");
-                try {
-                    casStorageService.forceActionOnCas(sd, CORRECTION_USER,
-                            (doc, user) -> casStorageService.readCas(doc, user,
-                                    UNMANAGED_NON_INITIALIZING_ACCESS),
-                            (cas) -> casDoctor.analyze(project, cas, messageSet.messages), //
-                            false);
-                }
-                catch (FileNotFoundException e) {
-                    // If there is no CAS for the correction user, then correction has not started
-                    // yet. This is not a problem, so we can ignore it. (REC: I wonder if this
-                    // assumption is correct in curation mode...)
-                    messageSet.messages.add(LogMessage.info(getClass(),
-                            "Correction seems to have not yet started."));
-                }
-                catch (Exception e) {
-                    messageSet.messages.add(new LogMessage(getClass(), LogLevel.ERROR,
-                            "Error checking annotations for [" + CORRECTION_USER + "] for ["
-                                    + sd.getName() + "]: " + e.getMessage()));
-                    LOG.error("Error checking annotations for [{}] for [{}]", CORRECTION_USER,
-                            sd.getName(), e);
-                }
+            casRequests.add(Pair.of(sd, CURATION_USER));
 
-                noticeIfThereAreNoMessages(messageSet);
-                formModel.messageSets.add(messageSet);
+            List<AnnotationDocument> annDocs = new ArrayList<>();
+            for (AnnotationDocument ad : documentService.listAnnotationDocuments(sd)) {
+                if (documentService.existsAnnotationCas(ad)) {
+                    annDocs.add(ad);
+                    casRequests.add(Pair.of(sd, ad.getUser()));
+                }
             }
+            annDocsWithCas.put(sd, annDocs);
+        }
 
-            // Check CURATION_USER CAS
-            {
-                LogMessageSet messageSet = new LogMessageSet(
-                        sd.getName() + " [" + CURATION_USER + "]");
-                try {
-                    casStorageService.forceActionOnCas(sd, CURATION_USER,
-                            (doc, user) -> casStorageService.readCas(doc, user,
-                                    UNMANAGED_NON_INITIALIZING_ACCESS),
-                            (cas) -> casDoctor.analyze(project, cas, messageSet.messages), //
-                            false);
-                }
-                catch (FileNotFoundException e) {
-                    // If there is no CAS for the curation user, then curation has not started yet.
-                    // This is not a problem, so we can ignore it.
-                    messageSet.messages.add(
-                            LogMessage.info(getClass(), "Curation seems to have not yet started."));
+        try (Stream<LoadedCas> cases = casStorageService.readCases(casRequests,
+                NO_CAS_UPGRADE, null, UNMANAGED_NON_INITIALIZING_ACCESS)) {
+            Iterator<LoadedCas> casIterator = cases.iterator();
+
+            for (SourceDocument sd : documents) {
+                // Check INITIAL CAS
+                {
+                    LogMessageSet messageSet = new LogMessageSet(sd.getName() + " [INITIAL]");
+
+                    try {
+                        casStorageService.forceActionOnCas(sd, INITIAL_CAS_PSEUDO_USER,
+                                (doc, user) -> createOrReadInitialCasWithoutSaving(doc, messageSet),
+                                (cas) -> casDoctor.analyze(project, cas, messageSet.messages), //
+                                false);
+                    }
+                    catch (Exception e) {
+                        messageSet.messages.add(new LogMessage(getClass(), LogLevel.ERROR,
+                                "Error checking initial CAS for [" + sd.getName() + "]: "
+                                        + e.getMessage()));
+                        LOG.error("Error checking initial CAS for [{}]", sd.getName(), e);
+                    }
+
+                    noticeIfThereAreNoMessages(messageSet);
+                    formModel.messageSets.add(messageSet);
                 }
-                catch (Exception e) {
-                    messageSet.messages.add(new LogMessage(getClass(), LogLevel.ERROR,
-                            "Error checking annotations for [" + CURATION_USER + "] for ["
-                                    + sd.getName() + "]: " + e.getMessage()));
-                    LOG.error("Error checking annotations for [{}] for [{}]", CURATION_USER,
-                            sd.getName(), e);
+
+                // Check CORRECTION_USER CAS if necessary
+                if (WebAnnoConst.PROJECT_TYPE_CORRECTION.equals(project.getMode())) {
+                    LogMessageSet messageSet = new LogMessageSet(
+                            sd.getName() + " [" + CORRECTION_USER + "]");
+                    try {
+                        casDoctor.analyze(project, casIterator.next().getCas(),
+                                messageSet.messages);
+                    }
+                    catch (FileNotFoundException e) {
+                        // If there is no CAS for the correction user, then correction has not
+                        // started yet. This is not a problem, so we can ignore it. (REC: I wonder
+                        // if this assumption is correct in curation mode...)
+                        messageSet.messages.add(LogMessage.info(getClass(),
+                                "Correction seems to have not yet started."));
+                    }
+                    catch (Exception e) {
+                        messageSet.messages.add(new LogMessage(getClass(), LogLevel.ERROR,
+                                "Error checking annotations for [" + CORRECTION_USER + "] for ["
+                                        + sd.getName() + "]: " + e.getMessage()));
+                        LOG.error("Error checking annotations for [{}] for [{}]", CORRECTION_USER,
+                                sd.getName(), e);
+                    }
+
+                    noticeIfThereAreNoMessages(messageSet);
+                    formModel.messageSets.add(messageSet);
                 }
 
-                noticeIfThereAreNoMessages(messageSet);
-                formModel.messageSets.add(messageSet);
-            }
+                // Check CURATION_USER CAS
+                {
+                    LogMessageSet messageSet = new LogMessageSet(
+                            sd.getName() + " [" + CURATION_USER + "]");
+                    try {
+                        casDoctor.analyze(project, casIterator.next().getCas(),
+                                messageSet.messages);
+                    }
+                    catch (FileNotFoundException e) {
+                        // If there is no CAS for the curation user, then curation has not started
+                        // yet. This is not a problem, so we can ignore it.
+                        messageSet.messages.add(LogMessage.info(getClass(),
+                                "Curation seems to have not yet started."));
+                    }
+                    catch (Exception e) {
+                        messageSet.messages.add(new LogMessage(getClass(), LogLevel.ERROR,
+                                "Error checking annotations for [" + CURATION_USER + "] for ["
+                                        + sd.getName() + "]: " + e.getMessage()));
+                        LOG.error("Error checking annotations for [{}] for [{}]", CURATION_USER,
+                                sd.getName(), e);
+                    }
 
-            // Check regular annotator CASes
-            for (AnnotationDocument ad : documentService.listAnnotationDocuments(sd)) {
-                if (documentService.existsAnnotationCas(ad)) {
+                    noticeIfThereAreNoMessages(messageSet);
+                    formModel.messageSets.add(messageSet);
+                }
+
+                // Check regular annotator CASes
+                for (AnnotationDocument ad : annDocsWithCas.get(sd)) {
                     LogMessageSet messageSet = new LogMessageSet(
                             sd.getName() + " [" + ad.getUser() + "]");
                     try {
-                        casStorageService.forceActionOnCas(ad.getDocument(), ad.getUser(),
-                                (doc, user) -> casStorageService.readCas(doc, user,
-                                        UNMANAGED_NON_INITIALIZING_ACCESS),
-                                (cas) -> casDoctor.analyze(project, cas, messageSet.messages), //
-                                false);
+                        casDoctor.analyze(project, casIterator.next().getCas(),
+                                messageSet.messages);
                     }
                     catch (Exception e) {
                         messageSet.messages.add(new LogMessage(getClass(), LogLevel.ERROR,